@@ -17,9 +17,21 @@
 
 package com.amazonaws.samples.taxi.kaja.replay;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -31,16 +43,42 @@ import org.slf4j.LoggerFactory;
 
 import com.amazonaws.regions.Regions;
 import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
-import com.amazonaws.samples.taxi.kaja.replay.utils.BackpressureSemaphore;
+import com.amazonaws.samples.taxi.kaja.replay.utils.AdaptiveBackpressure;
+import com.amazonaws.samples.taxi.kaja.replay.utils.Decompressor;
+import com.amazonaws.samples.taxi.kaja.replay.utils.DriverSimulator;
 import com.amazonaws.samples.taxi.kaja.replay.utils.EventBuffer;
 import com.amazonaws.samples.taxi.kaja.replay.utils.EventReader;
+import com.amazonaws.samples.taxi.kaja.replay.utils.EventSink;
+import com.amazonaws.samples.taxi.kaja.replay.utils.EventSinks;
+import com.amazonaws.samples.taxi.kaja.replay.utils.EventSource;
+import com.amazonaws.samples.taxi.kaja.replay.utils.KinesisSink;
+import com.amazonaws.samples.taxi.kaja.replay.utils.LatencyHistogram;
+import com.amazonaws.samples.taxi.kaja.replay.utils.LocalObjectDownloader;
+import com.amazonaws.samples.taxi.kaja.replay.utils.MetricsServer;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ObjectDownloader;
+import com.amazonaws.samples.taxi.kaja.replay.utils.PartitionKey;
+import com.amazonaws.samples.taxi.kaja.replay.utils.Partitioner;
+import com.amazonaws.samples.taxi.kaja.replay.utils.Partitioners;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ReplayCheckpoint;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ReplayCoordinator;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ReplayMetrics;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ReplayWorker;
+import com.amazonaws.samples.taxi.kaja.replay.utils.SendStage;
+import com.amazonaws.samples.taxi.kaja.replay.utils.ShardShaper;
+import com.amazonaws.samples.taxi.kaja.replay.utils.SnapshotReader;
+import com.amazonaws.samples.taxi.kaja.replay.utils.SnapshotWriter;
+import com.amazonaws.samples.taxi.kaja.replay.utils.TickDispatcher;
+import com.amazonaws.samples.taxi.kaja.replay.utils.TimeIndex;
+import com.amazonaws.samples.taxi.kaja.replay.utils.TimestampTracker;
 import com.amazonaws.samples.taxi.kaja.replay.utils.WatermarkGenerator;
-import com.amazonaws.services.kinesis.producer.KinesisProducer;
-import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
 import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
 import software.amazon.awssdk.services.s3.S3Client;
 
 
@@ -50,77 +88,224 @@ public class StreamPopulator {
 	private static final String DEFAULT_REGION_NAME = Regions.getCurrentRegion()==null ? "us-east-1" : Regions.getCurrentRegion().getName();
 
 
-	private final String streamName;
-	private final String bucketName;
-	private final String objectPrefix;
+	private final String sourceName;
 	private final long statisticsFrequencyMillies;
 	private final EventBuffer eventBuffer;
 	private final WatermarkGenerator watermarkGenerator;
-	private final int maxOutstandingRecords;
-	private final KinesisProducer kinesisProducer;
-	private final BackpressureSemaphore<UserRecordResult> backpressureSemaphore;
-
-	public StreamPopulator(String bucketRegion,
-			String bucketName,
-			String objectPrefix,
+	private final long tickMillis;
+	private final int maxBatchSize;
+	private final TimestampTracker timestampTracker;
+	private final SendStage sendStage;
+	private final EventSink sink;
+	private final AdaptiveBackpressure backpressure;
+	private final ShardShaper shardShaper;
+
+	private final LongAdder sentEvents = new LongAdder();
+	private final LongAdder sentBytes = new LongAdder();
+	private final LongAdder failedEvents = new LongAdder();
+
+	private final ReplayMetrics metrics = new ReplayMetrics();
+	private final LatencyHistogram schedulingLateness;
+	private final LatencyHistogram sendLatency;
+	private final MetricsServer metricsServer;
+	private volatile TickDispatcher dispatcher;
+	private volatile long dispatchedTimestamp;
+
+	private boolean unthrottled;
+	private ReplayWorker worker;
+
+	private Path checkpointFile;
+	private long checkpointIntervalMillis;
+
+	public StreamPopulator(EventSource eventSource,
+			String sourceName,
+			EventSink sink,
 			String streamRegion,
-			String streamName,
-			boolean aggregate,
-			String timestampAttributeName,
-			float speedupFactor,
 			long statisticsFrequencyMillies,
 			boolean noWatermark,
-			Instant seekToEpoch,
 			int bufferSize,
+			int bufferMemory,
+			int reorderWindow,
+			long tickMillis,
+			int maxBatchSize,
+			int sendThreads,
+			int sendQueueSize,
+			Partitioner partitioner,
+			int minOutstandingRecords,
 			int maxOutstandingRecords,
-			boolean noKinesis) {
+			long targetLatencyMillis,
+			int shardRecordsPerSecond,
+			int shardBytesPerSecond,
+			long maxShapingDelayMillis,
+			int metricsPort) throws IOException {
+
+		this.tickMillis = tickMillis;
+		this.maxBatchSize = maxBatchSize;
+		this.sink = sink;
+		this.sourceName = sourceName;
+		this.statisticsFrequencyMillies = statisticsFrequencyMillies;
 
-		final S3Client s3 = S3Client.builder().region(Region.of(bucketRegion)).build();
+		// watermarks and shard limits only apply to a kinesis stream
+		KinesisSink kinesisSink = sink instanceof KinesisSink ? (KinesisSink)sink : null;
 
-		this.maxOutstandingRecords = maxOutstandingRecords;
-		this.streamName = streamName;
-		this.bucketName = bucketName;
-		this.objectPrefix = objectPrefix;
-		this.statisticsFrequencyMillies = statisticsFrequencyMillies;
+		eventBuffer = new EventBuffer(eventSource, bufferSize, bufferMemory, reorderWindow);
+		eventBuffer.start();
 
-		if (noKinesis) {
-			this.kinesisProducer = null;
+		if (!noWatermark && kinesisSink != null) {
+			watermarkGenerator = new WatermarkGenerator(Region.of(streamRegion), kinesisSink.getStreamName());
+
+			watermarkGenerator.start();
 		} else {
-			KinesisProducerConfiguration producerConfiguration = new KinesisProducerConfiguration()
-				.setRegion(streamRegion)
-				.setRecordTtl(60_000)
-				.setThreadingModel(KinesisProducerConfiguration.ThreadingModel.POOLED)
-				.setAggregationEnabled(aggregate);
+			watermarkGenerator = null;
+		}
+
+		if (kinesisSink != null && (shardRecordsPerSecond > 0 || shardBytesPerSecond > 0)) {
+			// aggregated user records don't count against the record limit of a shard
+			shardShaper = new ShardShaper(kinesisSink.isAggregated() ? 0 : shardRecordsPerSecond, shardBytesPerSecond, maxShapingDelayMillis);
 
-			this.kinesisProducer = new KinesisProducer(producerConfiguration);
+			if (watermarkGenerator != null) {
+				watermarkGenerator.addShardListener(shardShaper::setShards);
+			} else {
+				try (KinesisClient kinesisClient = KinesisClient.builder().region(Region.of(streamRegion)).build()) {
+					shardShaper.setShards(WatermarkGenerator.listOpenShards(kinesisClient, kinesisSink.getStreamName()));
+				}
+			}
+		} else {
+			shardShaper = null;
 		}
 
-		EventReader eventReader = new EventReader(s3, bucketName, objectPrefix, speedupFactor, timestampAttributeName);
-		if (seekToEpoch != null) {
-			eventReader.seek(seekToEpoch);
+		if (maxOutstandingRecords > 0) {
+			this.backpressure = new AdaptiveBackpressure(minOutstandingRecords, maxOutstandingRecords, targetLatencyMillis);
+
+			registerMBean(backpressure, "AdaptiveBackpressure");
+		} else {
+			this.backpressure = null;
 		}
 
-		eventBuffer = new EventBuffer(eventReader, bufferSize);
-		eventBuffer.start();
+		// completions are tracked without watermarks as well, a worker of a distributed replay reports them to the coordinator
+		this.timestampTracker = watermarkGenerator != null ? watermarkGenerator.getTimestampTracker() : new TimestampTracker();
 
-		if (!noWatermark) {
-			watermarkGenerator = new WatermarkGenerator(Region.of(streamRegion), streamName);
+		// events that wait in the queue of a send thread hold back watermarks from the time they get their sequence number
+		this.sendStage = new SendStage(sendThreads, sendQueueSize, partitioner, timestampTracker::nextSequence, this::ingestEvent, this::dropEvent);
 
-			watermarkGenerator.start();
+		this.schedulingLateness = metrics.histogram("replay_scheduling_lateness_seconds", "Time events are dispatched after their ingestion time.");
+		this.sendLatency = metrics.histogram("replay_send_latency_seconds", "Time from handing an event to the sink until it has been sent, including delays for saturated shards.");
+		eventBuffer.setDwellTimeHistogram(metrics.histogram("replay_buffer_dwell_seconds", "Time events spend in the buffer."));
+		registerMetrics();
+		registerMBean(metrics, "ReplayMetrics");
+
+		if (metricsPort > 0) {
+			metricsServer = new MetricsServer(metrics, metricsPort);
+			metricsServer.start();
 		} else {
-			watermarkGenerator = null;
+			metricsServer = null;
 		}
+	}
 
-		if (maxOutstandingRecords > 0) {
-			this.backpressureSemaphore = new BackpressureSemaphore<>(maxOutstandingRecords);
-		} else {
-			this.backpressureSemaphore = null;
+	private void registerMetrics() {
+		metrics.gauge("replay_buffer_events", "Events in the buffer.", eventBuffer::size);
+		metrics.gauge("replay_lag_seconds", "Time the replay lags behind the ingestion time of the events.", () -> {
+			TickDispatcher d = dispatcher;
+			return d == null ? 0 : d.getLag().toMillis() / 1e3;
+		});
+		metrics.counter("replay_read_events_total", "Events read from the source.", eventBuffer::getReadEvents);
+		metrics.counter("replay_parsed_records_total", "Records parsed into events.", ReplayMetrics.PARSED_RECORDS::sum);
+		metrics.counter("replay_discarded_records_total", "Records and events that have been discarded as invalid or too large.",
+			() -> ReplayMetrics.DISCARDED_RECORDS.sum() + eventBuffer.getDiscardedEvents());
+		metrics.counter("replay_sent_events_total", "Events that have been sent.", sentEvents::sum);
+		metrics.counter("replay_sent_bytes_total", "Payload bytes of the events that have been sent.", sentBytes::sum);
+		metrics.counter("replay_failed_events_total", "Events that failed to be sent.", failedEvents::sum);
+
+		if (backpressure != null) {
+			metrics.gauge("replay_in_flight_events", "Events that have been handed to the sink and have not completed yet.", backpressure::getInFlight);
+			metrics.gauge("replay_in_flight_limit", "Adaptive limit of the events in flight.", backpressure::getLimit);
+			metrics.counter("replay_retried_events_total", "Events that needed more than one attempt.", backpressure::getRetriedRecords);
+		}
+		if (shardShaper != null) {
+			metrics.counter("replay_delayed_events_total", "Events that have been delayed for saturated shards.", shardShaper::getDelayedRecords);
+		}
+		if (watermarkGenerator != null) {
+			metrics.gauge("replay_watermark_lag_seconds", "Event time of the last dispatched event minus the watermark of the shard.", "shard", () -> {
+				Map<String, Double> lags = new TreeMap<>();
+				long dispatched = dispatchedTimestamp;
+				for (Map.Entry<String, Instant> watermark : watermarkGenerator.getWatermarks().entrySet()) {
+					// shards that haven't received events yet have no watermark
+					if (watermark.getValue().equals(Instant.EPOCH)) {
+						continue;
+					}
+					lags.put(watermark.getKey(), Math.max(0, dispatched - watermark.getValue().toEpochMilli()) / 1e3);
+				}
+				return lags;
+			});
+		}
+	}
+
+	/**
+	 * Periodically write the timestamp before which all events have been sent, the checkpoint is deleted once the replay completes.
+	 */
+	public void setCheckpoint(Path checkpointFile, long checkpointIntervalMillis) {
+		this.checkpointFile = checkpointFile;
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+
+	/**
+	 * Replay the events as fast as the sink accepts them, the rate is only bounded by the backpressure of the sink and the shard limits.
+	 *
+	 * @param watermarkIntervalMillis event time between two watermarks
+	 */
+	public void setUnthrottled(long watermarkIntervalMillis) {
+		this.unthrottled = true;
+
+		if (watermarkGenerator != null) {
+			watermarkGenerator.setEventTimeInterval(watermarkIntervalMillis);
+		}
+	}
+
+	/**
+	 * Report the progress of the replay to the coordinator of a distributed replay, which sends the global watermark instead of this
+	 * replay.
+	 */
+	public void setWorker(ReplayWorker worker) {
+		this.worker = worker;
+
+		if (watermarkGenerator != null) {
+			watermarkGenerator.disableWatermarks();
+		}
+	}
+
+	/**
+	 * @return the timestamp before which all events have been sent or dropped, Long.MIN_VALUE if no event has completed yet
+	 */
+	private long completedTimestamp() {
+		return timestampTracker.getCompletedTimestamp();
+	}
+
+	/**
+	 * @param sentTimestamp all events before the timestamp have been sent
+	 */
+	private void writeCheckpoint(Instant sentTimestamp) {
+		ReplayCheckpoint checkpoint = new ReplayCheckpoint(sentTimestamp);
+		try {
+			checkpoint.write(checkpointFile);
+			LOG.debug("wrote checkpoint {}", checkpoint);
+		} catch (IOException e) {
+			LOG.warn("failed to write checkpoint {}", checkpointFile, e);
+		}
+	}
+
+	private static void registerMBean(Object mbean, String type) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName("com.amazonaws.samples.taxi.kaja.replay:type=" + type));
+		} catch (JMException e) {
+			LOG.warn("failed to register {} metrics", type, e);
 		}
 	}
 
 
 	private void populate() {
 		long statisticsBatchEventCount = 0;
+		long statisticsSentEvents = 0;
+		long statisticsSentBytes = 0;
 
 		try {
 			LOG.info("populating internal event buffer");
@@ -130,28 +315,34 @@ public class StreamPopulator {
 			JsonEvent event = eventBuffer.peek();
 
 			if (event == null) {
-				LOG.error("didn't find any events to replay in s3://{}/{}", bucketName, objectPrefix);
+				LOG.error("didn't find any events to replay in {}", sourceName);
 				return;
 			}
 
-			LOG.info("starting to ingest events into stream {}", streamName);
+			LOG.info("starting to ingest events into {}", sink);
 
-			long lastStatisticsTime = System.currentTimeMillis();
-			do {
-				event = eventBuffer.take();
+			if (worker != null) {
+				worker.startReporting(this::completedTimestamp);
+			}
 
-				Duration replayTimeGap = Duration.between(event.ingestionTime, Instant.now());
+			TickDispatcher dispatcher = new TickDispatcher(eventBuffer, tickMillis, maxBatchSize, unthrottled);
+			this.dispatcher = dispatcher;
 
-				if (replayTimeGap.isNegative()) {
-					if (replayTimeGap.toMillis() < -30000) {
-						LOG.info("sleep {} ms for ingestion time {} > {}", replayTimeGap, event.ingestionTime, Instant.now());
+			long lastStatisticsTime = System.currentTimeMillis();
+			long lastCheckpointTime = lastStatisticsTime;
+			for (List<JsonEvent> batch; (batch = dispatcher.nextBatch()) != null; ) {
+				if (!unthrottled) {
+					long now = System.currentTimeMillis();
+					for (int i = 0; i < batch.size(); i++) {
+						schedulingLateness.recordMicros((now - batch.get(i).ingestionTime.toEpochMilli()) * 1000);
 					}
-					Thread.sleep(-replayTimeGap.toMillis());
 				}
 
-				ingestEvent(event);
+				sendStage.dispatch(batch);
+				event = batch.get(batch.size() - 1);
+				dispatchedTimestamp = event.timestamp.toEpochMilli();
 
-				statisticsBatchEventCount++;
+				statisticsBatchEventCount += batch.size();
 
 				// output statistics every statisticsFrequencyMillies ms
 				if (System.currentTimeMillis() - lastStatisticsTime > statisticsFrequencyMillies) {
@@ -161,18 +352,49 @@ public class StreamPopulator {
 					if (watermarkGenerator != null) {
 						watermarkTime = watermarkGenerator.getMinWatermark();
 					} else {
-						watermarkTime = eventBuffer.peek().timestamp;
+						JsonEvent next = eventBuffer.peek();
+						watermarkTime = next == null ? event.timestamp : next.timestamp;
 					}
 
 					LOG.info("all events with timestamp until {} have been sent ({} events/sec, {} replay lag)",
-							watermarkTime, statisticsBatchEventRate, Duration.ofSeconds(replayTimeGap.getSeconds()));
+							watermarkTime, statisticsBatchEventRate, Duration.ofSeconds(dispatcher.getLag().getSeconds()));
+
+					long events = sentEvents.sum();
+					long bytes = sentBytes.sum();
+					LOG.info("{} sent {} events/sec ({} KB/sec), {} events failed", sink,
+							Math.round(1000.0 * (events - statisticsSentEvents) / statisticsFrequencyMillies),
+							Math.round(1000.0 * (bytes - statisticsSentBytes) / 1024 / statisticsFrequencyMillies), failedEvents.sum());
+					statisticsSentEvents = events;
+					statisticsSentBytes = bytes;
+
+					if (backpressure != null) {
+						LOG.info("{} of {} records in flight ({} ms latency, {} retried, {} failed records)",
+								backpressure.getInFlight(), backpressure.getLimit(), Math.round(backpressure.getLatencyMillis()),
+								backpressure.getRetriedRecords(), backpressure.getFailedRecords());
+					}
+					if (shardShaper != null) {
+						LOG.info("{} records have been delayed for saturated shards", shardShaper.getDelayedRecords());
+					}
 
 					statisticsBatchEventCount = 0;
 					lastStatisticsTime = System.currentTimeMillis();
 				}
-			} while (eventBuffer.hasNext());
+
+				if (checkpointFile != null && System.currentTimeMillis() - lastCheckpointTime >= checkpointIntervalMillis) {
+					long completed = completedTimestamp();
+					if (completed > 0) {
+						writeCheckpoint(Instant.ofEpochMilli(completed));
+					}
+
+					lastCheckpointTime = System.currentTimeMillis();
+				}
+			}
 
 			LOG.info("all events have been sent");
+
+			if (checkpointFile != null) {
+				Files.deleteIfExists(checkpointFile);
+			}
 		} catch (InterruptedException e) {
 			LOG.warn("interrupted");
 		} catch (Throwable e) {
@@ -180,59 +402,233 @@ public class StreamPopulator {
 		} finally {
 			eventBuffer.interrupt();
 
+			try {
+				sendStage.close();
+			} catch (InterruptedException e) {
+				LOG.warn("interrupted while sending the remaining events");
+			}
+
+			if (shardShaper != null) {
+				try {
+					shardShaper.close();
+				} catch (InterruptedException e) {
+					LOG.warn("interrupted while sending the delayed events");
+				}
+			}
+
 			if (watermarkGenerator != null) {
 				watermarkGenerator.interrupt();
 			}
 
-			if (kinesisProducer != null) {
-				kinesisProducer.flushSync();
-				kinesisProducer.destroy();
+			try {
+				sink.close();
+			} catch (IOException e) {
+				LOG.warn("failed to close {}", sink, e);
+			}
+
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
+
+			if (worker != null) {
+				try {
+					worker.finish();
+				} catch (IOException e) {
+					LOG.warn("failed to report the end of the replay to the coordinator", e);
+				}
 			}
 		}
 
-		LOG.info("populate complete");
+		LOG.info("populate complete, {} events ({} bytes) sent, {} events failed", sentEvents.sum(), sentBytes.sum(), failedEvents.sum());
 	}
 
-	private long traceCount;
-	private void ingestEvent(JsonEvent event) {
-		if (kinesisProducer == null) {
-			traceCount++;
-			LOG.info("[{}] add event: {}", traceCount, event.timestamp);
-			return;
+	private void ingestEvent(JsonEvent event, PartitionKey key, long sequence) {
+		LOG.debug("add event to {}: {}", sink, event);
+
+		//queue the next event for ingestion to the sink
+		final long start = System.nanoTime();
+		ListenableFuture<UserRecordResult> f;
+		long delay = shardShaper == null ? 0 : shardShaper.reserve(key, event.size() + key.partitionKey.length());
+		if (delay > 0) {
+			//the shard of the event is saturated, send it later without holding up the events for other shards
+			f = shardShaper.schedule(() -> sink.send(event, key), delay);
+		} else {
+			try {
+				f = sink.send(event, key);
+			} catch (RuntimeException e) {
+				//the event is dropped, it must still complete to not hold back the watermarks
+				LOG.warn("failed to send event {}", event.timestamp, e);
+				f = Futures.immediateFailedFuture(e);
+			}
 		}
 
-		LOG.debug("add event to kinesis: {}", event);
-		
-		//queue the next event for ingestion to the Kinesis stream through the KPL
-		ListenableFuture<UserRecordResult> f = kinesisProducer.addUserRecord(streamName, Integer.toString(event.hashCode()), event.toByteBuffer());
+		final int size = event.size();
+		Futures.addCallback(f, new FutureCallback<UserRecordResult>() {
+			@Override
+			public void onSuccess(UserRecordResult result) {
+				sendLatency.recordNanos(System.nanoTime() - start);
+				sentEvents.increment();
+				sentBytes.add(size);
+			}
 
-		if (watermarkGenerator != null) {
-			//monitor if the event has actually been sent and adapt the largest possible watermark value accordingly
-			watermarkGenerator.trackTimestamp(f, event);
+			@Override
+			public void onFailure(Throwable t) {
+				failedEvents.increment();
+			}
+		}, MoreExecutors.directExecutor());
+
+		//monitor if the event has actually been sent and adapt the largest possible watermark value accordingly
+		timestampTracker.trackTimestamp(f, event, sequence);
+
+		if (backpressure != null) {
+			//block if too many events are in flight, the limit adapts to how fast the stream accepts them
+			try {
+				backpressure.acquire(f, start);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Complete the sequence number of an event that failed before it has been handed to the sink.
+	 */
+	private void dropEvent(JsonEvent event, long sequence, RuntimeException e) {
+		failedEvents.increment();
+
+		timestampTracker.trackTimestamp(Futures.immediateFailedFuture(e), event, sequence);
+	}
+
+	private static ObjectDownloader createDownloader(CommandLine line) {
+		String bucketName = line.getOptionValue("bucketName", "nyc-tlc");
+		if (LocalObjectDownloader.isLocal(bucketName)) {
+			return new LocalObjectDownloader(LocalObjectDownloader.directoryOf(bucketName),
+				new Decompressor(Integer.parseInt(line.getOptionValue("decompressionThreads", "0"))));
+		}
+
+		final S3Client s3 = S3Client.builder().region(Region.of(line.getOptionValue("bucketRegion", "us-east-1"))).build();
+
+		return new ObjectDownloader(s3,
+			Integer.parseInt(line.getOptionValue("downloadThreads", "0")),
+			Integer.parseInt(line.getOptionValue("downloadChunkSize", "8")) * 1024 * 1024,
+			Long.parseLong(line.getOptionValue("downloadMemory", "64")) * 1024 * 1024,
+			new Decompressor(Integer.parseInt(line.getOptionValue("decompressionThreads", "0"))));
+	}
+
+	/**
+	 * Create the source of the events to replay, either a snapshot or the objects in the S3 bucket.
+	 *
+	 * @param timeIndex sparse index of the objects to seek with, may be null
+	 * @param checkpoint the checkpoint to resume at instead of -seek, may be null
+	 * @param worker assigns the share of the events and the speedup of a distributed replay, may be null
+	 */
+	private static EventSource createEventSource(CommandLine line, TimeIndex timeIndex, ReplayCheckpoint checkpoint, ReplayWorker worker) throws IOException {
+		float speedupFactor = worker != null ? worker.getSpeedupFactor() : Float.parseFloat(line.getOptionValue("speedup", "3600"));
+
+		EventSource eventSource;
+		if (line.hasOption("snapshot")) {
+			SnapshotReader snapshotReader = new SnapshotReader(Paths.get(line.getOptionValue("snapshot")), speedupFactor);
+			if (worker != null) {
+				snapshotReader.setPartition(worker.getIndex(), worker.getWorkers());
+			}
+
+			eventSource = snapshotReader;
+		} else {
+			EventReader eventReader = new EventReader(createDownloader(line),
+				line.getOptionValue("bucketName", "nyc-tlc"),
+				objectPrefix(line),
+				speedupFactor,
+				line.getOptionValue("timestampAttributeName", "pickup_datetime"),
+				Integer.parseInt(line.getOptionValue("readerThreads", "1")),
+				Integer.parseInt(line.getOptionValue("objectQueueSize", "10000")));
+			eventReader.setTimeIndex(timeIndex);
+			eventReader.setParseThreads(Integer.parseInt(line.getOptionValue("parseThreads", "0")));
+			eventReader.setAmplification(Integer.parseInt(line.getOptionValue("amplify", "1")),
+				Long.parseLong(line.getOptionValue("amplifyJitter", "30")) * 1000);
+			if (worker != null) {
+				eventReader.setPartition(worker.getIndex(), worker.getWorkers());
+			}
+
+			eventSource = eventReader;
+		}
+
+		if (checkpoint != null) {
+			LOG.info("resuming at checkpoint {}", checkpoint);
+			eventSource.seek(checkpoint.timestamp);
+		} else if (line.hasOption("seek")) {
+			eventSource.seek(Instant.parse(line.getOptionValue("seek")));
+		}
+
+		if (line.hasOption("simulateDrivers")) {
+			DriverSimulator driverSimulator = new DriverSimulator(eventSource, speedupFactor, Long.parseLong(line.getOptionValue("pingInterval", "4000")));
+			if (worker != null) {
+				driverSimulator.setPartition(worker.getIndex(), worker.getWorkers());
+			}
+
+			eventSource = driverSimulator;
+		}
+
+		return eventSource;
+	}
+
+	/**
+	 * Coordinate the workers of a distributed replay until all of them have finished and send their global watermark to the stream.
+	 */
+	private static void coordinate(CommandLine line) throws IOException {
+		ReplayCoordinator coordinator = new ReplayCoordinator(Integer.parseInt(line.getOptionValue("coordinatorPort", "8700")),
+			Integer.parseInt(line.getOptionValue("coordinate")),
+			Float.parseFloat(line.getOptionValue("speedup", "3600")),
+			Long.parseLong(line.getOptionValue("startDelay", "5000")));
+		coordinator.start();
+
+		WatermarkGenerator watermarkGenerator = null;
+		if (!line.hasOption("noWatermark") && !line.hasOption("noKinesis") && EventSinks.KINESIS.equals(line.getOptionValue("sink", EventSinks.KINESIS))) {
+			watermarkGenerator = new WatermarkGenerator(Region.of(line.getOptionValue("streamRegion", DEFAULT_REGION_NAME)),
+				line.getOptionValue("streamName", "taxi-trip-events"));
+			watermarkGenerator.setWatermarkSource(coordinator::getGlobalWatermark);
+			watermarkGenerator.start();
+		}
+
+		try {
+			coordinator.awaitCompletion();
+			LOG.info("all workers have finished, all events with timestamp until {} have been sent", coordinator.getGlobalWatermark());
+
+			if (watermarkGenerator != null) {
+				// give the watermark generator another round to send the final watermark
+				Thread.sleep(2_000);
+			}
+		} catch (InterruptedException e) {
+			LOG.warn("interrupted");
+		} finally {
+			if (watermarkGenerator != null) {
+				watermarkGenerator.interrupt();
+			}
+			coordinator.stop();
 		}
+	}
 
-		if (backpressureSemaphore != null) {
-			//block if too many events are buffered locally
-			backpressureSemaphore.acquire(f);
+	private static String sourceName(CommandLine line) {
+		if (line.hasOption("snapshot")) {
+			return line.getOptionValue("snapshot");
+		}
+		String bucketName = line.getOptionValue("bucketName", "nyc-tlc");
+		if (LocalObjectDownloader.isLocal(bucketName)) {
+			return bucketName + "/" + objectPrefix(line);
 		}
+		return "s3://" + bucketName + "/" + objectPrefix(line);
+	}
 
-//		int outstandingRecords = kinesisProducer.getOutstandingRecordsCount();
-//		if (maxOutstandingRecords > 0 && outstandingRecords > maxOutstandingRecords) {
-//			int sec = maxOutstandingRecords / outstandingRecords;
-//
-//			LOG.debug("sleep {} seconds for too many events are buffered locally", sec);
-//
-//			try {
-//				Thread.sleep(1000 * sec);
-//			} catch (InterruptedException e) {
-//			}
-//		}
+	/**
+	 * @return the prefix of the objects to read, the files of a local directory are read from its root by default
+	 */
+	private static String objectPrefix(CommandLine line) {
+		return line.getOptionValue("objectPrefix", LocalObjectDownloader.isLocal(line.getOptionValue("bucketName", "nyc-tlc")) ? "" : "trip data/");
 	}
 
-	public static void main(String[] args) throws ParseException {
+	public static void main(String[] args) throws ParseException, IOException {
 		Options options = new Options()
 				.addOption("bucketRegion", true, "the region of the S3 bucket")
-				.addOption("bucketName", true, "the bucket containing the raw event data")
+				.addOption("bucketName", true, "the bucket containing the raw event data, or a local directory as file:///path whose files are memory mapped")
 				.addOption("objectPrefix", true, "the prefix of the objects containing the raw event data")
 				.addOption("streamRegion", true, "the region of the Kinesis stream")
 				.addOption("streamName", true, "the name of the kinesis stream the events are sent to")
@@ -242,9 +638,50 @@ public class StreamPopulator {
 				.addOption("seek", true, "start replaying events at given timestamp")
 				.addOption("statisticsFrequency", true, "print statistics every statisticFrequency ms")
 				.addOption("noWatermark", "don't ingest watermarks into the stream")
-				.addOption("bufferSize", true, "size of the buffer that holds events to sent to the stream")
-				.addOption("maxOutstandingRecords", true, "block producer if more than maxOutstandingRecords are in flight")
-				.addOption("noKinesis", "do not send to kinesis")
+				.addOption("bufferSize", true, "maximum number of events in the buffer that holds events to sent to the stream")
+				.addOption("bufferMemory", true, "size in MB of the off-heap buffer that holds the payloads of events to sent to the stream")
+				.addOption("reorderWindow", true, "number of events that are sorted by timestamp before they are added to the buffer")
+				.addOption("unthrottled", "replay events as fast as the sink accepts them instead of at their ingestion time, watermarks are sent every watermarkInterval ms of event time")
+				.addOption("watermarkInterval", true, "event time in ms between the watermarks of an unthrottled replay")
+				.addOption("tickMillis", true, "release events in batches of tickMillis ms of ingestion time")
+				.addOption("maxBatchSize", true, "maximum number of events released at once")
+				.addOption("sendThreads", true, "send events with sendThreads threads that each own a disjoint set of partition keys, 0 sends on the replay thread")
+				.addOption("sendQueueSize", true, "number of event batches queued per send thread")
+				.addOption("partitioner", true, "partition events by hash (of the payload), random, roundrobin, location (pickup location id), geohash (of the pickup coordinates) or type (taxi type)")
+				.addOption("partitionBuckets", true, "number of distinct partition keys of the random and roundrobin partitioner")
+				.addOption("geohashPrecision", true, "length of the geohash prefix of the geohash partitioner")
+				.addOption("minOutstandingRecords", true, "lower bound of the adaptive limit of records in flight")
+				.addOption("maxOutstandingRecords", true, "upper bound of the adaptive limit of records in flight, 0 doesn't limit the records in flight")
+				.addOption("targetLatency", true, "decrease the limit of records in flight if records take longer than targetLatency ms to be sent")
+				.addOption("shardRecordsPerSecond", true, "delay records for shards that receive more than shardRecordsPerSecond records per second, 0 doesn't limit the records")
+				.addOption("shardBytesPerSecond", true, "delay records for shards that receive more than shardBytesPerSecond bytes per second, 0 doesn't limit the bytes")
+				.addOption("maxShapingDelay", true, "delay records for saturated shards by at most maxShapingDelay ms, block the sender beyond")
+				.addOption("sink", true, "send events to kinesis, discard them (to measure the replay itself), or write them length prefixed to a file or tcp connection")
+				.addOption("sinkTarget", true, "the path of the file sink or the host:port of the tcp sink")
+				.addOption("metricsPort", true, "serve metrics in the prometheus text format at http://localhost:metricsPort/metrics, 0 doesn't serve metrics")
+				.addOption("buildIndex", true, "read all objects of the bucket and write a sparse time index of them to the given file, then exit")
+				.addOption("indexSampleRows", true, "number of rows between the byte offsets sampled by the time index")
+				.addOption("index", true, "seek with the time index created with -buildIndex instead of reading all events before the timestamp")
+				.addOption("checkpoint", true, "periodically write the position of the replay to the given file, resume from it if it exists, use -index to resume without reading the events before it")
+				.addOption("checkpointInterval", true, "write a checkpoint every checkpointInterval ms")
+				.addOption("noKinesis", "do not send to kinesis, same as -sink discard")
+				.addOption("readerThreads", true, "read and merge the events of readerThreads objects concurrently")
+				.addOption("objectQueueSize", true, "number of parsed events buffered per object when reading objects concurrently")
+				.addOption("amplify", true, "replay every record of the bucket amplify times, as the record itself and synthetic copies with jitter on their datetimes, coordinates and locations")
+				.addOption("amplifyJitter", true, "shift the datetimes of synthetic copies by up to amplifyJitter seconds, the reorder window should cover the events of twice that time")
+				.addOption("simulateDrivers", "derive drivers from the trips and add a driver_location event every pingInterval ms of event time for every driver on shift")
+				.addOption("pingInterval", true, "event time in ms between the driver_location events of a simulated driver")
+				.addOption("parseThreads", true, "parse csv objects in newline aligned chunks with parseThreads threads, 0 parses on the reading thread")
+				.addOption("downloadThreads", true, "download objects with downloadThreads parallel ranged GET requests, 0 uses a single GET request per object")
+				.addOption("downloadChunkSize", true, "size of the byte ranges in MB that are downloaded in parallel")
+				.addOption("downloadMemory", true, "memory in MB for byte ranges that are downloaded ahead of the parser, per object")
+				.addOption("decompressionThreads", true, "decompress the frames of zstd, the blocks of bgzip and the streams of bzip2 objects and decode the columns of parquet objects with decompressionThreads threads, 0 decompresses on the reading thread")
+				.addOption("compile", true, "read all events from the bucket and write them into a time sorted snapshot file, then exit")
+				.addOption("snapshot", true, "replay the events of a snapshot file created with -compile instead of reading the bucket")
+				.addOption("coordinate", true, "coordinate a distributed replay of the given number of workers and send their global watermark to the stream, then exit")
+				.addOption("coordinatorPort", true, "the port the coordinator listens on")
+				.addOption("startDelay", true, "start the distributed replay startDelay ms after all workers are ready")
+				.addOption("coordinator", true, "replay a share of the events as a worker of the coordinator at host:port, which determines the speedup and the time base")
 				.addOption("help", "print this help message");
 
 		CommandLine line = new DefaultParser().parse(options, args);
@@ -254,27 +691,84 @@ public class StreamPopulator {
 			return;
 		}
 
-		Instant seekToEpoch = null;
-		if (line.hasOption("seek")) {
-			seekToEpoch = Instant.parse(line.getOptionValue("seek"));
+		if (line.hasOption("buildIndex")) {
+			ObjectDownloader downloader = createDownloader(line);
+			TimeIndex.build(downloader,
+				line.getOptionValue("bucketName", "nyc-tlc"),
+				objectPrefix(line),
+				line.getOptionValue("timestampAttributeName", "pickup_datetime"),
+				Integer.parseInt(line.getOptionValue("indexSampleRows", "10000"))).write(Paths.get(line.getOptionValue("buildIndex")));
+			downloader.shutdown();
+			return;
+		}
+
+		if (line.hasOption("coordinate")) {
+			coordinate(line);
+			return;
+		}
+
+		TimeIndex timeIndex = line.hasOption("index") ? TimeIndex.read(Paths.get(line.getOptionValue("index"))) : null;
+		Path checkpointFile = line.hasOption("checkpoint") ? Paths.get(line.getOptionValue("checkpoint")) : null;
+		ReplayCheckpoint checkpoint = checkpointFile == null ? null : ReplayCheckpoint.read(checkpointFile);
+
+		ReplayWorker worker = line.hasOption("coordinator") ? ReplayWorker.join(line.getOptionValue("coordinator")) : null;
+		EventSource eventSource = createEventSource(line, timeIndex, checkpoint, worker);
+
+		if (line.hasOption("compile")) {
+			SnapshotWriter.compile(eventSource, Paths.get(line.getOptionValue("compile")), Integer.parseInt(line.getOptionValue("bufferSize", "100000")));
+			return;
+		}
+
+		if (worker != null) {
+			// the buffer starts reading events once the populator is created, so the time base has to be shared before
+			worker.ready(eventSource.peekTimestamp());
+			eventSource.setTimeBase(worker.getStartTime(), worker.getOrigin());
 		}
 
-		StreamPopulator populator = new StreamPopulator(line.getOptionValue("bucketRegion", "us-east-1"),
-			line.getOptionValue("bucketName", "nyc-tlc"),
-			line.getOptionValue("objectPrefix", "trip data/"),
-			line.getOptionValue("streamRegion", DEFAULT_REGION_NAME),
+		String streamRegion = line.getOptionValue("streamRegion", DEFAULT_REGION_NAME);
+		EventSink sink = EventSinks.create(line.hasOption("noKinesis") ? EventSinks.DISCARD : line.getOptionValue("sink", EventSinks.KINESIS),
+			line.getOptionValue("sinkTarget"),
+			streamRegion,
 			line.getOptionValue("streamName", "taxi-trip-events"),
-			line.hasOption("aggregate"),
-			line.getOptionValue("timestampAttributeName", "pickup_datetime"),
-			Float.parseFloat(line.getOptionValue("speedup", "3600")),
+			line.hasOption("aggregate"));
+
+		StreamPopulator populator = new StreamPopulator(eventSource,
+			sourceName(line),
+			sink,
+			streamRegion,
 			Long.parseLong(line.getOptionValue("statisticsFrequency", "20000")),
 			line.hasOption("noWatermark"),
-			seekToEpoch,
 			Integer.parseInt(line.getOptionValue("bufferSize", "100000")),
+			Integer.parseInt(line.getOptionValue("bufferMemory", "64")) * 1024 * 1024,
+			Integer.parseInt(line.getOptionValue("reorderWindow", "1000")),
+			Long.parseLong(line.getOptionValue("tickMillis", "1")),
+			Integer.parseInt(line.getOptionValue("maxBatchSize", "10000")),
+			Integer.parseInt(line.getOptionValue("sendThreads", "1")),
+			Integer.parseInt(line.getOptionValue("sendQueueSize", "64")),
+			Partitioners.create(line.getOptionValue("partitioner", Partitioners.HASH),
+				Integer.parseInt(line.getOptionValue("partitionBuckets", "1024")),
+				Integer.parseInt(line.getOptionValue("geohashPrecision", "5"))),
+			Integer.parseInt(line.getOptionValue("minOutstandingRecords", "100")),
 			Integer.parseInt(line.getOptionValue("maxOutstandingRecords", "10000")),
-			line.hasOption("noKinesis")
+			Long.parseLong(line.getOptionValue("targetLatency", "5000")),
+			Integer.parseInt(line.getOptionValue("shardRecordsPerSecond", Integer.toString(ShardShaper.SHARD_RECORDS_PER_SECOND))),
+			Integer.parseInt(line.getOptionValue("shardBytesPerSecond", Integer.toString(ShardShaper.SHARD_BYTES_PER_SECOND))),
+			Long.parseLong(line.getOptionValue("maxShapingDelay", "1000")),
+			Integer.parseInt(line.getOptionValue("metricsPort", "0"))
 			);
 
+		if (checkpointFile != null) {
+			populator.setCheckpoint(checkpointFile, Long.parseLong(line.getOptionValue("checkpointInterval", "10000")));
+		}
+
+		if (line.hasOption("unthrottled")) {
+			populator.setUnthrottled(Long.parseLong(line.getOptionValue("watermarkInterval", "60000")));
+		}
+
+		if (worker != null) {
+			populator.setWorker(worker);
+		}
+
 		populator.populate();
 	}
 }
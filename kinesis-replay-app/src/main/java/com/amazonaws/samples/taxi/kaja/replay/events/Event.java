@@ -18,39 +18,53 @@
 package com.amazonaws.samples.taxi.kaja.replay.events;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+
 import software.amazon.awssdk.core.SdkBytes;
 
 public class Event {
 	public static final String TYPE_FIELD = "type";
 
-	public final String payload;
+	/** The utf-8 encoded payload, always terminated by a newline. */
+	private final ByteBuffer payload;
 
 	public Event(String payload) {
 		if (!payload.endsWith("\n")) {
 			// append a newline to output to make it easier digestible by firehose and athena
-			this.payload = payload + "\n";
-		} else {
-			this.payload = payload;
+			payload = payload + "\n";
 		}
+		this.payload = ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param payload the encoded payload including the trailing newline, eg, a slice of a memory mapped snapshot
+	 */
+	public Event(ByteBuffer payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * @return size of the encoded payload in bytes
+	 */
+	public int size() {
+		return payload.remaining();
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(payload);
+		return payload.hashCode();
 	}
 
 	@Override
 	public String toString() {
-		return payload;
+		return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
 	}
 
 	public SdkBytes toSdkBytes() {
-		return SdkBytes.fromString(payload, Charset.forName("UTF-8"));
+		return SdkBytes.fromByteBuffer(payload.duplicate());
 	}
 
 	public ByteBuffer toByteBuffer() {
-		return ByteBuffer.wrap(payload.getBytes(Charset.forName("UTF-8")));
+		return payload.duplicate();
 	}
 }
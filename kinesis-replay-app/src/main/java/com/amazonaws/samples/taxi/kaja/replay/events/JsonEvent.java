@@ -17,6 +17,7 @@
 
 package com.amazonaws.samples.taxi.kaja.replay.events;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Comparator;
@@ -37,6 +38,13 @@ public class JsonEvent extends Event {
 		this.ingestionTime = ingestionTime;
 	}
 
+	public JsonEvent(ByteBuffer payload, Instant timestamp, Instant ingestionTime) {
+		super(payload);
+
+		this.timestamp = timestamp;
+		this.ingestionTime = ingestionTime;
+	}
+
 	public static final Comparator<JsonEvent> timestampComparator = (JsonEvent o1, JsonEvent o2) -> o1.timestamp.compareTo(o2.timestamp);
 
 	public static final Comparator<JsonEvent> ingestionTimeComparator = (JsonEvent o1, JsonEvent o2) -> o1.ingestionTime.compareTo(o2.ingestionTime);
@@ -53,16 +61,29 @@ public class JsonEvent extends Event {
 			this.timestampAttributeName = timestampAttributeName;
 		}
 
-		private JsonEvent toJsonEvent(Instant timestamp, String payload) {
+		public String getTimestampAttributeName() {
+			return timestampAttributeName;
+		}
+
+		private Instant toIngestionTime(Instant timestamp) {
 			if (firstEventTimestamp == null) {
 				firstEventTimestamp = timestamp;
 			}
 
 			long deltaToFirstTimestamp = Math.round(Duration.between(firstEventTimestamp, timestamp).toMillis() / speedupFactor);
 
-			Instant ingestionTime = ingestionStartTime.plusMillis(deltaToFirstTimestamp);
+			return ingestionStartTime.plusMillis(deltaToFirstTimestamp);
+		}
+
+		private JsonEvent toJsonEvent(Instant timestamp, String payload) {
+			return new JsonEvent(payload, timestamp, toIngestionTime(timestamp));
+		}
 
-			return new JsonEvent(payload, timestamp, ingestionTime);
+		/**
+		 * Create an event from an already encoded payload, eg, when replaying a snapshot.
+		 */
+		public JsonEvent toJsonEvent(Instant timestamp, ByteBuffer payload) {
+			return new JsonEvent(payload, timestamp, toIngestionTime(timestamp));
 		}
 		
 		public JsonEvent parse(Map<String, Object> data) {
@@ -87,6 +108,21 @@ public class JsonEvent extends Event {
 			return toJsonEvent(timestamp, payload);
 		}
 
+		/**
+		 * Re-compute the ingestion time of an event that was parsed by another parser, eg, when events of several objects are merged.
+		 */
+		public JsonEvent reschedule(JsonEvent event) {
+			return toJsonEvent(event.timestamp, event.toByteBuffer());
+		}
+
+		/**
+		 * Compute the ingestion times relative to the given time base instead of relative to the first event and the current time.
+		 */
+		public void setTimeBase(Instant ingestionStartTime, Instant firstEventTimestamp) {
+			this.ingestionStartTime = ingestionStartTime;
+			this.firstEventTimestamp = firstEventTimestamp;
+		}
+
 		public void reset() {
 			firstEventTimestamp = null;
 			ingestionStartTime = Instant.now();
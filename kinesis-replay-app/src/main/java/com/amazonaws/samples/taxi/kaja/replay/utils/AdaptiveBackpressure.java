@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Limits the number of records in flight in the KPL with additive increase and multiplicative decrease.
+ *
+ * A record that needed more than one attempt, failed or took longer than the target latency to complete is a congestion signal and
+ * decreases the limit by a factor, at most once per window: records that were added before the last decrease don't decrease it again,
+ * as they were sent with the previous limit. Every other completed record increases the limit, by one until the first congestion
+ * (slow start) and by one per limit completed records afterwards. The target latency is kept well below the record TTL of the KPL, so
+ * the limit shrinks before records expire.
+ */
+public class AdaptiveBackpressure implements AdaptiveBackpressureMXBean {
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBackpressure.class);
+
+	private static final double DECREASE_FACTOR = 0.7;
+	private static final double LATENCY_SMOOTHING = 0.05;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetLatencyNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+
+	private double limit;
+	private double slowStartThreshold;
+	private int inFlight;
+	private long added;
+	private long lastDecrease;
+
+	private volatile double latencyNanos;
+	private volatile long retriedRecords;
+	private volatile long failedRecords;
+	private volatile long decreases;
+
+	/**
+	 * @param minLimit lower bound of the limit, the limit starts here
+	 * @param maxLimit upper bound of the limit
+	 * @param targetLatencyMillis records that take longer to complete decrease the limit
+	 */
+	public AdaptiveBackpressure(int minLimit, int maxLimit, long targetLatencyMillis) {
+		this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+		this.limit = this.minLimit;
+		this.slowStartThreshold = this.maxLimit;
+	}
+
+	/**
+	 * Block until the record can be sent without exceeding the limit, then track its completion.
+	 *
+	 * @param start the {@link System#nanoTime()} at which the record has been handed to the sink, the latency is measured from there
+	 */
+	public void acquire(ListenableFuture<UserRecordResult> f, long start) throws InterruptedException {
+		final long ticket = acquire();
+
+		Futures.addCallback(f, new FutureCallback<UserRecordResult>() {
+			@Override
+			public void onSuccess(UserRecordResult result) {
+				complete(ticket, System.nanoTime() - start, result.getAttempts().size(), result.isSuccessful());
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				complete(ticket, System.nanoTime() - start, 1, false);
+			}
+		}, MoreExecutors.directExecutor());
+	}
+
+	/**
+	 * Block until another record fits into the limit.
+	 *
+	 * @return the ticket of the record that identifies the window it was sent in
+	 */
+	long acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (inFlight >= (int)limit) {
+				notFull.await();
+			}
+			inFlight++;
+			return ++added;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void complete(long ticket, long latency, int attempts, boolean successful) {
+		boolean congested = !successful || attempts > 1 || latency > targetLatencyNanos;
+
+		lock.lock();
+		try {
+			inFlight--;
+
+			double l = latencyNanos;
+			latencyNanos = l == 0 ? latency : l + LATENCY_SMOOTHING * (latency - l);
+
+			if (attempts > 1) {
+				retriedRecords++;
+			}
+			if (!successful) {
+				failedRecords++;
+			}
+
+			if (congested) {
+				if (ticket > lastDecrease) {
+					lastDecrease = added;
+					limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+					slowStartThreshold = limit;
+					decreases++;
+
+					LOG.debug("decreased limit to {} (attempts {}, successful {}, latency {} ms)",
+						(int)limit, attempts, successful, TimeUnit.NANOSECONDS.toMillis(latency));
+				}
+			} else if (limit < slowStartThreshold) {
+				limit = Math.min(maxLimit, limit + 1);
+			} else {
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+
+			if (inFlight < (int)limit) {
+				notFull.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int)limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public double getLatencyMillis() {
+		return latencyNanos / 1_000_000.0;
+	}
+
+	@Override
+	public long getRetriedRecords() {
+		return retriedRecords;
+	}
+
+	@Override
+	public long getFailedRecords() {
+		return failedRecords;
+	}
+
+	@Override
+	public long getDecreases() {
+		return decreases;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+/**
+ * Current in-flight limit and congestion signals of an {@link AdaptiveBackpressure}.
+ */
+public interface AdaptiveBackpressureMXBean {
+	/** Maximum number of records in flight. */
+	int getLimit();
+
+	/** Number of records that have been added but have not completed yet. */
+	int getInFlight();
+
+	/** Smoothed time from adding a record until it completes in ms. */
+	double getLatencyMillis();
+
+	/** Number of records that needed more than one attempt. */
+	long getRetriedRecords();
+
+	/** Number of records that failed or expired. */
+	long getFailedRecords();
+
+	/** Number of times the limit was decreased. */
+	long getDecreases();
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Creates synthetic copies of the records of an object to replay more events than the data set contains.
+ *
+ * Every copy of a record is shifted by the same random offset of up to jitterMillis on all its datetime columns, so that the duration of
+ * the trip is kept, and its coordinates are moved by a few dozen meters. The pickup and dropoff location ids of a copy are taken from
+ * one of the recent records of the object, which keeps the spatial distribution of the trips at that time of day. The jitter is derived
+ * from the values of the record and the number of the copy, so an object yields the same copies whenever it is parsed the same way,
+ * sequentially or in chunks.
+ *
+ * An amplifier is not thread safe.
+ */
+public class Amplifier {
+	/** Standard deviation of the jitter of coordinates in degrees, about 50 m. */
+	private static final double COORDINATE_JITTER = 0.0005;
+	private static final int RECENT_SIZE = 1024;
+
+	private final int factor;
+	private final long jitterMillis;
+	private final int[] datetimeColumns;
+	private final int[] coordinateColumns;
+	private final int pickupLocationColumn;
+	private final int dropoffLocationColumn;
+
+	private final String[] recentPickups = new String[RECENT_SIZE];
+	private final String[] recentDropoffs = new String[RECENT_SIZE];
+	private long recentCount;
+
+	private final List<CharSequence> copy = new ArrayList<>();
+
+	/**
+	 * @param header the normalized header of the object
+	 * @param factor number of events per record, including the record itself
+	 * @param jitterMillis maximum shift of the datetimes of a copy in either direction
+	 */
+	public Amplifier(List<String> header, int factor, long jitterMillis) {
+		this.factor = Math.max(1, factor);
+		this.jitterMillis = jitterMillis;
+
+		List<Integer> datetimes = new ArrayList<>();
+		List<Integer> coordinates = new ArrayList<>();
+		for (int i = 0; i < header.size(); i++) {
+			if (DataNormalizer.isDatetime(header.get(i))) {
+				datetimes.add(i);
+			} else if (DataNormalizer.isDouble(header.get(i))) {
+				coordinates.add(i);
+			}
+		}
+		this.datetimeColumns = datetimes.stream().mapToInt(Integer::intValue).toArray();
+		this.coordinateColumns = coordinates.stream().mapToInt(Integer::intValue).toArray();
+		this.pickupLocationColumn = header.indexOf("pickup_location_id");
+		this.dropoffLocationColumn = header.indexOf("dropoff_location_id");
+	}
+
+	/**
+	 * @return number of events per record, including the record itself
+	 */
+	public int getFactor() {
+		return factor;
+	}
+
+	/**
+	 * Create a copy of a record, the copies of a record have to be created in order before the copies of the next record.
+	 *
+	 * @param k the number of the copy, from 1 to factor - 1
+	 * @return the values of the copy, the list is reused by the next call
+	 */
+	public List<? extends CharSequence> copy(List<? extends CharSequence> record, int k) {
+		if (k == 1) {
+			remember(record);
+		}
+
+		SplittableRandom random = new SplittableRandom(hash(record) * 31 + k);
+
+		copy.clear();
+		copy.addAll(record);
+
+		long shift = jitterMillis > 0 ? random.nextLong(-jitterMillis, jitterMillis + 1) / 1000 * 1000 : 0;
+		for (int column : datetimeColumns) {
+			long millis = column < copy.size() ? DataNormalizer.parseMillis(copy.get(column)) : DataNormalizer.INVALID_DATETIME;
+			if (millis != DataNormalizer.INVALID_DATETIME) {
+				copy.set(column, DateTimeCodec.DATETIME.format(millis + shift));
+			}
+		}
+
+		for (int column : coordinateColumns) {
+			// 0 marks a missing coordinate
+			CharSequence v = column < copy.size() ? copy.get(column) : "";
+			double degrees = v.length() == 0 ? 0 : RecordCodec.parseDouble(v);
+			if (degrees != 0) {
+				copy.set(column, Double.toString(degrees + random.nextGaussian() * COORDINATE_JITTER));
+			}
+		}
+
+		if (recentCount > 0) {
+			int recent = (int)(random.nextLong(Math.min(recentCount, RECENT_SIZE)));
+			set(pickupLocationColumn, recentPickups[recent]);
+			set(dropoffLocationColumn, recentDropoffs[recent]);
+		}
+		return copy;
+	}
+
+	private void remember(List<? extends CharSequence> record) {
+		if (pickupLocationColumn < 0 && dropoffLocationColumn < 0) {
+			return;
+		}
+
+		int slot = (int)(recentCount++ % RECENT_SIZE);
+		recentPickups[slot] = value(record, pickupLocationColumn);
+		recentDropoffs[slot] = value(record, dropoffLocationColumn);
+	}
+
+	private void set(int column, String value) {
+		if (column >= 0 && column < copy.size() && value != null) {
+			copy.set(column, value);
+		}
+	}
+
+	private static String value(List<? extends CharSequence> record, int column) {
+		return column >= 0 && column < record.size() ? record.get(column).toString() : null;
+	}
+
+	private static long hash(List<? extends CharSequence> record) {
+		long h = 1125899906842597L;
+		for (int i = 0; i < record.size(); i++) {
+			CharSequence v = record.get(i);
+			for (int j = 0; j < v.length(); j++) {
+				h = 31 * h + v.charAt(j);
+			}
+			h = 31 * h + ',';
+		}
+		return h;
+	}
+}
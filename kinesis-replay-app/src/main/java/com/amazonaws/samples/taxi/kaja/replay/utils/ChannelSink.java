@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Writes the payloads of the events to a file or socket, each prefixed with its length as 4 byte big endian integer.
+ */
+public class ChannelSink implements EventSink {
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final WritableByteChannel channel;
+	private final String name;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	public ChannelSink(WritableByteChannel channel, String name) {
+		this.channel = channel;
+		this.name = name;
+	}
+
+	public static ChannelSink toFile(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new ChannelSink(channel, "file " + file);
+	}
+
+	/**
+	 * @param address host:port to connect to
+	 */
+	public static ChannelSink toSocket(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("expected host:port but got " + address);
+		}
+
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		return new ChannelSink(channel, "socket " + address);
+	}
+
+	@Override
+	public synchronized ListenableFuture<UserRecordResult> send(JsonEvent event, PartitionKey key) {
+		ByteBuffer payload = event.toByteBuffer();
+		try {
+			if (buffer.remaining() < Integer.BYTES + payload.remaining()) {
+				flush();
+			}
+
+			if (buffer.remaining() < Integer.BYTES + payload.remaining()) {
+				// larger than the buffer, write it directly
+				buffer.putInt(payload.remaining());
+				flush();
+				writeFully(payload);
+			} else {
+				buffer.putInt(payload.remaining());
+				buffer.put(payload);
+			}
+			return SENT;
+		} catch (IOException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	/**
+	 * Write the buffered events to the channel.
+	 */
+	public synchronized void flush() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the records of a single csv object on several threads.
+ *
+ * The input is split into chunks of about CHUNK_SIZE bytes that end at a newline. Every chunk is tokenized by a {@link CsvTokenizer} and
+ * encoded into json payloads by its own task and the chunks are consumed in the order they have been read, so the records come out in the
+ * order of the object. At most readAhead chunks are parsed ahead of the consumer. As chunks are split at every newline, quoted values must not contain newlines.
+ */
+public class CsvChunkParser implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(CsvChunkParser.class);
+
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	private final String name;
+	private final InputStream input;
+	private final Executor executor;
+	private final int readAhead;
+	private final int chunkSize;
+	private final Queue<CompletableFuture<Chunk>> chunks = new ArrayDeque<>();
+
+	private Supplier<RecordCodec> codecs;
+	private Supplier<Amplifier> amplifiers;
+	private byte[] rest = new byte[0];
+	private long offset;
+	private boolean eof;
+
+	private Chunk chunk;
+	private int position;
+	private long timestamp;
+	private ByteBuffer payload;
+
+	/**
+	 * @param name the name of the object, for log messages
+	 * @param executor parses the chunks, eg, a fork-join pool
+	 * @param readAhead number of chunks that are parsed ahead of the consumer
+	 */
+	public CsvChunkParser(String name, InputStream input, Executor executor, int readAhead) {
+		this(name, input, executor, readAhead, CHUNK_SIZE);
+	}
+
+	CsvChunkParser(String name, InputStream input, Executor executor, int readAhead, int chunkSize) {
+		this.name = name;
+		this.input = input;
+		this.executor = executor;
+		this.readAhead = Math.max(1, readAhead);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Read the first line of the input, must be called before {@link #start(Supplier, Supplier)} if the input starts with the header.
+	 *
+	 * @return the columns of the header, empty if the input is empty
+	 */
+	public List<String> readHeader() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for (int b; (b = input.read()) >= 0; ) {
+			line.write(b);
+			if (b == '\n') {
+				break;
+			}
+		}
+		offset = line.size();
+
+		List<String> header = new ArrayList<>();
+		CsvTokenizer tokenizer = new CsvTokenizer(line.toByteArray(), 0, line.size());
+		try {
+			if (tokenizer.hasNext()) {
+				for (CharSequence column : tokenizer.next()) {
+					header.add(column.toString());
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return header;
+	}
+
+	/**
+	 * Start parsing the records after the header.
+	 *
+	 * @param codecs creates a codec for every chunk, as codecs are not thread safe
+	 * @param amplifiers creates an amplifier for every chunk, null doesn't amplify the records
+	 */
+	public void start(Supplier<RecordCodec> codecs, Supplier<Amplifier> amplifiers) throws IOException {
+		this.codecs = codecs;
+		this.amplifiers = amplifiers;
+		fill();
+	}
+
+	/**
+	 * Advance to the next record, the result can be obtained with {@link #timestamp()} and {@link #payload()}.
+	 *
+	 * @return false if all records have been read
+	 */
+	public boolean next() throws IOException {
+		while (chunk == null || position >= chunk.size) {
+			chunk = null;
+
+			CompletableFuture<Chunk> f = chunks.poll();
+			if (f == null) {
+				return false;
+			}
+			// keep readAhead chunks in flight while waiting for the next one
+			fill();
+
+			try {
+				chunk = f.get();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new InterruptedIOException("interrupted while parsing " + name);
+			} catch (ExecutionException e) {
+				close();
+				throw new IOException("failed to parse " + name, e.getCause());
+			}
+		}
+
+		timestamp = chunk.timestamps[position];
+		payload = chunk.payloads.set(position, null);
+		position++;
+		return true;
+	}
+
+	/**
+	 * @return the timestamp of the current record in epoch millis
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the json payload of the current record
+	 */
+	public ByteBuffer payload() {
+		return payload;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (CompletableFuture<Chunk> f : chunks) {
+			f.cancel(false);
+		}
+		chunks.clear();
+		chunk = null;
+		input.close();
+	}
+
+	private void fill() throws IOException {
+		while (chunks.size() < readAhead && submitNextChunk()) {
+		}
+	}
+
+	/**
+	 * Read the input up to the last newline of the next chunkSize bytes and submit it, a line longer than a chunk extends the chunk.
+	 *
+	 * @return false at the end of the input
+	 */
+	private boolean submitNextChunk() throws IOException {
+		if (eof && rest.length == 0) {
+			return false;
+		}
+
+		byte[] data = Arrays.copyOf(rest, Math.max(chunkSize, 2 * rest.length));
+		int length = rest.length;
+		int end;
+		for (int searched = length; ; ) {
+			length += eof ? 0 : input.readNBytes(data, length, data.length - length);
+			if (length < data.length) {
+				// the last line of the input may lack a newline
+				eof = true;
+				end = length;
+				break;
+			}
+
+			end = lastNewline(data, searched, length);
+			if (end > 0) {
+				break;
+			}
+			searched = length;
+			data = Arrays.copyOf(data, 2 * data.length);
+		}
+
+		rest = Arrays.copyOfRange(data, end, length);
+		if (end == 0) {
+			return false;
+		}
+
+		final byte[] bytes = data;
+		final int size = end;
+		final long chunkOffset = offset;
+		offset += end;
+		chunks.add(CompletableFuture.supplyAsync(() -> parse(bytes, size, chunkOffset), executor));
+		return true;
+	}
+
+	/**
+	 * @return the index after the last newline in the range, 0 if there is none
+	 */
+	private static int lastNewline(byte[] data, int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			if (data[i] == '\n') {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	private Chunk parse(byte[] data, int length, long chunkOffset) {
+		RecordCodec recordCodec = codecs.get();
+		Amplifier amplifier = amplifiers == null ? null : amplifiers.get();
+		Chunk result = new Chunk();
+
+		CsvTokenizer tokenizer = new CsvTokenizer(data, 0, length);
+		try {
+			while (tokenizer.hasNext()) {
+				try {
+					List<? extends CharSequence> values = tokenizer.next();
+					if (recordCodec.encode(values)) {
+						result.add(recordCodec.timestamp(), recordCodec.payload());
+						ReplayMetrics.PARSED_RECORDS.increment();
+
+						for (int k = 1; amplifier != null && k < amplifier.getFactor(); k++) {
+							if (recordCodec.encode(amplifier.copy(values, k))) {
+								result.add(recordCodec.timestamp(), recordCodec.payload());
+							}
+						}
+					} else {
+						ReplayMetrics.DISCARDED_RECORDS.increment();
+					}
+				} catch (Exception e) {
+					ReplayMetrics.DISCARDED_RECORDS.increment();
+					LOG.warn("Failed to read record [{}] of chunk at offset {} of {}: {}", tokenizer.getRowNumber(), chunkOffset, name, e.getMessage());
+				}
+			}
+		} catch (UncheckedIOException e) {
+			// a malformed record ends the chunk, the next chunk starts at a newline again
+			ReplayMetrics.DISCARDED_RECORDS.increment();
+			LOG.warn("Failed to read chunk at offset {} of {}: {}", chunkOffset, name, e.getMessage());
+		}
+
+		LOG.debug("parsed {} records of chunk at offset {} of {}", result.size, chunkOffset, name);
+		return result;
+	}
+
+	private static class Chunk {
+		private long[] timestamps = new long[1024];
+		private final List<ByteBuffer> payloads = new ArrayList<>();
+		private int size;
+
+		void add(long timestamp, ByteBuffer payload) {
+			if (size == timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, 2 * size);
+			}
+			timestamps[size++] = timestamp;
+			payloads.add(payload);
+		}
+	}
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits csv records in the format of CSVFormat.DEFAULT into fields straight from the utf-8 encoded bytes.
+ *
+ * The bytes are read into a reusable buffer and a record is returned as a list of {@link Field}s, views of the byte range of a value in
+ * the buffer. Nothing is decoded or copied while tokenizing: a value only becomes a string if it contains non-ascii characters and is
+ * accessed as characters, the {@link RecordCodec} copies ascii values and parses datetimes straight from the bytes. Delimiters are searched
+ * eight bytes at a time with bitwise arithmetic on longs, which also tells whether the bytes of a value are ascii.
+ *
+ * Quoted values may contain delimiters, newlines and escaped quotes, the escapes are removed in place once a record is complete. Empty
+ * lines are skipped. A quoted value that is followed by anything but a delimiter or a newline is malformed, like with commons-csv the
+ * iterator throws an UncheckedIOException then.
+ *
+ * The fields of a record, and the bytes they refer to, are reused once {@link #hasNext()} or {@link #next()} is called again.
+ */
+public class CsvTokenizer implements ObjectReader.Rows {
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long COMMAS = ONES * ',';
+	private static final long LINE_FEEDS = ONES * '\n';
+	private static final long CARRIAGE_RETURNS = ONES * '\r';
+	private static final long QUOTES = ONES * '"';
+
+	private static final int RECORD = 0;
+	private static final int EMPTY_LINE = 1;
+	private static final int UNDERFLOW = 2;
+	private static final int END = 3;
+
+	private final InputStream input;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private boolean eof;
+
+	private Field[] fields = new Field[0];
+	private int fieldCount;
+	private final Record record = new Record();
+	private boolean ready;
+	private long rowNumber;
+
+	/** Whether the bytes of the last scanned value are ascii. */
+	private boolean ascii;
+
+	public CsvTokenizer(InputStream input) {
+		this(input, 1 << 16);
+	}
+
+	CsvTokenizer(InputStream input, int bufferSize) {
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Tokenize the records of a byte range, eg, a chunk of a {@link CsvChunkParser}. Escaped quotes are removed from the range in place.
+	 */
+	public CsvTokenizer(byte[] data, int offset, int length) {
+		this.input = null;
+		this.buffer = data;
+		this.position = offset;
+		this.limit = offset + length;
+		this.eof = true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!ready) {
+			try {
+				ready = readRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("failed to read record " + (rowNumber + 1), e);
+			}
+		}
+		return ready;
+	}
+
+	@Override
+	public List<Field> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ready = false;
+		return record;
+	}
+
+	@Override
+	public long getRowNumber() {
+		return rowNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (input != null) {
+			input.close();
+		}
+	}
+
+	private boolean readRecord() throws IOException {
+		while (true) {
+			switch (tokenize()) {
+			case RECORD:
+				for (int i = 0; i < fieldCount; i++) {
+					Field field = fields[i];
+					field.buffer = buffer;
+					if (field.escaped) {
+						field.unescape();
+					}
+				}
+				rowNumber++;
+				return true;
+			case EMPTY_LINE:
+				break;
+			case UNDERFLOW:
+				fill();
+				break;
+			default:
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Move the unread bytes to the start of the buffer and read more, tokenizing starts over at the start of the record then.
+	 */
+	private void fill() throws IOException {
+		int unread = limit - position;
+		if (position == 0 && unread == buffer.length) {
+			// a record that is longer than the buffer
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		} else {
+			System.arraycopy(buffer, position, buffer, 0, unread);
+		}
+		position = 0;
+		limit = unread;
+
+		int n = input.readNBytes(buffer, limit, buffer.length - limit);
+		limit += n;
+		if (limit < buffer.length) {
+			eof = true;
+		}
+	}
+
+	/**
+	 * Split the record at the current position into fields and advance to the next record, unless the end of the buffer is reached before
+	 * the end of the record.
+	 */
+	private int tokenize() throws IOException {
+		int p = position;
+		fieldCount = 0;
+
+		if (p == limit) {
+			return eof ? END : UNDERFLOW;
+		}
+		if (buffer[p] == '\n' || buffer[p] == '\r') {
+			int next = lineEnd(p);
+			if (next < 0) {
+				return UNDERFLOW;
+			}
+			position = next;
+			return EMPTY_LINE;
+		}
+
+		while (true) {
+			Field field = nextField();
+			if (p < limit && buffer[p] == '"') {
+				int q = p + 1;
+				boolean escaped = false;
+				boolean quotedAscii = true;
+				while (true) {
+					q = scanQuote(q);
+					quotedAscii &= ascii;
+					if (q == limit) {
+						if (eof) {
+							throw new IOException("EOF reached before encapsulated token finished");
+						}
+						return UNDERFLOW;
+					}
+					if (q + 1 == limit && !eof) {
+						// an escaped quote may continue beyond the buffer
+						return UNDERFLOW;
+					}
+					if (q + 1 < limit && buffer[q + 1] == '"') {
+						escaped = true;
+						q += 2;
+						continue;
+					}
+					break;
+				}
+				field.set(p + 1, q, quotedAscii, escaped);
+				p = q + 1;
+
+				if (p < limit && buffer[p] != ',' && buffer[p] != '\n' && buffer[p] != '\r') {
+					throw new IOException("invalid char between encapsulated token and delimiter");
+				}
+			} else {
+				int d = scanDelimiter(p);
+				field.set(p, d, ascii, false);
+				p = d;
+			}
+
+			if (p == limit) {
+				if (!eof) {
+					return UNDERFLOW;
+				}
+				// the last record lacks a newline
+				position = p;
+				return RECORD;
+			}
+
+			if (buffer[p] == ',') {
+				p++;
+				continue;
+			}
+
+			int next = lineEnd(p);
+			if (next < 0) {
+				return UNDERFLOW;
+			}
+			position = next;
+			return RECORD;
+		}
+	}
+
+	/**
+	 * @return the position after the line separator at p, -1 if it may continue beyond the buffer
+	 */
+	private int lineEnd(int p) {
+		if (buffer[p] == '\r') {
+			if (p + 1 == limit) {
+				return eof ? p + 1 : -1;
+			}
+			if (buffer[p + 1] == '\n') {
+				return p + 2;
+			}
+		}
+		return p + 1;
+	}
+
+	private Field nextField() {
+		if (fieldCount == fields.length) {
+			fields = Arrays.copyOf(fields, Math.max(32, fields.length * 2));
+			for (int i = fieldCount; i < fields.length; i++) {
+				fields[i] = new Field();
+			}
+		}
+		return fields[fieldCount++];
+	}
+
+	/**
+	 * @return the position of the next delimiter or line separator, or the limit
+	 */
+	private int scanDelimiter(int from) {
+		long highBits = 0;
+		int i = from;
+		for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+			long word = (long)LONGS.get(buffer, i);
+			long found = matches(word, COMMAS) | matches(word, LINE_FEEDS) | matches(word, CARRIAGE_RETURNS);
+			if (found != 0) {
+				int n = Long.numberOfTrailingZeros(found) >>> 3;
+				ascii = (highBits | (word & HIGH_BITS & ((1L << (n * Byte.SIZE)) - 1))) == 0;
+				return i + n;
+			}
+			highBits |= word & HIGH_BITS;
+		}
+		for (; i < limit; i++) {
+			byte b = buffer[i];
+			if (b == ',' || b == '\n' || b == '\r') {
+				break;
+			}
+			highBits |= b & 0x80;
+		}
+		ascii = highBits == 0;
+		return i;
+	}
+
+	/**
+	 * @return the position of the next quote, or the limit
+	 */
+	private int scanQuote(int from) {
+		long highBits = 0;
+		int i = from;
+		for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+			long word = (long)LONGS.get(buffer, i);
+			long found = matches(word, QUOTES);
+			if (found != 0) {
+				int n = Long.numberOfTrailingZeros(found) >>> 3;
+				ascii = (highBits | (word & HIGH_BITS & ((1L << (n * Byte.SIZE)) - 1))) == 0;
+				return i + n;
+			}
+			highBits |= word & HIGH_BITS;
+		}
+		for (; i < limit && buffer[i] != '"'; i++) {
+			highBits |= buffer[i] & 0x80;
+		}
+		ascii = highBits == 0;
+		return i;
+	}
+
+	/**
+	 * @return the high bit of every byte of the word that equals the byte of the pattern, bits above the lowest one may be false positives
+	 */
+	static long matches(long word, long pattern) {
+		long x = word ^ pattern;
+		return (x - ONES) & ~x & HIGH_BITS;
+	}
+
+	/**
+	 * The value of a field as a view of its bytes in the buffer of the tokenizer.
+	 */
+	public static final class Field implements CharSequence {
+		private byte[] buffer;
+		private int start;
+		private int end;
+		private boolean ascii;
+		private boolean escaped;
+		private String string;
+
+		void set(int start, int end, boolean ascii, boolean escaped) {
+			this.start = start;
+			this.end = end;
+			this.ascii = ascii;
+			this.escaped = escaped;
+			this.string = null;
+		}
+
+		/** Remove the escapes of doubled quotes. */
+		void unescape() {
+			int j = start;
+			for (int i = start; i < end; i++) {
+				buffer[j++] = buffer[i];
+				if (buffer[i] == '"') {
+					i++;
+				}
+			}
+			end = j;
+			escaped = false;
+		}
+
+		byte[] buffer() {
+			return buffer;
+		}
+
+		int start() {
+			return start;
+		}
+
+		int end() {
+			return end;
+		}
+
+		/**
+		 * @return true if every byte of the value is an ascii character, so bytes and characters are the same
+		 */
+		boolean isAscii() {
+			return ascii;
+		}
+
+		/**
+		 * @return the value as datetime in epoch millis, like {@link DataNormalizer#parseMillis(CharSequence)}
+		 */
+		long parseMillis() {
+			return DateTimeCodec.DATETIME.parse(buffer, start, end - start);
+		}
+
+		@Override
+		public int length() {
+			return ascii ? end - start : toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (!ascii) {
+				return toString().charAt(index);
+			}
+			if (index < 0 || index >= end - start) {
+				throw new StringIndexOutOfBoundsException(index);
+			}
+			return (char)buffer[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			if (string == null) {
+				string = new String(buffer, start, end - start, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+			}
+			return string;
+		}
+	}
+
+	private class Record extends AbstractList<Field> {
+		@Override
+		public Field get(int index) {
+			if (index >= fieldCount) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fieldCount);
+			}
+			return fields[index];
+		}
+
+		@Override
+		public int size() {
+			return fieldCount;
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package com.amazonaws.samples.taxi.kaja.replay.utils;
 
-import java.text.ParseException;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,13 +13,10 @@ import java.util.TreeMap;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.FastDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DataNormalizer {
-	private static final FastDateFormat DATEFMT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss");
-
 	private static final Logger LOG = LoggerFactory.getLogger(DataNormalizer.class);
 	
 	@SuppressWarnings("unchecked")
@@ -38,6 +35,7 @@ public class DataNormalizer {
 	private static final Set<String> DATETIMES = new HashSet<String>();
 	private static final Set<String> DOUBLES = new HashSet<String>();
 	private static final Set<String> LONGS = new HashSet<String>();
+	private static final Set<String> PROJECTED = new HashSet<String>();
 
 	static {
 		CollectionUtils.addAll(REQUIRED, new Object[] {"dropoff_datetime", "pickup_datetime" });
@@ -49,14 +47,53 @@ public class DataNormalizer {
 			"pickup_longitude"
 		});
 		CollectionUtils.addAll(LONGS, new Object[] { "passenger_count" });
+
+		// the columns that are converted above or used by the consumer, columnar objects only read these
+		PROJECTED.addAll(REQUIRED);
+		PROJECTED.addAll(DATETIMES);
+		PROJECTED.addAll(DOUBLES);
+		PROJECTED.addAll(LONGS);
+		CollectionUtils.addAll(PROJECTED, new Object[] { "trip_distance", "pickup_location_id", "dropoff_location_id" });
 	}
 
+	/** Returned by {@link #parseMillis(CharSequence)} for values that aren't a valid datetime. */
+	public static final long INVALID_DATETIME = DateTimeCodec.INVALID;
+
 	public static Instant parseInstant(String s) {
-		try {
-			return Instant.ofEpochMilli(DATEFMT.parse(s).getTime());
-		} catch (ParseException e) {
-			return Instant.EPOCH;
-		}
+		long millis = parseMillis(s);
+		return millis == INVALID_DATETIME ? Instant.EPOCH : Instant.ofEpochMilli(millis);
+	}
+
+	public static long parseMillis(CharSequence s) {
+		return DateTimeCodec.DATETIME.parse(s);
+	}
+
+	public static Set<String> getRequired() {
+		return Collections.unmodifiableSet(REQUIRED);
+	}
+
+	public static boolean isDatetime(String name) {
+		return DATETIMES.contains(name);
+	}
+
+	public static boolean isDouble(String name) {
+		return DOUBLES.contains(name);
+	}
+
+	public static boolean isLong(String name) {
+		return LONGS.contains(name);
+	}
+
+	/**
+	 * @param name the normalized name of a column
+	 * @return true if the column has to be read from columnar objects
+	 */
+	public static boolean isProjected(String name) {
+		return PROJECTED.contains(name);
+	}
+
+	public static boolean isMiles(String name) {
+		return "trip_distance".equals(name);
 	}
 
 	public static List<String> normalizeHeader(List<String> header) {
@@ -87,8 +124,11 @@ public class DataNormalizer {
 			String v = (String)en.getValue();
 			try {
 				if (DATETIMES.contains(k)) {
-					DATEFMT.parse(v);
-				} else if ("trip_distance".equals(k)) {
+					if (parseMillis(v) == INVALID_DATETIME) {
+						LOG.warn("Discard invalid record " + k + "=" + v + " " + record);
+						return null;
+					}
+				} else if (isMiles(k)) {
 					if (StringUtils.isEmpty(v)) {
 						en.setValue(0L);
 					} else {
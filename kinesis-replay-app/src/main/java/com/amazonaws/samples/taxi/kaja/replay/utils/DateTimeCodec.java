@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parses and formats the fixed datetime formats of the taxi data, {@code yyyy-MM-dd HH:mm:ss} and {@code yyyy-MM-dd'T'HH:mm:ss}, to and
+ * from epoch millis.
+ *
+ * Dates are converted with plain arithmetic, the zone offset is cached for the period between two transitions of the zone. As long as
+ * consecutive values fall into the same period, parsing and formatting into a byte array don't allocate.
+ *
+ * Like FastDateFormat, the local time is interpreted in the given zone and fractions of seconds are dropped when formatting. Unlike
+ * FastDateFormat, parsing is strict: the value must have exactly the length of the pattern and fields must be in range.
+ */
+public final class DateTimeCodec {
+	/** Returned by the parse methods for values that aren't a valid datetime. */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	/** Length of a formatted datetime. */
+	public static final int LENGTH = 19;
+
+	/** {@code yyyy-MM-dd HH:mm:ss} in the default time zone. */
+	public static final DateTimeCodec DATETIME = new DateTimeCodec(' ', ZoneId.systemDefault());
+
+	/** {@code yyyy-MM-dd'T'HH:mm:ss} in the default time zone. */
+	public static final DateTimeCodec ISO_DATETIME = new DateTimeCodec('T', ZoneId.systemDefault());
+
+	private static final int SECONDS_PER_DAY = 86400;
+	private static final int DAYS_0000_TO_1970 = 719468;
+
+	private final char separator;
+	private final ZoneId zone;
+	private final ZoneRules rules;
+	private final DateTimeFormatter fallbackFormatter;
+
+	private volatile Period period;
+
+	public DateTimeCodec(char separator, ZoneId zone) {
+		this.separator = separator;
+		this.zone = zone;
+		this.rules = zone.getRules();
+		this.fallbackFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'" + separator + "'HH:mm:ss").withZone(zone);
+		this.period = period(0);
+	}
+
+	/**
+	 * @return epoch millis or {@link #INVALID}
+	 */
+	public long parse(CharSequence s) {
+		if (s == null || s.length() != LENGTH
+			|| s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != separator || s.charAt(13) != ':' || s.charAt(16) != ':') {
+			return INVALID;
+		}
+
+		int year = 0;
+		for (int i = 0; i < 4; i++) {
+			year = digit(year, s.charAt(i));
+		}
+		return toEpochMillis(year, digits(s.charAt(5), s.charAt(6)), digits(s.charAt(8), s.charAt(9)),
+			digits(s.charAt(11), s.charAt(12)), digits(s.charAt(14), s.charAt(15)), digits(s.charAt(17), s.charAt(18)));
+	}
+
+	/**
+	 * @return epoch millis or {@link #INVALID}
+	 */
+	public long parse(byte[] b, int off, int len) {
+		if (len != LENGTH
+			|| b[off + 4] != '-' || b[off + 7] != '-' || b[off + 10] != separator || b[off + 13] != ':' || b[off + 16] != ':') {
+			return INVALID;
+		}
+
+		int year = 0;
+		for (int i = 0; i < 4; i++) {
+			year = digit(year, (char)b[off + i]);
+		}
+		return toEpochMillis(year, digits((char)b[off + 5], (char)b[off + 6]), digits((char)b[off + 8], (char)b[off + 9]),
+			digits((char)b[off + 11], (char)b[off + 12]), digits((char)b[off + 14], (char)b[off + 15]), digits((char)b[off + 17], (char)b[off + 18]));
+	}
+
+	public String format(long millis) {
+		byte[] b = new byte[LENGTH];
+		int n = format(millis, b, 0);
+		return new String(b, 0, n, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Write the formatted datetime into a buffer.
+	 *
+	 * @return the offset after the last byte written
+	 */
+	public int format(long millis, byte[] b, int off) {
+		long second = Math.floorDiv(millis, 1000);
+		Period p = period;
+		if (second < p.utcFrom || second >= p.utcUntil) {
+			p = period(second);
+			period = p;
+		}
+
+		long local = second + p.offset;
+		long days = Math.floorDiv(local, SECONDS_PER_DAY);
+		int secondOfDay = (int)Math.floorMod(local, SECONDS_PER_DAY);
+
+		// civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+		long z = days + DAYS_0000_TO_1970;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int)(doy - (153 * mp + 2) / 5 + 1);
+		int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		if (year < 0 || year > 9999) {
+			byte[] s = fallbackFormatter.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(s, 0, b, off, s.length);
+			return off + s.length;
+		}
+
+		int y = (int)year;
+		b[off] = (byte)('0' + y / 1000);
+		b[off + 1] = (byte)('0' + y / 100 % 10);
+		b[off + 2] = (byte)('0' + y / 10 % 10);
+		b[off + 3] = (byte)('0' + y % 10);
+		b[off + 4] = '-';
+		write2(b, off + 5, month);
+		b[off + 7] = '-';
+		write2(b, off + 8, day);
+		b[off + 10] = (byte)separator;
+		write2(b, off + 11, secondOfDay / 3600);
+		b[off + 13] = ':';
+		write2(b, off + 14, secondOfDay / 60 % 60);
+		b[off + 16] = ':';
+		write2(b, off + 17, secondOfDay % 60);
+		return off + LENGTH;
+	}
+
+	private static void write2(byte[] b, int off, int v) {
+		b[off] = (byte)('0' + v / 10);
+		b[off + 1] = (byte)('0' + v % 10);
+	}
+
+	/** Accumulate a decimal digit, a negative value marks an invalid digit. */
+	private static int digit(int v, char ch) {
+		return ch >= '0' && ch <= '9' && v >= 0 ? v * 10 + (ch - '0') : -1;
+	}
+
+	private static int digits(char ch1, char ch2) {
+		return digit(digit(0, ch1), ch2);
+	}
+
+	private long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+			|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return INVALID;
+		}
+
+		// days since the epoch from a civil date, see http://howardhinnant.github.io/date_algorithms.html
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		long days = era * 146097L + doe - DAYS_0000_TO_1970;
+
+		long local = days * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+
+		Period p = period;
+		if (local < p.localFrom || local >= p.localUntil) {
+			// like Calendar, a local time in a gap is moved forward and one in an overlap is taken as standard time
+			long utc = LocalDateTime.ofEpochSecond(local, 0, ZoneOffset.UTC).atZone(zone).withLaterOffsetAtOverlap().toEpochSecond();
+			period = period(utc);
+			return utc * 1000;
+		}
+		return (local - p.offset) * 1000;
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Find the period between the transitions of the zone around an instant.
+	 */
+	private Period period(long utc) {
+		if (rules.isFixedOffset()) {
+			return new Period(Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, rules.getOffset(Instant.EPOCH).getTotalSeconds());
+		}
+
+		Instant instant = Instant.ofEpochSecond(utc);
+		int offset = rules.getOffset(instant).getTotalSeconds();
+		ZoneOffsetTransition prev = rules.previousTransition(instant.plusSeconds(1));
+		ZoneOffsetTransition next = rules.nextTransition(instant);
+
+		long utcFrom = Long.MIN_VALUE;
+		long localFrom = Long.MIN_VALUE;
+		if (prev != null) {
+			utcFrom = prev.toEpochSecond();
+			// local times of an overlap are ambiguous
+			localFrom = utcFrom + Math.max(offset, prev.getOffsetBefore().getTotalSeconds());
+		}
+
+		long utcUntil = Long.MAX_VALUE;
+		long localUntil = Long.MAX_VALUE;
+		if (next != null) {
+			utcUntil = next.toEpochSecond();
+			localUntil = utcUntil + Math.min(offset, next.getOffsetAfter().getTotalSeconds());
+		}
+
+		return new Period(utcFrom, utcUntil, localFrom, localUntil, offset);
+	}
+
+	/**
+	 * A period with a constant zone offset, in epoch seconds and in local seconds.
+	 */
+	private static class Period {
+		private final long utcFrom;
+		private final long utcUntil;
+		private final long localFrom;
+		private final long localUntil;
+		private final int offset;
+
+		Period(long utcFrom, long utcUntil, long localFrom, long localUntil, int offset) {
+			this.utcFrom = utcFrom;
+			this.utcUntil = utcUntil;
+			this.localFrom = localFrom;
+			this.localUntil = localUntil;
+			this.offset = offset;
+		}
+	}
+}
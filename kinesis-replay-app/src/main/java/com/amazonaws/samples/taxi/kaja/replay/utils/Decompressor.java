@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.utils.ParallelDecompressingInputStream.Segmenter;
+
+/**
+ * Decompresses objects according to the extension of their key.
+ *
+ * Objects that consist of independently compressed segments are decompressed in parallel: zstd frames (as written by pzstd or zstd -B),
+ * gzip members with the block size in the extra field (as written by bgzip) and concatenated bzip2 streams (as written by pbzip2). Other
+ * objects, like a single gzip member, are decompressed on the reading thread.
+ */
+public class Decompressor {
+	private static final Logger LOG = LoggerFactory.getLogger(Decompressor.class);
+
+	public static final String GZIP = "gzip";
+	public static final String BZIP2 = "bzip2";
+	public static final String ZSTD = "zstd";
+
+	private static final int ZSTD_MAGIC = 0xFD2FB528;
+	private static final int ZSTD_SKIPPABLE_MAGIC = 0x184D2A50;
+	private static final int[] ZSTD_DICTIONARY_ID_SIZE = { 0, 1, 2, 4 };
+	private static final byte[] BZIP2_BLOCK_MAGIC = { 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+
+	private final ExecutorService executor;
+	private final int readAhead;
+
+	/** Decompress every object on the reading thread. */
+	public Decompressor() {
+		this(0);
+	}
+
+	/**
+	 * @param threads number of threads that decompress the segments of an object in parallel, 0 decompresses on the reading thread
+	 */
+	public Decompressor(int threads) {
+		this.readAhead = 2 * threads;
+
+		if (threads > 0) {
+			LOG.info("decompressing objects with {} threads", threads);
+
+			AtomicInteger threadCount = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "decompressor-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		} else {
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * @return the compression format of the object or null if the object is not compressed
+	 */
+	public static String formatOf(String key) {
+		String lowerCase = key.toLowerCase();
+		if (lowerCase.endsWith(".gz")) {
+			return GZIP;
+		}
+		if (lowerCase.endsWith(".bz2")) {
+			return BZIP2;
+		}
+		if (lowerCase.endsWith(".zst") || lowerCase.endsWith(".zstd")) {
+			return ZSTD;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the key without the extension of the compression format
+	 */
+	public static String stripExtension(String key) {
+		return formatOf(key) == null ? key : key.substring(0, key.lastIndexOf('.'));
+	}
+
+	/**
+	 * @param format one of the compression formats of this class
+	 */
+	public InputStream open(InputStream in, String format) throws IOException {
+		ParallelDecompressingInputStream.Codec codec;
+		Segmenter segmenter;
+		switch (format) {
+		case GZIP:
+			codec = s -> new GzipCompressorInputStream(s, true);
+			segmenter = Decompressor::bgzfBlock;
+			break;
+		case BZIP2:
+			codec = s -> new BZip2CompressorInputStream(s, true);
+			segmenter = Decompressor::bzip2Stream;
+			break;
+		case ZSTD:
+			codec = ZstdCompressorInputStream::new;
+			segmenter = Decompressor::zstdFrame;
+			break;
+		default:
+			throw new IllegalArgumentException("unknown compression format " + format);
+		}
+
+		if (executor == null) {
+			return codec.open(in);
+		}
+		return new ParallelDecompressingInputStream(in, segmenter, codec, readAhead, executor);
+	}
+
+	/**
+	 * @return the threads that decompress, or the calling thread if there are none
+	 */
+	public Executor getExecutor() {
+		return executor != null ? executor : Runnable::run;
+	}
+
+	/**
+	 * @return number of tasks per object that should be in flight to keep the threads busy
+	 */
+	public int getReadAhead() {
+		return Math.max(1, readAhead);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * A zstd frame or skippable frame, its length follows from the sizes in the headers of its blocks.
+	 */
+	static int zstdFrame(byte[] b, int off, int len) {
+		if (len < 8) {
+			return Segmenter.NEED_MORE;
+		}
+
+		int magic = readInt(b, off);
+		if ((magic & 0xFFFFFFF0) == ZSTD_SKIPPABLE_MAGIC) {
+			long length = 8 + (readInt(b, off + 4) & 0xFFFFFFFFL);
+			if (length > ParallelDecompressingInputStream.MAX_SEGMENT_SIZE) {
+				return Segmenter.UNSPLITTABLE;
+			}
+			return length <= len ? (int)length : Segmenter.NEED_MORE;
+		}
+		if (magic != ZSTD_MAGIC) {
+			return Segmenter.UNSPLITTABLE;
+		}
+
+		int descriptor = b[off + 4] & 0xff;
+		int contentSizeFlag = descriptor >>> 6;
+		boolean singleSegment = (descriptor & 0x20) != 0;
+		boolean checksum = (descriptor & 0x04) != 0;
+
+		int position = 5 + (singleSegment ? 0 : 1) + ZSTD_DICTIONARY_ID_SIZE[descriptor & 0x03]
+			+ (contentSizeFlag == 0 ? (singleSegment ? 1 : 0) : 1 << contentSizeFlag);
+		while (true) {
+			if (position + 3 > len) {
+				return Segmenter.NEED_MORE;
+			}
+			int header = (b[off + position] & 0xff) | (b[off + position + 1] & 0xff) << 8 | (b[off + position + 2] & 0xff) << 16;
+			int type = (header >>> 1) & 0x03;
+			if (type == 3) {
+				return Segmenter.UNSPLITTABLE;
+			}
+
+			// an rle block holds a single byte
+			position += 3 + (type == 1 ? 1 : header >>> 3);
+			if ((header & 0x01) != 0) {
+				break;
+			}
+		}
+		position += checksum ? 4 : 0;
+
+		return position <= len ? position : Segmenter.NEED_MORE;
+	}
+
+	/**
+	 * A gzip member of the blocked gzip format, which stores the size of the member in the BC subfield of the extra field.
+	 */
+	static int bgzfBlock(byte[] b, int off, int len) {
+		if (len < 12) {
+			return Segmenter.NEED_MORE;
+		}
+		if (b[off] != 0x1f || b[off + 1] != (byte)0x8b || b[off + 2] != 8 || (b[off + 3] & 0x04) == 0) {
+			return Segmenter.UNSPLITTABLE;
+		}
+
+		int extraEnd = 12 + readShort(b, off + 10);
+		if (len < extraEnd) {
+			return Segmenter.NEED_MORE;
+		}
+
+		for (int position = 12; position + 4 <= extraEnd; position += 4 + readShort(b, off + position + 2)) {
+			if (b[off + position] == 'B' && b[off + position + 1] == 'C' && readShort(b, off + position + 2) == 2 && position + 6 <= extraEnd) {
+				int length = readShort(b, off + position + 4) + 1;
+				return length <= len ? length : Segmenter.NEED_MORE;
+			}
+		}
+		return Segmenter.UNSPLITTABLE;
+	}
+
+	/**
+	 * A bzip2 stream, which ends where the next stream starts.
+	 *
+	 * Streams end on a byte boundary, but their end can only be told by the header and block magic of the next stream. The 10 bytes of the
+	 * magic are not expected to occur within the compressed data.
+	 */
+	static int bzip2Stream(byte[] b, int off, int len) {
+		if (len < 4) {
+			return Segmenter.NEED_MORE;
+		}
+		if (!isBzip2Header(b, off)) {
+			return Segmenter.UNSPLITTABLE;
+		}
+
+		for (int i = off + 4; i + 10 <= off + len; i++) {
+			if (isBzip2Header(b, i) && matches(b, i + 4, BZIP2_BLOCK_MAGIC)) {
+				return i - off;
+			}
+		}
+		return Segmenter.NEED_MORE;
+	}
+
+	private static boolean isBzip2Header(byte[] b, int off) {
+		return b[off] == 'B' && b[off + 1] == 'Z' && b[off + 2] == 'h' && b[off + 3] >= '1' && b[off + 3] <= '9';
+	}
+
+	private static boolean matches(byte[] b, int off, byte[] pattern) {
+		for (int i = 0; i < pattern.length; i++) {
+			if (b[off + i] != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int readShort(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+	}
+}
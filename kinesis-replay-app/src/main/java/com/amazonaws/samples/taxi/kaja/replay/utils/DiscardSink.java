@@ -17,38 +17,40 @@
 
 package com.amazonaws.samples.taxi.kaja.replay.utils;
 
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.MoreExecutors;
-
-import java.util.concurrent.Semaphore;
-
-public class BackpressureSemaphore<T> implements FutureCallback<T> {
-
-  private final Semaphore semaphore;
-
-  public BackpressureSemaphore(int maxOutstandingRecordCount) {
-    semaphore = new Semaphore(maxOutstandingRecordCount, true);
-  }
+import java.util.concurrent.atomic.LongAdder;
 
-  @Override
-  public void onSuccess(T result) {
-    semaphore.release();
-  }
-
-  @Override
-  public void onFailure(Throwable t) {
-    semaphore.release();
-  }
-
-  public void acquire(ListenableFuture<T> f) {
-    try {
-      semaphore.acquire();
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.ListenableFuture;
 
-      Futures.addCallback(f, this, MoreExecutors.directExecutor());
-    } catch (InterruptedException e) {
-      semaphore.release();
-    }
-  }
+/**
+ * Drops all events and only counts them, to measure how fast events can be read and scheduled.
+ */
+public class DiscardSink implements EventSink {
+	private final LongAdder events = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+
+	@Override
+	public ListenableFuture<UserRecordResult> send(JsonEvent event, PartitionKey key) {
+		events.increment();
+		bytes.add(event.size());
+		return SENT;
+	}
+
+	public long getEvents() {
+		return events.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return "discard sink";
+	}
 }
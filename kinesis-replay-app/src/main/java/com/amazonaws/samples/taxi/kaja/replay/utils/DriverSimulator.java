@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.Event;
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Derives drivers from the trips of another source and adds their position reports, {@code driver_location} events, to the trips.
+ *
+ * Every trip is assigned to a driver that is idle in the pickup zone, to the driver that is idle the longest otherwise, or to a new
+ * driver. While on shift, a driver reports its position every ping interval: interpolated between the pickup and the dropoff while
+ * hired, at the dropoff while idle. Drivers that are idle for longer than the idle timeout go off shift.
+ *
+ * Trips and position reports are returned in timestamp order. The ingestion time of a position report is derived from the ingestion
+ * time of the first trip, or from the time base, with the speedup of the replay.
+ */
+public class DriverSimulator implements EventSource {
+	private static final Logger LOG = LoggerFactory.getLogger(DriverSimulator.class);
+
+	public static final String TYPE = "driver_location";
+	public static final String STATUS_HIRED = "hired";
+	public static final String STATUS_AVAILABLE = "available";
+
+	public static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	private static final byte[] PICKUP_DATETIME_FIELD = Partitioners.pattern("pickup_datetime");
+	private static final byte[] DROPOFF_DATETIME_FIELD = Partitioners.pattern("dropoff_datetime");
+	private static final byte[] PICKUP_LOCATION_FIELD = Partitioners.pattern("pickup_location_id");
+	private static final byte[] DROPOFF_LOCATION_FIELD = Partitioners.pattern("dropoff_location_id");
+	private static final byte[] PICKUP_LATITUDE_FIELD = Partitioners.pattern("pickup_latitude");
+	private static final byte[] PICKUP_LONGITUDE_FIELD = Partitioners.pattern("pickup_longitude");
+	private static final byte[] DROPOFF_LATITUDE_FIELD = Partitioners.pattern("dropoff_latitude");
+	private static final byte[] DROPOFF_LONGITUDE_FIELD = Partitioners.pattern("dropoff_longitude");
+
+	private final EventSource source;
+	private final float speedupFactor;
+	private final long pingIntervalMillis;
+	private final long idleTimeoutMillis;
+
+	/** Drivers on shift by the time of their next position report. */
+	private final PriorityQueue<Driver> schedule = new PriorityQueue<>(Comparator.comparingLong((Driver d) -> d.nextPing));
+	/** Hired drivers by the end of their trip. */
+	private final PriorityQueue<Driver> hired = new PriorityQueue<>(Comparator.comparingLong((Driver d) -> d.dropoffTime));
+	/** Idle drivers in the order they became idle. */
+	private final Set<Driver> idle = new LinkedHashSet<>();
+	private final Map<Integer, Set<Driver>> idleByZone = new HashMap<>();
+
+	private long nextDriverId;
+	private long driverIdStride = 1;
+
+	private Instant referenceTimestamp;
+	private Instant referenceIngestionTime;
+
+	private JsonEvent trip;
+	private JsonEvent pending;
+
+	private long drivers;
+	private long pings;
+
+	public DriverSimulator(EventSource source, float speedupFactor, long pingIntervalMillis) {
+		this(source, speedupFactor, pingIntervalMillis, IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param pingIntervalMillis event time between two position reports of a driver
+	 * @param idleTimeoutMillis event time after which an idle driver goes off shift
+	 */
+	public DriverSimulator(EventSource source, float speedupFactor, long pingIntervalMillis, long idleTimeoutMillis) {
+		this.source = source;
+		this.speedupFactor = speedupFactor;
+		this.pingIntervalMillis = pingIntervalMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Use the driver ids p, p + n, p + 2n, ..., so the drivers of the workers of a distributed replay don't collide.
+	 */
+	public void setPartition(int p, int n) {
+		this.nextDriverId = p;
+		this.driverIdStride = n;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (pending == null) {
+			pending = advance();
+		}
+		return pending != null;
+	}
+
+	@Override
+	public JsonEvent next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		JsonEvent event = pending;
+		pending = null;
+		return event;
+	}
+
+	/**
+	 * @return the next trip or position report, null if there are no more trips and all drivers are off shift
+	 */
+	private JsonEvent advance() {
+		while (true) {
+			if (trip == null && source.hasNext()) {
+				trip = source.next();
+				if (referenceTimestamp == null) {
+					referenceTimestamp = trip.timestamp;
+					referenceIngestionTime = trip.ingestionTime;
+				}
+			}
+
+			Driver driver = schedule.peek();
+			if (driver != null && (trip == null || driver.nextPing < trip.timestamp.toEpochMilli())) {
+				schedule.poll();
+
+				JsonEvent ping = ping(driver);
+				if (ping != null) {
+					return ping;
+				}
+			} else if (trip != null) {
+				JsonEvent event = trip;
+				trip = null;
+
+				dispatch(event);
+				return event;
+			} else {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Assign the trip to a driver.
+	 */
+	private void dispatch(JsonEvent event) {
+		// only a few fields are needed, they are read from the payload without parsing the whole trip
+		ByteBuffer payload = event.toByteBuffer();
+
+		long pickupTime = Partitioners.datetimeField(payload, PICKUP_DATETIME_FIELD);
+		long dropoffTime = Partitioners.datetimeField(payload, DROPOFF_DATETIME_FIELD);
+		if (pickupTime == DataNormalizer.INVALID_DATETIME || dropoffTime == DataNormalizer.INVALID_DATETIME) {
+			return;
+		}
+
+		int pickupLocationId = Partitioners.intField(payload, PICKUP_LOCATION_FIELD);
+		int dropoffLocationId = Partitioners.intField(payload, DROPOFF_LOCATION_FIELD);
+		double[] pickup = position(Partitioners.doubleField(payload, PICKUP_LATITUDE_FIELD), Partitioners.doubleField(payload, PICKUP_LONGITUDE_FIELD),
+			pickupLocationId);
+		double[] dropoff = position(Partitioners.doubleField(payload, DROPOFF_LATITUDE_FIELD), Partitioners.doubleField(payload, DROPOFF_LONGITUDE_FIELD),
+			dropoffLocationId);
+		if (pickup == null || dropoff == null) {
+			return;
+		}
+
+		long now = event.timestamp.toEpochMilli();
+		release(now);
+
+		Driver driver = idleDriver(pickupLocationId);
+		if (driver == null) {
+			driver = new Driver(nextDriverId);
+			nextDriverId += driverIdStride;
+			drivers++;
+
+			driver.nextPing = now;
+			schedule.add(driver);
+		}
+
+		// trips that are replayed by their dropoff time start at the time they are replayed
+		driver.pickupTime = Math.max(pickupTime, now);
+		driver.dropoffTime = Math.max(dropoffTime, driver.pickupTime);
+		driver.pickupLocationId = pickupLocationId;
+		driver.dropoffLocationId = dropoffLocationId;
+		driver.pickup = pickup;
+		driver.dropoff = dropoff;
+		hired.add(driver);
+	}
+
+	/**
+	 * @return the coordinates of the pickup or dropoff of a trip, the centroid of its zone if the trip doesn't have coordinates
+	 */
+	private static double[] position(double latitude, double longitude, int locationId) {
+		// missing coordinates are 0 in the taxi data
+		if (latitude != 0 && longitude != 0 && !Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+			return new double[] { latitude, longitude };
+		}
+		return TaxiZones.centroid(locationId);
+	}
+
+	/**
+	 * @return the driver that is idle the longest in the zone, or anywhere if there is none in the zone, null if no driver is idle
+	 */
+	private Driver idleDriver(int locationId) {
+		Set<Driver> zone = idleByZone.get(locationId);
+		Iterator<Driver> it = (zone != null && !zone.isEmpty() ? zone : idle).iterator();
+		if (!it.hasNext()) {
+			return null;
+		}
+
+		Driver driver = it.next();
+		removeIdle(driver);
+		return driver;
+	}
+
+	/**
+	 * Move the drivers whose trip has ended by the given time to the idle drivers.
+	 */
+	private void release(long time) {
+		while (!hired.isEmpty() && hired.peek().dropoffTime <= time) {
+			Driver driver = hired.poll();
+			idle.add(driver);
+			idleByZone.computeIfAbsent(driver.dropoffLocationId, k -> new LinkedHashSet<>()).add(driver);
+		}
+	}
+
+	private void removeIdle(Driver driver) {
+		idle.remove(driver);
+		Set<Driver> zone = idleByZone.get(driver.dropoffLocationId);
+		if (zone != null) {
+			zone.remove(driver);
+		}
+	}
+
+	/**
+	 * @return the position report of the driver at its next ping time, null if the driver goes off shift instead
+	 */
+	private JsonEvent ping(Driver driver) {
+		long time = driver.nextPing;
+		release(time);
+
+		double latitude;
+		double longitude;
+		int locationId;
+		String status;
+		if (time >= driver.dropoffTime) {
+			if (time - driver.dropoffTime > idleTimeoutMillis) {
+				removeIdle(driver);
+				return null;
+			}
+
+			latitude = driver.dropoff[0];
+			longitude = driver.dropoff[1];
+			locationId = driver.dropoffLocationId;
+			status = STATUS_AVAILABLE;
+		} else {
+			double fraction = Math.max(0, (double)(time - driver.pickupTime) / (driver.dropoffTime - driver.pickupTime));
+			latitude = driver.pickup[0] + fraction * (driver.dropoff[0] - driver.pickup[0]);
+			longitude = driver.pickup[1] + fraction * (driver.dropoff[1] - driver.pickup[1]);
+			locationId = fraction < 0.5 ? driver.pickupLocationId : driver.dropoffLocationId;
+			status = STATUS_HIRED;
+		}
+
+		driver.nextPing = time + pingIntervalMillis;
+		schedule.add(driver);
+		pings++;
+
+		String payload = new ObjectNode(JsonNodeFactory.instance)
+			.put("driver_id", driver.id)
+			.put("latitude", latitude)
+			.put("location_id", locationId)
+			.put("longitude", longitude)
+			.put("status", status)
+			.put("timestamp", DateTimeCodec.DATETIME.format(time))
+			.put(Event.TYPE_FIELD, TYPE)
+			.toString();
+
+		Instant timestamp = Instant.ofEpochMilli(time);
+		return new JsonEvent(payload, timestamp, toIngestionTime(timestamp));
+	}
+
+	private Instant toIngestionTime(Instant timestamp) {
+		long delta = Math.round((timestamp.toEpochMilli() - referenceTimestamp.toEpochMilli()) / speedupFactor);
+		return referenceIngestionTime.plusMillis(delta);
+	}
+
+	@Override
+	public void seek(Instant timestamp) {
+		source.seek(timestamp);
+	}
+
+	@Override
+	public Instant peekTimestamp() {
+		if (pending != null) {
+			return pending.timestamp;
+		}
+
+		Instant next = trip != null ? trip.timestamp : source.peekTimestamp();
+		Driver driver = schedule.peek();
+		if (driver != null && (next == null || driver.nextPing < next.toEpochMilli())) {
+			return Instant.ofEpochMilli(driver.nextPing);
+		}
+		return next;
+	}
+
+	@Override
+	public void setTimeBase(Instant ingestionStartTime, Instant origin) {
+		source.setTimeBase(ingestionStartTime, origin);
+
+		referenceTimestamp = origin;
+		referenceIngestionTime = ingestionStartTime;
+
+		// events that have been read ahead are rescheduled as well
+		if (trip != null) {
+			trip = new JsonEvent(trip.toByteBuffer(), trip.timestamp, toIngestionTime(trip.timestamp));
+		}
+		if (pending != null) {
+			pending = new JsonEvent(pending.toByteBuffer(), pending.timestamp, toIngestionTime(pending.timestamp));
+		}
+	}
+
+	@Override
+	public void close() {
+		LOG.info("simulated {} drivers with {} position reports", drivers, pings);
+		source.close();
+	}
+
+	private static class Driver {
+		private final long id;
+
+		private long nextPing;
+		private long pickupTime;
+		private long dropoffTime;
+		private int pickupLocationId;
+		private int dropoffLocationId;
+		private double[] pickup;
+		private double[] dropoff;
+
+		Driver(long id) {
+			this.id = id;
+		}
+	}
+}
@@ -17,78 +17,191 @@
 
 package com.amazonaws.samples.taxi.kaja.replay.utils;
 
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.PriorityQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
 
+/**
+ * Reads events from a source in a background thread and buffers them in timestamp order.
+ *
+ * The source is expected to be nearly sorted: events pass a small reorder window on the heap and are then appended to an off-heap
+ * {@link EventRing} that is bounded by bytes. An event that arrives later than the whole reorder window is passed on out of order.
+ */
 public class EventBuffer extends Thread {
 	private static final Logger LOG = LoggerFactory.getLogger(EventBuffer.class);
 
-	private volatile boolean running;
+	private volatile boolean running = true;
+	/** The exception the source failed with, null if it has been read completely. */
+	private volatile RuntimeException failure;
+
+	private EventSource reader;
+	private final int reorderWindow;
+	private final PriorityQueue<JsonEvent> window;
+	private final EventRing ring;
+
+	private long lateEvents;
+	private long lastTimestamp = Long.MIN_VALUE;
+
+	// written by the buffer thread only
+	private volatile long readEvents;
+	private volatile long discardedEvents;
 
-	private EventReader reader;
-	private final int bufferSize;
-	private final Semaphore semaphore;
-	private final PriorityBlockingQueue<JsonEvent> eventPool;
+	private volatile LatencyHistogram dwellTime;
 
-	public EventBuffer(EventReader reader, int bufferSize) {
+	/**
+	 * @param bufferSize maximum number of buffered events
+	 * @param bufferMemory maximum bytes of buffered payloads
+	 * @param reorderWindow number of events that are sorted before they are buffered
+	 */
+	public EventBuffer(EventSource reader, int bufferSize, int bufferMemory, int reorderWindow) {
 		this.reader = reader;
-		this.bufferSize = bufferSize;
-		this.semaphore = new Semaphore(bufferSize);
-		this.eventPool = new PriorityBlockingQueue<>(bufferSize, JsonEvent.timestampComparator);
+		this.reorderWindow = Math.max(1, reorderWindow);
+		this.window = new PriorityQueue<>(this.reorderWindow + 1, JsonEvent.timestampComparator);
+		this.ring = new EventRing(bufferMemory, bufferSize);
 	}
 
 	public void run() {
-		LOG.info("Starting event buffer");
+		LOG.info("Starting event buffer with {} bytes for up to {} events", ring.arenaSize(), ring.capacity());
 
-		running = true;
-		while (reader.hasNext()) {
+		try {
+			try {
+				read();
+			} catch (RuntimeException e) {
+				// pass on the events that have been read, the failure is raised once they have been taken
+				LOG.error("failed to read events", e);
+
+				failure = e;
+			}
+
+			while (!window.isEmpty()) {
+				publish(window.poll());
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("interrupted");
+		} finally {
 			try {
-				LOG.debug("require a semaphore: {} / {}", semaphore.availablePermits(), eventPool.size());
-				semaphore.acquire();
-				
-				JsonEvent je = reader.next();
-
-				LOG.debug("add event: {}", je.timestamp);
-				eventPool.add(je);
-				LOG.debug("event added: {}", eventPool.size());
-			} catch (InterruptedException e) {
-				LOG.debug("interrupted");
+				reader.close();
+			} finally {
+				running = false;
+			}
+		}
+
+		LOG.info("Event buffer thread exit, {} events were later than the reorder window of {} events.", lateEvents, reorderWindow);
+	}
+
+	/**
+	 * Pass the events of the source through the reorder window into the ring.
+	 */
+	private void read() throws InterruptedException {
+		while (reader.hasNext()) {
+			JsonEvent je = reader.next();
+			if (je == null) {
+				continue;
+			}
+			readEvents++;
+			if (!ring.fits(je)) {
+				LOG.warn("Discard event of {} bytes that exceeds the buffer: {}", je.size(), je.timestamp);
+				discardedEvents++;
+				continue;
 			}
+
+			LOG.debug("add event: {}", je.timestamp);
+			window.add(je);
+			if (window.size() > reorderWindow) {
+				publish(window.poll());
+			}
+		}
+	}
+
+	private void publish(JsonEvent je) throws InterruptedException {
+		long timestamp = je.timestamp.toEpochMilli();
+		if (timestamp < lastTimestamp) {
+			lateEvents++;
+			LOG.debug("event {} is later than the reorder window", je.timestamp);
+		} else {
+			lastTimestamp = timestamp;
 		}
 
-		running = false;
-		LOG.info("Event buffer thread exit.");
+		ring.put(je);
 	}
 
 	public boolean hasNext() {
-		return running || !eventPool.isEmpty();
+		return running || !ring.isEmpty();
 	}
 
+	/**
+	 * @return the next event, or null if the source has been exhausted
+	 * @throws IllegalStateException if reading the source failed, once the events read before have been taken
+	 */
 	public JsonEvent take() throws InterruptedException {
-		LOG.debug("take a event of {} / {}", semaphore.availablePermits(), eventPool.size());
-		JsonEvent je = eventPool.take();
+		for (int idle = 0; ; idle++) {
+			// read the flag first, the producer may add its last events right before it stops
+			boolean stopped = !running;
+
+			JsonEvent je = poll();
+			if (je != null) {
+				return je;
+			}
+			if (stopped) {
+				if (failure != null) {
+					throw new IllegalStateException("failed to read events", failure);
+				}
+				return null;
+			}
+			EventRing.idle(idle);
+		}
+	}
+
+	/**
+	 * @return the next event, or null if no event is buffered right now
+	 */
+	public JsonEvent poll() {
+		JsonEvent je = ring.poll();
 
-		LOG.debug("release semaphore {}", semaphore.availablePermits());
-		semaphore.release();
-		
+		LatencyHistogram histogram = dwellTime;
+		if (je != null && histogram != null) {
+			histogram.recordNanos(ring.getDwellNanos());
+		}
 		return je;
 	}
 
 	public JsonEvent peek() {
-		return eventPool.peek();
+		return ring.peek();
 	}
 
 	public int size() {
-		return eventPool.size();
+		return ring.size();
+	}
+
+	/**
+	 * @return number of events that have been read from the source
+	 */
+	public long getReadEvents() {
+		return readEvents;
+	}
+
+	/**
+	 * @return number of events that have been discarded because they exceed the buffer
+	 */
+	public long getDiscardedEvents() {
+		return discardedEvents;
+	}
+
+	/**
+	 * Record the time events spend in the buffer.
+	 */
+	public void setDwellTimeHistogram(LatencyHistogram dwellTime) {
+		this.dwellTime = dwellTime;
 	}
 
+	/**
+	 * Wait until the buffer is full or the source has been exhausted.
+	 */
 	public void fill() throws InterruptedException {
-		while (eventPool.size() < bufferSize) {
+		while (running && !ring.isFilled()) {
 			Thread.sleep(100);
 		}
 	}
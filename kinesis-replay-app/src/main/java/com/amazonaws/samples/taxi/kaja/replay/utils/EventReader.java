@@ -18,15 +18,19 @@
 package com.amazonaws.samples.taxi.kaja.replay.utils;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,158 +39,352 @@ import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
 
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
-public class EventReader implements Iterator<JsonEvent> {
+public class EventReader implements EventSource {
 	private static final Logger LOG = LoggerFactory.getLogger(EventReader.class);
 
 	private final String bucketName;
-	private final S3Client s3;
-	private final Iterator<S3Object> s3Objects;
+	private final ObjectDownloader downloader;
+	private final Iterable<S3Object> objects;
+	private final int readerThreads;
+	private final int objectQueueSize;
+	private Iterator<S3Object> s3Objects;
 
+	private final float speedupFactor;
+	private final String timestampAttributeName;
 	private final JsonEvent.Parser eventParser;
-	private String objectType;
-	private CSVParser objectReader;
-	private List<String> objectHeader;
+	private final boolean mergeObjects;
+	private ObjectMerger<S3Object> objectMerger;
+	private ObjectReader objectReader;
+
+	private ForkJoinPool parsePool;
+	private int parseReadAhead;
+
+	private int partition;
+	private int partitions = 1;
+
+	private int amplificationFactor = 1;
+	private long jitterMillis;
+
+	private TimeIndex timeIndex;
+	/** While seeking, objects are opened at the indexed offset of this timestamp. */
+	private volatile long seekTimestamp = Long.MIN_VALUE;
+	private boolean started;
 
 	private JsonEvent next;
 
 	public EventReader(S3Client s3, String bucketName, String prefix, float speedupFactor, String timestampAttributeName) {
-		this.s3 = s3;
+		this(new ObjectDownloader(s3), bucketName, prefix, speedupFactor, timestampAttributeName, 1, 0);
+	}
+
+	/**
+	 * @param downloader lists, opens and decompresses the objects, with a single or with parallel ranged GET requests or from local files
+	 * @param readerThreads number of objects that are read concurrently and merged by event timestamp, at least all objects of a month;
+	 *        1 reads the objects one after another
+	 * @param objectQueueSize number of parsed events that are buffered per object when reading concurrently
+	 */
+	public EventReader(ObjectDownloader downloader, String bucketName, String prefix, float speedupFactor, String timestampAttributeName, int readerThreads, int objectQueueSize) {
+		this.downloader = downloader;
 		this.bucketName = bucketName;
+		this.speedupFactor = speedupFactor;
+		this.timestampAttributeName = timestampAttributeName;
 		this.eventParser = new JsonEvent.Parser(speedupFactor, timestampAttributeName);
+		this.mergeObjects = readerThreads > 1;
+		this.readerThreads = readerThreads;
+		this.objectQueueSize = objectQueueSize;
+
+		Iterable<S3Object> listing = downloader.list(bucketName, prefix);
+
+		if (mergeObjects) {
+			// read objects of the same month side by side, so that their events can be merged
+			List<S3Object> sorted = StreamSupport.stream(listing.spliterator(), false)
+				.sorted((o1, o2) -> ObjectMerger.PERIOD_ORDER.compare(o1.key(), o2.key()))
+				.collect(Collectors.toList());
+
+			LOG.info("reading {} objects with {} concurrent readers", sorted.size(), readerThreads);
+
+			this.objects = sorted;
+		} else {
+			this.objects = listing;
+		}
+	}
+
+	/**
+	 * Use the sparse index of the objects to seek, must be set before events are read.
+	 */
+	public void setTimeIndex(TimeIndex timeIndex) {
+		this.timeIndex = timeIndex;
+	}
 
-		ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build();
-		this.s3Objects = s3.listObjectsV2Paginator(request).contents().iterator();
+	/**
+	 * Only read every partitions-th object in the order of {@link ObjectMerger#PERIOD_ORDER}, starting with the object at the index
+	 * partition, eg, to share the objects between the workers of a distributed replay. Objects of the same month are spread over the
+	 * partitions, so that they are replayed side by side. Must be set before events are read.
+	 */
+	public void setPartition(int partition, int partitions) {
+		this.partition = partition;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Emit factor events for every record, the record itself and synthetic copies of it, must be set before events are read.
+	 *
+	 * @param jitterMillis maximum shift of the datetimes of a copy, see {@link Amplifier}
+	 */
+	public void setAmplification(int factor, long jitterMillis) {
+		if (factor > 1) {
+			LOG.info("amplifying every record {} times with a jitter of {} ms", factor, jitterMillis);
+		}
+		this.amplificationFactor = factor;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Parse csv objects in chunks on a fork-join pool instead of on the reading thread, must be set before events are read.
+	 *
+	 * @param threads parallelism of the pool, 0 parses on the reading thread
+	 */
+	public void setParseThreads(int threads) {
+		if (threads > 0) {
+			LOG.info("parsing csv objects in chunks with {} threads", threads);
+
+			this.parsePool = new ForkJoinPool(threads);
+			this.parseReadAhead = 2 * threads;
+		}
+	}
+
+	/**
+	 * @return the largest number of objects that cover the same month, they all have to be open at the same time to be merged
+	 */
+	static int maxObjectsPerPeriod(Iterable<S3Object> objects) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (S3Object object : objects) {
+			counts.merge(ObjectMerger.period(object.key()), 1, Integer::sum);
+		}
+		return counts.isEmpty() ? 0 : Collections.max(counts.values());
+	}
+
+	/**
+	 * Open the first objects, deferred until the first event is read so that a seek can open them at the indexed offset.
+	 */
+	private void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+
+		Iterable<S3Object> assigned = partitions > 1 ? partition(objects) : objects;
+		if (mergeObjects) {
+			// events are only merged into timestamp order if all objects of a month are open at the same time
+			int concurrentObjects = readerThreads;
+			int perPeriod = maxObjectsPerPeriod(assigned);
+			if (perPeriod > concurrentObjects) {
+				LOG.info("reading {} objects concurrently instead of {}, as many objects cover the same month", perPeriod, concurrentObjects);
+				concurrentObjects = perPeriod;
+			}
+
+			this.objectMerger = new ObjectMerger<>(assigned.iterator(), this::openObject, concurrentObjects, objectQueueSize);
+		} else {
+			this.s3Objects = assigned.iterator();
+		}
 
 		// initialize next and hasNext fields
-		if (nextS3Object()) {
+		if (mergeObjects || nextS3Object()) {
 			nextRecord();
 		}
 	}
 
+	private List<S3Object> partition(Iterable<S3Object> objects) {
+		List<S3Object> all = new ArrayList<>();
+		objects.forEach(all::add);
+
+		List<String> sorted = all.stream().map(S3Object::key).sorted(ObjectMerger.PERIOD_ORDER).collect(Collectors.toList());
+		Set<String> keys = new HashSet<>();
+		for (int i = partition; i < sorted.size(); i += partitions) {
+			keys.add(sorted.get(i));
+		}
+
+		LOG.info("reading {} of {} objects as partition {} of {}", keys.size(), all.size(), partition, partitions);
+		return all.stream().filter(o -> keys.contains(o.key())).collect(Collectors.toList());
+	}
+
+	@Override
 	public void seek(Instant timestamp) {
+		if (!started && timeIndex != null) {
+			seekTimestamp = timestamp.toEpochMilli();
+		}
+		start();
+
 		while (next != null && next.timestamp.isBefore(timestamp)) {
 			next();
 		}
+		seekTimestamp = Long.MIN_VALUE;
+	}
+
+	@Override
+	public Instant peekTimestamp() {
+		start();
+		return next == null ? null : next.timestamp;
+	}
+
+	@Override
+	public void setTimeBase(Instant ingestionStartTime, Instant origin) {
+		eventParser.setTimeBase(ingestionStartTime, origin);
+
+		// the next event has been parsed already
+		if (next != null) {
+			next = eventParser.reschedule(next);
+		}
 	}
 
 	@Override
 	public boolean hasNext() {
+		start();
 		return next != null;
 	}
 
+	@Override
 	public void close() {
+		closeObject();
+
+		if (objectMerger != null) {
+			objectMerger.close();
+		}
+
+		downloader.shutdown();
+
+		if (parsePool != null) {
+			parsePool.shutdownNow();
+		}
+	}
+
+	private void closeObject() {
 		if (objectReader != null) {
-			try {
-				objectReader.close();
-			} catch (IOException e) {
-				LOG.warn("failed to close object: {}", e);
-			}
-			
+			objectReader.close();
 			objectReader = null;
 		}
 	}
 
-	private boolean setObjectType(String key) {
-		objectType = null;
+	/**
+	 * @return the taxi type of the object or null if the object does not contain trip data
+	 */
+	public static String objectType(String key) {
 		if (StringUtils.containsIgnoreCase(key, "yellow")) {
-			objectType = "yellow";
-			return true;
+			return "yellow";
 		}
 
 		if (StringUtils.containsIgnoreCase(key, "green")) {
-			objectType = "green";
-			return true;
+			return "green";
 		}
 
 		if (StringUtils.containsIgnoreCase(key, "fhvhv")) {
-			objectType = "fhvhv";
-			return true;
+			return "fhvhv";
 		}
 		if (StringUtils.containsIgnoreCase(key, "fhv")) {
-			objectType = "fhv";
-			return true;
+			return "fhv";
 		}
-		return false;
+		return null;
+	}
+
+	/**
+	 * @return true if the object is a csv file, which may be compressed
+	 */
+	public static boolean isCsv(String key) {
+		return StringUtils.endsWithIgnoreCase(Decompressor.stripExtension(key), ".csv");
+	}
+
+	public static boolean isParquet(String key) {
+		return StringUtils.endsWithIgnoreCase(key, ".parquet");
+	}
+
+	/**
+	 * @return a reader for the object or null if the object should be skipped
+	 */
+	private ObjectReader openObject(S3Object s3Object) {
+		String name = downloader.uri(bucketName, s3Object.key());
+		String objectType = objectType(s3Object.key());
+		if (!(isCsv(s3Object.key()) || isParquet(s3Object.key())) || objectType == null) {
+			LOG.info("skipping object {}", name);
+			return null;
+		}
+
+		// skip the rows that are known to be earlier than the timestamp to seek to
+		ObjectIndex index = timeIndex == null ? null : timeIndex.get(s3Object);
+		long seek = seekTimestamp;
+		long offset = 0;
+		if (index != null && seek != Long.MIN_VALUE) {
+			offset = index.offsetOf(seek);
+			if (offset >= index.getSize()) {
+				LOG.info("skipping object {} as all events are before {}", name, Instant.ofEpochMilli(seek));
+				return null;
+			}
+		}
+
+		LOG.info("---------------------------------------------------");
+		LOG.info("reading object {} from offset {}", name, offset);
+		try {
+			// objects that are merged need their own parser, the ingestion time is assigned once the events are merged
+			JsonEvent.Parser parser = !mergeObjects ? eventParser : new JsonEvent.Parser(speedupFactor, timestampAttributeName);
+
+			ObjectReader reader;
+			if (isParquet(s3Object.key())) {
+				Decompressor decompressor = downloader.getDecompressor();
+				ParquetRows rows = new ParquetRows(ParquetFile.open(downloader.openRanges(bucketName, s3Object)), decompressor.getExecutor(),
+					decompressor.getReadAhead());
+				reader = new ObjectReader(name, objectType, rows, parser, rows.getHeader());
+			} else {
+				List<String> header = offset > 0 ? index.getHeaderColumns() : null;
+				if (parsePool != null) {
+					CsvChunkParser chunks = new CsvChunkParser(name, downloader.open(bucketName, s3Object, offset), parsePool, parseReadAhead);
+					reader = new ObjectReader(name, objectType, chunks, parser, header);
+				} else {
+					reader = new ObjectReader(name, objectType, downloader.open(bucketName, s3Object, offset), parser, header);
+				}
+			}
+
+			reader.amplify(amplificationFactor, jitterMillis);
+			return reader;
+		} catch (SdkClientException e) {
+			// if we cannot read this object, skip it and try to read the next one
+			LOG.warn("skipping object {} as it failed to open", name);
+			LOG.debug("failed to open object", e);
+		} catch (IOException e) {
+			LOG.warn("skipping object {} as it failed to read: {}", name, e.getMessage());
+			LOG.debug("failed to read object", e);
+		}
+		return null;
 	}
 
 	private boolean nextS3Object() {
 		while (s3Objects.hasNext()) {
 			// if another object has been previously read, close it before opening another one
-			close();
-			
-			// try to open the next S3 object
-			S3Object s3Object = s3Objects.next();
-	
-			if (!StringUtils.endsWithIgnoreCase(s3Object.key(), ".csv") || !setObjectType(s3Object.key())) {
-				LOG.info("skipping object s3://{}/{}", bucketName, s3Object.key());
-				continue;
-			}
+			closeObject();
 
-			LOG.info("---------------------------------------------------");
-			LOG.info("reading object s3://{}/{}", bucketName, s3Object.key());
-			try {
-				GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(s3Object.key()).build();
-				objectReader = CSVFormat.DEFAULT.parse(new InputStreamReader(s3.getObject(request)));
-				
-				Iterator<CSVRecord> objectIterator = objectReader.iterator();
-				if (!objectIterator.hasNext()) {
-					continue;
-				}
-				
-				CSVRecord r = objectIterator.next();
-				objectHeader = r.toList();
-				if (objectHeader.isEmpty()) {
-					LOG.warn("skipping object s3://{}/{} as it hash no csv header", bucketName, s3Object.key());
-					continue;
-				}
-				
-				DataNormalizer.normalizeHeader(objectHeader);
-				
+			// try to open the next S3 object
+			objectReader = openObject(s3Objects.next());
+			if (objectReader != null) {
 				return true;
-			} catch (SdkClientException e) {
-				// if we cannot read this object, skip it and try to read the next one
-				LOG.warn("skipping object s3://{}/{} as it failed to open", bucketName, s3Object.key());
-				LOG.debug("failed to open object", e);
-				continue;
-			} catch (IOException e) {
-				LOG.warn("skipping object s3://{}/{} as it failed to read", bucketName, s3Object.key());
-				LOG.debug("failed to read object", e);
-				continue;
 			}
 		}
 
 		LOG.info("no next s3 object");
 		return false;
 	}
-	
+
 	private void nextRecord() {
+		if (mergeObjects) {
+			next = objectMerger.hasNext() ? eventParser.reschedule(objectMerger.next()) : null;
+			return;
+		}
+
 		next = null;
 		while (objectReader != null) {
-			Iterator<CSVRecord> it = objectReader.iterator();
-			while (it.hasNext()) {
-				try {
-					List<String> record = it.next().toList();
-					Map<String, Object> data = DataNormalizer.list2map(objectHeader, record);
-					data.put("type", objectType);
-					next = eventParser.parse(data);
-					if (next != null) {
-						LOG.debug("get record {}: {}", objectReader.getCurrentLineNumber(), next.timestamp);
-						return;
-					}
-				} catch (Exception e) {
-					Throwable t = e.getCause();
-					if (t instanceof IOException) {
-						LOG.warn("Failed to read record [{}]: {}", objectReader.getCurrentLineNumber(), t.getMessage());
-						break;
-					}
-					LOG.warn("Failed to read record [{}]: {}", objectReader.getCurrentLineNumber(), e.getMessage());
-				}
+			if (objectReader.hasNext()) {
+				next = objectReader.next();
+				return;
 			}
-			
+
 			if (!nextS3Object()) {
 				return;
 			}
@@ -195,6 +393,7 @@ public class EventReader implements Iterator<JsonEvent> {
 
 	@Override
 	public JsonEvent next() {
+		start();
 		if (next == null) {
 			return null;
 		}
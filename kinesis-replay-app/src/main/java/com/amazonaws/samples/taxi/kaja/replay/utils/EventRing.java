@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * A bounded single-producer/single-consumer queue of events that keeps the payloads in an off-heap arena.
+ *
+ * Payloads are appended to a direct byte buffer that is used as a ring, timestamps are kept in primitive arrays. The queue is bounded both
+ * by bytes and by the number of events. Producer and consumer only synchronize through two sequences, so exactly one thread may call
+ * {@link #put(JsonEvent)} and exactly one other thread may call {@link #take()} and {@link #peek()}.
+ */
+public class EventRing {
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 100_000;
+
+	private final ByteBuffer arena;
+	private final int arenaSize;
+	private final int mask;
+
+	private final long[] timestamps;
+	private final long[] ingestionTimes;
+	private final long[] starts;
+	private final int[] lengths;
+	private final long[] putTimes;
+
+	/** Number of events that have been put, written by the producer. */
+	private final AtomicLong tail = new AtomicLong();
+	/** Number of events that have been taken, written by the consumer. */
+	private final AtomicLong head = new AtomicLong();
+	/** Position in the arena up to which payloads have been taken, written by the consumer. */
+	private final AtomicLong released = new AtomicLong();
+
+	// producer state
+	private final ByteBuffer writeView;
+	private long written;
+	private volatile boolean filled;
+
+	// consumer state
+	private final ByteBuffer readView;
+	private long dwellNanos;
+
+	/**
+	 * @param arenaSize bytes of off-heap memory for payloads
+	 * @param maxEvents maximum number of events, rounded up to a power of two
+	 */
+	public EventRing(int arenaSize, int maxEvents) {
+		int capacity = Integer.highestOneBit(Math.max(2, maxEvents) - 1) << 1;
+
+		this.arena = ByteBuffer.allocateDirect(arenaSize);
+		this.arenaSize = arenaSize;
+		this.mask = capacity - 1;
+		this.timestamps = new long[capacity];
+		this.ingestionTimes = new long[capacity];
+		this.starts = new long[capacity];
+		this.lengths = new int[capacity];
+		this.putTimes = new long[capacity];
+		this.writeView = arena.duplicate();
+		this.readView = arena.duplicate();
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	public int arenaSize() {
+		return arenaSize;
+	}
+
+	/**
+	 * @return false if the payload is larger than the arena and can never be stored
+	 */
+	public boolean fits(JsonEvent event) {
+		return event.size() <= arenaSize;
+	}
+
+	/**
+	 * Append an event, waits until there is a free slot and enough free bytes in the arena.
+	 */
+	public void put(JsonEvent event) throws InterruptedException {
+		ByteBuffer payload = event.toByteBuffer();
+		int length = payload.remaining();
+		if (length > arenaSize) {
+			throw new IllegalArgumentException("payload of " + length + " bytes exceeds buffer of " + arenaSize + " bytes");
+		}
+
+		// payloads are stored contiguously, skip the end of the arena if the payload doesn't fit
+		long start = written;
+		int offset = (int)(start % arenaSize);
+		if (offset + length > arenaSize) {
+			start += arenaSize - offset;
+			offset = 0;
+		}
+
+		// the skipped end counts as used until the consumer passes it, so a payload of more than half the arena may never fit after
+		// a skip; every byte is free once the ring is empty though
+		long t = tail.get();
+		for (int idle = 0; t - head.get() > mask || start + length - released.get() > arenaSize && head.get() != t; idle++) {
+			if (!filled) {
+				filled = true;
+			}
+			idle(idle);
+		}
+
+		writeView.position(offset);
+		writeView.put(payload);
+
+		int slot = (int)t & mask;
+		timestamps[slot] = event.timestamp.toEpochMilli();
+		ingestionTimes[slot] = toNanos(event.ingestionTime);
+		starts[slot] = start;
+		lengths[slot] = length;
+		putTimes[slot] = System.nanoTime();
+
+		written = start + length;
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Remove the oldest event, waits until an event is available.
+	 */
+	public JsonEvent take() throws InterruptedException {
+		for (int idle = 0; ; idle++) {
+			JsonEvent event = poll();
+			if (event != null) {
+				return event;
+			}
+			idle(idle);
+		}
+	}
+
+	/**
+	 * Remove the oldest event.
+	 *
+	 * @return the event, or null if the ring is empty
+	 */
+	public JsonEvent poll() {
+		long h = head.get();
+		if (tail.get() == h) {
+			return null;
+		}
+
+		JsonEvent event = read((int)h & mask);
+
+		int slot = (int)h & mask;
+		dwellNanos = System.nanoTime() - putTimes[slot];
+		released.lazySet(starts[slot] + lengths[slot]);
+		head.lazySet(h + 1);
+		return event;
+	}
+
+	/**
+	 * @return a copy of the oldest event, or null if the ring is empty
+	 */
+	public JsonEvent peek() {
+		long h = head.get();
+		return tail.get() == h ? null : read((int)h & mask);
+	}
+
+	/**
+	 * @return the time in ns the event that was removed last has spent in the ring
+	 */
+	public long getDwellNanos() {
+		return dwellNanos;
+	}
+
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+
+	public boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * @return true once the producer had to wait for free space
+	 */
+	public boolean isFilled() {
+		return filled;
+	}
+
+	private JsonEvent read(int slot) {
+		byte[] payload = new byte[lengths[slot]];
+		readView.position((int)(starts[slot] % arenaSize));
+		readView.get(payload);
+
+		return new JsonEvent(ByteBuffer.wrap(payload), Instant.ofEpochMilli(timestamps[slot]), ofNanos(ingestionTimes[slot]));
+	}
+
+	private static long toNanos(Instant instant) {
+		return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+	}
+
+	private static Instant ofNanos(long nanos) {
+		return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+	}
+
+	/**
+	 * Back off while waiting for the other side: spin first, then yield, then park.
+	 */
+	static void idle(int idle) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		if (idle < SPINS) {
+			Thread.onSpinWait();
+		} else if (idle < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
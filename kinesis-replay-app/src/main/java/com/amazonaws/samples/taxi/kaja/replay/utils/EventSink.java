@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Destination of the replayed events.
+ *
+ * Sinks are called concurrently by the send threads and complete the returned future once an event has been sent, so backpressure and
+ * watermarks work the same for every sink.
+ */
+public interface EventSink {
+	/** The result of a sink that sends events synchronously. */
+	ListenableFuture<UserRecordResult> SENT = Futures.immediateFuture(new UserRecordResult(Collections.emptyList(), null, null, true));
+
+	/**
+	 * Send an event, failures are reported through the future rather than thrown.
+	 */
+	ListenableFuture<UserRecordResult> send(JsonEvent event, PartitionKey key);
+
+	/**
+	 * Send the events that have been accepted and release the resources of the sink.
+	 */
+	void close() throws IOException;
+}
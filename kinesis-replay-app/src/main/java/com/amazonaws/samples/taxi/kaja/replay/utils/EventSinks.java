@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Creates the sinks the events are replayed into.
+ */
+public final class EventSinks {
+	/** Send events to the Kinesis stream through the KPL. */
+	public static final String KINESIS = "kinesis";
+	/** Drop events, only count them. */
+	public static final String DISCARD = "discard";
+	/** Write length prefixed events to a file. */
+	public static final String FILE = "file";
+	/** Write length prefixed events to a TCP connection. */
+	public static final String TCP = "tcp";
+
+	private EventSinks() {
+	}
+
+	/**
+	 * @param target the path of the file sink or the host:port of the TCP sink
+	 */
+	public static EventSink create(String name, String target, String streamRegion, String streamName, boolean aggregate) throws IOException {
+		switch (name) {
+		case KINESIS:
+			return new KinesisSink(streamRegion, streamName, aggregate);
+		case DISCARD:
+			return new DiscardSink();
+		case FILE:
+			return ChannelSink.toFile(Paths.get(requireTarget(name, target)));
+		case TCP:
+			return ChannelSink.toSocket(requireTarget(name, target));
+		default:
+			throw new IllegalArgumentException("unknown sink " + name);
+		}
+	}
+
+	private static String requireTarget(String name, String target) {
+		if (target == null) {
+			throw new IllegalArgumentException("the " + name + " sink requires a target");
+		}
+		return target;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.time.Instant;
+import java.util.Iterator;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * A source of events in (roughly) timestamp order that is drained by the {@link EventBuffer}.
+ */
+public interface EventSource extends Iterator<JsonEvent> {
+	/** Skip all events with a timestamp before the given timestamp. */
+	void seek(Instant timestamp);
+
+	/**
+	 * @return the timestamp of the next event without reading it, null if there are no more events
+	 */
+	Instant peekTimestamp();
+
+	/**
+	 * Replay the events that have not been read yet relative to a time base that is shared with other replays, eg, by the workers of a
+	 * distributed replay, instead of relative to the first event.
+	 *
+	 * @param ingestionStartTime the ingestion time of an event at the origin
+	 * @param origin the timestamp that is replayed at the ingestion start time
+	 */
+	void setTimeBase(Instant ingestionStartTime, Instant origin);
+
+	void close();
+}
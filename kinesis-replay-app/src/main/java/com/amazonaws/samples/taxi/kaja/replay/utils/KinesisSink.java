@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Sends events to a Kinesis stream through the KPL.
+ */
+public class KinesisSink implements EventSink {
+	private final String streamName;
+	private final boolean aggregate;
+	private final KinesisProducer kinesisProducer;
+
+	public KinesisSink(String streamRegion, String streamName, boolean aggregate) {
+		this.streamName = streamName;
+		this.aggregate = aggregate;
+
+		KinesisProducerConfiguration producerConfiguration = new KinesisProducerConfiguration()
+			.setRegion(streamRegion)
+			.setRecordTtl(60_000)
+			.setThreadingModel(KinesisProducerConfiguration.ThreadingModel.POOLED)
+			.setAggregationEnabled(aggregate);
+
+		this.kinesisProducer = new KinesisProducer(producerConfiguration);
+	}
+
+	public String getStreamName() {
+		return streamName;
+	}
+
+	public boolean isAggregated() {
+		return aggregate;
+	}
+
+	@Override
+	public ListenableFuture<UserRecordResult> send(JsonEvent event, PartitionKey key) {
+		try {
+			return kinesisProducer.addUserRecord(streamName, key.partitionKey, key.explicitHashKey, event.toByteBuffer());
+		} catch (RuntimeException e) {
+			// the sequence number has already been assigned and must be completed
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		kinesisProducer.flushSync();
+		kinesisProducer.destroy();
+	}
+
+	@Override
+	public String toString() {
+		return "kinesis stream " + streamName;
+	}
+}
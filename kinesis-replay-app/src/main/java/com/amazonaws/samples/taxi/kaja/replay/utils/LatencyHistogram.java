@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A histogram of durations that can be recorded concurrently and without allocation.
+ *
+ * Values are recorded in microseconds. Quantiles are reported over the latest interval, which is rotated at most once per interval so
+ * several readers see the same quantiles; count and sum cover all recorded values.
+ */
+public class LatencyHistogram {
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+	private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Recorder recorder = new Recorder(MAX_MICROS, 3);
+
+	private Histogram interval;
+	private long lastRotation = System.nanoTime();
+	private long count;
+	private double sumMicros;
+
+	public void recordNanos(long nanos) {
+		recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public void recordMicros(long micros) {
+		recorder.recordValue(Math.max(0, Math.min(MAX_MICROS, micros)));
+	}
+
+	/**
+	 * @return the quantiles of {@link #QUANTILES} and the maximum in seconds
+	 */
+	public synchronized double[] quantiles() {
+		rotate();
+
+		double[] values = new double[QUANTILES.length + 1];
+		for (int i = 0; i < QUANTILES.length; i++) {
+			values[i] = interval.getValueAtPercentile(QUANTILES[i] * 100) / 1e6;
+		}
+		values[QUANTILES.length] = interval.getMaxValue() / 1e6;
+		return values;
+	}
+
+	public synchronized long count() {
+		rotate();
+		return count;
+	}
+
+	/**
+	 * @return sum of all recorded values in seconds
+	 */
+	public synchronized double sum() {
+		rotate();
+		return sumMicros / 1e6;
+	}
+
+	private void rotate() {
+		long now = System.nanoTime();
+		if (interval != null && now - lastRotation < INTERVAL_NANOS) {
+			return;
+		}
+
+		interval = recorder.getIntervalHistogram(interval);
+		lastRotation = now;
+		count += interval.getTotalCount();
+		sumMicros += interval.getMean() * interval.getTotalCount();
+	}
+}
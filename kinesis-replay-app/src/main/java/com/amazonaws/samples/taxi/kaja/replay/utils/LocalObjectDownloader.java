@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Reads the objects from the files of a local directory instead of from S3, eg, to benchmark the replay without network I/O.
+ *
+ * The key of a file is its path relative to the directory, the bucket name is ignored. Files are memory mapped, the parser reads
+ * uncompressed files straight from the mapping and compressed files are decompressed from it.
+ */
+public class LocalObjectDownloader extends ObjectDownloader {
+	private static final Logger LOG = LoggerFactory.getLogger(LocalObjectDownloader.class);
+
+	public static final String SCHEME = "file://";
+
+	private final Path directory;
+
+	public LocalObjectDownloader(Path directory, Decompressor decompressor) {
+		super(decompressor);
+		this.directory = directory.toAbsolutePath();
+
+		LOG.info("reading objects from the local directory {}", this.directory);
+	}
+
+	/**
+	 * @return true if the name is a file:// url of a local directory rather than an S3 bucket
+	 */
+	public static boolean isLocal(String bucketName) {
+		return bucketName.startsWith(SCHEME);
+	}
+
+	/**
+	 * @return the directory of a file:// url, eg, /data of file:///data
+	 */
+	public static Path directoryOf(String url) {
+		return Paths.get(url.substring(SCHEME.length()));
+	}
+
+	@Override
+	public List<S3Object> list(String bucketName, String prefix) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files
+				.filter(Files::isRegularFile)
+				.map(this::toS3Object)
+				.filter(o -> o.key().startsWith(prefix))
+				.sorted((o1, o2) -> o1.key().compareTo(o2.key()))
+				.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to list " + directory, e);
+		}
+	}
+
+	private S3Object toS3Object(Path file) {
+		// keys use slashes like S3 keys on every platform
+		String key = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+		try {
+			return S3Object.builder().key(key).size(Files.size(file)).build();
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to read the size of " + file, e);
+		}
+	}
+
+	@Override
+	public String uri(String bucketName, String key) {
+		return directory.resolve(key).toUri().toString();
+	}
+
+	@Override
+	protected InputStream download(String bucketName, S3Object s3Object, long offset) throws IOException {
+		return MappedFile.map(directory.resolve(s3Object.key())).open(offset);
+	}
+
+	@Override
+	public ParquetFile.Source openRanges(String bucketName, S3Object s3Object) throws IOException {
+		return MappedFile.map(directory.resolve(s3Object.key())).source();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only memory mapping of a local file.
+ *
+ * The file is mapped in segments of at most SEGMENT_SIZE bytes, as a mapped buffer is indexed by int. Reads copy straight from the page
+ * cache into the buffer of the reader, without a system call per read. The mapping stays valid until the buffers are garbage collected.
+ */
+public class MappedFile {
+	static final int SEGMENT_SIZE = 1 << 30;
+
+	private final Path path;
+	private final long size;
+	private final int segmentSize;
+	private final MappedByteBuffer[] segments;
+
+	public static MappedFile map(Path path) throws IOException {
+		return map(path, SEGMENT_SIZE);
+	}
+
+	static MappedFile map(Path path, int segmentSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new MappedFile(path, channel, segmentSize);
+		}
+	}
+
+	private MappedFile(Path path, FileChannel channel, int segmentSize) throws IOException {
+		this.path = path;
+		this.size = channel.size();
+		this.segmentSize = segmentSize;
+		this.segments = new MappedByteBuffer[(int)((size + segmentSize - 1) / segmentSize)];
+
+		for (int i = 0; i < segments.length; i++) {
+			long position = (long)i * segmentSize;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the bytes from the offset to the end of the file
+	 */
+	public InputStream open(long offset) {
+		if (offset < 0 || offset > size) {
+			throw new IllegalArgumentException("offset " + offset + " is outside of " + path + " of size " + size);
+		}
+		return new MappedInputStream(offset);
+	}
+
+	/**
+	 * @return random access to the bytes of the file, eg, to read the column chunks of a parquet file
+	 */
+	public ParquetFile.Source source() {
+		return new ParquetFile.Source() {
+			@Override
+			public long size() {
+				return size;
+			}
+
+			@Override
+			public byte[] read(long offset, int length) throws IOException {
+				if (offset < 0 || offset + length > size) {
+					throw new IOException("expected " + length + " bytes at offset " + offset + " of " + path + " but got " + Math.max(0, size - offset));
+				}
+
+				byte[] data = new byte[length];
+				try (InputStream in = open(offset)) {
+					in.readNBytes(data, 0, length);
+				}
+				return data;
+			}
+		};
+	}
+
+	/**
+	 * Reads the segments one after another through a view of the current segment with its own position.
+	 */
+	private class MappedInputStream extends InputStream {
+		private int segment;
+		private ByteBuffer view;
+
+		MappedInputStream(long offset) {
+			segment = (int)(offset / segmentSize);
+			if (segment < segments.length) {
+				view = segments[segment].duplicate();
+				view.position((int)(offset % segmentSize));
+			}
+		}
+
+		/**
+		 * @return false at the end of the file
+		 */
+		private boolean ensureRemaining() {
+			while (view != null && !view.hasRemaining()) {
+				view = ++segment < segments.length ? segments[segment].duplicate() : null;
+			}
+			return view != null;
+		}
+
+		@Override
+		public int read() {
+			return ensureRemaining() ? view.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!ensureRemaining()) {
+				return -1;
+			}
+
+			int n = Math.min(len, view.remaining());
+			view.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = 0;
+			while (skipped < n && ensureRemaining()) {
+				int k = (int)Math.min(n - skipped, view.remaining());
+				view.position(view.position() + k);
+				skipped += k;
+			}
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return view == null ? 0 : view.remaining();
+		}
+
+		@Override
+		public void close() {
+			view = null;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Opens S3 objects either with a single GET request or, for objects larger than a chunk, with parallel ranged GET requests.
+ *
+ * Compressed objects are decompressed according to the extension of their key. Subclasses read the objects from elsewhere, eg, the
+ * {@link LocalObjectDownloader} from the files of a local directory.
+ */
+public class ObjectDownloader {
+	private static final Logger LOG = LoggerFactory.getLogger(ObjectDownloader.class);
+
+	private final S3Client s3;
+	private final int chunkSize;
+	private final int ringSize;
+	private final ExecutorService executor;
+	private final Decompressor decompressor;
+
+	/** Download every object with a single GET request. */
+	public ObjectDownloader(S3Client s3) {
+		this(s3, 0, 0, 0);
+	}
+
+	/**
+	 * @param threads number of concurrent ranged GET requests, 0 downloads every object with a single GET request
+	 * @param chunkSize size of a byte range in bytes
+	 * @param memoryPerObject bytes of read-ahead buffers per object, determines how many chunks are downloaded ahead of the parser
+	 */
+	public ObjectDownloader(S3Client s3, int threads, int chunkSize, long memoryPerObject) {
+		this(s3, threads, chunkSize, memoryPerObject, new Decompressor());
+	}
+
+	/**
+	 * @param decompressor decompresses the objects with a compressed extension
+	 */
+	public ObjectDownloader(S3Client s3, int threads, int chunkSize, long memoryPerObject, Decompressor decompressor) {
+		this.s3 = s3;
+		this.decompressor = decompressor;
+		this.chunkSize = chunkSize;
+		this.ringSize = chunkSize > 0 ? (int)Math.max(1, memoryPerObject / chunkSize) : 0;
+
+		if (threads > 0 && chunkSize > 0) {
+			LOG.info("downloading objects with {} connections in chunks of {} bytes, {} chunks read-ahead", threads, chunkSize, ringSize);
+
+			AtomicInteger threadCount = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "object-downloader-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		} else {
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Read the objects with the given decompressor instead of downloading them from S3.
+	 */
+	protected ObjectDownloader(Decompressor decompressor) {
+		this.s3 = null;
+		this.decompressor = decompressor;
+		this.chunkSize = 0;
+		this.ringSize = 0;
+		this.executor = null;
+	}
+
+	public S3Client getS3Client() {
+		return s3;
+	}
+
+	public Decompressor getDecompressor() {
+		return decompressor;
+	}
+
+	/**
+	 * @return the objects of the bucket with the given prefix in the order of their keys
+	 */
+	public Iterable<S3Object> list(String bucketName, String prefix) {
+		ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build();
+		return s3.listObjectsV2Paginator(request).contents();
+	}
+
+	/**
+	 * @return the location of the object, for log messages
+	 */
+	public String uri(String bucketName, String key) {
+		return "s3://" + bucketName + "/" + key;
+	}
+
+	public InputStream open(String bucketName, S3Object s3Object) throws IOException {
+		return open(bucketName, s3Object, 0);
+	}
+
+	/**
+	 * @param offset the byte offset to start reading at, compressed objects can only be read from the start
+	 */
+	public InputStream open(String bucketName, S3Object s3Object, long offset) throws IOException {
+		String format = Decompressor.formatOf(s3Object.key());
+		if (format == null) {
+			return download(bucketName, s3Object, offset);
+		}
+
+		if (offset > 0) {
+			throw new IllegalArgumentException("cannot read compressed object " + s3Object.key() + " from offset " + offset);
+		}
+		return decompressor.open(download(bucketName, s3Object, 0), format);
+	}
+
+	/**
+	 * @return random access to the bytes of an object with ranged GET requests, eg, to read the column chunks of a parquet object
+	 */
+	public ParquetFile.Source openRanges(String bucketName, S3Object s3Object) throws IOException {
+		return new ParquetFile.Source() {
+			@Override
+			public long size() {
+				return s3Object.size();
+			}
+
+			@Override
+			public byte[] read(long offset, int length) throws IOException {
+				GetObjectRequest request = GetObjectRequest.builder()
+					.bucket(bucketName)
+					.key(s3Object.key())
+					.range("bytes=" + offset + "-" + (offset + length - 1))
+					.build();
+
+				try (InputStream in = s3.getObject(request)) {
+					byte[] data = in.readNBytes(length);
+					if (data.length != length) {
+						throw new IOException("expected " + length + " bytes at offset " + offset + " of " + s3Object.key() + " but got " + data.length);
+					}
+					return data;
+				} catch (SdkException e) {
+					throw new IOException("failed to read offset " + offset + " of s3://" + bucketName + "/" + s3Object.key(), e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the bytes of the object from the offset, as stored
+	 */
+	protected InputStream download(String bucketName, S3Object s3Object, long offset) throws IOException {
+		if (executor == null || s3Object.size() == null || s3Object.size() - offset <= chunkSize) {
+			GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucketName).key(s3Object.key());
+			if (offset > 0) {
+				request.range("bytes=" + offset + "-");
+			}
+			return s3.getObject(request.build());
+		}
+
+		return new RangedObjectInputStream(s3, bucketName, s3Object.key(), offset, s3Object.size(), chunkSize, ringSize, executor);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		decompressor.shutdown();
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+
+/**
+ * A sparse index of the rows of a csv object: its time range and the byte offsets of every n-th row.
+ *
+ * The rows of an object are only roughly sorted, so every sample keeps the largest timestamp of all rows before it. All rows before a
+ * sample can be skipped when seeking to a timestamp that is larger than the largest timestamp before the sample.
+ */
+public class ObjectIndex {
+	private final String key;
+	private final long size;
+	private final String header;
+	private final long minTimestamp;
+	private final long maxTimestamp;
+	private final long[] offsets;
+	private final long[] maxBefore;
+
+	/**
+	 * @param header the first line of the object
+	 * @param offsets byte offsets of the sampled rows in ascending order
+	 * @param maxBefore largest timestamp of all rows before the sampled row
+	 */
+	public ObjectIndex(String key, long size, String header, long minTimestamp, long maxTimestamp, long[] offsets, long[] maxBefore) {
+		this.key = key;
+		this.size = size;
+		this.header = header;
+		this.minTimestamp = minTimestamp;
+		this.maxTimestamp = maxTimestamp;
+		this.offsets = offsets;
+		this.maxBefore = maxBefore;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the columns of the header
+	 */
+	public List<String> getHeaderColumns() throws IOException {
+		return parseHeader(header);
+	}
+
+	private static List<String> parseHeader(String header) throws IOException {
+		try (CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(header))) {
+			return new ArrayList<>(parser.iterator().next().toList());
+		}
+	}
+
+	public long getMinTimestamp() {
+		return minTimestamp;
+	}
+
+	public long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+
+	long[] getOffsets() {
+		return offsets;
+	}
+
+	long[] getMaxBefore() {
+		return maxBefore;
+	}
+
+	/**
+	 * @return the byte offset of the last sampled row before which all rows are earlier than the timestamp, or the size of the object if
+	 *     all rows are earlier
+	 */
+	public long offsetOf(long timestamp) {
+		if (maxTimestamp < timestamp) {
+			return size;
+		}
+
+		// maxBefore is ascending, find the last sample with maxBefore < timestamp
+		int i = Arrays.binarySearch(maxBefore, timestamp);
+		if (i >= 0) {
+			while (i > 0 && maxBefore[i - 1] == timestamp) {
+				i--;
+			}
+			i--;
+		} else {
+			i = -i - 2;
+		}
+		return i < 0 ? 0 : offsets[i];
+	}
+
+	/**
+	 * Scan the rows of an object and sample the offset of every n-th row.
+	 *
+	 * Rows are split on newlines and the timestamp column is taken by position, quoted fields that contain commas or newlines are not
+	 * supported, as in the trip data. Rows with an invalid timestamp are skipped.
+	 *
+	 * @param timestampAttributeName the normalized name of the timestamp column
+	 * @param sampleRows number of rows between samples
+	 */
+	public static ObjectIndex build(String key, InputStream in, String timestampAttributeName, int sampleRows) throws IOException {
+		LineScanner lines = new LineScanner(in);
+
+		if (!lines.next()) {
+			throw new IOException("empty object " + key);
+		}
+		String header = new String(lines.buffer, lines.start, lines.trimmedLength(), StandardCharsets.UTF_8);
+		if (header.isEmpty()) {
+			throw new IOException("no csv header in object " + key);
+		}
+
+		List<String> columns = DataNormalizer.normalizeHeader(parseHeader(header));
+		int column = columns.lastIndexOf(timestampAttributeName);
+		if (column < 0) {
+			throw new IOException("header of " + key + " lacks timestamp column " + timestampAttributeName);
+		}
+
+		long[] offsets = new long[64];
+		long[] maxBefore = new long[64];
+		int samples = 0;
+
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		long rows = 0;
+		while (lines.next()) {
+			if (rows++ % sampleRows == 0) {
+				if (samples == offsets.length) {
+					offsets = Arrays.copyOf(offsets, samples * 2);
+					maxBefore = Arrays.copyOf(maxBefore, samples * 2);
+				}
+				offsets[samples] = lines.offset;
+				maxBefore[samples] = max;
+				samples++;
+			}
+
+			long timestamp = lines.parseTimestamp(column);
+			if (timestamp != DateTimeCodec.INVALID) {
+				min = Math.min(min, timestamp);
+				max = Math.max(max, timestamp);
+			}
+		}
+
+		return new ObjectIndex(key, lines.offset, header, min, max, Arrays.copyOf(offsets, samples), Arrays.copyOf(maxBefore, samples));
+	}
+
+	/**
+	 * Reads the lines of a stream into a reusable buffer and keeps track of their byte offsets.
+	 */
+	private static class LineScanner {
+		private final InputStream in;
+		private byte[] buffer = new byte[1 << 16];
+		private int limit;
+		private int position;
+		private long bufferOffset;
+
+		/** Byte offset and bounds in the buffer of the current line, without the newline. */
+		long offset;
+		int start;
+		int end;
+
+		LineScanner(InputStream in) {
+			this.in = in;
+		}
+
+		boolean next() throws IOException {
+			offset = bufferOffset + position;
+
+			for (int i = position; ; i++) {
+				if (i == limit) {
+					// move the partial line to the start of the buffer and read more
+					int partial = limit - position;
+					if (position == 0 && partial == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					} else {
+						System.arraycopy(buffer, position, buffer, 0, partial);
+						bufferOffset += position;
+					}
+					position = 0;
+					limit = partial;
+					i = partial;
+
+					int n = in.read(buffer, limit, buffer.length - limit);
+					if (n < 0) {
+						if (limit == 0) {
+							return false;
+						}
+						// the last line lacks a newline
+						start = 0;
+						end = limit;
+						position = limit;
+						return true;
+					}
+					limit += n;
+				}
+
+				if (buffer[i] == '\n') {
+					start = position;
+					end = i;
+					position = i + 1;
+					return true;
+				}
+			}
+		}
+
+		int trimmedLength() {
+			int e = end;
+			while (e > start && (buffer[e - 1] == '\r' || buffer[e - 1] == ' ')) {
+				e--;
+			}
+			return e - start;
+		}
+
+		long parseTimestamp(int column) {
+			int from = start;
+			for (int c = 0; c < column; c++) {
+				while (from < end && buffer[from] != ',') {
+					from++;
+				}
+				if (from == end) {
+					return DateTimeCodec.INVALID;
+				}
+				from++;
+			}
+
+			int to = from;
+			while (to < end && buffer[to] != ',' && buffer[to] != '\r') {
+				to++;
+			}
+
+			// strip blanks and quotes
+			while (from < to && (buffer[from] == ' ' || buffer[from] == '"')) {
+				from++;
+			}
+			while (to > from && (buffer[to - 1] == ' ' || buffer[to - 1] == '"')) {
+				to--;
+			}
+			return DateTimeCodec.DATETIME.parse(buffer, from, to - from);
+		}
+	}
+}
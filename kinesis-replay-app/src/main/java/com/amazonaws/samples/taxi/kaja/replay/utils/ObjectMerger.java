@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Reads up to readerThreads objects concurrently, each into its own bounded queue, and merges their events by timestamp.
+ *
+ * Objects should be passed in the order of {@link #PERIOD_ORDER}, so that objects of different taxi types covering the same month are open at
+ * the same time. Events are only merged into timestamp order if readerThreads is at least the number of objects of a month, see
+ * {@link EventReader}, which opens as many objects as cover the same month.
+ */
+public class ObjectMerger<T> implements Iterator<JsonEvent>, Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ObjectMerger.class);
+
+	private static final Pattern PERIOD = Pattern.compile("(\\d{4}-\\d{2})");
+
+	/** Order object keys by the year and month they contain, then by key. */
+	public static final Comparator<String> PERIOD_ORDER = Comparator.comparing((String key) -> period(key)).thenComparing(Comparator.naturalOrder());
+
+	/** Marks the end of an object in its queue. */
+	private static final JsonEvent END = new JsonEvent("", Instant.EPOCH, Instant.EPOCH);
+
+	private final Iterator<T> objects;
+	private final Function<T, ObjectReader> opener;
+	private final int readerThreads;
+	private final int queueSize;
+	private final ExecutorService executor;
+	private final Queue<Cursor> pending = new ArrayDeque<>();
+	private final PriorityQueue<Cursor> cursors = new PriorityQueue<>(Comparator.comparing((Cursor c) -> c.head, JsonEvent.timestampComparator));
+
+	public ObjectMerger(Iterator<T> objects, Function<T, ObjectReader> opener, int readerThreads, int queueSize) {
+		this.objects = objects;
+		this.opener = opener;
+		this.readerThreads = readerThreads;
+		this.queueSize = Math.max(1, queueSize);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(readerThreads, r -> {
+			Thread t = new Thread(r, "object-reader-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			openCursors();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+		}
+	}
+
+	public static String period(String key) {
+		Matcher m = PERIOD.matcher(key);
+		return m.find() ? m.group(1) : "";
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !cursors.isEmpty();
+	}
+
+	@Override
+	public JsonEvent next() {
+		Cursor cursor = cursors.poll();
+		if (cursor == null) {
+			return null;
+		}
+
+		JsonEvent result = cursor.head;
+		try {
+			cursor.head = cursor.queue.take();
+			if (cursor.head == END) {
+				LOG.info("merged all events of object {}", cursor.name);
+
+				// replace the exhausted object by the next one
+				openCursors();
+			} else {
+				cursors.add(cursor);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		for (Cursor cursor : cursors) {
+			cursor.task.cancel(true);
+		}
+		for (Cursor cursor : pending) {
+			cursor.task.cancel(true);
+		}
+		cursors.clear();
+		pending.clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Start reading objects until readerThreads objects are open and wait for their first events.
+	 */
+	private void openCursors() throws InterruptedException {
+		while (true) {
+			while (cursors.size() + pending.size() < readerThreads && objects.hasNext()) {
+				pending.add(new Cursor(objects.next()));
+			}
+
+			Cursor cursor = pending.poll();
+			if (cursor == null) {
+				return;
+			}
+
+			cursor.head = cursor.queue.take();
+			if (cursor.head != END) {
+				cursors.add(cursor);
+			}
+		}
+	}
+
+	private class Cursor {
+		private final BlockingQueue<JsonEvent> queue = new ArrayBlockingQueue<>(queueSize);
+		private final Future<?> task;
+		private volatile String name;
+		private JsonEvent head;
+
+		Cursor(T object) {
+			this.name = object.toString();
+			this.task = executor.submit(() -> {
+				try {
+					read(object);
+					queue.put(END);
+				} catch (InterruptedException e) {
+					LOG.debug("interrupted reading {}", name);
+				}
+			});
+		}
+
+		private void read(T object) throws InterruptedException {
+			ObjectReader reader;
+			try {
+				reader = opener.apply(object);
+			} catch (RuntimeException e) {
+				LOG.warn("failed to open {}", name, e);
+				return;
+			}
+
+			if (reader == null) {
+				return;
+			}
+
+			name = reader.getName();
+			try {
+				while (reader.hasNext()) {
+					queue.put(reader.next());
+				}
+			} catch (RuntimeException e) {
+				LOG.warn("failed to read {}", name, e);
+			} finally {
+				reader.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Reads the rows of a single object, the records of a csv file or the rows of a parquet file, and parses them into events.
+ *
+ * The records of a csv file are either parsed on the reading thread or in chunks by a {@link CsvChunkParser}, in which case only the
+ * ingestion time is assigned on the reading thread.
+ */
+public class ObjectReader implements Iterator<JsonEvent>, Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ObjectReader.class);
+
+	private final String name;
+	private final String objectType;
+	private final JsonEvent.Parser eventParser;
+	private final Rows rows;
+	private final CsvChunkParser chunks;
+	private final List<String> objectHeader;
+	private final RecordCodec recordCodec;
+
+	private int amplificationFactor = 1;
+	private long jitterMillis;
+	private Amplifier amplifier;
+	private List<? extends CharSequence> record;
+	private int copies;
+
+	private boolean started;
+	private JsonEvent next;
+
+	public ObjectReader(String name, String objectType, InputStream input, JsonEvent.Parser eventParser) throws IOException {
+		this(name, objectType, input, eventParser, null);
+	}
+
+	/**
+	 * @param header the header of the object if the input starts at a row after the header, null to read the header from the input
+	 */
+	public ObjectReader(String name, String objectType, InputStream input, JsonEvent.Parser eventParser, List<String> header) throws IOException {
+		this(name, objectType, new CsvTokenizer(input), eventParser, header);
+	}
+
+	/**
+	 * @param rows the rows of the object
+	 * @param header the header of the rows, null if the header is the first row
+	 */
+	public ObjectReader(String name, String objectType, Rows rows, JsonEvent.Parser eventParser, List<String> header) throws IOException {
+		this.name = name;
+		this.objectType = objectType;
+		this.eventParser = eventParser;
+		this.rows = rows;
+		this.chunks = null;
+
+		if (header == null) {
+			if (!rows.hasNext()) {
+				close();
+				throw new IOException("empty object " + name);
+			}
+			header = new ArrayList<>();
+			for (CharSequence column : rows.next()) {
+				header.add(column.toString());
+			}
+		}
+
+		objectHeader = new ArrayList<>(header);
+		if (objectHeader.isEmpty()) {
+			close();
+			throw new IOException("no csv header in object " + name);
+		}
+
+		DataNormalizer.normalizeHeader(objectHeader);
+		recordCodec = new RecordCodec(objectHeader, objectType, eventParser.getTimestampAttributeName());
+	}
+
+	/**
+	 * @param chunks parses the records of a csv object in parallel
+	 * @param header the header of the object if the input starts at a row after the header, null to read the header from the input
+	 */
+	public ObjectReader(String name, String objectType, CsvChunkParser chunks, JsonEvent.Parser eventParser, List<String> header) throws IOException {
+		this.name = name;
+		this.objectType = objectType;
+		this.eventParser = eventParser;
+		this.rows = null;
+		this.chunks = chunks;
+
+		objectHeader = new ArrayList<>(header != null ? header : chunks.readHeader());
+		if (objectHeader.isEmpty()) {
+			close();
+			throw new IOException("no csv header in object " + name);
+		}
+
+		DataNormalizer.normalizeHeader(objectHeader);
+		recordCodec = null;
+	}
+
+	/**
+	 * Emit factor events for every record, the record itself and synthetic copies of it, must be called before events are read.
+	 *
+	 * @param jitterMillis maximum shift of the datetimes of a copy, see {@link Amplifier}
+	 */
+	public void amplify(int factor, long jitterMillis) {
+		this.amplificationFactor = factor;
+		this.jitterMillis = jitterMillis;
+		this.amplifier = factor > 1 ? new Amplifier(objectHeader, factor, jitterMillis) : null;
+	}
+
+	/**
+	 * Parse the first record, deferred until the first event is read so that the reader can be configured.
+	 */
+	private void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+
+		if (chunks != null) {
+			try {
+				// codecs and amplifiers are not thread safe, every chunk gets its own
+				chunks.start(() -> new RecordCodec(objectHeader, objectType, eventParser.getTimestampAttributeName()),
+					amplificationFactor > 1 ? () -> new Amplifier(objectHeader, amplificationFactor, jitterMillis) : null);
+			} catch (IOException e) {
+				LOG.warn("Failed to read {}: {}", name, e.getMessage());
+				return;
+			}
+		}
+		nextRecord();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	@Override
+	public boolean hasNext() {
+		start();
+		return next != null;
+	}
+
+	@Override
+	public JsonEvent next() {
+		start();
+		if (next == null) {
+			return null;
+		}
+
+		JsonEvent result = next;
+		nextRecord();
+		return result;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (chunks != null) {
+				chunks.close();
+			} else {
+				rows.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("failed to close object {}: {}", name, e.getMessage());
+		}
+	}
+
+	private void nextRecord() {
+		next = null;
+		if (chunks != null) {
+			try {
+				if (chunks.next()) {
+					next = eventParser.toJsonEvent(Instant.ofEpochMilli(chunks.timestamp()), chunks.payload());
+				}
+			} catch (IOException e) {
+				LOG.warn("Failed to read {}: {}", name, e.getMessage());
+			}
+			return;
+		}
+
+		while (copies > 0 || rows.hasNext()) {
+			try {
+				if (copies > 0) {
+					// the copies of a record are only counted as events
+					int k = amplifier.getFactor() - copies--;
+					if (recordCodec.encode(amplifier.copy(record, k))) {
+						next = eventParser.toJsonEvent(Instant.ofEpochMilli(recordCodec.timestamp()), recordCodec.payload());
+						return;
+					}
+					continue;
+				}
+
+				record = rows.next();
+				if (recordCodec.encode(record)) {
+					next = eventParser.toJsonEvent(Instant.ofEpochMilli(recordCodec.timestamp()), recordCodec.payload());
+					LOG.debug("get record {}: {}", rows.getRowNumber(), next.timestamp);
+					ReplayMetrics.PARSED_RECORDS.increment();
+					copies = amplifier == null ? 0 : amplifier.getFactor() - 1;
+					return;
+				}
+				ReplayMetrics.DISCARDED_RECORDS.increment();
+			} catch (Exception e) {
+				ReplayMetrics.DISCARDED_RECORDS.increment();
+
+				Throwable t = e.getCause();
+				if (t instanceof IOException) {
+					LOG.warn("Failed to read record [{}]: {}", rows.getRowNumber(), t.getMessage());
+					return;
+				}
+				LOG.warn("Failed to read record [{}]: {}", rows.getRowNumber(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * The rows of an object, eg, the records of a csv file. The values of a row may be reused once the next row is read or looked for.
+	 */
+	public interface Rows extends Iterator<List<? extends CharSequence>>, Closeable {
+		/**
+		 * @return the number of the last row read, for log messages
+		 */
+		long getRowNumber();
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a stream that consists of independently compressed segments, such as the frames of pzstd, the blocks of bgzip or the streams
+ * of pbzip2, with a pool of threads and reads the decompressed segments back in order.
+ *
+ * Small segments are decompressed together in tasks of about {@link #TASK_SIZE} compressed bytes, at most readAhead tasks are in flight.
+ * Once a segment cannot be told apart or grows beyond {@link #MAX_SEGMENT_SIZE}, the rest of the stream is decompressed on the reading thread.
+ */
+public class ParallelDecompressingInputStream extends InputStream {
+	static final int TASK_SIZE = 1 << 20;
+	static final int MAX_SEGMENT_SIZE = 32 << 20;
+
+	/**
+	 * Finds the end of the compressed segment at the start of a buffer.
+	 */
+	public interface Segmenter {
+		int NEED_MORE = 0;
+		int UNSPLITTABLE = -1;
+
+		/**
+		 * @return the length of the segment that starts at off, NEED_MORE if len bytes don't contain the whole segment or UNSPLITTABLE if the
+		 *         end of the segment cannot be determined without decompressing it
+		 */
+		int segment(byte[] b, int off, int len);
+	}
+
+	/**
+	 * Opens a decompressing stream of one or more concatenated segments.
+	 */
+	public interface Codec {
+		InputStream open(InputStream in) throws IOException;
+	}
+
+	private final InputStream in;
+	private final Segmenter segmenter;
+	private final Codec codec;
+	private final int readAhead;
+	private final ExecutorService executor;
+
+	private final Queue<Future<byte[]>> tasks = new ArrayDeque<>();
+
+	/** Compressed bytes that have been read but not submitted yet. */
+	private byte[] raw = new byte[2 * TASK_SIZE];
+	private int rawStart;
+	private int rawEnd;
+	private boolean eof;
+	private boolean split;
+
+	/** Decompresses the rest of the stream sequentially once it cannot be split. */
+	private InputStream tail;
+
+	private byte[] current;
+	private int position;
+	private boolean closed;
+
+	public ParallelDecompressingInputStream(InputStream in, Segmenter segmenter, Codec codec, int readAhead, ExecutorService executor) {
+		this.in = in;
+		this.segmenter = segmenter;
+		this.codec = codec;
+		this.readAhead = Math.max(1, readAhead);
+		this.executor = executor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return tail == null ? -1 : tail.read(b, off, len);
+		}
+
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (Future<byte[]> f : tasks) {
+			f.cancel(true);
+		}
+		tasks.clear();
+		current = null;
+
+		if (tail != null) {
+			tail.close();
+		}
+		in.close();
+	}
+
+	/**
+	 * Make sure there is unread data of a decompressed task, waits for the next task if necessary.
+	 *
+	 * @return false once all tasks have been read
+	 */
+	private boolean ensureData() throws IOException {
+		if (closed) {
+			throw new IOException("stream closed");
+		}
+
+		while (current == null || position >= current.length) {
+			current = null;
+			submitTasks();
+
+			Future<byte[]> f = tasks.poll();
+			if (f == null) {
+				return false;
+			}
+
+			try {
+				current = f.get();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new InterruptedIOException("interrupted while decompressing");
+			} catch (ExecutionException e) {
+				close();
+				throw new IOException("failed to decompress", e.getCause());
+			}
+		}
+		return true;
+	}
+
+	private void submitTasks() throws IOException {
+		while (!split && tasks.size() < readAhead) {
+			compact();
+
+			int end = rawStart;
+			boolean unsplittable = false;
+			while (end - rawStart < TASK_SIZE) {
+				int n = segmenter.segment(raw, end, rawEnd - end);
+				if (n > 0) {
+					end += n;
+				} else if (n == Segmenter.UNSPLITTABLE || (!eof && rawEnd - end >= MAX_SEGMENT_SIZE)) {
+					unsplittable = true;
+					break;
+				} else if (eof) {
+					// the last segment is truncated, its decompression fails
+					end = rawEnd;
+					break;
+				} else {
+					fill();
+				}
+			}
+
+			if (end > rawStart) {
+				final byte[] task = Arrays.copyOfRange(raw, rawStart, end);
+				tasks.add(executor.submit(() -> {
+					try (InputStream decompressed = codec.open(new ByteArrayInputStream(task))) {
+						return decompressed.readAllBytes();
+					}
+				}));
+				rawStart = end;
+			}
+
+			if (unsplittable) {
+				tail = codec.open(new SequenceInputStream(new ByteArrayInputStream(raw, rawStart, rawEnd - rawStart), in));
+				split = true;
+			} else if (eof && rawStart == rawEnd) {
+				split = true;
+			}
+		}
+	}
+
+	/**
+	 * Move the unsubmitted bytes to the start of the buffer.
+	 */
+	private void compact() {
+		if (rawStart > 0) {
+			System.arraycopy(raw, rawStart, raw, 0, rawEnd - rawStart);
+			rawEnd -= rawStart;
+			rawStart = 0;
+		}
+	}
+
+	/**
+	 * Read more compressed bytes, grows the buffer if it is full so that a segment is scanned a few times at most.
+	 */
+	private void fill() throws IOException {
+		if (rawEnd == raw.length) {
+			raw = Arrays.copyOf(raw, raw.length * 2);
+		}
+
+		int n = in.readNBytes(raw, rawEnd, raw.length - rawEnd);
+		rawEnd += n;
+		if (rawEnd < raw.length) {
+			eof = true;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.SnappyCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import com.amazonaws.samples.taxi.kaja.replay.utils.ThriftCompactReader.Struct;
+
+/**
+ * Decodes the pages of a column chunk of a flat column.
+ *
+ * Integers are decoded as longs, floating point numbers as the raw bits of a double and timestamps as epoch millis. Values can be plain or
+ * dictionary encoded, in data pages of version 1 or 2.
+ */
+class ParquetColumnReader {
+	private static final int DATA_PAGE = 0;
+	private static final int DICTIONARY_PAGE = 2;
+	private static final int DATA_PAGE_V2 = 3;
+
+	private static final int PLAIN = 0;
+	private static final int PLAIN_DICTIONARY = 2;
+	private static final int RLE = 3;
+	private static final int RLE_DICTIONARY = 8;
+
+	private static final int UNCOMPRESSED = 0;
+	private static final int SNAPPY = 1;
+	private static final int GZIP = 2;
+	private static final int ZSTD = 6;
+	private static final int LZ4_RAW = 7;
+
+	/** Days from the julian day number of int96 timestamps to the epoch. */
+	private static final long JULIAN_EPOCH_DAY = 2_440_588;
+	private static final long MILLIS_PER_DAY = 86_400_000;
+
+	private final ParquetFile.Column column;
+	private final int codec;
+	private final byte[] chunk;
+	private final int end;
+	private int position;
+
+	private long[] dictionary;
+
+	/** The current page, its remaining values include nulls. */
+	private byte[] page;
+	private int valuePosition;
+	private int pageValues;
+	private RleDecoder definitionLevels;
+	private RleDecoder dictionaryIds;
+
+	/**
+	 * @param codec compression codec of the column chunk
+	 * @param chunk the bytes of the column chunk
+	 */
+	ParquetColumnReader(ParquetFile.Column column, int codec, byte[] chunk) {
+		this.column = column;
+		this.codec = codec;
+		this.chunk = chunk;
+		this.end = chunk.length;
+	}
+
+	static boolean isSupported(ParquetFile.Column column) {
+		switch (column.type) {
+		case ParquetFile.INT32:
+		case ParquetFile.INT64:
+		case ParquetFile.INT96:
+		case ParquetFile.FLOAT:
+		case ParquetFile.DOUBLE:
+			return column.flat;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Read the next values of the column.
+	 *
+	 * @param nulls set for missing values
+	 */
+	void read(long[] values, boolean[] nulls, int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			while (pageValues == 0) {
+				readPage();
+			}
+			pageValues--;
+
+			if (definitionLevels != null && definitionLevels.next() == 0) {
+				values[i] = 0;
+				nulls[i] = true;
+				continue;
+			}
+
+			nulls[i] = false;
+			if (dictionaryIds != null) {
+				int id = dictionaryIds.next();
+				if (id >= dictionary.length) {
+					throw new IOException("invalid dictionary id " + id + " in column " + column.name);
+				}
+				values[i] = dictionary[id];
+			} else {
+				values[i] = readPlain();
+			}
+		}
+	}
+
+	private void readPage() throws IOException {
+		if (position >= end) {
+			throw new IOException("unexpected end of column chunk " + column.name);
+		}
+
+		ThriftCompactReader reader = new ThriftCompactReader(chunk, position, end - position);
+		Struct header = reader.readStruct();
+		int type = header.getInt(1, -1);
+		int uncompressedLength = header.getInt(2, 0);
+		int compressedLength = header.getInt(3, 0);
+
+		int start = reader.position();
+		if (compressedLength < 0 || start + compressedLength > end) {
+			throw new IOException("truncated page in column chunk " + column.name);
+		}
+		position = start + compressedLength;
+
+		switch (type) {
+		case DICTIONARY_PAGE: {
+			int count = header.getStruct(7).getInt(1, 0);
+			page = decompress(start, compressedLength, uncompressedLength);
+			valuePosition = 0;
+
+			dictionary = new long[count];
+			for (int i = 0; i < count; i++) {
+				dictionary[i] = readPlain();
+			}
+			break;
+		}
+		case DATA_PAGE: {
+			Struct dataPage = header.getStruct(5);
+			byte[] data = decompress(start, compressedLength, uncompressedLength);
+
+			// flat columns have no repetition levels
+			int offset = 0;
+			definitionLevels = null;
+			if (column.optional) {
+				if (dataPage.getInt(3, RLE) != RLE) {
+					throw new IOException("unsupported definition level encoding in column " + column.name);
+				}
+				int length = readInt(data, 0);
+				definitionLevels = new RleDecoder(data, 4, 4 + length, 1);
+				offset = 4 + length;
+			}
+			startValues(data, offset, dataPage.getInt(2, PLAIN), dataPage.getInt(1, 0));
+			break;
+		}
+		case DATA_PAGE_V2: {
+			Struct dataPage = header.getStruct(8);
+			int repetitionLength = dataPage.getInt(6, 0);
+			int definitionLength = dataPage.getInt(5, 0);
+			int levelsLength = repetitionLength + definitionLength;
+
+			// the levels are never compressed
+			definitionLevels = column.optional ? new RleDecoder(chunk, start + repetitionLength, start + levelsLength, 1) : null;
+
+			byte[] data = dataPage.getBoolean(7, true)
+				? decompress(start + levelsLength, compressedLength - levelsLength, uncompressedLength - levelsLength)
+				: Arrays.copyOfRange(chunk, start + levelsLength, start + compressedLength);
+			startValues(data, 0, dataPage.getInt(4, PLAIN), dataPage.getInt(1, 0));
+			break;
+		}
+		default:
+			// index pages
+			break;
+		}
+	}
+
+	private void startValues(byte[] data, int offset, int encoding, int count) throws IOException {
+		page = data;
+		pageValues = count;
+
+		switch (encoding) {
+		case PLAIN:
+			valuePosition = offset;
+			dictionaryIds = null;
+			break;
+		case PLAIN_DICTIONARY:
+		case RLE_DICTIONARY:
+			if (dictionary == null) {
+				throw new IOException("dictionary encoded page without dictionary in column " + column.name);
+			}
+			dictionaryIds = count == 0 ? null : new RleDecoder(data, offset + 1, data.length, data[offset] & 0xff);
+			break;
+		default:
+			throw new IOException("unsupported encoding " + encoding + " in column " + column.name);
+		}
+	}
+
+	private long readPlain() throws IOException {
+		switch (column.type) {
+		case ParquetFile.INT32:
+			return toMillis(readInt(page, advance(4)));
+		case ParquetFile.INT64:
+			return toMillis(readLong(page, advance(8)));
+		case ParquetFile.FLOAT:
+			return Double.doubleToRawLongBits(Float.intBitsToFloat(readInt(page, advance(4))));
+		case ParquetFile.DOUBLE:
+			return readLong(page, advance(8));
+		case ParquetFile.INT96:
+			int off = advance(12);
+			return (readInt(page, off + 8) - JULIAN_EPOCH_DAY) * MILLIS_PER_DAY + Math.floorDiv(readLong(page, off), 1_000_000);
+		default:
+			throw new IOException("unsupported type " + column.type + " of column " + column.name);
+		}
+	}
+
+	private long toMillis(long value) {
+		return column.timestampUnit == 0 ? value : Math.floorDiv(value, 1_000_000 / column.timestampUnit);
+	}
+
+	/**
+	 * @return the offset of the next value of n bytes
+	 */
+	private int advance(int n) throws IOException {
+		int off = valuePosition;
+		if (off + n > page.length) {
+			throw new IOException("unexpected end of page in column " + column.name);
+		}
+		valuePosition += n;
+		return off;
+	}
+
+	private byte[] decompress(int off, int length, int uncompressedLength) throws IOException {
+		InputStream in = new ByteArrayInputStream(chunk, off, length);
+		switch (codec) {
+		case UNCOMPRESSED:
+			return Arrays.copyOfRange(chunk, off, off + length);
+		case SNAPPY:
+			in = new SnappyCompressorInputStream(in);
+			break;
+		case GZIP:
+			in = new GZIPInputStream(in);
+			break;
+		case ZSTD:
+			in = new ZstdCompressorInputStream(in);
+			break;
+		case LZ4_RAW:
+			in = new BlockLZ4CompressorInputStream(in);
+			break;
+		default:
+			throw new IOException("unsupported compression codec " + codec + " of column " + column.name);
+		}
+
+		try (InputStream decompressed = in) {
+			byte[] data = decompressed.readNBytes(uncompressedLength);
+			if (data.length != uncompressedLength) {
+				throw new IOException("expected " + uncompressedLength + " bytes but got " + data.length + " in column " + column.name);
+			}
+			return data;
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+	}
+
+	private static long readLong(byte[] b, int off) {
+		return (readInt(b, off) & 0xFFFFFFFFL) | (long)readInt(b, off + 4) << 32;
+	}
+
+	/**
+	 * Decodes the hybrid of run length encoding and bit packing that is used for levels and dictionary ids.
+	 */
+	static class RleDecoder {
+		private final byte[] b;
+		private final int end;
+		private final int bitWidth;
+		private int position;
+
+		private int remaining;
+		private boolean packed;
+		private int value;
+		private long bitPosition;
+
+		RleDecoder(byte[] b, int off, int end, int bitWidth) {
+			this.b = b;
+			this.position = off;
+			this.end = end;
+			this.bitWidth = bitWidth;
+		}
+
+		int next() throws IOException {
+			while (remaining == 0) {
+				readRun();
+			}
+			remaining--;
+
+			if (!packed) {
+				return value;
+			}
+
+			// values are packed starting with the least significant bit
+			int v = 0;
+			for (int bits = 0; bits < bitWidth; ) {
+				int index = (int)(bitPosition >>> 3);
+				int shift = (int)(bitPosition & 7);
+				int n = Math.min(8 - shift, bitWidth - bits);
+				v |= ((b[index] & 0xff) >>> shift & ((1 << n) - 1)) << bits;
+				bits += n;
+				bitPosition += n;
+			}
+			return v;
+		}
+
+		private void readRun() throws IOException {
+			int header = 0;
+			for (int shift = 0; ; shift += 7) {
+				if (position >= end || shift > 28) {
+					throw new IOException("unexpected end of rle data");
+				}
+				int v = b[position++] & 0xff;
+				header |= (v & 0x7f) << shift;
+				if ((v & 0x80) == 0) {
+					break;
+				}
+			}
+
+			if ((header & 1) == 0) {
+				remaining = header >>> 1;
+				packed = false;
+				value = 0;
+				for (int i = 0; i < (bitWidth + 7) / 8; i++) {
+					value |= (b[position++] & 0xff) << (8 * i);
+				}
+			} else {
+				// groups of 8 values
+				int groups = header >>> 1;
+				if (position + (long)groups * bitWidth > end) {
+					throw new IOException("unexpected end of bit packed data");
+				}
+				remaining = groups * 8;
+				packed = true;
+				bitPosition = position * 8L;
+				position += groups * bitWidth;
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.samples.taxi.kaja.replay.utils.ThriftCompactReader.Struct;
+
+/**
+ * The metadata of a parquet file: the top level columns of its schema and the byte ranges of the column chunks of its row groups.
+ *
+ * Only the parts of the format that are needed to read flat tables of numbers and timestamps are supported.
+ */
+public class ParquetFile {
+	private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+	public static final int BOOLEAN = 0;
+	public static final int INT32 = 1;
+	public static final int INT64 = 2;
+	public static final int INT96 = 3;
+	public static final int FLOAT = 4;
+	public static final int DOUBLE = 5;
+	public static final int BYTE_ARRAY = 6;
+	public static final int FIXED_LEN_BYTE_ARRAY = 7;
+
+	/** Converted types of timestamps. */
+	private static final int TIMESTAMP_MILLIS = 9;
+	private static final int TIMESTAMP_MICROS = 10;
+
+	private static final int REQUIRED = 0;
+	private static final int REPEATED = 2;
+
+	/**
+	 * Random access to the bytes of a file, eg, with ranged GET requests.
+	 */
+	public interface Source {
+		long size();
+
+		byte[] read(long offset, int length) throws IOException;
+	}
+
+	/**
+	 * A leaf column of the schema.
+	 */
+	public static class Column {
+		/** Position of the column in the column chunks of a row group. */
+		final int index;
+		final String name;
+		final int type;
+		final boolean optional;
+		/** True for columns that are not nested nor repeated. */
+		final boolean flat;
+		/** Nanoseconds per unit of a timestamp column, 0 for other columns. */
+		final long timestampUnit;
+		/** True if a timestamp is an instant, false if it is a local datetime stored as if it was in UTC. */
+		final boolean adjustedToUtc;
+
+		Column(int index, String name, int type, boolean optional, boolean flat, long timestampUnit, boolean adjustedToUtc) {
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			this.optional = optional;
+			this.flat = flat;
+			this.timestampUnit = timestampUnit;
+			this.adjustedToUtc = adjustedToUtc;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isTimestamp() {
+			return timestampUnit > 0;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A column chunk of a row group.
+	 */
+	static class Chunk {
+		final int codec;
+		final long offset;
+		final int length;
+		final long values;
+
+		Chunk(int codec, long offset, int length, long values) {
+			this.codec = codec;
+			this.offset = offset;
+			this.length = length;
+			this.values = values;
+		}
+	}
+
+	static class RowGroup {
+		final long rows;
+		final Chunk[] chunks;
+
+		RowGroup(long rows, Chunk[] chunks) {
+			this.rows = rows;
+			this.chunks = chunks;
+		}
+	}
+
+	private final Source source;
+	private final long rows;
+	private final List<Column> columns;
+	private final List<RowGroup> rowGroups;
+
+	private ParquetFile(Source source, long rows, List<Column> columns, List<RowGroup> rowGroups) {
+		this.source = source;
+		this.rows = rows;
+		this.columns = columns;
+		this.rowGroups = rowGroups;
+	}
+
+	public Source getSource() {
+		return source;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	List<RowGroup> getRowGroups() {
+		return rowGroups;
+	}
+
+	/**
+	 * Read the footer of a parquet file.
+	 */
+	public static ParquetFile open(Source source) throws IOException {
+		long size = source.size();
+		if (size < 12) {
+			throw new IOException("not a parquet file, size is " + size);
+		}
+
+		byte[] tail = source.read(size - 8, 8);
+		if (!isMagic(tail, 4)) {
+			throw new IOException("not a parquet file, magic is missing");
+		}
+		int footerLength = (tail[0] & 0xff) | (tail[1] & 0xff) << 8 | (tail[2] & 0xff) << 16 | (tail[3] & 0xff) << 24;
+		if (footerLength <= 0 || footerLength > size - 12) {
+			throw new IOException("invalid parquet footer length " + footerLength);
+		}
+
+		byte[] footer = source.read(size - 8 - footerLength, footerLength);
+		Struct metadata = new ThriftCompactReader(footer, 0, footer.length).readStruct();
+
+		List<Column> columns = readSchema(metadata.getList(2));
+
+		List<RowGroup> rowGroups = new ArrayList<>();
+		for (Struct rowGroup : metadata.<Struct>getList(4)) {
+			List<Struct> columnChunks = rowGroup.getList(1);
+			if (columnChunks.size() != columns.size()) {
+				throw new IOException("row group has " + columnChunks.size() + " column chunks instead of " + columns.size());
+			}
+
+			Chunk[] chunks = new Chunk[columnChunks.size()];
+			for (int i = 0; i < chunks.length; i++) {
+				Struct columnMetadata = columnChunks.get(i).getStruct(3);
+				if (columnMetadata == null || columnChunks.get(i).getString(1) != null) {
+					throw new IOException("column chunks in other files are not supported");
+				}
+
+				// the dictionary page, if any, precedes the data pages
+				long offset = columnMetadata.getLong(9, 0);
+				if (columnMetadata.has(11) && columnMetadata.getLong(11, 0) > 0) {
+					offset = Math.min(offset, columnMetadata.getLong(11, 0));
+				}
+				chunks[i] = new Chunk(columnMetadata.getInt(4, 0), offset, (int)columnMetadata.getLong(7, 0), columnMetadata.getLong(5, 0));
+			}
+			rowGroups.add(new RowGroup(rowGroup.getLong(3, 0), chunks));
+		}
+
+		return new ParquetFile(source, metadata.getLong(3, 0), Collections.unmodifiableList(columns), rowGroups);
+	}
+
+	/**
+	 * Flatten the schema tree into its leaf columns, in the order of the column chunks.
+	 */
+	private static List<Column> readSchema(List<Struct> elements) throws IOException {
+		if (elements.isEmpty()) {
+			throw new IOException("parquet file without schema");
+		}
+
+		List<Column> columns = new ArrayList<>();
+
+		// number of children left per level of the tree below the root
+		int[] remaining = new int[elements.size() + 1];
+		int depth = 0;
+		remaining[0] = elements.get(0).getInt(5, 0);
+
+		for (int i = 1; i < elements.size(); i++) {
+			while (depth > 0 && remaining[depth] == 0) {
+				depth--;
+			}
+			remaining[depth]--;
+
+			Struct element = elements.get(i);
+			int children = element.getInt(5, 0);
+			if (children > 0) {
+				remaining[++depth] = children;
+				continue;
+			}
+			int repetition = element.getInt(3, REQUIRED);
+
+			long timestampUnit = 0;
+			boolean adjustedToUtc = true;
+			Struct logicalType = element.getStruct(10);
+			Struct timestamp = logicalType == null ? null : logicalType.getStruct(8);
+			if (timestamp != null) {
+				adjustedToUtc = timestamp.getBoolean(1, true);
+				Struct unit = timestamp.getStruct(2);
+				timestampUnit = unit == null ? 0 : unit.has(1) ? 1_000_000 : unit.has(2) ? 1_000 : unit.has(3) ? 1 : 0;
+			} else if (element.getInt(6, -1) == TIMESTAMP_MILLIS) {
+				timestampUnit = 1_000_000;
+			} else if (element.getInt(6, -1) == TIMESTAMP_MICROS) {
+				timestampUnit = 1_000;
+			} else if (element.getInt(1, -1) == INT96) {
+				// the legacy timestamps of impala, hive and spark
+				timestampUnit = 1;
+			}
+
+			columns.add(new Column(columns.size(), element.getString(4), element.getInt(1, -1), repetition != REQUIRED,
+				depth == 0 && repetition != REPEATED, timestampUnit, adjustedToUtc));
+		}
+		return columns;
+	}
+
+	private static boolean isMagic(byte[] b, int off) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (b[off + i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
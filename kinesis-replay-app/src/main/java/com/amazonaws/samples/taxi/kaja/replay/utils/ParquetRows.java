@@ -0,0 +1,283 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the projected columns of a parquet file as rows of text values, like the records of a csv file.
+ *
+ * Only the column chunks of the columns that {@link DataNormalizer#isProjected(String)} are fetched. Row groups are decoded in batches of
+ * rows and every column of a batch is decoded by a task of its own, so that the columns of a file with a single row group are decoded in
+ * parallel as well. The column chunks of the next row group are fetched while the current one is decoded.
+ */
+public class ParquetRows implements ObjectReader.Rows {
+	private static final Logger LOG = LoggerFactory.getLogger(ParquetRows.class);
+
+	static final int BATCH_ROWS = 4096;
+
+	/** Formats local datetimes that are stored as if they were in UTC. */
+	private final DateTimeCodec localDateTime = new DateTimeCodec(' ', ZoneOffset.UTC);
+	private final DateTimeCodec instant = new DateTimeCodec(' ', ZoneId.systemDefault());
+
+	private final ParquetFile file;
+	private final ParquetFile.Column[] columns;
+	/** True for columns whose integral floating point values are written without fraction, eg, passenger counts or location ids. */
+	private final boolean[] integral;
+	private final List<String> header;
+	private final Executor executor;
+	private final int readAhead;
+
+	private final Queue<Batch> batches = new ArrayDeque<>();
+	private final List<StringBuilder> values;
+	private final byte[] datetime = new byte[DateTimeCodec.LENGTH + 8];
+
+	private int nextRowGroup;
+	private long rowGroupRemaining;
+	private CompletableFuture<byte[][]> nextChunks;
+	private CompletableFuture<ParquetColumnReader[]> readers;
+	private CompletableFuture<?>[] columnTails;
+
+	private Batch batch;
+	private int row;
+	private long rowNumber;
+
+	/**
+	 * @param executor decodes the columns and fetches the column chunks
+	 * @param readAhead number of batches that are decoded ahead of the reader
+	 */
+	public ParquetRows(ParquetFile file, Executor executor, int readAhead) {
+		this.file = file;
+		this.executor = executor;
+		this.readAhead = Math.max(1, readAhead);
+
+		List<ParquetFile.Column> projected = new ArrayList<>();
+		for (ParquetFile.Column column : file.getColumns()) {
+			String name = DataNormalizer.normalizeHeader(column.getName());
+			if (!DataNormalizer.isProjected(name)) {
+				continue;
+			}
+			if (!ParquetColumnReader.isSupported(column)) {
+				LOG.warn("skipping column {} of unsupported type {}", column.getName(), column.type);
+				continue;
+			}
+			projected.add(column);
+		}
+
+		this.columns = projected.toArray(new ParquetFile.Column[0]);
+		this.integral = new boolean[columns.length];
+		this.values = new ArrayList<>(columns.length);
+		List<String> names = new ArrayList<>(columns.length);
+		for (int c = 0; c < columns.length; c++) {
+			names.add(columns[c].getName());
+			values.add(new StringBuilder());
+			integral[c] = !DataNormalizer.isDouble(DataNormalizer.normalizeHeader(columns[c].getName()));
+		}
+		this.header = Collections.unmodifiableList(names);
+
+		LOG.debug("reading columns {} of {} rows", header, file.getRows());
+
+		submitBatches();
+	}
+
+	/**
+	 * @return the names of the projected columns
+	 */
+	public List<String> getHeader() {
+		return header;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return (batch != null && row < batch.rows) || !batches.isEmpty();
+	}
+
+	@Override
+	public List<? extends CharSequence> next() {
+		if (batch == null || row >= batch.rows) {
+			batch = batches.poll();
+			if (batch == null) {
+				throw new NoSuchElementException();
+			}
+			submitBatches();
+
+			try {
+				batch.decoded.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+				throw new UncheckedIOException(new IOException("failed to decode row " + rowNumber + ": " + cause.getMessage(), cause));
+			}
+			row = 0;
+		}
+
+		for (int c = 0; c < columns.length; c++) {
+			format(c, batch.values[c][row], batch.nulls[c][row]);
+		}
+		row++;
+		rowNumber++;
+		return values;
+	}
+
+	@Override
+	public long getRowNumber() {
+		return rowNumber;
+	}
+
+	@Override
+	public void close() {
+		batches.clear();
+		batch = null;
+		nextChunks = null;
+	}
+
+	private void format(int c, long value, boolean isNull) {
+		StringBuilder sb = values.get(c);
+		sb.setLength(0);
+		if (isNull) {
+			return;
+		}
+
+		ParquetFile.Column column = columns[c];
+		if (column.isTimestamp()) {
+			int n = (column.adjustedToUtc ? instant : localDateTime).format(value, datetime, 0);
+			for (int i = 0; i < n; i++) {
+				sb.append((char)datetime[i]);
+			}
+		} else if (column.type == ParquetFile.FLOAT || column.type == ParquetFile.DOUBLE) {
+			double d = Double.longBitsToDouble(value);
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return;
+			}
+			if (integral[c] && d == Math.rint(d) && Math.abs(d) < 1e15) {
+				sb.append((long)d);
+			} else {
+				sb.append(d);
+			}
+		} else {
+			sb.append(value);
+		}
+	}
+
+	/**
+	 * Submit the decoding of batches until readAhead batches are in flight, starting the next row groups as necessary.
+	 */
+	private void submitBatches() {
+		while (batches.size() < readAhead) {
+			if (rowGroupRemaining == 0 && !startRowGroup()) {
+				return;
+			}
+
+			final int rows = (int)Math.min(BATCH_ROWS, rowGroupRemaining);
+			rowGroupRemaining -= rows;
+
+			final Batch next = new Batch(columns.length, rows);
+			final CompletableFuture<ParquetColumnReader[]> rowGroupReaders = readers;
+			CompletableFuture<?>[] decoded = new CompletableFuture<?>[columns.length];
+			for (int c = 0; c < columns.length; c++) {
+				final int column = c;
+
+				// the batches of a column are decoded one after another
+				decoded[c] = columnTails[c] = columnTails[c].thenRunAsync(() -> {
+					try {
+						rowGroupReaders.join()[column].read(next.values[column], next.nulls[column], rows);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor);
+			}
+			next.decoded = CompletableFuture.allOf(decoded);
+			batches.add(next);
+		}
+	}
+
+	/**
+	 * @return false if there are no more row groups
+	 */
+	private boolean startRowGroup() {
+		List<ParquetFile.RowGroup> rowGroups = file.getRowGroups();
+		while (nextRowGroup < rowGroups.size()) {
+			ParquetFile.RowGroup rowGroup = rowGroups.get(nextRowGroup++);
+			CompletableFuture<byte[][]> chunks = nextChunks != null ? nextChunks : fetch(rowGroup);
+			nextChunks = nextRowGroup < rowGroups.size() ? fetch(rowGroups.get(nextRowGroup)) : null;
+
+			if (rowGroup.rows == 0) {
+				continue;
+			}
+
+			readers = chunks.thenApply(bytes -> {
+				ParquetColumnReader[] readers = new ParquetColumnReader[columns.length];
+				for (int c = 0; c < columns.length; c++) {
+					readers[c] = new ParquetColumnReader(columns[c], rowGroup.chunks[columns[c].index].codec, bytes[c]);
+				}
+				return readers;
+			});
+			columnTails = new CompletableFuture<?>[columns.length];
+			Arrays.fill(columnTails, readers);
+			rowGroupRemaining = rowGroup.rows;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Fetch the column chunks of the projected columns of a row group.
+	 */
+	private CompletableFuture<byte[][]> fetch(ParquetFile.RowGroup rowGroup) {
+		return CompletableFuture.supplyAsync(() -> {
+			byte[][] chunks = new byte[columns.length][];
+			for (int c = 0; c < columns.length; c++) {
+				ParquetFile.Chunk chunk = rowGroup.chunks[columns[c].index];
+				try {
+					chunks[c] = file.getSource().read(chunk.offset, chunk.length);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return chunks;
+		}, executor);
+	}
+
+	private static class Batch {
+		final int rows;
+		final long[][] values;
+		final boolean[][] nulls;
+		CompletableFuture<Void> decoded;
+
+		Batch(int columns, int rows) {
+			this.rows = rows;
+			this.values = new long[columns][rows];
+			this.nulls = new boolean[columns][rows];
+		}
+	}
+}
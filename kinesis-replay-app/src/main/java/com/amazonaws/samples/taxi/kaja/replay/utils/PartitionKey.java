@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A partition key of a Kinesis record together with its precomputed explicit hash key.
+ */
+public final class PartitionKey {
+	private static final BigInteger HASH_KEY_SPACE = BigInteger.ONE.shiftLeft(128);
+
+	public final String partitionKey;
+	/** The explicit hash key as decimal string, or null to let the producer hash the partition key. */
+	public final String explicitHashKey;
+	/** Determines the send thread of the record, records with the same partition key have the same routing key. */
+	public final int routingKey;
+
+	public PartitionKey(String partitionKey, String explicitHashKey, int routingKey) {
+		this.partitionKey = partitionKey;
+		this.explicitHashKey = explicitHashKey;
+		this.routingKey = routingKey;
+	}
+
+	/**
+	 * Compute the explicit hash key of a partition key like Kinesis does, ie, the MD5 hash of the key as 128 bit integer.
+	 */
+	public static PartitionKey of(String partitionKey) {
+		try {
+			byte[] md5 = MessageDigest.getInstance("MD5").digest(partitionKey.getBytes(StandardCharsets.UTF_8));
+			return ofHashKey(partitionKey, new BigInteger(1, md5));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Use a 32 bit hash, eg, of the payload, as the upper bits of the explicit hash key, so that the key needn't be hashed again.
+	 */
+	public static PartitionKey ofHash(int hash) {
+		return ofHashKey(Integer.toString(hash), BigInteger.valueOf(hash & 0xffffffffL).shiftLeft(96));
+	}
+
+	/**
+	 * @return the key of the bucket with the given index, if the hash key space is divided into buckets of equal size
+	 */
+	public static PartitionKey ofBucket(int bucket, int buckets) {
+		BigInteger size = HASH_KEY_SPACE.divide(BigInteger.valueOf(buckets));
+		BigInteger hashKey = size.multiply(BigInteger.valueOf(bucket)).add(size.shiftRight(1));
+		return ofHashKey(Integer.toString(bucket), hashKey);
+	}
+
+	private static PartitionKey ofHashKey(String partitionKey, BigInteger hashKey) {
+		// the upper bits of the hash key, so that a send thread owns a range of hash keys
+		return new PartitionKey(partitionKey, hashKey.toString(), hashKey.shiftRight(96).intValue());
+	}
+
+	@Override
+	public String toString() {
+		return partitionKey + "=" + explicitHashKey;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.Event;
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * The available partitioners.
+ *
+ * Every partition key comes with its explicit hash key, so records can be shaped to the shard they are sent to. Apart from {@link #HASH},
+ * whose hash key is taken from the hash of the payload, the explicit hash key of every partition key is computed once and cached, so
+ * neither the replay nor the producer hash every key.
+ */
+public final class Partitioners {
+	/** Hash of the payload, which is also the upper 32 bits of the explicit hash key. */
+	public static final String HASH = "hash";
+	/** Random bucket of the hash key space. */
+	public static final String RANDOM = "random";
+	/** Buckets of the hash key space in turn. */
+	public static final String ROUND_ROBIN = "roundrobin";
+	/** Pickup location id, or the location id of driver locations. */
+	public static final String LOCATION = "location";
+	/** Geohash prefix of the pickup coordinates (of the coordinates of driver locations), events without coordinates fall back to the location id. */
+	public static final String GEOHASH = "geohash";
+	/** Taxi type. */
+	public static final String TYPE = "type";
+
+	private static final byte[] PICKUP_LOCATION_FIELD = pattern("pickup_location_id");
+	private static final byte[] PICKUP_LATITUDE_FIELD = pattern("pickup_latitude");
+	private static final byte[] PICKUP_LONGITUDE_FIELD = pattern("pickup_longitude");
+	private static final byte[] LOCATION_FIELD = pattern("location_id");
+	private static final byte[] LATITUDE_FIELD = pattern("latitude");
+	private static final byte[] LONGITUDE_FIELD = pattern("longitude");
+	private static final byte[] TYPE_FIELD = pattern(Event.TYPE_FIELD);
+
+	private static final char[] GEOHASH_BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private Partitioners() {
+	}
+
+	/**
+	 * @param name one of the partitioner names of this class
+	 * @param buckets number of buckets of the hash key space for the random and round robin partitioner
+	 * @param geohashPrecision length of the geohash prefix
+	 */
+	public static Partitioner create(String name, int buckets, int geohashPrecision) {
+		switch (name) {
+		case HASH:
+			return event -> PartitionKey.ofHash(event.hashCode());
+		case RANDOM:
+			return new BucketPartitioner(buckets) {
+				@Override
+				int nextBucket() {
+					return ThreadLocalRandom.current().nextInt(keys.length);
+				}
+			};
+		case ROUND_ROBIN:
+			return new BucketPartitioner(buckets) {
+				private final AtomicLong counter = new AtomicLong();
+
+				@Override
+				int nextBucket() {
+					return (int)Math.floorMod(counter.getAndIncrement(), (long)keys.length);
+				}
+			};
+		case LOCATION:
+			return new KeyPartitioner(event -> locationKey(event.toByteBuffer()));
+		case GEOHASH:
+			return new KeyPartitioner(event -> geohashKey(event.toByteBuffer(), geohashPrecision));
+		case TYPE:
+			return new KeyPartitioner(event -> field(event.toByteBuffer(), TYPE_FIELD));
+		default:
+			throw new IllegalArgumentException("unknown partitioner " + name);
+		}
+	}
+
+	/**
+	 * Partition keys that are derived from attributes of the event, the hash keys are cached per attribute value.
+	 */
+	private static class KeyPartitioner implements Partitioner {
+		private final Function<JsonEvent, String> keyExtractor;
+		private final Map<String, PartitionKey> keys = new ConcurrentHashMap<>();
+
+		KeyPartitioner(Function<JsonEvent, String> keyExtractor) {
+			this.keyExtractor = keyExtractor;
+		}
+
+		@Override
+		public PartitionKey partition(JsonEvent event) {
+			String key = keyExtractor.apply(event);
+			return keys.computeIfAbsent(key == null || key.isEmpty() ? "unknown" : key, PartitionKey::of);
+		}
+	}
+
+	/**
+	 * Partition keys that spread events evenly over the hash key space.
+	 */
+	private abstract static class BucketPartitioner implements Partitioner {
+		protected final PartitionKey[] keys;
+
+		BucketPartitioner(int buckets) {
+			keys = new PartitionKey[Math.max(1, buckets)];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = PartitionKey.ofBucket(i, keys.length);
+			}
+		}
+
+		abstract int nextBucket();
+
+		@Override
+		public PartitionKey partition(JsonEvent event) {
+			return keys[nextBucket()];
+		}
+	}
+
+	/**
+	 * @return the pickup location id of a trip or the location id of a driver location
+	 */
+	static String locationKey(ByteBuffer payload) {
+		String key = field(payload, PICKUP_LOCATION_FIELD);
+		return key != null ? key : field(payload, LOCATION_FIELD);
+	}
+
+	static String geohashKey(ByteBuffer payload, int precision) {
+		int[] range = fieldRange(payload, PICKUP_LATITUDE_FIELD);
+		boolean pickup = range != null;
+		if (!pickup) {
+			range = fieldRange(payload, LATITUDE_FIELD);
+		}
+		double latitude = range == null ? 0 : parseDouble(payload, range);
+		range = fieldRange(payload, pickup ? PICKUP_LONGITUDE_FIELD : LONGITUDE_FIELD);
+		double longitude = range == null ? 0 : parseDouble(payload, range);
+
+		// missing coordinates are 0 in the taxi data
+		if (latitude == 0 || longitude == 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+			return locationKey(payload);
+		}
+		return geohash(latitude, longitude, precision);
+	}
+
+	static String geohash(double latitude, double longitude, int precision) {
+		double[] lat = { -90, 90 };
+		double[] lon = { -180, 180 };
+
+		char[] hash = new char[precision];
+		boolean even = true;
+		for (int i = 0; i < precision; i++) {
+			int ch = 0;
+			for (int bit = 0; bit < 5; bit++) {
+				double[] interval = even ? lon : lat;
+				double value = even ? longitude : latitude;
+				double mid = (interval[0] + interval[1]) / 2;
+
+				ch <<= 1;
+				if (value >= mid) {
+					ch |= 1;
+					interval[0] = mid;
+				} else {
+					interval[1] = mid;
+				}
+				even = !even;
+			}
+			hash[i] = GEOHASH_BASE32[ch];
+		}
+		return new String(hash);
+	}
+
+	static byte[] pattern(String name) {
+		return ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the value of a top level field of a json payload without quotes, or null if the field doesn't exist
+	 */
+	static String field(ByteBuffer payload, String name) {
+		return field(payload, pattern(name));
+	}
+
+	/**
+	 * @return the datetime of a top level field of a json payload in epoch millis, {@link DateTimeCodec#INVALID} if the field doesn't
+	 *         exist or isn't a datetime
+	 */
+	static long datetimeField(ByteBuffer payload, byte[] pattern) {
+		int[] range = fieldRange(payload, pattern);
+		if (range == null || range[1] - range[0] != DateTimeCodec.LENGTH) {
+			return DateTimeCodec.INVALID;
+		}
+
+		if (payload.hasArray()) {
+			return DateTimeCodec.DATETIME.parse(payload.array(), payload.arrayOffset() + range[0], DateTimeCodec.LENGTH);
+		}
+		byte[] value = new byte[DateTimeCodec.LENGTH];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = payload.get(range[0] + i);
+		}
+		return DateTimeCodec.DATETIME.parse(value, 0, value.length);
+	}
+
+	/**
+	 * @return the non-negative integer of a top level field of a json payload, 0 if the field doesn't exist or isn't an integer
+	 */
+	static int intField(ByteBuffer payload, byte[] pattern) {
+		int[] range = fieldRange(payload, pattern);
+		if (range == null || range[0] == range[1] || range[1] - range[0] > 9) {
+			return 0;
+		}
+
+		int value = 0;
+		for (int i = range[0]; i < range[1]; i++) {
+			int digit = payload.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return 0;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number of a top level field of a json payload, 0 if the field doesn't exist, NaN if it isn't a number
+	 */
+	static double doubleField(ByteBuffer payload, byte[] pattern) {
+		int[] range = fieldRange(payload, pattern);
+		return range == null ? 0 : parseDouble(payload, range);
+	}
+
+	private static String field(ByteBuffer payload, byte[] pattern) {
+		int[] range = fieldRange(payload, pattern);
+		if (range == null) {
+			return null;
+		}
+
+		byte[] value = new byte[range[1] - range[0]];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = payload.get(range[0] + i);
+		}
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Find the value of a field in the flat json objects written by {@link RecordCodec}, the range of a string excludes the quotes.
+	 */
+	private static int[] fieldRange(ByteBuffer payload, byte[] pattern) {
+		int limit = payload.limit() - pattern.length;
+		for (int i = payload.position(); i <= limit; i++) {
+			if (matches(payload, i, pattern)) {
+				int start = i + pattern.length;
+				if (start < payload.limit() && payload.get(start) == '"') {
+					int end = start + 1;
+					while (end < payload.limit() && payload.get(end) != '"') {
+						end += payload.get(end) == '\\' ? 2 : 1;
+					}
+					return new int[] { start + 1, Math.min(end, payload.limit()) };
+				}
+
+				int end = start;
+				while (end < payload.limit() && payload.get(end) != ',' && payload.get(end) != '}') {
+					end++;
+				}
+				return new int[] { start, end };
+			}
+		}
+		return null;
+	}
+
+	private static boolean matches(ByteBuffer payload, int offset, byte[] pattern) {
+		for (int j = 0; j < pattern.length; j++) {
+			if (payload.get(offset + j) != pattern[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double parseDouble(ByteBuffer payload, int[] range) {
+		StringBuilder sb = new StringBuilder(range[1] - range[0]);
+		for (int i = range[0]; i < range[1]; i++) {
+			sb.append((char)payload.get(i));
+		}
+		try {
+			return RecordCodec.parseDouble(sb);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
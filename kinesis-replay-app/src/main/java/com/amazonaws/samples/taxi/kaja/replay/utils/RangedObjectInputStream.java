@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * Downloads fixed size byte ranges of an S3 object in parallel and reads them back in order.
+ *
+ * At most ringSize chunks are downloaded ahead of the reader, their buffers are recycled once they have been read.
+ */
+public class RangedObjectInputStream extends InputStream {
+	private static final Logger LOG = LoggerFactory.getLogger(RangedObjectInputStream.class);
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final S3Client s3;
+	private final String bucketName;
+	private final String key;
+	private final long objectSize;
+	private final int chunkSize;
+	private final int ringSize;
+	private final ExecutorService executor;
+
+	private final Queue<Future<Chunk>> downloads = new ArrayDeque<>();
+	private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+	private long nextOffset;
+	private Chunk chunk;
+	private int position;
+	private boolean closed;
+
+	public RangedObjectInputStream(S3Client s3, String bucketName, String key, long objectSize, int chunkSize, int ringSize, ExecutorService executor) {
+		this(s3, bucketName, key, 0, objectSize, chunkSize, ringSize, executor);
+	}
+
+	/**
+	 * @param startOffset the byte offset to start reading at
+	 */
+	public RangedObjectInputStream(S3Client s3, String bucketName, String key, long startOffset, long objectSize, int chunkSize, int ringSize, ExecutorService executor) {
+		this.s3 = s3;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.objectSize = objectSize;
+		this.chunkSize = chunkSize;
+		this.ringSize = Math.max(1, ringSize);
+		this.executor = executor;
+		this.nextOffset = startOffset;
+
+		while (downloads.size() < this.ringSize && nextOffset < objectSize) {
+			submitNextChunk();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureChunk()) {
+			return -1;
+		}
+		return chunk.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureChunk()) {
+			return -1;
+		}
+
+		int n = Math.min(len, chunk.length - position);
+		System.arraycopy(chunk.data, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return chunk == null ? 0 : chunk.length - position;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Future<Chunk> f : downloads) {
+			f.cancel(true);
+		}
+		downloads.clear();
+		chunk = null;
+	}
+
+	/**
+	 * Make sure there is unread data in the current chunk, waits for the download of the next chunk if necessary.
+	 *
+	 * @return false at the end of the object
+	 */
+	private boolean ensureChunk() throws IOException {
+		if (closed) {
+			throw new IOException("stream closed");
+		}
+
+		while (chunk == null || position >= chunk.length) {
+			if (chunk != null) {
+				// recycle the buffer and keep ringSize chunks in flight
+				buffers.offer(chunk.data);
+				chunk = null;
+
+				if (nextOffset < objectSize) {
+					submitNextChunk();
+				}
+			}
+
+			Future<Chunk> f = downloads.poll();
+			if (f == null) {
+				return false;
+			}
+
+			try {
+				chunk = f.get();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new InterruptedIOException("interrupted while downloading s3://" + bucketName + "/" + key);
+			} catch (ExecutionException e) {
+				close();
+				throw new IOException("failed to download s3://" + bucketName + "/" + key, e.getCause());
+			}
+		}
+		return true;
+	}
+
+	private void submitNextChunk() {
+		final long start = nextOffset;
+		final int length = (int)Math.min(chunkSize, objectSize - start);
+		nextOffset += length;
+
+		downloads.add(executor.submit(() -> download(start, length)));
+	}
+
+	private Chunk download(long start, int length) throws IOException {
+		byte[] data = buffers.poll();
+		if (data == null) {
+			data = new byte[chunkSize];
+		}
+
+		GetObjectRequest request = GetObjectRequest.builder()
+			.bucket(bucketName)
+			.key(key)
+			.range("bytes=" + start + "-" + (start + length - 1))
+			.build();
+
+		for (int attempt = 1; ; attempt++) {
+			try (ResponseInputStream<GetObjectResponse> in = s3.getObject(request)) {
+				int n = in.readNBytes(data, 0, length);
+				if (n != length) {
+					throw new IOException("expected " + length + " bytes at offset " + start + " but got " + n);
+				}
+
+				LOG.debug("downloaded {} bytes at offset {} of s3://{}/{}", length, start, bucketName, key);
+				return new Chunk(data, length);
+			} catch (IOException | SdkException e) {
+				if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				LOG.warn("retrying download of offset {} of s3://{}/{}: {}", start, bucketName, key, e.getMessage());
+			}
+		}
+	}
+
+	private static class Chunk {
+		private final byte[] data;
+		private final int length;
+
+		Chunk(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.Event;
+
+/**
+ * Converts csv records of an object into json payloads.
+ *
+ * The codec is compiled once from the normalized header of an object: every column gets a converter according to {@link DataNormalizer}
+ * and the json keys are pre-encoded in the order a sorted map would serialize them. Records are written straight into a reusable byte
+ * buffer, so that only the final payload is allocated per record.
+ *
+ * Ascii values of a {@link CsvTokenizer} are copied and parsed from their bytes without decoding them into characters first.
+ */
+public class RecordCodec {
+	private static final Logger LOG = LoggerFactory.getLogger(RecordCodec.class);
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private enum Converter { STRING, DATETIME, MILES, DOUBLE, LONG, TYPE }
+
+	private final String[] names;
+	private final byte[][] keys;
+	private final int[] columns;
+	private final Converter[] converters;
+	private final String[] requiredNames;
+	private final int[] requiredColumns;
+	private final byte[] type;
+	private int timestampIndex = -1;
+
+	private byte[] buffer = new byte[1024];
+	private int length;
+	private long timestamp;
+	private long datetime;
+
+	/**
+	 * @param header the normalized header of the object
+	 * @param objectType the value of the type attribute that is added to every record
+	 * @param timestampAttributeName the datetime column that determines the timestamp of an event
+	 */
+	public RecordCodec(List<String> header, String objectType, String timestampAttributeName) {
+		// like a map, the last column wins if a name appears more than once
+		Map<String, Integer> sorted = new TreeMap<>();
+		for (int i = 0; i < header.size(); i++) {
+			sorted.put(header.get(i), i);
+		}
+		sorted.put(Event.TYPE_FIELD, -1);
+
+		names = sorted.keySet().toArray(new String[0]);
+		keys = new byte[names.length][];
+		columns = new int[names.length];
+		converters = new Converter[names.length];
+
+		int i = 0;
+		for (Map.Entry<String, Integer> en : sorted.entrySet()) {
+			String name = en.getKey();
+
+			columns[i] = en.getValue();
+			converters[i] = converterOf(name);
+			keys[i] = ((i == 0 ? "{" : ",") + quote(name) + ":").getBytes(StandardCharsets.UTF_8);
+			if (name.equals(timestampAttributeName)) {
+				timestampIndex = i;
+			}
+			i++;
+		}
+
+		// a missing required column is treated like an empty value
+		requiredNames = DataNormalizer.getRequired().toArray(new String[0]);
+		requiredColumns = new int[requiredNames.length];
+		for (int r = 0; r < requiredNames.length; r++) {
+			Integer column = sorted.get(requiredNames[r]);
+			requiredColumns[r] = column == null ? -1 : column;
+		}
+
+		type = quote(objectType).getBytes(StandardCharsets.UTF_8);
+
+		if (timestampIndex < 0) {
+			LOG.warn("header {} lacks timestamp column {}, all records will be discarded", header, timestampAttributeName);
+		}
+	}
+
+	private static Converter converterOf(String name) {
+		if (Event.TYPE_FIELD.equals(name)) {
+			return Converter.TYPE;
+		}
+		if (DataNormalizer.isDatetime(name)) {
+			return Converter.DATETIME;
+		}
+		if (DataNormalizer.isMiles(name)) {
+			return Converter.MILES;
+		}
+		if (DataNormalizer.isDouble(name)) {
+			return Converter.DOUBLE;
+		}
+		if (DataNormalizer.isLong(name)) {
+			return Converter.LONG;
+		}
+		return Converter.STRING;
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				sb.append('\\').append(ch);
+			} else if (ch < 0x20) {
+				sb.append(String.format("\\u%04x", (int)ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Convert a record into json, the result can be obtained with {@link #payload()} and {@link #timestamp()}.
+	 *
+	 * @param record the values of a csv record, missing trailing values are treated as empty
+	 * @return false if the record is invalid and has to be discarded
+	 */
+	public boolean encode(List<? extends CharSequence> record) {
+		length = 0;
+
+		if (timestampIndex < 0) {
+			return false;
+		}
+
+		for (int r = 0; r < requiredColumns.length; r++) {
+			if (value(record, requiredColumns[r]).length() == 0) {
+				LOG.warn("Discard invalid record " + requiredNames[r] + "= " + record);
+				return false;
+			}
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			write(keys[i]);
+
+			CharSequence v = value(record, columns[i]);
+			try {
+				if (!convert(converters[i], v)) {
+					LOG.warn("Discard invalid record " + names[i] + "=" + v + " " + record);
+					return false;
+				}
+				if (i == timestampIndex) {
+					// a datetime column has already been parsed by its converter, other values are parsed like DataNormalizer.parseInstant
+					long millis = converters[i] == Converter.DATETIME ? datetime : DataNormalizer.parseMillis(v);
+					timestamp = millis == DataNormalizer.INVALID_DATETIME ? 0 : millis;
+				}
+			} catch (NumberFormatException e) {
+				LOG.warn("Discard invalid record " + names[i] + "=" + v + " " + record);
+				return false;
+			}
+		}
+
+		write('}');
+		write('\n');
+		return true;
+	}
+
+	/**
+	 * @return a copy of the payload of the last encoded record
+	 */
+	public ByteBuffer payload() {
+		return ByteBuffer.wrap(Arrays.copyOf(buffer, length));
+	}
+
+	/**
+	 * @return the timestamp of the last encoded record in epoch millis
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	private static CharSequence value(List<? extends CharSequence> record, int column) {
+		return column >= 0 && column < record.size() ? record.get(column) : "";
+	}
+
+	private boolean convert(Converter converter, CharSequence v) {
+		switch (converter) {
+		case TYPE:
+			write(type);
+			return true;
+		case DATETIME:
+			datetime = v instanceof CsvTokenizer.Field ? ((CsvTokenizer.Field)v).parseMillis() : DataNormalizer.parseMillis(v);
+			if (datetime == DataNormalizer.INVALID_DATETIME) {
+				return false;
+			}
+			writeString(v);
+			return true;
+		case MILES:
+			writeLong(v.length() == 0 ? 0L : DataNormalizer.mile2meter(parseDouble(v)));
+			return true;
+		case DOUBLE:
+			if (v.length() == 0) {
+				write("0.0");
+			} else if (isJsonNumber(v)) {
+				write(v);
+			} else {
+				write(Double.toString(Double.parseDouble(v.toString())));
+			}
+			return true;
+		case LONG:
+			writeLong(v.length() == 0 ? 0L : parseLong(v));
+			return true;
+		default:
+			writeString(v);
+			return true;
+		}
+	}
+
+	/**
+	 * Parse a decimal without allocation if it has at most 15 significant digits, which gives the same result as Double.parseDouble.
+	 */
+	static double parseDouble(CharSequence v) {
+		int n = v.length();
+		int i = 0;
+		boolean negative = false;
+		if (i < n && (v.charAt(i) == '-' || v.charAt(i) == '+')) {
+			negative = v.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean digits = false;
+		boolean dot = false;
+		for (; i < n; i++) {
+			char ch = v.charAt(i);
+			if (isDigit(ch)) {
+				digits = true;
+				if (mantissa > 0 || ch != '0') {
+					significant++;
+				}
+				mantissa = mantissa * 10 + (ch - '0');
+				if (dot) {
+					scale++;
+				}
+			} else if (ch == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+
+		// both the mantissa and the power of ten are exact doubles, so a single division rounds correctly
+		if (i < n || !digits || significant > 15 || scale >= POW10.length) {
+			return Double.parseDouble(v.toString());
+		}
+
+		double d = mantissa / POW10[scale];
+		return negative ? -d : d;
+	}
+
+	static long parseLong(CharSequence v) {
+		int n = v.length();
+		int i = 0;
+		boolean negative = false;
+		if (n > 0 && (v.charAt(0) == '-' || v.charAt(0) == '+')) {
+			negative = v.charAt(0) == '-';
+			i++;
+		}
+		if (i == n || n - i > 18) {
+			return Long.parseLong(v.toString());
+		}
+
+		long result = 0;
+		for (; i < n; i++) {
+			char ch = v.charAt(i);
+			if (ch < '0' || ch > '9') {
+				throw new NumberFormatException("For input string: \"" + v + "\"");
+			}
+			result = result * 10 + (ch - '0');
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * @return true if the value can be copied into the json output as is
+	 */
+	static boolean isJsonNumber(CharSequence v) {
+		int n = v.length();
+		int i = 0;
+		if (i < n && v.charAt(i) == '-') {
+			i++;
+		}
+
+		// integer part without leading zeros
+		if (i < n && v.charAt(i) == '0') {
+			i++;
+		} else {
+			int start = i;
+			while (i < n && isDigit(v.charAt(i))) {
+				i++;
+			}
+			if (i == start) {
+				return false;
+			}
+		}
+
+		if (i < n && v.charAt(i) == '.') {
+			int start = ++i;
+			while (i < n && isDigit(v.charAt(i))) {
+				i++;
+			}
+			if (i == start) {
+				return false;
+			}
+		}
+
+		if (i < n && (v.charAt(i) == 'e' || v.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (v.charAt(i) == '+' || v.charAt(i) == '-')) {
+				i++;
+			}
+			int start = i;
+			while (i < n && isDigit(v.charAt(i))) {
+				i++;
+			}
+			if (i == start) {
+				return false;
+			}
+		}
+
+		return i == n;
+	}
+
+	private static boolean isDigit(char ch) {
+		return ch >= '0' && ch <= '9';
+	}
+
+	private void ensure(int n) {
+		if (length + n > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+		}
+	}
+
+	private void write(int b) {
+		ensure(1);
+		buffer[length++] = (byte)b;
+	}
+
+	private void write(byte[] b) {
+		ensure(b.length);
+		System.arraycopy(b, 0, buffer, length, b.length);
+		length += b.length;
+	}
+
+	/** Write ascii characters, eg, a number. */
+	private void write(CharSequence s) {
+		int n = s.length();
+		ensure(n);
+		for (int i = 0; i < n; i++) {
+			buffer[length++] = (byte)s.charAt(i);
+		}
+	}
+
+	private void writeLong(long v) {
+		if (v == Long.MIN_VALUE) {
+			write(Long.toString(v));
+			return;
+		}
+
+		ensure(20);
+		if (v < 0) {
+			buffer[length++] = '-';
+			v = -v;
+		}
+
+		int start = length;
+		do {
+			buffer[length++] = (byte)('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+
+		// digits have been written in reverse order
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			byte b = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = b;
+		}
+	}
+
+	/** Write a quoted and escaped json string in utf-8. */
+	private void writeString(CharSequence s) {
+		if (s instanceof CsvTokenizer.Field && ((CsvTokenizer.Field)s).isAscii()) {
+			writeString((CsvTokenizer.Field)s);
+			return;
+		}
+
+		int n = s.length();
+		ensure(n * 3 + 2);
+
+		buffer[length++] = '"';
+		for (int i = 0; i < n; i++) {
+			char ch = s.charAt(i);
+			if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\') {
+				buffer[length++] = (byte)ch;
+			} else if (ch == '"' || ch == '\\') {
+				buffer[length++] = '\\';
+				buffer[length++] = (byte)ch;
+			} else if (ch < 0x20) {
+				ensure(6 + (n - i) * 3);
+				writeControl(ch);
+			} else if (ch < 0x800) {
+				buffer[length++] = (byte)(0xc0 | (ch >> 6));
+				buffer[length++] = (byte)(0x80 | (ch & 0x3f));
+			} else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(ch, s.charAt(++i));
+				buffer[length++] = (byte)(0xf0 | (cp >> 18));
+				buffer[length++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+				buffer[length++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+				buffer[length++] = (byte)(0x80 | (cp & 0x3f));
+			} else {
+				buffer[length++] = (byte)(0xe0 | (ch >> 12));
+				buffer[length++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+				buffer[length++] = (byte)(0x80 | (ch & 0x3f));
+			}
+		}
+		write('"');
+	}
+
+	/** Write an ascii value of a tokenizer, only quotes, backslashes and control characters have to be escaped. */
+	private void writeString(CsvTokenizer.Field field) {
+		byte[] b = field.buffer();
+		int end = field.end();
+		ensure((end - field.start()) * 6 + 2);
+
+		buffer[length++] = '"';
+		for (int i = field.start(); i < end; i++) {
+			byte ch = b[i];
+			if (ch >= 0x20 && ch != '"' && ch != '\\') {
+				buffer[length++] = ch;
+			} else if (ch == '"' || ch == '\\') {
+				buffer[length++] = '\\';
+				buffer[length++] = ch;
+			} else {
+				writeControl((char)ch);
+			}
+		}
+		buffer[length++] = '"';
+	}
+
+	private void writeControl(char ch) {
+		buffer[length++] = '\\';
+		switch (ch) {
+		case '\n':
+			buffer[length++] = 'n';
+			break;
+		case '\r':
+			buffer[length++] = 'r';
+			break;
+		case '\t':
+			buffer[length++] = 't';
+			break;
+		case '\b':
+			buffer[length++] = 'b';
+			break;
+		case '\f':
+			buffer[length++] = 'f';
+			break;
+		default:
+			buffer[length++] = 'u';
+			buffer[length++] = '0';
+			buffer[length++] = '0';
+			buffer[length++] = HEX[ch >> 4];
+			buffer[length++] = HEX[ch & 0xf];
+		}
+	}
+}
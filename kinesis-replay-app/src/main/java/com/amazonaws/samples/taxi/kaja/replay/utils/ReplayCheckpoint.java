@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * The position a crashed replay resumes at: all events before the timestamp have been sent.
+ *
+ * The replay resumes by seeking to the timestamp. With a time index, the seek opens every object at its own offset of the timestamp, as
+ * several objects may cover it, otherwise all events before the timestamp are read and skipped.
+ */
+public class ReplayCheckpoint {
+	private static final String TIMESTAMP = "timestamp";
+
+	public final Instant timestamp;
+
+	public ReplayCheckpoint(Instant timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Replace the checkpoint file atomically, so that a crash never leaves a partial checkpoint.
+	 */
+	public void write(Path file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(TIMESTAMP, timestamp.toString());
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			properties.store(out, "replay checkpoint");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the checkpoint, or null if the file doesn't exist
+	 */
+	public static ReplayCheckpoint read(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			properties.load(in);
+		}
+		return new ReplayCheckpoint(Instant.parse(properties.getProperty(TIMESTAMP)));
+	}
+
+	@Override
+	public String toString() {
+		return timestamp.toString();
+	}
+}
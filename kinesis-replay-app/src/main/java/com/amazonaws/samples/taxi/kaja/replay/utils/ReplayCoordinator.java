@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Coordinates the workers of a distributed replay over http.
+ *
+ * Workers join to get their index, which determines their share of the events, and the speedup. Once they have opened their events,
+ * they report the timestamp of their first event and wait until all workers are ready. Then every worker gets the same time base: an
+ * ingestion start time shortly in the future and the earliest first timestamp of all workers as origin, so that an event is ingested at
+ * the same time no matter which worker replays it.
+ *
+ * While replaying, workers report the timestamp before which all of their events have been sent. The minimum of the workers that have not
+ * finished yet is the global low-water mark, which is the only watermark that is sent to the stream.
+ *
+ * <pre>
+ * POST /join                               -> index, workers, speedup
+ * POST /ready     firstTimestamp           -> startTime, origin (once all workers are ready)
+ * POST /progress  index, completed, done   -> watermark
+ * </pre>
+ */
+public class ReplayCoordinator {
+	private static final Logger LOG = LoggerFactory.getLogger(ReplayCoordinator.class);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int workers;
+	private final float speedupFactor;
+	private final long startDelayMillis;
+
+	private final CountDownLatch ready;
+	private final CountDownLatch done;
+	private final long[] firstTimestamps;
+	private final long[] completed;
+	private final boolean[] finished;
+	private int joined;
+	private long startTime;
+	private long origin;
+	private long watermark = Long.MIN_VALUE;
+
+	/**
+	 * @param port the port to listen on, 0 picks a free port
+	 * @param workers number of workers that take part in the replay
+	 * @param startDelayMillis time between the last worker getting ready and the start of the replay
+	 */
+	public ReplayCoordinator(int port, int workers, float speedupFactor, long startDelayMillis) throws IOException {
+		this.workers = workers;
+		this.speedupFactor = speedupFactor;
+		this.startDelayMillis = startDelayMillis;
+		this.ready = new CountDownLatch(workers);
+		this.done = new CountDownLatch(workers);
+		this.firstTimestamps = new long[workers];
+		this.completed = new long[workers];
+		this.finished = new boolean[workers];
+		Arrays.fill(completed, Long.MIN_VALUE);
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/join", exchange -> handle(exchange, this::join));
+		server.createContext("/ready", exchange -> handle(exchange, this::ready));
+		server.createContext("/progress", exchange -> handle(exchange, this::progress));
+
+		// a worker that is ready waits in its request for the others
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "replay-coordinator");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+	}
+
+	public void start() {
+		server.start();
+		LOG.info("coordinating {} workers at http://localhost:{}", workers, getPort());
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Wait until all workers have finished.
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		done.await();
+	}
+
+	/**
+	 * @return the timestamp before which all workers have sent all their events, EPOCH if no worker has sent an event yet
+	 */
+	public synchronized Instant getGlobalWatermark() {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < workers; i++) {
+			if (!finished[i]) {
+				min = Math.min(min, completed[i]);
+			}
+			max = Math.max(max, completed[i]);
+		}
+
+		// once all workers have finished, all events have been sent
+		long global = min == Long.MAX_VALUE ? max : min;
+		watermark = Math.max(watermark, global);
+		return watermark == Long.MIN_VALUE ? Instant.EPOCH : Instant.ofEpochMilli(watermark);
+	}
+
+	private synchronized Properties join(Properties request) {
+		if (joined >= workers) {
+			throw new IllegalStateException("all " + workers + " workers have joined already");
+		}
+		int index = joined++;
+		LOG.info("worker {} of {} joined", index, workers);
+
+		Properties response = new Properties();
+		response.setProperty("index", Integer.toString(index));
+		response.setProperty("workers", Integer.toString(workers));
+		response.setProperty("speedup", Float.toString(speedupFactor));
+		return response;
+	}
+
+	private Properties ready(Properties request) {
+		int index = Integer.parseInt(request.getProperty("index"));
+		String first = request.getProperty("firstTimestamp");
+		synchronized (this) {
+			// a worker without events doesn't determine the origin
+			firstTimestamps[index] = first == null ? Long.MAX_VALUE : Long.parseLong(first);
+		}
+		LOG.info("worker {} is ready, first event at {}", index, first == null ? "-" : Instant.ofEpochMilli(Long.parseLong(first)));
+
+		ready.countDown();
+		try {
+			ready.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("coordinator is shutting down");
+		}
+
+		Properties response = new Properties();
+		synchronized (this) {
+			if (startTime == 0) {
+				startTime = System.currentTimeMillis() + startDelayMillis;
+				origin = Arrays.stream(firstTimestamps).min().getAsLong();
+				if (origin == Long.MAX_VALUE) {
+					origin = startTime;
+				}
+				LOG.info("all workers are ready, replaying events from {} at {}", Instant.ofEpochMilli(origin), Instant.ofEpochMilli(startTime));
+			}
+			response.setProperty("startTime", Long.toString(startTime));
+			response.setProperty("origin", Long.toString(origin));
+		}
+		return response;
+	}
+
+	private Properties progress(Properties request) {
+		int index = Integer.parseInt(request.getProperty("index"));
+		boolean workerDone = Boolean.parseBoolean(request.getProperty("done"));
+		synchronized (this) {
+			completed[index] = Math.max(completed[index], Long.parseLong(request.getProperty("completed")));
+			if (workerDone && !finished[index]) {
+				finished[index] = true;
+				done.countDown();
+				LOG.info("worker {} has finished", index);
+			}
+		}
+
+		Properties response = new Properties();
+		response.setProperty("watermark", getGlobalWatermark().toString());
+		return response;
+	}
+
+	private static void handle(HttpExchange exchange, Function<Properties, Properties> handler) throws IOException {
+		try {
+			Properties request = new Properties();
+			try (InputStream in = exchange.getRequestBody()) {
+				request.load(new StringReader(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+			}
+
+			byte[] body = ReplayWorker.format(handler.apply(request)).getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} catch (IllegalStateException e) {
+			LOG.warn("rejected request to {}: {}", exchange.getRequestURI(), e.getMessage());
+			exchange.sendResponseHeaders(409, -1);
+		} catch (RuntimeException e) {
+			LOG.warn("invalid request to {}", exchange.getRequestURI(), e);
+			exchange.sendResponseHeaders(400, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+
+/**
+ * The metrics of a replay: gauges, counters and latency histograms that are read when they are exported.
+ *
+ * Metrics are exported in the Prometheus text format and as attributes of a dynamic MBean, the attribute names are the metric names
+ * with their label value appended.
+ */
+public class ReplayMetrics implements DynamicMBean {
+	/** Records that have been parsed into events, by all readers of the process. */
+	public static final LongAdder PARSED_RECORDS = new LongAdder();
+	/** Records that have been skipped as they are invalid or failed to parse, by all readers of the process. */
+	public static final LongAdder DISCARDED_RECORDS = new LongAdder();
+
+	private final List<Metric> metrics = Collections.synchronizedList(new ArrayList<>());
+
+	public void gauge(String name, String help, DoubleSupplier value) {
+		metrics.add(new Metric(name, help, "gauge") {
+			@Override
+			void collect(List<Sample> samples) {
+				samples.add(new Sample(name, null, null, value.getAsDouble()));
+			}
+		});
+	}
+
+	public void counter(String name, String help, DoubleSupplier value) {
+		metrics.add(new Metric(name, help, "counter") {
+			@Override
+			void collect(List<Sample> samples) {
+				samples.add(new Sample(name, null, null, value.getAsDouble()));
+			}
+		});
+	}
+
+	/**
+	 * A gauge with one value per label value, eg, per shard.
+	 */
+	public void gauge(String name, String help, String label, Supplier<Map<String, Double>> values) {
+		metrics.add(new Metric(name, help, "gauge") {
+			@Override
+			void collect(List<Sample> samples) {
+				for (Map.Entry<String, Double> value : values.get().entrySet()) {
+					samples.add(new Sample(name, label, value.getKey(), value.getValue()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param name name of the metric, should end with _seconds
+	 */
+	public LatencyHistogram histogram(String name, String help) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		metrics.add(new Metric(name, help, "summary") {
+			@Override
+			void collect(List<Sample> samples) {
+				double[] quantiles = histogram.quantiles();
+				for (int i = 0; i < LatencyHistogram.QUANTILES.length; i++) {
+					samples.add(new Sample(name, "quantile", Double.toString(LatencyHistogram.QUANTILES[i]), quantiles[i]));
+				}
+				samples.add(new Sample(name, "quantile", "1.0", quantiles[LatencyHistogram.QUANTILES.length]));
+				samples.add(new Sample(name + "_sum", null, null, histogram.sum()));
+				samples.add(new Sample(name + "_count", null, null, histogram.count()));
+			}
+		});
+		return histogram;
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text exposition format.
+	 */
+	public void writePrometheus(Appendable out) throws IOException {
+		List<Sample> samples = new ArrayList<>();
+		for (Metric metric : snapshot()) {
+			out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+			out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+
+			samples.clear();
+			metric.collect(samples);
+			for (Sample sample : samples) {
+				out.append(sample.name);
+				if (sample.label != null) {
+					out.append('{').append(sample.label).append("=\"").append(escape(sample.labelValue)).append("\"}");
+				}
+				out.append(' ').append(format(sample.value)).append('\n');
+			}
+		}
+	}
+
+	private List<Metric> snapshot() {
+		synchronized (metrics) {
+			return new ArrayList<>(metrics);
+		}
+	}
+
+	private List<Sample> collect() {
+		List<Sample> samples = new ArrayList<>();
+		for (Metric metric : snapshot()) {
+			metric.collect(samples);
+		}
+		return samples;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long)value);
+		}
+		return Double.toString(value);
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		for (Sample sample : collect()) {
+			if (sample.attributeName().equals(attribute)) {
+				return sample.value;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		List<Sample> samples = collect();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			for (Sample sample : samples) {
+				if (sample.attributeName().equals(attribute)) {
+					list.add(new Attribute(attribute, sample.value));
+					break;
+				}
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException("metrics are read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (Sample sample : collect()) {
+			attributes.add(new MBeanAttributeInfo(sample.attributeName(), "double", sample.name, true, false, false));
+		}
+		return new MBeanInfo(ReplayMetrics.class.getName(), "replay metrics", attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+	}
+
+	private abstract static class Metric {
+		final String name;
+		final String help;
+		final String type;
+
+		Metric(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		abstract void collect(List<Sample> samples);
+	}
+
+	private static class Sample {
+		final String name;
+		final String label;
+		final String labelValue;
+		final double value;
+
+		Sample(String name, String label, String labelValue, double value) {
+			this.name = name;
+			this.label = label;
+			this.labelValue = labelValue;
+			this.value = value;
+		}
+
+		String attributeName() {
+			return label == null ? name : name + "." + labelValue;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A worker of a distributed replay, talks to the {@link ReplayCoordinator} over http.
+ */
+public class ReplayWorker {
+	private static final Logger LOG = LoggerFactory.getLogger(ReplayWorker.class);
+
+	/** Report the progress of the worker every REPORT_MILLIS ms. */
+	private static final long REPORT_MILLIS = 1_000;
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	private static final HttpClient CLIENT = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+	private final String address;
+	private final int index;
+	private final int workers;
+	private final float speedupFactor;
+
+	private Instant startTime;
+	private Instant origin;
+	private Thread reporter;
+	private volatile LongSupplier completedTimestamp;
+
+	private ReplayWorker(String address, Properties assignment) {
+		this.address = address;
+		this.index = Integer.parseInt(assignment.getProperty("index"));
+		this.workers = Integer.parseInt(assignment.getProperty("workers"));
+		this.speedupFactor = Float.parseFloat(assignment.getProperty("speedup"));
+	}
+
+	/**
+	 * @param address host:port of the coordinator
+	 */
+	public static ReplayWorker join(String address) throws IOException {
+		ReplayWorker worker = new ReplayWorker(address, post(address, "/join", new Properties(), TIMEOUT));
+		LOG.info("joined the replay of {} as worker {} of {}", address, worker.index, worker.workers);
+		return worker;
+	}
+
+	/**
+	 * @return the share of the events of this worker, from 0 to workers - 1
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public float getSpeedupFactor() {
+		return speedupFactor;
+	}
+
+	/**
+	 * Wait until all workers are ready and receive the shared time base.
+	 *
+	 * @param firstTimestamp the timestamp of the first event of this worker, null if it has no events
+	 */
+	public void ready(Instant firstTimestamp) throws IOException {
+		Properties request = new Properties();
+		request.setProperty("index", Integer.toString(index));
+		if (firstTimestamp != null) {
+			request.setProperty("firstTimestamp", Long.toString(firstTimestamp.toEpochMilli()));
+		}
+
+		// the other workers may take a while to open their events
+		Properties timeBase = post(address, "/ready", request, null);
+		startTime = Instant.ofEpochMilli(Long.parseLong(timeBase.getProperty("startTime")));
+		origin = Instant.ofEpochMilli(Long.parseLong(timeBase.getProperty("origin")));
+		LOG.info("replaying events from {} at {}", origin, startTime);
+	}
+
+	/**
+	 * @return the ingestion time of an event at the origin
+	 */
+	public Instant getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the timestamp that is replayed at the start time
+	 */
+	public Instant getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Periodically report the timestamp before which all events of this worker have been sent.
+	 */
+	public synchronized void startReporting(LongSupplier completedTimestamp) {
+		this.completedTimestamp = completedTimestamp;
+		this.reporter = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					Thread.sleep(REPORT_MILLIS);
+					try {
+						report(false);
+					} catch (InterruptedIOException e) {
+						return;
+					} catch (IOException e) {
+						LOG.warn("failed to report progress to {}: {}", address, e.getMessage());
+					}
+				}
+			} catch (InterruptedException e) {
+				//allow thread to exit
+			}
+		}, "replay-worker");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	/**
+	 * Report that all events of this worker have been sent.
+	 */
+	public synchronized void finish() throws IOException {
+		if (reporter != null) {
+			reporter.interrupt();
+		}
+		report(true);
+		LOG.info("finished worker {} of {}", index, workers);
+	}
+
+	private void report(boolean done) throws IOException {
+		Properties request = new Properties();
+		request.setProperty("index", Integer.toString(index));
+		request.setProperty("completed", Long.toString(completedTimestamp == null ? Long.MIN_VALUE : completedTimestamp.getAsLong()));
+		request.setProperty("done", Boolean.toString(done));
+
+		Properties response = post(address, "/progress", request, TIMEOUT);
+		LOG.debug("reported progress of worker {}, global watermark {}", index, response.getProperty("watermark"));
+	}
+
+	private static Properties post(String address, String path, Properties properties, Duration timeout) throws IOException {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://" + address + path))
+			.POST(HttpRequest.BodyPublishers.ofString(format(properties)));
+		if (timeout != null) {
+			request.timeout(timeout);
+		}
+
+		try {
+			HttpResponse<String> response = CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				throw new IOException("coordinator at " + address + " rejected " + path + " with status " + response.statusCode());
+			}
+
+			Properties result = new Properties();
+			result.load(new StringReader(response.body()));
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the coordinator at " + address);
+		}
+	}
+
+	/**
+	 * @return the properties as key=value lines in key order
+	 */
+	static String format(Properties properties) {
+		StringBuilder sb = new StringBuilder();
+		Map<String, String> sorted = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			sorted.put(key, properties.getProperty(key));
+		}
+		sorted.forEach((key, value) -> sb.append(key).append('=').append(value).append('\n'));
+		return sb.toString();
+	}
+}
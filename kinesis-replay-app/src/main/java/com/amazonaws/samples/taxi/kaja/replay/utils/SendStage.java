@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Sends events with several worker threads.
+ *
+ * The partition key and sequence number of every event are determined once when it is dispatched. Every worker owns a range of routing
+ * keys, so each worker owns a disjoint set of partition keys and events with the same key are sent in the order they have been
+ * dispatched. A worker that blocks, eg, on backpressure only stalls its own partitions until its queue is full.
+ */
+public class SendStage {
+	private static final Logger LOG = LoggerFactory.getLogger(SendStage.class);
+
+	private static final Batch END = new Batch(0);
+
+	private final Partitioner partitioner;
+	private final LongSupplier sequencer;
+	private final Sender sender;
+	private final FailureHandler failureHandler;
+	private final List<Worker> workers = new ArrayList<>();
+
+	/**
+	 * @param threads number of worker threads, 0 sends the events on the dispatching thread
+	 * @param queueSize number of batches that are queued per worker
+	 * @param partitioner determines the partition key and, by its routing key, the worker of an event
+	 * @param sequencer assigns the sequence numbers of the events in the order they are dispatched
+	 * @param sender sends a single event, is called concurrently by the workers
+	 */
+	public SendStage(int threads, int queueSize, Partitioner partitioner, LongSupplier sequencer, Sender sender) {
+		this(threads, queueSize, partitioner, sequencer, sender, (je, sequence, e) -> { });
+	}
+
+	/**
+	 * @param failureHandler completes the sequence number of an event the sender failed on, eg, so it doesn't hold back the watermarks
+	 */
+	public SendStage(int threads, int queueSize, Partitioner partitioner, LongSupplier sequencer, Sender sender, FailureHandler failureHandler) {
+		this.partitioner = partitioner;
+		this.sequencer = sequencer;
+		this.sender = sender;
+		this.failureHandler = failureHandler;
+
+		for (int i = 0; i < threads; i++) {
+			Worker worker = new Worker(i, queueSize);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Hand the events of a batch to the workers, waits if the queue of a worker is full.
+	 */
+	public void dispatch(List<JsonEvent> batch) throws InterruptedException {
+		int n = workers.size();
+		if (n == 0) {
+			for (JsonEvent je : batch) {
+				send(je, partitioner.partition(je), sequencer.getAsLong());
+			}
+			return;
+		}
+
+		Batch[] parts = new Batch[n];
+		for (JsonEvent je : batch) {
+			PartitionKey key = partitioner.partition(je);
+			int worker = worker(key.routingKey, n);
+			if (parts[worker] == null) {
+				parts[worker] = new Batch(batch.size() / n + 1);
+			}
+			parts[worker].add(je, key, sequencer.getAsLong());
+		}
+
+		for (int i = 0; i < n; i++) {
+			if (parts[i] != null) {
+				workers.get(i).queue.put(parts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Send an event, the sequence number of an event that fails is handed to the failure handler, as it has been assigned already.
+	 */
+	private void send(JsonEvent je, PartitionKey key, long sequence) {
+		try {
+			sender.send(je, key, sequence);
+		} catch (RuntimeException e) {
+			LOG.warn("failed to send event {}", je.timestamp, e);
+
+			failureHandler.failed(je, sequence, e);
+		}
+	}
+
+	/**
+	 * Divide the routing keys, taken as unsigned integers, into n consecutive ranges.
+	 */
+	static int worker(int routingKey, int n) {
+		return (int)(((routingKey & 0xffffffffL) * n) >>> 32);
+	}
+
+	/**
+	 * Send all dispatched events and stop the workers.
+	 */
+	public void close() throws InterruptedException {
+		try {
+			for (Worker worker : workers) {
+				worker.queue.put(END);
+			}
+			for (Worker worker : workers) {
+				worker.join();
+			}
+		} finally {
+			for (Worker worker : workers) {
+				worker.interrupt();
+			}
+		}
+	}
+
+	private class Worker extends Thread {
+		private final BlockingQueue<Batch> queue;
+
+		Worker(int index, int queueSize) {
+			super("send-worker-" + index);
+			this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Batch batch; (batch = queue.take()) != END; ) {
+					for (int i = 0; i < batch.events.size(); i++) {
+						send(batch.events.get(i), batch.keys.get(i), batch.sequences[i]);
+					}
+				}
+			} catch (InterruptedException e) {
+				LOG.debug("interrupted");
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public interface Sender {
+		void send(JsonEvent event, PartitionKey key, long sequence);
+	}
+
+	@FunctionalInterface
+	public interface FailureHandler {
+		void failed(JsonEvent event, long sequence, RuntimeException e);
+	}
+
+	private static class Batch {
+		private final List<JsonEvent> events;
+		private final List<PartitionKey> keys;
+		private long[] sequences;
+
+		Batch(int capacity) {
+			events = new ArrayList<>(capacity);
+			keys = new ArrayList<>(capacity);
+			sequences = new long[capacity];
+		}
+
+		void add(JsonEvent je, PartitionKey key, long sequence) {
+			if (events.size() == sequences.length) {
+				sequences = Arrays.copyOf(sequences, sequences.length * 2 + 1);
+			}
+			sequences[events.size()] = sequence;
+			events.add(je);
+			keys.add(key);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+/**
+ * Shapes the records sent to every shard to the write limits of a shard, with a record and a byte budget per shard.
+ *
+ * Records are mapped to shards by the upper 32 bits of their explicit hash key, ie, their routing key, and the starting hash keys of the
+ * open shards; records without explicit hash key are not shaped. Each shard has its own buckets, so only records for a saturated shard
+ * are delayed and the records for other shards are sent right away. The buckets are implemented as virtual schedules: a shard accepts
+ * records as long as its schedule is at most a burst ahead of the current time, and every record moves the schedule ahead by its cost.
+ */
+public class ShardShaper {
+	private static final Logger LOG = LoggerFactory.getLogger(ShardShaper.class);
+
+	/** Kinesis write limits of a shard. */
+	public static final int SHARD_RECORDS_PER_SECOND = 1000;
+	public static final int SHARD_BYTES_PER_SECOND = 1024 * 1024;
+
+	private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final long recordsPerSecond;
+	private final long bytesPerSecond;
+	private final long maxDelayNanos;
+	private final ScheduledExecutorService scheduler;
+
+	private volatile ShardMap shardMap = new ShardMap(new long[0], new ShardBucket[0]);
+
+	private final AtomicLong delayedRecords = new AtomicLong();
+	/** Records that have been delayed and not been sent yet. */
+	private final Set<SettableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param recordsPerSecond records per second and shard, 0 doesn't limit the records, eg, if they are aggregated
+	 * @param bytesPerSecond bytes per second and shard, 0 doesn't limit the bytes
+	 * @param maxDelayMillis records are delayed by at most maxDelayMillis, a longer delay blocks the calling thread instead
+	 */
+	public ShardShaper(long recordsPerSecond, long bytesPerSecond, long maxDelayMillis) {
+		this.recordsPerSecond = recordsPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "shard-shaper");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Replace the shards records are mapped to, shards that are still open keep their buckets.
+	 */
+	public void setShards(List<Shard> shards) {
+		List<Shard> sorted = new ArrayList<>(shards);
+		sorted.sort(Comparator.comparing(shard -> new BigInteger(shard.hashKeyRange().startingHashKey())));
+
+		Map<String, ShardBucket> previous = new HashMap<>();
+		for (ShardBucket bucket : shardMap.buckets) {
+			previous.put(bucket.shardId, bucket);
+		}
+
+		long[] starts = new long[sorted.size()];
+		ShardBucket[] buckets = new ShardBucket[sorted.size()];
+		for (int i = 0; i < starts.length; i++) {
+			Shard shard = sorted.get(i);
+			starts[i] = new BigInteger(shard.hashKeyRange().startingHashKey()).shiftRight(96).longValue();
+			buckets[i] = previous.getOrDefault(shard.shardId(), new ShardBucket(shard.shardId()));
+		}
+
+		if (buckets.length != previous.size()) {
+			LOG.info("shaping records to {} shards", buckets.length);
+		}
+		shardMap = new ShardMap(starts, buckets);
+	}
+
+	/**
+	 * Take the cost of a record from the buckets of its shard.
+	 *
+	 * @param size size of the record in bytes, including the partition key
+	 * @return the time in ns the record has to be delayed, 0 if it can be sent right away
+	 */
+	public long reserve(PartitionKey key, int size) {
+		if (key.explicitHashKey == null) {
+			// the producer hashes the partition key, the shard isn't known
+			return 0;
+		}
+
+		ShardBucket bucket = shardMap.bucket(key.routingKey);
+		if (bucket == null) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+		long delay = bucket.reserve(now, size) - now;
+		if (delay <= 0) {
+			return 0;
+		}
+
+		delayedRecords.incrementAndGet();
+
+		// bound the number of scheduled records by holding up the sender
+		if (delay > maxDelayNanos) {
+			LockSupport.parkNanos(delay - maxDelayNanos);
+			delay = maxDelayNanos;
+		}
+		return delay;
+	}
+
+	/**
+	 * Send a record that has been delayed by {@link #reserve}. Records of a shard are sent in the order of their reservations.
+	 *
+	 * @return the result of the send, fails if the send fails or the shaper is closed before the record has been sent
+	 */
+	public <T> ListenableFuture<T> schedule(Supplier<ListenableFuture<T>> send, long delayNanos) {
+		SettableFuture<T> delayed = SettableFuture.create();
+		pending.add(delayed);
+		delayed.addListener(() -> pending.remove(delayed), MoreExecutors.directExecutor());
+
+		try {
+			scheduler.schedule(() -> {
+				try {
+					delayed.setFuture(send.get());
+				} catch (RuntimeException e) {
+					delayed.setException(e);
+				}
+			}, delayNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			delayed.setException(e);
+		}
+		return delayed;
+	}
+
+	/**
+	 * @return number of records that have been delayed
+	 */
+	public long getDelayedRecords() {
+		return delayedRecords.get();
+	}
+
+	/**
+	 * Send the records that are still delayed and stop, records that cannot be sent in time fail.
+	 */
+	public void close() throws InterruptedException {
+		close(1, TimeUnit.MINUTES);
+	}
+
+	void close(long timeout, TimeUnit unit) throws InterruptedException {
+		scheduler.shutdown();
+		try {
+			if (!scheduler.awaitTermination(timeout, unit)) {
+				LOG.warn("timed out sending the delayed records");
+			}
+		} finally {
+			scheduler.shutdownNow();
+
+			// records that are never sent must still complete, otherwise they hold back the watermarks forever
+			for (SettableFuture<?> delayed : pending) {
+				delayed.setException(new CancellationException("shard shaper has been closed"));
+			}
+		}
+	}
+
+	private static final class ShardMap {
+		/** The upper 32 bits of the starting hash keys, as unsigned integers in ascending order. */
+		private final long[] starts;
+		private final ShardBucket[] buckets;
+
+		ShardMap(long[] starts, ShardBucket[] buckets) {
+			this.starts = starts;
+			this.buckets = buckets;
+		}
+
+		ShardBucket bucket(int routingKey) {
+			if (starts.length == 0) {
+				return null;
+			}
+
+			int i = Arrays.binarySearch(starts, routingKey & 0xffffffffL);
+			// the last shard that starts before the key
+			return buckets[Math.max(0, i >= 0 ? i : -i - 2)];
+		}
+	}
+
+	private final class ShardBucket {
+		private final String shardId;
+
+		/** The time at which the record and byte budgets are spent if no further records are sent. */
+		private long recordSchedule = Long.MIN_VALUE;
+		private long byteSchedule = Long.MIN_VALUE;
+
+		ShardBucket(String shardId) {
+			this.shardId = shardId;
+		}
+
+		/**
+		 * @return the time in ns at which the record may be sent
+		 */
+		synchronized long reserve(long now, int size) {
+			long due = now;
+			if (recordsPerSecond > 0) {
+				recordSchedule = Math.max(recordSchedule, now);
+				due = Math.max(due, recordSchedule - BURST_NANOS);
+			}
+			if (bytesPerSecond > 0) {
+				byteSchedule = Math.max(byteSchedule, now);
+				due = Math.max(due, byteSchedule - BURST_NANOS);
+			}
+
+			// the budgets are spent when the record is actually sent
+			if (recordsPerSecond > 0) {
+				recordSchedule = Math.max(recordSchedule, due) + 1_000_000_000L / recordsPerSecond;
+			}
+			if (bytesPerSecond > 0) {
+				byteSchedule = Math.max(byteSchedule, due) + size * 1_000_000_000L / bytesPerSecond;
+			}
+			return due;
+		}
+	}
+}
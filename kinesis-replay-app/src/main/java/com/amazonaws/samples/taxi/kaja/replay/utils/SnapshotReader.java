@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Replays a snapshot written by the {@link SnapshotWriter} from a memory mapped file.
+ *
+ * A snapshot consists of a header, the timestamps of all events, the offsets of their payloads and the encoded payloads:
+ * <pre>
+ * magic (8) | version (4) | reserved (4) | count (8) | payload size (8)
+ * timestamp (8) * count
+ * offset (8) * (count + 1)
+ * payload bytes
+ * </pre>
+ */
+public class SnapshotReader implements EventSource {
+	private static final Logger LOG = LoggerFactory.getLogger(SnapshotReader.class);
+
+	static final long MAGIC = 0x544158_49534e4150L; // "TAXISNAP"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	/** Events are never larger than a Kinesis record, so every payload fits into the overlap of two mapped segments. */
+	static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final Path file;
+	private final JsonEvent.Parser eventParser;
+	private final MappedByteBuffer[] segments;
+	private final long count;
+	private final long offsetsOffset;
+	private final long payloadsOffset;
+
+	private long index;
+	private int partition;
+	private int partitions = 1;
+
+	public SnapshotReader(Path file, float speedupFactor) throws IOException {
+		this.file = file;
+		this.eventParser = new JsonEvent.Parser(speedupFactor, null);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			// map the file in segments of 1 GB that overlap by MAX_PAYLOAD_SIZE, so that every value can be read from a single segment
+			segments = new MappedByteBuffer[(int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = (long)i << SEGMENT_SHIFT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, SEGMENT_MASK + 1 + MAX_PAYLOAD_SIZE));
+			}
+		}
+
+		if (segments.length == 0 || getLong(0) != MAGIC) {
+			throw new IOException(file + " is not a snapshot");
+		}
+		int version = segments[0].getInt(8);
+		if (version != VERSION) {
+			throw new IOException("unsupported version " + version + " of snapshot " + file);
+		}
+
+		this.count = getLong(16);
+		this.offsetsOffset = offsetsOffset(count);
+		this.payloadsOffset = payloadsOffset(count);
+
+		LOG.info("replaying {} events from snapshot {}", count, file);
+	}
+
+	static long timestampsOffset() {
+		return HEADER_SIZE;
+	}
+
+	static long offsetsOffset(long count) {
+		return timestampsOffset() + count * Long.BYTES;
+	}
+
+	static long payloadsOffset(long count) {
+		return offsetsOffset(count) + (count + 1) * Long.BYTES;
+	}
+
+	public long size() {
+		return count;
+	}
+
+	public long getTimestamp(long i) {
+		return getLong(timestampsOffset() + i * Long.BYTES);
+	}
+
+	/**
+	 * Only replay every partitions-th event, starting with the event at the index partition, eg, to share the events between the workers
+	 * of a distributed replay. Must be set before events are read.
+	 */
+	public void setPartition(int partition, int partitions) {
+		this.partition = partition;
+		this.partitions = partitions;
+		index = align(index);
+	}
+
+	/**
+	 * @return the first index of the partition that is not before i
+	 */
+	private long align(long i) {
+		return i + Math.floorMod(partition - i, (long)partitions);
+	}
+
+	@Override
+	public void seek(Instant timestamp) {
+		long millis = timestamp.toEpochMilli();
+
+		// binary search the first event that is not before the timestamp
+		long low = index;
+		long high = count;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (getTimestamp(mid) < millis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		LOG.info("skipped {} events of snapshot {}", low - index, file);
+		index = align(low);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return index < count;
+	}
+
+	@Override
+	public JsonEvent next() {
+		if (index >= count) {
+			return null;
+		}
+
+		long timestamp = getTimestamp(index);
+		long start = getLong(offsetsOffset + index * Long.BYTES);
+		long end = getLong(offsetsOffset + (index + 1) * Long.BYTES);
+		index += partitions;
+
+		return eventParser.toJsonEvent(Instant.ofEpochMilli(timestamp), slice(payloadsOffset + start, (int)(end - start)));
+	}
+
+	@Override
+	public Instant peekTimestamp() {
+		return index < count ? Instant.ofEpochMilli(getTimestamp(index)) : null;
+	}
+
+	@Override
+	public void setTimeBase(Instant ingestionStartTime, Instant origin) {
+		eventParser.setTimeBase(ingestionStartTime, origin);
+	}
+
+	@Override
+	public void close() {
+		// the mapped segments are released once they are garbage collected
+		index = count;
+	}
+
+	private long getLong(long position) {
+		return segments[(int)(position >>> SEGMENT_SHIFT)].getLong((int)(position & SEGMENT_MASK));
+	}
+
+	private ByteBuffer slice(long position, int length) {
+		ByteBuffer segment = segments[(int)(position >>> SEGMENT_SHIFT)].duplicate();
+		int offset = (int)(position & SEGMENT_MASK);
+
+		segment.position(offset).limit(offset + length);
+		return segment.slice();
+	}
+}
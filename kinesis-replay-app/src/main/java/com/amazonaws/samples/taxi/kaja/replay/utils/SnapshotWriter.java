@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Writes events into a time sorted binary snapshot that can be replayed by the {@link SnapshotReader}.
+ *
+ * Events are sorted in runs of runSize events that are spilled to temporary files and merged into the snapshot on close.
+ */
+public class SnapshotWriter implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(SnapshotWriter.class);
+
+	private final Path file;
+	private final int runSize;
+	private final List<JsonEvent> run;
+	private final List<Path> runFiles = new ArrayList<>();
+
+	private long count;
+	private long payloadSize;
+
+	public SnapshotWriter(Path file, int runSize) {
+		this.file = file;
+		this.runSize = runSize;
+		this.run = new ArrayList<>(runSize);
+	}
+
+	public void write(JsonEvent event) throws IOException {
+		if (event.size() > SnapshotReader.MAX_PAYLOAD_SIZE) {
+			LOG.warn("skipping event of {} bytes at {}", event.size(), event.timestamp);
+			return;
+		}
+
+		run.add(event);
+		count++;
+		payloadSize += event.size();
+
+		if (run.size() >= runSize) {
+			spillRun();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!run.isEmpty()) {
+			spillRun();
+		}
+
+		try {
+			merge();
+
+			LOG.info("wrote {} events with {} bytes payload to snapshot {}", count, payloadSize, file);
+		} finally {
+			for (Path runFile : runFiles) {
+				Files.deleteIfExists(runFile);
+			}
+		}
+	}
+
+	private void spillRun() throws IOException {
+		run.sort(JsonEvent.timestampComparator);
+
+		Path runFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".run");
+		runFiles.add(runFile);
+
+		byte[] copy = new byte[0];
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), 1 << 16))) {
+			for (JsonEvent event : run) {
+				ByteBuffer payload = event.toByteBuffer();
+
+				out.writeLong(event.timestamp.toEpochMilli());
+				out.writeInt(payload.remaining());
+				if (payload.hasArray()) {
+					out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+				} else {
+					if (copy.length < payload.remaining()) {
+						copy = new byte[payload.remaining()];
+					}
+					int length = payload.remaining();
+					payload.get(copy, 0, length);
+					out.write(copy, 0, length);
+				}
+			}
+		}
+
+		LOG.info("sorted run {} of {} events, last timestamp {}", runFiles.size(), run.size(), run.get(run.size() - 1).timestamp);
+		run.clear();
+	}
+
+	private void merge() throws IOException {
+		PriorityQueue<RunReader> readers = new PriorityQueue<>(Comparator.comparingLong((RunReader r) -> r.timestamp).thenComparingInt(r -> r.index));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(SnapshotReader.HEADER_SIZE);
+			header.putLong(SnapshotReader.MAGIC);
+			header.putInt(SnapshotReader.VERSION);
+			header.putInt(0);
+			header.putLong(count);
+			header.putLong(payloadSize);
+			header.flip();
+			channel.write(header, 0);
+
+			PositionedWriter timestamps = new PositionedWriter(channel, SnapshotReader.timestampsOffset());
+			PositionedWriter offsets = new PositionedWriter(channel, SnapshotReader.offsetsOffset(count));
+			PositionedWriter payloads = new PositionedWriter(channel, SnapshotReader.payloadsOffset(count));
+
+			for (int i = 0; i < runFiles.size(); i++) {
+				RunReader reader = new RunReader(runFiles.get(i), i);
+				if (reader.next()) {
+					readers.add(reader);
+				}
+			}
+
+			long offset = 0;
+			while (!readers.isEmpty()) {
+				RunReader reader = readers.poll();
+
+				timestamps.putLong(reader.timestamp);
+				offsets.putLong(offset);
+				payloads.put(reader.payload, reader.length);
+				offset += reader.length;
+
+				if (reader.next()) {
+					readers.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			offsets.putLong(offset);
+
+			timestamps.flush();
+			offsets.flush();
+			payloads.flush();
+		} finally {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private static class RunReader implements Closeable {
+		private final DataInputStream in;
+		private final int index;
+		private long timestamp;
+		private byte[] payload = new byte[4096];
+		private int length;
+
+		RunReader(Path runFile, int index) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), 1 << 16));
+			this.index = index;
+		}
+
+		boolean next() throws IOException {
+			try {
+				timestamp = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+
+			length = in.readInt();
+			if (payload.length < length) {
+				payload = new byte[length];
+			}
+			in.readFully(payload, 0, length);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Buffered sequential writes to a region of a file channel, so that the sections of the snapshot can be written side by side.
+	 */
+	private static class PositionedWriter {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		private long position;
+
+		PositionedWriter(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		void putLong(long v) throws IOException {
+			if (buffer.remaining() < Long.BYTES) {
+				flush();
+			}
+			buffer.putLong(v);
+		}
+
+		void put(byte[] data, int length) throws IOException {
+			int offset = 0;
+			while (offset < length) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int n = Math.min(buffer.remaining(), length - offset);
+				buffer.put(data, offset, n);
+				offset += n;
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Read all events of the source and write them into a snapshot.
+	 */
+	public static void compile(EventSource source, Path file, int runSize) throws IOException {
+		LOG.info("compiling snapshot {}", file);
+
+		Instant start = Instant.now();
+		try (SnapshotWriter writer = new SnapshotWriter(file, runSize)) {
+			while (source.hasNext()) {
+				writer.write(source.next());
+			}
+		} finally {
+			source.close();
+		}
+
+		LOG.info("compiled snapshot {} in {}", file, Duration.between(start, Instant.now()));
+	}
+}
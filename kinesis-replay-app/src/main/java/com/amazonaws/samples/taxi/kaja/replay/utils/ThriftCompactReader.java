@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads structs of the thrift compact protocol, as used by the metadata of parquet files, into generic field maps.
+ */
+class ThriftCompactReader {
+	private static final int TYPE_TRUE = 1;
+	private static final int TYPE_FALSE = 2;
+	private static final int TYPE_BYTE = 3;
+	private static final int TYPE_I16 = 4;
+	private static final int TYPE_I32 = 5;
+	private static final int TYPE_I64 = 6;
+	private static final int TYPE_DOUBLE = 7;
+	private static final int TYPE_BINARY = 8;
+	private static final int TYPE_LIST = 9;
+	private static final int TYPE_SET = 10;
+	private static final int TYPE_MAP = 11;
+	private static final int TYPE_STRUCT = 12;
+
+	private final byte[] b;
+	private final int end;
+	private int position;
+
+	ThriftCompactReader(byte[] b, int off, int len) {
+		this.b = b;
+		this.position = off;
+		this.end = off + len;
+	}
+
+	/**
+	 * @return the offset after the last byte read
+	 */
+	int position() {
+		return position;
+	}
+
+	Struct readStruct() throws IOException {
+		Map<Integer, Object> fields = new HashMap<>();
+
+		int id = 0;
+		while (true) {
+			int header = readByte();
+			if (header == 0) {
+				return new Struct(fields);
+			}
+
+			int delta = header >>> 4;
+			id = delta == 0 ? (short)zigzag(readVarint()) : id + delta;
+			fields.put(id, readValue(header & 0x0f, false));
+		}
+	}
+
+	private Object readValue(int type, boolean element) throws IOException {
+		switch (type) {
+		case TYPE_TRUE:
+			// in collections a boolean is a byte of its own
+			return element ? readByte() == TYPE_TRUE : Boolean.TRUE;
+		case TYPE_FALSE:
+			return Boolean.FALSE;
+		case TYPE_BYTE:
+			return (int)(byte)readByte();
+		case TYPE_I16:
+		case TYPE_I32:
+			return (int)zigzag(readVarint());
+		case TYPE_I64:
+			return zigzag(readVarint());
+		case TYPE_DOUBLE:
+			long bits = 0;
+			for (int i = 0; i < 8; i++) {
+				bits |= (long)readByte() << (8 * i);
+			}
+			return Double.longBitsToDouble(bits);
+		case TYPE_BINARY:
+			int length = (int)readVarint();
+			if (length < 0 || position + length > end) {
+				throw new IOException("invalid binary length " + length);
+			}
+			byte[] value = new byte[length];
+			System.arraycopy(b, position, value, 0, length);
+			position += length;
+			return value;
+		case TYPE_LIST:
+		case TYPE_SET:
+			int header = readByte();
+			int size = header >>> 4 == 15 ? (int)readVarint() : header >>> 4;
+			List<Object> list = new ArrayList<>(Math.min(size, 1024));
+			for (int i = 0; i < size; i++) {
+				list.add(readValue(header & 0x0f, true));
+			}
+			return list;
+		case TYPE_MAP:
+			int entries = (int)readVarint();
+			if (entries > 0) {
+				int types = readByte();
+				for (int i = 0; i < entries; i++) {
+					readValue(types >>> 4, true);
+					readValue(types & 0x0f, true);
+				}
+			}
+			// maps are only used for key value metadata, which isn't needed
+			return null;
+		case TYPE_STRUCT:
+			return readStruct();
+		default:
+			throw new IOException("invalid thrift type " + type + " at offset " + position);
+		}
+	}
+
+	private int readByte() throws IOException {
+		if (position >= end) {
+			throw new IOException("unexpected end of thrift struct");
+		}
+		return b[position++] & 0xff;
+	}
+
+	private long readVarint() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int v = readByte();
+			result |= (long)(v & 0x7f) << shift;
+			if ((v & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("invalid varint at offset " + position);
+	}
+
+	private static long zigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * The fields of a struct by their id.
+	 */
+	static class Struct {
+		private final Map<Integer, Object> fields;
+
+		Struct(Map<Integer, Object> fields) {
+			this.fields = fields;
+		}
+
+		boolean has(int id) {
+			return fields.containsKey(id);
+		}
+
+		int getInt(int id, int defaultValue) {
+			Object v = fields.get(id);
+			return v instanceof Number ? ((Number)v).intValue() : defaultValue;
+		}
+
+		long getLong(int id, long defaultValue) {
+			Object v = fields.get(id);
+			return v instanceof Number ? ((Number)v).longValue() : defaultValue;
+		}
+
+		boolean getBoolean(int id, boolean defaultValue) {
+			Object v = fields.get(id);
+			return v instanceof Boolean ? (Boolean)v : defaultValue;
+		}
+
+		String getString(int id) {
+			Object v = fields.get(id);
+			return v instanceof byte[] ? new String((byte[])v, StandardCharsets.UTF_8) : null;
+		}
+
+		Struct getStruct(int id) {
+			Object v = fields.get(id);
+			return v instanceof Struct ? (Struct)v : null;
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> List<T> getList(int id) {
+			Object v = fields.get(id);
+			return v instanceof List ? (List<T>)v : Collections.emptyList();
+		}
+	}
+}
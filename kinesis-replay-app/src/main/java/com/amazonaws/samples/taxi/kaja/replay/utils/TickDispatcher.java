@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * Releases the buffered events in batches at their ingestion time.
+ *
+ * The ingestion time is divided into ticks of a fixed length and all events of a tick are released together at the start of the tick, so
+ * the clock is read and the thread sleeps at most once per tick instead of once per event. Events are released at most one tick early.
+ *
+ * An unthrottled dispatcher doesn't wait for the ingestion time at all and releases whatever is buffered in batches of up to maxBatchSize
+ * events, so the replay is only bounded by how fast the sink accepts the events.
+ */
+public class TickDispatcher {
+	private static final Logger LOG = LoggerFactory.getLogger(TickDispatcher.class);
+
+	private static final long LONG_WAIT_MILLIS = 30_000;
+
+	private final EventBuffer eventBuffer;
+	private final long tickMillis;
+	private final int maxBatchSize;
+	private final boolean unthrottled;
+	private final List<JsonEvent> batch;
+
+	private JsonEvent pending;
+	private long lagMillis;
+
+	/**
+	 * @param tickMillis length of a tick in ms
+	 * @param maxBatchSize maximum number of events released at once, a tick with more events is released in several batches
+	 */
+	public TickDispatcher(EventBuffer eventBuffer, long tickMillis, int maxBatchSize) {
+		this(eventBuffer, tickMillis, maxBatchSize, false);
+	}
+
+	/**
+	 * @param unthrottled release the events as fast as they are taken, regardless of their ingestion time
+	 */
+	public TickDispatcher(EventBuffer eventBuffer, long tickMillis, int maxBatchSize, boolean unthrottled) {
+		this.eventBuffer = eventBuffer;
+		this.tickMillis = Math.max(1, tickMillis);
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.unthrottled = unthrottled;
+		this.batch = new ArrayList<>(this.maxBatchSize);
+	}
+
+	/**
+	 * Wait for the next tick that has events and return them.
+	 *
+	 * @return the events of the tick in timestamp order, the list is reused by the next call; null if all events have been released
+	 */
+	public List<JsonEvent> nextBatch() throws InterruptedException {
+		batch.clear();
+
+		JsonEvent je = pending != null ? pending : eventBuffer.take();
+		pending = null;
+		if (je == null) {
+			return null;
+		}
+
+		long tick;
+		if (unthrottled) {
+			// all buffered events are due
+			tick = Long.MAX_VALUE;
+		} else {
+			tick = tickOf(je);
+			waitUntil(tick * tickMillis);
+		}
+
+		batch.add(je);
+		while (batch.size() < maxBatchSize) {
+			// only take what is buffered already, a due tick is never held back for events of later ticks
+			je = eventBuffer.poll();
+			if (je == null) {
+				break;
+			}
+			if (tickOf(je) > tick) {
+				pending = je;
+				break;
+			}
+			batch.add(je);
+		}
+
+		return batch;
+	}
+
+	/**
+	 * @return how much later than the start of its tick the last batch has been released
+	 */
+	public Duration getLag() {
+		return Duration.ofMillis(lagMillis);
+	}
+
+	private long tickOf(JsonEvent je) {
+		return Math.floorDiv(je.ingestionTime.toEpochMilli(), tickMillis);
+	}
+
+	private void waitUntil(long deadline) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		if (deadline - now > LONG_WAIT_MILLIS) {
+			LOG.info("sleep {} ms for ingestion time of next tick", deadline - now);
+		}
+
+		while (now < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(deadline - now));
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			now = System.currentTimeMillis();
+		}
+
+		lagMillis = now - deadline;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * The sparse indexes of the objects of a prefix, persisted as a text file.
+ *
+ * Every object is a line with its key, size, time range and header, followed by one line per sample with its byte offset and the largest
+ * timestamp before it, all separated by tabs.
+ */
+public class TimeIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(TimeIndex.class);
+
+	private static final String OBJECT = "object";
+
+	private final Map<String, ObjectIndex> objects = new LinkedHashMap<>();
+
+	public void add(ObjectIndex index) {
+		objects.put(index.getKey(), index);
+	}
+
+	/**
+	 * @return the index of the object, or null if the object is not indexed or has changed since
+	 */
+	public ObjectIndex get(S3Object s3Object) {
+		ObjectIndex index = objects.get(s3Object.key());
+		if (index == null || s3Object.size() == null || index.getSize() != s3Object.size()) {
+			return null;
+		}
+		return index;
+	}
+
+	public ObjectIndex get(String key) {
+		return objects.get(key);
+	}
+
+	public Collection<ObjectIndex> getObjects() {
+		return objects.values();
+	}
+
+	/**
+	 * Index all objects of a prefix.
+	 *
+	 * @param sampleRows number of rows between samples
+	 */
+	public static TimeIndex build(ObjectDownloader downloader, String bucketName, String prefix, String timestampAttributeName, int sampleRows) {
+		TimeIndex timeIndex = new TimeIndex();
+
+		for (S3Object s3Object : downloader.list(bucketName, prefix)) {
+			if (!EventReader.isCsv(s3Object.key()) || EventReader.objectType(s3Object.key()) == null) {
+				continue;
+			}
+
+			try (InputStream in = downloader.open(bucketName, s3Object)) {
+				ObjectIndex index = ObjectIndex.build(s3Object.key(), in, timestampAttributeName, sampleRows);
+				if (Decompressor.formatOf(s3Object.key()) != null) {
+					// offsets into the decompressed rows cannot be seeked to, only the time range of compressed objects is kept
+					index = new ObjectIndex(s3Object.key(), s3Object.size(), index.getHeader(), index.getMinTimestamp(), index.getMaxTimestamp(),
+						new long[0], new long[0]);
+				}
+				timeIndex.add(index);
+
+				LOG.info("indexed {}: {} samples from {} to {}", downloader.uri(bucketName, s3Object.key()), index.getOffsets().length,
+					Instant.ofEpochMilli(index.getMinTimestamp()), Instant.ofEpochMilli(index.getMaxTimestamp()));
+			} catch (IOException | RuntimeException e) {
+				LOG.warn("failed to index {}: {}", downloader.uri(bucketName, s3Object.key()), e.getMessage());
+			}
+		}
+		return timeIndex;
+	}
+
+	public void write(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			for (ObjectIndex index : objects.values()) {
+				out.write(String.join("\t", OBJECT, index.getKey(), Long.toString(index.getSize()),
+					Long.toString(index.getMinTimestamp()), Long.toString(index.getMaxTimestamp()), index.getHeader()));
+				out.newLine();
+
+				long[] offsets = index.getOffsets();
+				long[] maxBefore = index.getMaxBefore();
+				for (int i = 0; i < offsets.length; i++) {
+					out.write(offsets[i] + "\t" + maxBefore[i]);
+					out.newLine();
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static TimeIndex read(Path file) throws IOException {
+		TimeIndex timeIndex = new TimeIndex();
+
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String[] object = null;
+			long[] offsets = new long[0];
+			long[] maxBefore = new long[0];
+			int samples = 0;
+
+			for (String line; (line = in.readLine()) != null; ) {
+				if (line.startsWith(OBJECT + "\t")) {
+					if (object != null) {
+						timeIndex.add(toIndex(object, Arrays.copyOf(offsets, samples), Arrays.copyOf(maxBefore, samples)));
+					}
+					object = line.split("\t", 6);
+					if (object.length != 6) {
+						throw new IOException("invalid index entry: " + line);
+					}
+					samples = 0;
+				} else if (object != null && !line.isEmpty()) {
+					int tab = line.indexOf('\t');
+					if (samples == offsets.length) {
+						offsets = Arrays.copyOf(offsets, Math.max(64, samples * 2));
+						maxBefore = Arrays.copyOf(maxBefore, offsets.length);
+					}
+					offsets[samples] = Long.parseLong(line.substring(0, tab));
+					maxBefore[samples] = Long.parseLong(line.substring(tab + 1));
+					samples++;
+				}
+			}
+			if (object != null) {
+				timeIndex.add(toIndex(object, Arrays.copyOf(offsets, samples), Arrays.copyOf(maxBefore, samples)));
+			}
+		}
+
+		LOG.info("read index of {} objects from {}", timeIndex.objects.size(), file);
+		return timeIndex;
+	}
+
+	private static ObjectIndex toIndex(String[] object, long[] offsets, long[] maxBefore) {
+		return new ObjectIndex(object[1], Long.parseLong(object[2]), object[5], Long.parseLong(object[3]), Long.parseLong(object[4]), offsets, maxBefore);
+	}
+}
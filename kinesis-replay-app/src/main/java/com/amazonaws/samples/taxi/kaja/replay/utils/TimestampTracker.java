@@ -1,106 +1,214 @@
-/*
- * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy of
- * this software and associated documentation files (the "Software"), to deal in
- * the Software without restriction, including without limitation the rights to
- * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
- * the Software, and to permit persons to whom the Software is furnished to do so.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
- * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
- * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
- * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
- * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
- */
-
-package com.amazonaws.samples.taxi.kaja.replay.utils;
-
-import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
-import com.amazonaws.services.kinesis.producer.UserRecordResult;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import java.time.Instant;
-import java.util.*;
-import com.google.common.util.concurrent.MoreExecutors;
-import java.util.concurrent.PriorityBlockingQueue;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class TimestampTracker {
-	private final Map<String, Instant> largestPossibleWatermark = new HashMap<>();
-	private final PriorityBlockingQueue<JsonEvent> inflightEvents = new PriorityBlockingQueue<>(500, JsonEvent.timestampComparator);
-
-	private static final Logger LOG = LoggerFactory.getLogger(TimestampTracker.class);
-
-	/** Track the timestamp of the event for determining watermark values until it has been sent or dropped. */
-	public void trackTimestamp(ListenableFuture<UserRecordResult> f, JsonEvent event) {
-		Futures.addCallback(f, new RemoveTimestampCallback(event), MoreExecutors.directExecutor());
-	}
-
-	public Instant getWatermark(String shardId) {
-		if (largestPossibleWatermark.containsKey(shardId)) {
-			return largestPossibleWatermark.get(shardId);
-		} else {
-			LOG.debug("no watermark information available for shard {}, defaulting to Instant.EPOCH");
-
-			return Instant.EPOCH;
-		}
-	}
-
-	public Instant getMinWatermark(List<String> shardIds) {
-		try {
-			return largestPossibleWatermark.entrySet().parallelStream().filter(entry -> shardIds.contains(entry.getKey())).map(entry -> entry.getValue())
-				.min(Comparator.naturalOrder()).get();
-		} catch (NoSuchElementException e) {
-			// if there is no information on timestamps yet, just return smallest possible value
-
-			return Instant.EPOCH;
-		}
-	}
-
-	/**
-	 * Helper class that adds and event (and it's timestamp) to a priority queue and remove it when it has eventually been sent to the Kinesis stream or was dropped by the KCL.
-	 */
-	private class RemoveTimestampCallback implements FutureCallback<UserRecordResult> {
-		private final JsonEvent event;
-
-		RemoveTimestampCallback(JsonEvent event) {
-			this.event = event;
-
-			inflightEvents.add(event);
-		}
-
-		private void removeEvent() {
-			boolean queueChanged = inflightEvents.remove(event);
-
-			if (!queueChanged) {
-				LOG.warn("couldn't find event in inflights queue, it was already removed: {}", event);
-			}
-
-		}
-
-		@Override
-		public void onFailure(Throwable t) {
-			LOG.warn("failed to send event {}", event);
-
-			removeEvent();
-		}
-
-		@Override
-		public void onSuccess(UserRecordResult result) {
-			removeEvent();
-
-			JsonEvent oldestEventInQueue = inflightEvents.peek();
-
-			// determine the larges possible watermark value, this assumes that events are read and sent in order
-			if (oldestEventInQueue == null || event.timestamp.isAfter(oldestEventInQueue.timestamp)) {
-				return;
-			}
-
-			largestPossibleWatermark.put(result.getShardId(), event.timestamp);
-		}
-	}
-}
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Determines the largest possible watermark of every shard from the events that have been sent.
+ *
+ * Every event gets a sequence number in the order it is dispatched, completions are recorded in a ring indexed by sequence number. The
+ * low-water mark is the sequence number up to which all events have been sent or dropped, it is advanced by whichever thread completes
+ * the event at the low-water mark, so every event is passed once. The watermark of a shard is the largest timestamp of an event below the
+ * low-water mark that has been sent to that shard, as events are dispatched in timestamp order. Reading watermarks doesn't lock.
+ */
+public class TimestampTracker {
+	private static final Logger LOG = LoggerFactory.getLogger(TimestampTracker.class);
+
+	/** Default maximum number of events between the low-water mark and the last dispatched event. */
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+
+	private static final long PARK_NANOS = 100_000;
+
+	private final int mask;
+	/** Sequence number + 1 of the completed event of a slot. */
+	private final AtomicLongArray completed;
+	private final long[] timestamps;
+	private final String[] shardIds;
+
+	private final AtomicBoolean advancing = new AtomicBoolean();
+	private volatile long lowWaterMark;
+	private volatile long completedTimestamp = Long.MIN_VALUE;
+	private long nextSequence;
+
+	private final Map<String, AtomicLong> largestPossibleWatermark = new ConcurrentHashMap<>();
+
+	public TimestampTracker() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity maximum number of events in flight, rounded up to a power of two
+	 */
+	public TimestampTracker(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		this.mask = size - 1;
+		this.completed = new AtomicLongArray(size);
+		this.timestamps = new long[size];
+		this.shardIds = new String[size];
+	}
+
+	/**
+	 * Assign the sequence number of the next dispatched event, waits while the ring is full. Must only be called by the dispatching
+	 * thread.
+	 */
+	public long nextSequence() {
+		long sequence = nextSequence;
+		while (sequence - lowWaterMark > mask) {
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+
+		nextSequence = sequence + 1;
+		return sequence;
+	}
+
+	/** Track the timestamp of the event for determining watermark values until it has been sent or dropped. */
+	public void trackTimestamp(ListenableFuture<UserRecordResult> f, JsonEvent event, long sequence) {
+		Futures.addCallback(f, new CompleteCallback(event, sequence), MoreExecutors.directExecutor());
+	}
+
+	public Instant getWatermark(String shardId) {
+		AtomicLong watermark = largestPossibleWatermark.get(shardId);
+		if (watermark == null) {
+			LOG.debug("no watermark information available for shard {}, defaulting to Instant.EPOCH", shardId);
+
+			return Instant.EPOCH;
+		}
+		return Instant.ofEpochMilli(watermark.get());
+	}
+
+	/**
+	 * @return the largest timestamp of the events below the low-water mark, all events with an earlier timestamp have been sent or dropped;
+	 *         Long.MIN_VALUE if no event has completed yet
+	 */
+	public long getCompletedTimestamp() {
+		return completedTimestamp;
+	}
+
+	public Instant getMinWatermark(List<String> shardIds) {
+		long min = Long.MAX_VALUE;
+		for (String shardId : shardIds) {
+			AtomicLong watermark = largestPossibleWatermark.get(shardId);
+			if (watermark != null) {
+				min = Math.min(min, watermark.get());
+			}
+		}
+
+		// if there is no information on timestamps yet, just return smallest possible value
+		return min == Long.MAX_VALUE ? Instant.EPOCH : Instant.ofEpochMilli(min);
+	}
+
+	/**
+	 * Record the completion of an event.
+	 *
+	 * @param shardId the shard the event has been sent to, or null if it has been dropped
+	 */
+	void complete(long sequence, long timestamp, String shardId) {
+		int slot = (int)sequence & mask;
+		timestamps[slot] = timestamp;
+		shardIds[slot] = shardId;
+		completed.set(slot, sequence + 1);
+
+		if (sequence == lowWaterMark) {
+			advance();
+		}
+	}
+
+	/**
+	 * Move the low-water mark over all completed events, only one thread advances at a time.
+	 */
+	private void advance() {
+		while (advancing.compareAndSet(false, true)) {
+			long low = lowWaterMark;
+			long completedMax = completedTimestamp;
+			try {
+				for (int slot = (int)low & mask; completed.get(slot) == low + 1; slot = (int)low & mask) {
+					completedMax = Math.max(completedMax, timestamps[slot]);
+
+					String shardId = shardIds[slot];
+					if (shardId != null) {
+						AtomicLong watermark = largestPossibleWatermark.get(shardId);
+						if (watermark == null) {
+							largestPossibleWatermark.put(shardId, new AtomicLong(timestamps[slot]));
+						} else if (timestamps[slot] > watermark.get()) {
+							watermark.set(timestamps[slot]);
+						}
+						shardIds[slot] = null;
+					}
+					low++;
+				}
+				completedTimestamp = completedMax;
+				lowWaterMark = low;
+			} finally {
+				advancing.set(false);
+			}
+
+			// the event at the low-water mark may have completed after the loop, but before the flag has been reset
+			if (completed.get((int)low & mask) != low + 1) {
+				return;
+			}
+		}
+	}
+
+	long getLowWaterMark() {
+		return lowWaterMark;
+	}
+
+	private class CompleteCallback implements FutureCallback<UserRecordResult> {
+		private final JsonEvent event;
+		private final long sequence;
+
+		CompleteCallback(JsonEvent event, long sequence) {
+			this.event = event;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			LOG.warn("failed to send event {}", event);
+
+			complete(sequence, event.timestamp.toEpochMilli(), null);
+		}
+
+		@Override
+		public void onSuccess(UserRecordResult result) {
+			complete(sequence, event.timestamp.toEpochMilli(), result.getShardId());
+		}
+	}
+}
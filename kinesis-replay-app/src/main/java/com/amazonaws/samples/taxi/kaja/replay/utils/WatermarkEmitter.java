@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+/**
+ * Sends a record to every shard of a stream with asynchronous PutRecords requests.
+ *
+ * Records are addressed to a shard by its starting hash key and sent in batches of up to 500 records. Records that fail, eg, because a
+ * shard is throttled, are retried with backoff and the current data of their shard, other records of the batch are not sent again.
+ */
+public class WatermarkEmitter {
+	private static final Logger LOG = LoggerFactory.getLogger(WatermarkEmitter.class);
+
+	static final int MAX_RECORDS_PER_REQUEST = 500;
+
+	private static final String PARTITION_KEY = "23";
+
+	private final KinesisAsyncClient kinesisClient;
+	private final String streamName;
+	private final int maxAttempts;
+	private final long backoffMillis;
+	private final ScheduledExecutorService retryScheduler;
+
+	/**
+	 * @param maxAttempts number of attempts per record
+	 * @param backoffMillis delay before the first retry, doubled for every further retry
+	 */
+	public WatermarkEmitter(KinesisAsyncClient kinesisClient, String streamName, int maxAttempts, long backoffMillis) {
+		this.kinesisClient = kinesisClient;
+		this.streamName = streamName;
+		this.maxAttempts = maxAttempts;
+		this.backoffMillis = backoffMillis;
+		this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "watermark-retry");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Send a record to every shard.
+	 *
+	 * @param data the data of the record of a shard, evaluated again when the record is retried
+	 * @return completes when all records have been sent or have run out of attempts, with the number of shards that have been reached
+	 */
+	public CompletableFuture<Integer> emit(List<Shard> shards, Function<Shard, SdkBytes> data) {
+		List<CompletableFuture<Integer>> batches = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i += MAX_RECORDS_PER_REQUEST) {
+			batches.add(send(shards.subList(i, Math.min(shards.size(), i + MAX_RECORDS_PER_REQUEST)), data, 1));
+		}
+
+		CompletableFuture<Integer> result = CompletableFuture.completedFuture(0);
+		for (CompletableFuture<Integer> batch : batches) {
+			result = result.thenCombine(batch, Integer::sum);
+		}
+		return result;
+	}
+
+	private CompletableFuture<Integer> send(List<Shard> shards, Function<Shard, SdkBytes> data, int attempt) {
+		List<PutRecordsRequestEntry> entries = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			entries.add(PutRecordsRequestEntry.builder()
+				.data(data.apply(shard))
+				.partitionKey(PARTITION_KEY)
+				.explicitHashKey(shard.hashKeyRange().startingHashKey())
+				.build());
+		}
+
+		PutRecordsRequest request = PutRecordsRequest.builder().streamName(streamName).records(entries).build();
+
+		CompletableFuture<PutRecordsResponse> response;
+		try {
+			response = kinesisClient.putRecords(request);
+		} catch (RuntimeException e) {
+			response = new CompletableFuture<>();
+			response.completeExceptionally(e);
+		}
+
+		return response.handle((result, error) -> {
+			List<Shard> failed;
+			if (error != null) {
+				// the whole request failed, eg, it has been throttled
+				LOG.debug("failed to send {} watermarks: {}", shards.size(), error.getMessage());
+				failed = shards;
+			} else {
+				failed = new ArrayList<>();
+				List<PutRecordsResultEntry> records = result.records();
+				for (int i = 0; i < records.size(); i++) {
+					if (records.get(i).errorCode() != null) {
+						LOG.trace("failed to send watermark to shard {}: {}", shards.get(i).shardId(), records.get(i).errorCode());
+						failed.add(shards.get(i));
+					}
+				}
+			}
+
+			int sent = shards.size() - failed.size();
+			if (failed.isEmpty()) {
+				return CompletableFuture.completedFuture(sent);
+			}
+			if (attempt >= maxAttempts) {
+				LOG.warn("skipping watermark of {} shards after {} attempts", failed.size(), attempt);
+				return CompletableFuture.completedFuture(sent);
+			}
+
+			// retry the failed records only
+			CompletableFuture<Integer> retry = new CompletableFuture<>();
+			long delay = backoffMillis << (attempt - 1);
+			retryScheduler.schedule(() -> {
+				send(failed, data, attempt + 1).whenComplete((n, e) -> {
+					if (e != null) {
+						retry.completeExceptionally(e);
+					} else {
+						retry.complete(sent + n);
+					}
+				});
+			}, delay, TimeUnit.MILLISECONDS);
+			return retry;
+		}).thenCompose(f -> f);
+	}
+
+	public void shutdown() {
+		retryScheduler.shutdownNow();
+	}
+}
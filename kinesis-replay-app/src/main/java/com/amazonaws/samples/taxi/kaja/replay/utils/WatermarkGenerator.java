@@ -1,161 +1,301 @@
-/*
- * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy of
- * this software and associated documentation files (the "Software"), to deal in
- * the Software without restriction, including without limitation the rights to
- * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
- * the Software, and to permit persons to whom the Software is furnished to do so.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
- * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
- * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
- * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
- * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
- */
-
-package com.amazonaws.samples.taxi.kaja.replay.utils;
-
-import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
-import com.amazonaws.samples.taxi.kaja.replay.events.WatermarkEvent;
-import com.amazonaws.services.kinesis.producer.UserRecordResult;
-import com.google.common.util.concurrent.ListenableFuture;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
-import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.exception.AbortedException;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.kinesis.KinesisClient;
-import software.amazon.awssdk.services.kinesis.model.*;
-
-
-public class WatermarkGenerator extends Thread {
-	private final String streamName;
-	private final KinesisClient kinesisClient;
-
-	private long lastShardRefreshTime = 0;
-	private long lastWatermarkSentTime = 0;
-	private long sentEventCount = 0;
-
-	private List<Shard> shards = new ArrayList<>();
-	private final TimestampTracker timestampTracker = new TimestampTracker();
-
-	/** Sent a watermark every WATERMARK_MILLIS ms or WATERMARK_EVENT_COUNT events, whatever comes first. */
-	private static final long WATERMARK_MILLIS = 1_000;
-	private static final long WATERMARK_EVENT_COUNT = 20_000;
-
-	private static final long SHARD_REFRESH_MILLIES = 10_000;
-	private static final long SLEEP_MILLIES = 100;
-
-	private static final Logger LOG = LoggerFactory.getLogger(WatermarkGenerator.class);
-
-
-	public WatermarkGenerator(Region streamRegion, String streamName) {
-		this.streamName = streamName;
-		this.kinesisClient = KinesisClient.builder().region(streamRegion).build();
-	}
-
-	public void run() {
-		try {
-			while (!Thread.currentThread().isInterrupted()) {
-				//refresh the list of available shards, if current state is too old
-				if (System.currentTimeMillis() - lastShardRefreshTime >= SHARD_REFRESH_MILLIES) {
-					try {
-						refreshShards();
-
-						lastShardRefreshTime = System.currentTimeMillis();
-					} catch (LimitExceededException | ResourceInUseException e) {
-						//if the request is throttled, just wait for the next invocation and use cached shard description in the meantime
-						LOG.debug("skipping shard refresh due to limit exceeded/resource in use exception");
-					}
-				}
-
-				//sent watermark if WATERMARK_MILLIS have passed or more than WATERMARK_EVENT_COUNT events have been sent
-				if (System.currentTimeMillis() - lastWatermarkSentTime >= WATERMARK_MILLIS || sentEventCount >= WATERMARK_EVENT_COUNT) {
-					sentWatermarkToShards();
-
-					sentEventCount = 0;
-					lastWatermarkSentTime = System.currentTimeMillis();
-				}
-
-				Thread.sleep(SLEEP_MILLIES);
-			}
-		} catch (InterruptedException | AbortedException e ) {
-			//allow thread to exit
-		}
-	}
-
-	public void trackTimestamp(ListenableFuture<UserRecordResult> f, JsonEvent event) {
-		timestampTracker.trackTimestamp(f, event);
-	}
-
-	public WatermarkEvent createWatermark(String shardId) {
-		return new WatermarkEvent(timestampTracker.getWatermark(shardId));
-	}
-
-	public Instant getMinWatermark() {
-		List<String> shardIds = shards
-				.stream()
-				.map(shard -> shard.shardId())
-				.collect(Collectors.toList());
-
-		return timestampTracker.getMinWatermark(shardIds);
-	}
-
-	private void sentWatermarkToShards() {
-		//send a watermark to every shard of the Kinesis stream
-		try {
-			shards
-					.parallelStream()
-					.map(shard -> PutRecordRequest
-							.builder()
-							.streamName(streamName)
-							.data(createWatermark(shard.shardId()).toSdkBytes())
-							.partitionKey("23")
-							.explicitHashKey(shard.hashKeyRange().startingHashKey())
-							.build())
-					.map(request -> {
-						LOG.trace("sending watermark '{}' with explicit hash key {}", request.data().toString(), request.explicitHashKey());
-
-						return kinesisClient.putRecord(request);
-					})
-					.forEach(putRecordResult -> LOG.trace("sent watermark to shard {}", putRecordResult.shardId()));
-
-			LOG.debug("send watermarks to shards");
-		} catch (LimitExceededException | ProvisionedThroughputExceededException e) {
-			//if any request is throttled, just skip this watermark and wait for the next iteration to submit another one
-			LOG.warn("skipping watermark due to limit/throughput exceeded exception");
-		}
-	}
-
-	private void refreshShards() {
-		String nextToken = "";
-		List<Shard> openShards = new ArrayList<>();
-
-		do {
-			final ListShardsRequest.Builder request = ListShardsRequest.builder();
-			if (StringUtils.isEmpty(nextToken)) {
-				request.streamName(streamName);
-			} else {
-				request.nextToken(nextToken);
-			}
-
-			ListShardsResponse result = kinesisClient.listShards(request.build());
-
-			//find open shards and add them to openShards
-			result.shards()
-					.stream()
-					.filter(shard -> shard.sequenceNumberRange().endingSequenceNumber()==null)
-					.forEach(openShards::add);
-
-			nextToken = result.nextToken();
-		} while (!StringUtils.isEmpty(nextToken));
-
-		this.shards = openShards;
-	}
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.samples.taxi.kaja.replay.events.WatermarkEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.*;
+
+
+public class WatermarkGenerator extends Thread {
+	private final String streamName;
+	private final KinesisClient kinesisClient;
+	private final KinesisAsyncClient kinesisAsyncClient;
+	private final WatermarkEmitter watermarkEmitter;
+	private CompletableFuture<Integer> pendingWatermarks;
+
+	private long lastShardRefreshTime = 0;
+	private long lastWatermarkSentTime = 0;
+	private long sentEventCount = 0;
+
+	private volatile boolean sendWatermarks = true;
+	private volatile Supplier<Instant> watermarkSource;
+	private volatile long eventTimeIntervalMillis = 0;
+	private long lastBoundary = Long.MIN_VALUE;
+
+	private volatile List<Shard> shards = new ArrayList<>();
+	private final List<Consumer<List<Shard>>> shardListeners = new CopyOnWriteArrayList<>();
+	private final TimestampTracker timestampTracker = new TimestampTracker();
+
+	/** Sent a watermark every WATERMARK_MILLIS ms or WATERMARK_EVENT_COUNT events, whatever comes first. */
+	private static final long WATERMARK_MILLIS = 1_000;
+	private static final long WATERMARK_EVENT_COUNT = 20_000;
+
+	/** Attempts to send the watermark of a shard, the backoff is doubled for every retry. */
+	private static final int WATERMARK_ATTEMPTS = 3;
+	private static final long WATERMARK_BACKOFF_MILLIS = 100;
+
+	private static final long SHARD_REFRESH_MILLIES = 10_000;
+	private static final long SLEEP_MILLIES = 100;
+	private static final long BOUNDARY_SLEEP_MILLIES = 10;
+
+	private static final Logger LOG = LoggerFactory.getLogger(WatermarkGenerator.class);
+
+
+	public WatermarkGenerator(Region streamRegion, String streamName) {
+		this.streamName = streamName;
+		this.kinesisClient = KinesisClient.builder().region(streamRegion).build();
+		this.kinesisAsyncClient = KinesisAsyncClient.builder().region(streamRegion).build();
+		this.watermarkEmitter = new WatermarkEmitter(kinesisAsyncClient, streamName, WATERMARK_ATTEMPTS, WATERMARK_BACKOFF_MILLIS);
+	}
+
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				//refresh the list of available shards, if current state is too old
+				if (System.currentTimeMillis() - lastShardRefreshTime >= SHARD_REFRESH_MILLIES) {
+					try {
+						refreshShards();
+
+						lastShardRefreshTime = System.currentTimeMillis();
+					} catch (LimitExceededException | ResourceInUseException e) {
+						//if the request is throttled, just wait for the next invocation and use cached shard description in the meantime
+						LOG.debug("skipping shard refresh due to limit exceeded/resource in use exception");
+					}
+				}
+
+				long interval = eventTimeIntervalMillis;
+				if (!sendWatermarks) {
+					Thread.sleep(SLEEP_MILLIES);
+					continue;
+				}
+				if (interval > 0) {
+					//sent a watermark whenever all events before the next boundary of event time have been sent
+					sentBoundaryWatermarkToShards(interval);
+
+					Thread.sleep(BOUNDARY_SLEEP_MILLIES);
+					continue;
+				}
+
+				//sent watermark if WATERMARK_MILLIS have passed or more than WATERMARK_EVENT_COUNT events have been sent
+				if (System.currentTimeMillis() - lastWatermarkSentTime >= WATERMARK_MILLIS || sentEventCount >= WATERMARK_EVENT_COUNT) {
+					sentWatermarkToShards();
+
+					sentEventCount = 0;
+					lastWatermarkSentTime = System.currentTimeMillis();
+				}
+
+				Thread.sleep(SLEEP_MILLIES);
+			}
+		} catch (InterruptedException | AbortedException e ) {
+			//allow thread to exit
+		} finally {
+			watermarkEmitter.shutdown();
+			kinesisAsyncClient.close();
+			kinesisClient.close();
+		}
+	}
+
+	/**
+	 * Notify the listener with the open shards of the stream, right away if they are known already and whenever they have been refreshed.
+	 */
+	public void addShardListener(Consumer<List<Shard>> listener) {
+		shardListeners.add(listener);
+
+		List<Shard> current = shards;
+		if (!current.isEmpty()) {
+			listener.accept(current);
+		}
+	}
+
+	/**
+	 * Sent watermarks at the multiples of intervalMillis of event time instead of every WATERMARK_MILLIS of wall-clock time, eg, when events
+	 * are replayed as fast as possible and wall-clock time says nothing about the progress of the replay.
+	 *
+	 * @param intervalMillis event time between two watermarks, 0 sends watermarks in wall-clock time
+	 */
+	public void setEventTimeInterval(long intervalMillis) {
+		this.eventTimeIntervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Only track the timestamps of the events without sending watermarks, eg, when the worker of a distributed replay reports its progress
+	 * to the coordinator, which sends the global watermark instead.
+	 */
+	public void disableWatermarks() {
+		this.sendWatermarks = false;
+	}
+
+	/**
+	 * Sent the watermark of the source to every shard instead of the watermarks of the tracked events, eg, the global low-water mark of
+	 * a distributed replay.
+	 */
+	public void setWatermarkSource(Supplier<Instant> watermarkSource) {
+		this.watermarkSource = watermarkSource;
+	}
+
+	/**
+	 * @return the largest timestamp before which all events have been sent, Long.MIN_VALUE if no event has been sent yet
+	 */
+	public long getCompletedTimestamp() {
+		return timestampTracker.getCompletedTimestamp();
+	}
+
+	/**
+	 * @return the tracker of the events that have been sent, which determines the watermarks
+	 */
+	public TimestampTracker getTimestampTracker() {
+		return timestampTracker;
+	}
+
+	public long nextSequence() {
+		return timestampTracker.nextSequence();
+	}
+
+	public void trackTimestamp(ListenableFuture<UserRecordResult> f, JsonEvent event, long sequence) {
+		timestampTracker.trackTimestamp(f, event, sequence);
+	}
+
+	public WatermarkEvent createWatermark(String shardId) {
+		Supplier<Instant> source = watermarkSource;
+		return new WatermarkEvent(source != null ? source.get() : timestampTracker.getWatermark(shardId));
+	}
+
+	/**
+	 * @return the watermark of every open shard
+	 */
+	public Map<String, Instant> getWatermarks() {
+		Map<String, Instant> watermarks = new TreeMap<>();
+		for (Shard shard : shards) {
+			watermarks.put(shard.shardId(), timestampTracker.getWatermark(shard.shardId()));
+		}
+		return watermarks;
+	}
+
+	public Instant getMinWatermark() {
+		List<String> shardIds = shards
+				.stream()
+				.map(shard -> shard.shardId())
+				.collect(Collectors.toList());
+
+		return timestampTracker.getMinWatermark(shardIds);
+	}
+
+	private void sentWatermarkToShards() {
+		//send a watermark to every shard of the Kinesis stream, unless the previous round is still being sent
+		if (pendingWatermarks != null && !pendingWatermarks.isDone()) {
+			LOG.debug("skipping watermark, previous watermarks are still being sent");
+			return;
+		}
+
+		pendingWatermarks = watermarkEmitter.emit(shards, shard -> createWatermark(shard.shardId()).toSdkBytes())
+			.whenComplete((sent, e) -> {
+				if (e != null) {
+					LOG.warn("failed to send watermarks", e);
+				} else {
+					LOG.debug("sent watermarks to {} shards", sent);
+				}
+			});
+	}
+
+	private void sentBoundaryWatermarkToShards(long interval) {
+		if (pendingWatermarks != null && !pendingWatermarks.isDone()) {
+			return;
+		}
+
+		//all events before the completed timestamp have been sent, so the boundary before it is a correct watermark for every shard
+		long completed = timestampTracker.getCompletedTimestamp();
+		if (completed == Long.MIN_VALUE) {
+			return;
+		}
+		long boundary = Math.floorDiv(completed, interval) * interval;
+		if (boundary <= lastBoundary) {
+			return;
+		}
+
+		//if the replay passed several boundaries during the last round, only the latest one is sent, watermarks only need to advance
+		if (lastBoundary != Long.MIN_VALUE && boundary > lastBoundary + interval) {
+			LOG.debug("skipping {} watermarks before {}, previous watermarks were still being sent", (boundary - lastBoundary) / interval - 1, Instant.ofEpochMilli(boundary));
+		}
+		lastBoundary = boundary;
+
+		Instant watermark = Instant.ofEpochMilli(boundary);
+		WatermarkEvent event = new WatermarkEvent(watermark);
+		pendingWatermarks = watermarkEmitter.emit(shards, shard -> event.toSdkBytes())
+			.whenComplete((sent, e) -> {
+				if (e != null) {
+					LOG.warn("failed to send watermark {}", watermark, e);
+				} else {
+					LOG.debug("sent watermark {} to {} shards", watermark, sent);
+				}
+			});
+	}
+
+	private void refreshShards() {
+		this.shards = listOpenShards(kinesisClient, streamName);
+
+		for (Consumer<List<Shard>> listener : shardListeners) {
+			listener.accept(shards);
+		}
+	}
+
+	public static List<Shard> listOpenShards(KinesisClient kinesisClient, String streamName) {
+		String nextToken = "";
+		List<Shard> openShards = new ArrayList<>();
+
+		do {
+			final ListShardsRequest.Builder request = ListShardsRequest.builder();
+			if (StringUtils.isEmpty(nextToken)) {
+				request.streamName(streamName);
+			} else {
+				request.nextToken(nextToken);
+			}
+
+			ListShardsResponse result = kinesisClient.listShards(request.build());
+
+			//find open shards and add them to openShards
+			result.shards()
+					.stream()
+					.filter(shard -> shard.sequenceNumberRange().endingSequenceNumber()==null)
+					.forEach(openShards::add);
+
+			nextToken = result.nextToken();
+		} while (!StringUtils.isEmpty(nextToken));
+
+		return openShards;
+	}
 }
\ No newline at end of file
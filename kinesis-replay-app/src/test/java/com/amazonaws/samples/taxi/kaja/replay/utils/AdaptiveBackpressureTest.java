@@ -0,0 +1,94 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveBackpressureTest {
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+	/** Send and complete a full window of records. */
+	private static void window(AdaptiveBackpressure backpressure, long latency, int attempts) throws InterruptedException {
+		int n = backpressure.getLimit();
+		long[] tickets = new long[n];
+		for (int i = 0; i < n; i++) {
+			tickets[i] = backpressure.acquire();
+		}
+		assertEquals(n, backpressure.getInFlight());
+		for (long ticket : tickets) {
+			backpressure.complete(ticket, latency, attempts, true);
+		}
+	}
+
+	@Test
+	public void testIncreaseAndDecrease() throws Exception {
+		AdaptiveBackpressure backpressure = new AdaptiveBackpressure(10, 1000, 1000);
+		assertEquals(10, backpressure.getLimit());
+
+		// slow start doubles the limit per window
+		window(backpressure, FAST, 1);
+		assertEquals(20, backpressure.getLimit());
+		window(backpressure, FAST, 1);
+		assertEquals(40, backpressure.getLimit());
+
+		// a window of retried records only decreases the limit once
+		window(backpressure, FAST, 2);
+		assertEquals(28, backpressure.getLimit());
+		assertEquals(1, backpressure.getDecreases());
+		assertEquals(40, backpressure.getRetriedRecords());
+
+		// additive increase by one per window after the first congestion
+		for (int i = 0; i < 5; i++) {
+			window(backpressure, FAST, 1);
+		}
+		int limit = backpressure.getLimit();
+		assertTrue(limit >= 32 && limit <= 33);
+
+		window(backpressure, SLOW, 1);
+		assertEquals((int)(limit * 0.7), backpressure.getLimit(), 1);
+		assertEquals(2, backpressure.getDecreases());
+		assertEquals(0, backpressure.getInFlight());
+	}
+
+	@Test
+	public void testBounds() throws Exception {
+		AdaptiveBackpressure backpressure = new AdaptiveBackpressure(10, 15, 1000);
+		for (int i = 0; i < 5; i++) {
+			window(backpressure, FAST, 1);
+		}
+		assertEquals(15, backpressure.getLimit());
+
+		for (int i = 0; i < 5; i++) {
+			window(backpressure, FAST, 1);
+			long ticket = backpressure.acquire();
+			backpressure.complete(ticket, FAST, 1, false);
+		}
+		assertEquals(10, backpressure.getLimit());
+		assertEquals(5, backpressure.getFailedRecords());
+	}
+
+	@Test
+	public void testBlockWhileFull() throws Exception {
+		AdaptiveBackpressure backpressure = new AdaptiveBackpressure(1, 1, 1000);
+		long ticket = backpressure.acquire();
+
+		Thread t = new Thread(() -> {
+			try {
+				backpressure.acquire();
+			} catch (InterruptedException e) {
+			}
+		});
+		t.start();
+		t.join(100);
+		assertTrue(t.isAlive());
+
+		backpressure.complete(ticket, FAST, 1, true);
+		t.join(1000);
+		assertTrue(!t.isAlive());
+		assertEquals(1, backpressure.getInFlight());
+	}
+}
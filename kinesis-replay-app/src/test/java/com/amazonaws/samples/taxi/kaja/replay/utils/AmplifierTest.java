@@ -0,0 +1,85 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.util.json.Jackson;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class AmplifierTest {
+
+	private static final byte[] CSV = csv().getBytes(StandardCharsets.UTF_8);
+
+	private static String csv() {
+		StringBuilder csv = new StringBuilder("VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,PULocationID,DOLocationID,pickup_longitude,pickup_latitude\n");
+		for (int i = 0; i < 100; i++) {
+			csv.append("1,2019-01-01 01:").append(String.format("%02d", i % 60)).append(":00,2019-01-01 02:00:00,")
+				.append(100 + i).append(',').append(200 + i).append(",-73.98,40.75\n");
+		}
+		return csv.toString();
+	}
+
+	private static List<JsonNode> read(ObjectReader reader) {
+		reader.amplify(3, 60_000);
+
+		List<JsonNode> events = new ArrayList<>();
+		while (reader.hasNext()) {
+			events.add(Jackson.fromJsonString(reader.next().toString(), JsonNode.class));
+		}
+		reader.close();
+		return events;
+	}
+
+	private static Instant datetime(JsonNode event, String name) {
+		return Instant.ofEpochMilli(DataNormalizer.parseMillis(event.get(name).asText()));
+	}
+
+	@Test
+	public void testCopies() throws Exception {
+		List<JsonNode> events = read(new ObjectReader("csv", "yellow", new ByteArrayInputStream(CSV), new JsonEvent.Parser(3600, "pickup_datetime")));
+		assertEquals(300, events.size());
+
+		for (int i = 0; i < events.size(); i += 3) {
+			JsonNode record = events.get(i);
+			for (int k = 1; k < 3; k++) {
+				JsonNode copy = events.get(i + k);
+
+				// the trip keeps its duration and is shifted by at most the jitter
+				Duration duration = Duration.between(datetime(record, "pickup_datetime"), datetime(record, "dropoff_datetime"));
+				assertEquals(duration, Duration.between(datetime(copy, "pickup_datetime"), datetime(copy, "dropoff_datetime")));
+				long shift = Duration.between(datetime(record, "pickup_datetime"), datetime(copy, "pickup_datetime")).toMillis();
+				assertTrue(Math.abs(shift) <= 60_000);
+
+				// coordinates move by a few dozen meters, locations are taken from earlier records
+				assertNotEquals(record.get("pickup_longitude").asDouble(), copy.get("pickup_longitude").asDouble(), 0);
+				assertEquals(record.get("pickup_longitude").asDouble(), copy.get("pickup_longitude").asDouble(), 0.01);
+				int location = copy.get("pickup_location_id").asInt();
+				assertTrue(location >= 100 && location <= record.get("pickup_location_id").asInt());
+				assertEquals(location + 100, copy.get("dropoff_location_id").asInt());
+			}
+		}
+
+		// the copies are deterministic, also when the object is parsed in chunks
+		assertEquals(events, read(new ObjectReader("csv", "yellow", new ByteArrayInputStream(CSV), new JsonEvent.Parser(3600, "pickup_datetime"))));
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			CsvChunkParser chunks = new CsvChunkParser("csv", new ByteArrayInputStream(CSV), pool, 2);
+			assertEquals(events, read(new ObjectReader("csv", "yellow", chunks, new JsonEvent.Parser(3600, "pickup_datetime"), null)));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class ChannelSinkTest {
+
+	private static List<String> events(int n) {
+		List<String> events = new ArrayList<>();
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 2 * 1024 * 1024) {
+			large.append("{\"id\":").append(large.length()).append('}');
+		}
+		for (int i = 0; i < n; i++) {
+			// one event that is larger than the buffer of the sink
+			events.add(i == n / 2 ? large + "\n" : "{\"id\":" + i + "}\n");
+		}
+		return events;
+	}
+
+	private static void send(EventSink sink, List<String> events) throws Exception {
+		for (String event : events) {
+			assertTrue(sink.send(new JsonEvent(event, Instant.EPOCH, Instant.EPOCH), PartitionKey.of(event)).get().isSuccessful());
+		}
+		sink.close();
+	}
+
+	private static List<String> read(InputStream in) throws Exception {
+		List<String> events = new ArrayList<>();
+		DataInputStream data = new DataInputStream(in);
+		while (true) {
+			int length;
+			try {
+				length = data.readInt();
+			} catch (EOFException e) {
+				return events;
+			}
+			byte[] payload = new byte[length];
+			data.readFully(payload);
+			events.add(new String(payload, StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		Path file = Files.createTempFile("sink", ".bin");
+		try {
+			List<String> events = events(1000);
+			send(ChannelSink.toFile(file), events);
+
+			try (InputStream in = Files.newInputStream(file)) {
+				assertEquals(events, read(in));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testSocket() throws Exception {
+		try (ServerSocket server = new ServerSocket(0)) {
+			CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> {
+				try (Socket socket = server.accept()) {
+					return read(socket.getInputStream());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+
+			List<String> events = events(1000);
+			send(ChannelSink.toSocket("localhost:" + server.getLocalPort()), events);
+
+			assertEquals(events, received.get());
+		}
+	}
+}
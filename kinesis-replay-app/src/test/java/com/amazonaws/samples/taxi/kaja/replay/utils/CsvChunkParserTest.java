@@ -0,0 +1,55 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class CsvChunkParserTest {
+
+	private static String csv() {
+		StringBuilder csv = new StringBuilder("VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,store_and_fwd_flag,trip_distance\n");
+		for (int i = 0; i < 500; i++) {
+			// an invalid record every 50 records and a line that is longer than a chunk
+			String pickup = i % 50 == 7 ? "" : String.format("2019-01-01 %02d:%02d:%02d", i / 3600, i / 60 % 60, i % 60);
+			String flag = i == 123 ? new String(new char[300]).replace('\0', 'N') : "N";
+			csv.append(i).append(',').append(pickup).append(",2019-01-01 23:00:00,").append(flag).append(',').append(i * 0.25).append("\r\n");
+		}
+		// the last line lacks a newline
+		return csv.append("500,2019-01-01 01:00:00,2019-01-01 23:00:00,Y,1.5").toString();
+	}
+
+	private static List<String> read(ObjectReader reader) {
+		List<String> events = new ArrayList<>();
+		while (reader.hasNext()) {
+			JsonEvent event = reader.next();
+			events.add(event.timestamp + " " + event);
+		}
+		reader.close();
+		return events;
+	}
+
+	@Test
+	public void testSameAsSequential() throws Exception {
+		byte[] data = csv().getBytes(StandardCharsets.UTF_8);
+		List<String> expected = read(new ObjectReader("csv", "yellow", new ByteArrayInputStream(data), new JsonEvent.Parser(3600, "pickup_datetime")));
+		assertEquals(491, expected.size());
+
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (int chunkSize : new int[] { 64, 1000, CsvChunkParser.CHUNK_SIZE }) {
+				CsvChunkParser chunks = new CsvChunkParser("csv", new ByteArrayInputStream(data), pool, 4, chunkSize);
+				assertEquals(expected, read(new ObjectReader("csv", "yellow", chunks, new JsonEvent.Parser(3600, "pickup_datetime"), null)));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
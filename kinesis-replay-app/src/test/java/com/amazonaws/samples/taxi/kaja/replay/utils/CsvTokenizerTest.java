@@ -0,0 +1,124 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+public class CsvTokenizerTest {
+
+	private static final String CSV = "VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,store_and_fwd_flag,trip_distance\r\n"
+		+ "1,2019-01-01 00:46:40,2019-01-01 00:53:20,N,1.5\r\n"
+		+ "\r\n"
+		+ "2,\"2019-01-01 00:59:47\",2019-01-01 01:18:59,\"a, \"\"quoted\"\"\nvalue\",2.6\n"
+		+ "\n"
+		+ "3,2019-01-01 01:00:00,2019-01-01 01:10:00,Zürich € 🚕,\n"
+		+ "4,,,\"\",\r"
+		+ "5,2019-01-01 02:00:00,2019-01-01 02:30:00,long value that spans more than eight bytes,0.75";
+
+	private static List<List<String>> commons(String csv) throws Exception {
+		List<List<String>> records = new ArrayList<>();
+		try (CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(csv))) {
+			for (CSVRecord record : parser) {
+				List<String> values = new ArrayList<>();
+				record.forEach(values::add);
+				records.add(values);
+			}
+		}
+		return records;
+	}
+
+	private static List<List<String>> tokenize(CsvTokenizer tokenizer) {
+		List<List<String>> records = new ArrayList<>();
+		while (tokenizer.hasNext()) {
+			List<String> values = new ArrayList<>();
+			for (CharSequence value : tokenizer.next()) {
+				values.add(value.toString());
+			}
+			records.add(values);
+		}
+		return records;
+	}
+
+	@Test
+	public void testSameAsCommonsCsv() throws Exception {
+		List<List<String>> expected = commons(CSV);
+		assertEquals(6, expected.size());
+
+		byte[] data = CSV.getBytes(StandardCharsets.UTF_8);
+		// escapes are removed from the data in place
+		assertEquals(expected, tokenize(new CsvTokenizer(data.clone(), 0, data.length)));
+
+		// records that cross the end of the buffer are tokenized again after the buffer has been refilled or grown
+		for (int bufferSize = 1; bufferSize < 40; bufferSize++) {
+			assertEquals(expected, tokenize(new CsvTokenizer(new ByteArrayInputStream(data), bufferSize)));
+		}
+	}
+
+	@Test
+	public void testFields() {
+		byte[] data = "a,Zürich,\"x\"\"y\",2019-01-01 00:46:40\n".getBytes(StandardCharsets.UTF_8);
+		CsvTokenizer tokenizer = new CsvTokenizer(data, 0, data.length);
+
+		List<CsvTokenizer.Field> fields = tokenizer.next();
+		assertEquals(4, fields.size());
+		assertTrue(fields.get(0).isAscii());
+		assertFalse(fields.get(1).isAscii());
+		assertEquals(6, fields.get(1).length());
+		assertEquals('ü', fields.get(1).charAt(1));
+		assertEquals("x\"y", fields.get(2).toString());
+		assertEquals(DataNormalizer.parseMillis("2019-01-01 00:46:40"), fields.get(3).parseMillis());
+		assertEquals(1, tokenizer.getRowNumber());
+		assertFalse(tokenizer.hasNext());
+	}
+
+	@Test(expected = UncheckedIOException.class)
+	public void testUnterminatedQuote() {
+		byte[] data = "1,\"abc\n".getBytes(StandardCharsets.UTF_8);
+		new CsvTokenizer(data, 0, data.length).hasNext();
+	}
+
+	@Test
+	public void testMatches() {
+		long word = 0;
+		byte[] bytes = "ab,c,\nÿ,".getBytes(StandardCharsets.ISO_8859_1);
+		for (int i = 7; i >= 0; i--) {
+			word = word << 8 | (bytes[i] & 0xff);
+		}
+
+		// the lowest match is exact
+		assertEquals(2, Long.numberOfTrailingZeros(CsvTokenizer.matches(word, 0x0101010101010101L * ',')) >>> 3);
+		assertEquals(5, Long.numberOfTrailingZeros(CsvTokenizer.matches(word, 0x0101010101010101L * '\n')) >>> 3);
+		assertEquals(0, CsvTokenizer.matches(word, 0x0101010101010101L * '"'));
+	}
+
+	@Test
+	public void testEncodeSameAsStrings() {
+		List<String> header = DataNormalizer.normalizeHeader(new ArrayList<>(Arrays.asList(
+			"VendorID", "tpep_pickup_datetime", "tpep_dropoff_datetime", "store_and_fwd_flag", "trip_distance", "pickup_latitude")));
+		RecordCodec codec = new RecordCodec(header, "yellow", "pickup_datetime");
+
+		byte[] data = "1,2019-01-01 00:46:40,2019-01-01 00:53:20,\"N \"\"\\\\ \u0001 ü\",1.5,40.75\n".getBytes(StandardCharsets.UTF_8);
+		List<CsvTokenizer.Field> fields = new CsvTokenizer(data, 0, data.length).next();
+
+		List<String> strings = new ArrayList<>();
+		fields.forEach(f -> strings.add(f.toString()));
+		assertTrue(codec.encode(strings));
+		String expected = StandardCharsets.UTF_8.decode(codec.payload()).toString();
+
+		assertTrue(codec.encode(fields));
+		assertEquals(expected, StandardCharsets.UTF_8.decode(codec.payload()).toString());
+	}
+}
@@ -0,0 +1,124 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the throughput of DateTimeCodec with FastDateFormat on one month of pickups, mostly in order like the taxi data.
+ */
+public class DateTimeCodecBenchmarkTest {
+	private static final Logger LOG = LoggerFactory.getLogger(DateTimeCodecBenchmarkTest.class);
+
+	private static final int VALUES = 50_000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+
+	private final FastDateFormat fdf = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss");
+	private final DateTimeCodec codec = DateTimeCodec.DATETIME;
+
+	private final long[] millis = new long[VALUES];
+	private final String[] strings = new String[VALUES];
+	private final byte[][] bytes = new byte[VALUES][];
+
+	public DateTimeCodecBenchmarkTest() throws ParseException {
+		long start = fdf.parse("2019-01-01 00:00:00").getTime();
+		for (int i = 0; i < VALUES; i++) {
+			millis[i] = start + i * 26_000L;
+			strings[i] = fdf.format(millis[i]);
+			bytes[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	/**
+	 * @return the time per value in ns, the result of every round must be the expected one
+	 */
+	private static double measure(String name, long expected, LongSupplier round) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			assertEquals(name, expected, round.getAsLong());
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			assertEquals(name, expected, round.getAsLong());
+		}
+		double nanos = (double)(System.nanoTime() - start) / ROUNDS / VALUES;
+
+		LOG.info("{} {} ns/value", name, String.format("%.1f", nanos));
+		return nanos;
+	}
+
+	@Test
+	public void testParse() {
+		long expected = 0;
+		for (long t : millis) {
+			expected += t;
+		}
+
+		double fdfNanos = measure("FastDateFormat.parse", expected, () -> {
+			long sum = 0;
+			for (String s : strings) {
+				try {
+					sum += fdf.parse(s).getTime();
+				} catch (ParseException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return sum;
+		});
+		double charNanos = measure("DateTimeCodec.parse(chars)", expected, () -> {
+			long sum = 0;
+			for (String s : strings) {
+				sum += codec.parse(s);
+			}
+			return sum;
+		});
+		double byteNanos = measure("DateTimeCodec.parse(bytes)", expected, () -> {
+			long sum = 0;
+			for (byte[] b : bytes) {
+				sum += codec.parse(b, 0, b.length);
+			}
+			return sum;
+		});
+
+		LOG.info("parsing speedup {}x from chars, {}x from bytes", Math.round(fdfNanos / charNanos), Math.round(fdfNanos / byteNanos));
+		assertTrue(charNanos < fdfNanos);
+		assertTrue(byteNanos < fdfNanos);
+	}
+
+	@Test
+	public void testFormat() {
+		long expected = 0;
+		for (byte[] b : bytes) {
+			expected += b[18];
+		}
+
+		byte[] buffer = new byte[DateTimeCodec.LENGTH];
+		double fdfNanos = measure("FastDateFormat.format", expected, () -> {
+			long sum = 0;
+			for (long t : millis) {
+				sum += fdf.format(t).getBytes(StandardCharsets.US_ASCII)[18];
+			}
+			return sum;
+		});
+		double codecNanos = measure("DateTimeCodec.format(bytes)", expected, () -> {
+			long sum = 0;
+			for (long t : millis) {
+				codec.format(t, buffer, 0);
+				sum += buffer[18];
+			}
+			return sum;
+		});
+
+		LOG.info("formatting speedup {}x", Math.round(fdfNanos / codecNanos));
+		assertTrue(codecNanos < fdfNanos);
+	}
+}
@@ -0,0 +1,63 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.Test;
+
+public class DateTimeCodecTest {
+
+	private static void assertSameAsFastDateFormat(String zone, char separator) throws Exception {
+		FastDateFormat fdf = FastDateFormat.getInstance("yyyy-MM-dd'" + separator + "'HH:mm:ss", TimeZone.getTimeZone(zone));
+		DateTimeCodec codec = new DateTimeCodec(separator, ZoneId.of(zone));
+
+		byte[] b = new byte[DateTimeCodec.LENGTH];
+		Random random = new Random(42);
+
+		// every 15 minutes over a few years covers the daylight saving transitions, random seconds in between
+		long start = fdf.parse("2008-12-31" + separator + "00:00:00").getTime();
+		for (long t = start; t < start + 4 * 366 * 86400_000L; t += 900_000L + random.nextInt(1000)) {
+			String s = fdf.format(t);
+			assertEquals(s, s, codec.format(t));
+			assertEquals(s, DateTimeCodec.LENGTH, codec.format(t, b, 0));
+			assertEquals(s, new String(b, StandardCharsets.US_ASCII));
+
+			assertEquals(s, fdf.parse(s).getTime(), codec.parse(s));
+			assertEquals(s, fdf.parse(s).getTime(), codec.parse(s.getBytes(StandardCharsets.US_ASCII), 0, DateTimeCodec.LENGTH));
+		}
+	}
+
+	@Test
+	public void testSameAsFastDateFormat() throws Exception {
+		assertSameAsFastDateFormat("UTC", ' ');
+		assertSameAsFastDateFormat("America/New_York", ' ');
+		assertSameAsFastDateFormat("Asia/Tokyo", 'T');
+		assertSameAsFastDateFormat("Europe/Berlin", 'T');
+	}
+
+	@Test
+	public void testDaylightSavingTransitions() throws Exception {
+		FastDateFormat fdf = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss", TimeZone.getTimeZone("America/New_York"));
+		DateTimeCodec codec = new DateTimeCodec(' ', ZoneId.of("America/New_York"));
+
+		// local times in the gap and in the overlap
+		for (String s : Arrays.asList("2019-03-10 02:30:00", "2019-03-10 03:00:00", "2019-11-03 01:30:00", "2019-11-03 02:00:00")) {
+			assertEquals(s, fdf.parse(s).getTime(), codec.parse(s));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String s : Arrays.asList(null, "", "2019-01-01", "2019-01-01 00:00", "2019-01-01T00:00:00", "2019-13-01 00:00:00",
+			"2019-02-29 00:00:00", "2019-01-01 24:00:00", "2019-01-01 00:60:00", "2019-01-01 00:00:0x", "-019-01-01 00:00:00")) {
+			assertEquals(s, DateTimeCodec.INVALID, DateTimeCodec.DATETIME.parse(s));
+		}
+		assertEquals(DateTimeCodec.DATETIME.parse("2020-02-29 12:00:00") + 86400_000L, DateTimeCodec.DATETIME.parse("2020-03-01 12:00:00"));
+	}
+}
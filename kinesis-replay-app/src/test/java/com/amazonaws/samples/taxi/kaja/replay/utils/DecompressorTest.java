@@ -0,0 +1,158 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.utils.ParallelDecompressingInputStream.Segmenter;
+
+public class DecompressorTest {
+
+	private interface Compressor {
+		OutputStream open(OutputStream out) throws IOException;
+	}
+
+	/** Rows of about 5 MB that compress to a few tasks. */
+	private static byte[][] segments(int count) {
+		Random random = new Random(42);
+		byte[][] segments = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			StringBuilder rows = new StringBuilder();
+			while (rows.length() < 5_000_000 / count) {
+				rows.append("2,2019-01-01 00:").append(random.nextInt(60)).append(":00,").append(random.nextInt(1000)).append('.')
+					.append(random.nextInt(100)).append(',').append(random.nextLong()).append('\n');
+			}
+			segments[i] = rows.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return segments;
+	}
+
+	private static byte[] concat(byte[][] segments) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] segment : segments) {
+			out.writeBytes(segment);
+		}
+		return out.toByteArray();
+	}
+
+	/** Compress every segment on its own and concatenate the results. */
+	private static byte[] compress(byte[][] segments, Compressor compressor) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] segment : segments) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (OutputStream s = compressor.open(compressed)) {
+				s.write(segment);
+			}
+			out.writeBytes(compressed.toByteArray());
+		}
+		return out.toByteArray();
+	}
+
+	/** A gzip member with the BC subfield of bgzip. */
+	private static byte[] bgzf(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] deflated = new byte[data.length + 1024];
+		int length = deflater.deflate(deflated);
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		int size = 18 + length + 8;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes(new byte[] { 0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0, (byte)(size - 1), (byte)((size - 1) >>> 8) });
+		out.write(deflated, 0, length);
+		writeInt(out, (int)crc.getValue());
+		writeInt(out, data.length);
+		return out.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (8 * i));
+		}
+	}
+
+	private static byte[] decompress(byte[] compressed, String format, int threads) throws IOException {
+		Decompressor decompressor = new Decompressor(threads);
+		try (InputStream in = decompressor.open(new ByteArrayInputStream(compressed), format)) {
+			return in.readAllBytes();
+		} finally {
+			decompressor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFormatOf() {
+		assertEquals(Decompressor.GZIP, Decompressor.formatOf("trip data/yellow_tripdata_2019-01.csv.gz"));
+		assertEquals(Decompressor.ZSTD, Decompressor.formatOf("yellow_tripdata_2019-01.csv.ZST"));
+		assertEquals("yellow_tripdata_2019-01.csv", Decompressor.stripExtension("yellow_tripdata_2019-01.csv.bz2"));
+		assertNull(Decompressor.formatOf("yellow_tripdata_2019-01.csv"));
+		assertEquals(true, EventReader.isCsv("yellow_tripdata_2019-01.csv.zstd"));
+	}
+
+	@Test
+	public void testZstdFrames() throws Exception {
+		byte[][] segments = segments(40);
+		byte[] compressed = compress(segments, ZstdCompressorOutputStream::new);
+
+		assertEquals(compress(new byte[][] { segments[0] }, ZstdCompressorOutputStream::new).length,
+			Decompressor.zstdFrame(compressed, 0, compressed.length));
+		assertEquals(Segmenter.NEED_MORE, Decompressor.zstdFrame(compressed, 0, 100));
+		assertArrayEquals(concat(segments), decompress(compressed, Decompressor.ZSTD, 3));
+	}
+
+	@Test
+	public void testBgzfBlocks() throws Exception {
+		byte[][] segments = new byte[100][];
+		byte[] data = concat(segments(1));
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = Arrays.copyOfRange(data, i * data.length / segments.length, (i + 1) * data.length / segments.length);
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		for (byte[] segment : segments) {
+			compressed.writeBytes(bgzf(segment));
+		}
+
+		assertEquals(bgzf(segments[0]).length, Decompressor.bgzfBlock(compressed.toByteArray(), 0, compressed.size()));
+		assertArrayEquals(data, decompress(compressed.toByteArray(), Decompressor.GZIP, 3));
+	}
+
+	@Test
+	public void testBzip2Streams() throws Exception {
+		byte[][] segments = segments(8);
+		byte[] compressed = compress(segments, BZip2CompressorOutputStream::new);
+
+		assertEquals(compress(new byte[][] { segments[0] }, BZip2CompressorOutputStream::new).length,
+			Decompressor.bzip2Stream(compressed, 0, compressed.length));
+		assertArrayEquals(concat(segments), decompress(compressed, Decompressor.BZIP2, 3));
+	}
+
+	@Test
+	public void testUnsplittable() throws Exception {
+		byte[][] segments = segments(3);
+		byte[] compressed = compress(segments, GzipCompressorOutputStream::new);
+
+		assertEquals(Segmenter.UNSPLITTABLE, Decompressor.bgzfBlock(compressed, 0, compressed.length));
+		assertArrayEquals(concat(segments), decompress(compressed, Decompressor.GZIP, 3));
+		assertArrayEquals(concat(segments), decompress(compressed, Decompressor.GZIP, 0));
+	}
+}
@@ -0,0 +1,92 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.util.json.Jackson;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class DriverSimulatorTest {
+
+	private static JsonEvent trip(String pickup, String dropoff, int pickupLocationId, int dropoffLocationId) {
+		Instant timestamp = DataNormalizer.parseInstant(pickup);
+		return new JsonEvent("{\"dropoff_datetime\":\"" + dropoff + "\",\"dropoff_location_id\":\"" + dropoffLocationId
+			+ "\",\"pickup_datetime\":\"" + pickup + "\",\"pickup_location_id\":\"" + pickupLocationId + "\",\"type\":\"yellow\"}",
+			timestamp, Instant.ofEpochSecond(1000).plusMillis(timestamp.toEpochMilli() - DataNormalizer.parseMillis("2019-01-01 00:00:00")));
+	}
+
+	@Test
+	public void testTrajectories() {
+		List<JsonEvent> trips = new ArrayList<>();
+		trips.add(trip("2019-01-01 00:00:00", "2019-01-01 00:00:20", 1, 2));
+		trips.add(trip("2019-01-01 00:01:00", "2019-01-01 00:01:20", 2, 3));
+
+		long start = DataNormalizer.parseMillis("2019-01-01 00:00:00");
+		DriverSimulator simulator = new DriverSimulator(IteratorEventSource.of(trips), 1, 4000, 60000);
+
+		List<JsonEvent> events = new ArrayList<>();
+		simulator.forEachRemaining(events::add);
+
+		int tripCount = 0;
+		int hired = 0;
+		int available = 0;
+		Instant previous = Instant.MIN;
+		for (JsonEvent event : events) {
+			assertFalse(event.timestamp.isBefore(previous));
+			previous = event.timestamp;
+
+			// ingestion times follow the trips at a speedup of 1
+			assertEquals(1000 * 1000 + event.timestamp.toEpochMilli() - start, event.ingestionTime.toEpochMilli());
+
+			JsonNode json = Jackson.fromJsonString(event.toString(), JsonNode.class);
+			if (!DriverSimulator.TYPE.equals(json.get("type").asText())) {
+				tripCount++;
+				continue;
+			}
+
+			// the driver that dropped off the first trip in zone 2 picks up the second one
+			assertEquals(0, json.get("driver_id").asLong());
+			assertEquals(DateTimeCodec.DATETIME.format(event.timestamp.toEpochMilli()), json.get("timestamp").asText());
+			if (DriverSimulator.STATUS_HIRED.equals(json.get("status").asText())) {
+				hired++;
+			} else {
+				available++;
+			}
+
+			if (event.timestamp.toEpochMilli() == start + 8000) {
+				double[] from = TaxiZones.centroid(1);
+				double[] to = TaxiZones.centroid(2);
+				assertEquals(from[0] + 0.4 * (to[0] - from[0]), json.get("latitude").asDouble(), 1e-9);
+				assertEquals(from[1] + 0.4 * (to[1] - from[1]), json.get("longitude").asDouble(), 1e-9);
+				assertEquals(1, json.get("location_id").asInt());
+			}
+		}
+
+		assertEquals(2, tripCount);
+		// 0..16 s and 60..76 s
+		assertEquals(10, hired);
+		// 20..56 s and 80..140 s, the driver goes off shift 60 s after the last dropoff
+		assertEquals(10 + 16, available);
+		assertEquals(start + 140000, events.get(events.size() - 1).timestamp.toEpochMilli());
+	}
+
+	@Test
+	public void testPartitionKeys() {
+		DriverSimulator simulator = new DriverSimulator(IteratorEventSource.of(List.of(trip("2019-01-01 00:00:00", "2019-01-01 00:00:20", 1, 2))), 1, 4000);
+		simulator.setPartition(1, 3);
+
+		simulator.next();
+		JsonEvent ping = simulator.next();
+		assertEquals("1", Partitioners.field(ping.toByteBuffer(), "driver_id"));
+		assertEquals("1", Partitioners.locationKey(ping.toByteBuffer()));
+		double[] pickup = TaxiZones.centroid(1);
+		assertEquals(Partitioners.geohash(pickup[0], pickup[1], 5), Partitioners.geohashKey(ping.toByteBuffer(), 5));
+	}
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class EventBufferTest {
+
+	private static JsonEvent event(long t) {
+		return new JsonEvent("{\"id\":" + t + "}", Instant.ofEpochSecond(t), Instant.ofEpochSecond(t, 123456789));
+	}
+
+	@Test
+	public void testReorderWindow() throws Exception {
+		// swaps of neighbours are within the window
+		List<JsonEvent> events = new ArrayList<>();
+		for (int i = 0; i < 1000; i += 2) {
+			events.add(event(i + 1));
+			events.add(event(i));
+		}
+
+		// the arena only holds a few payloads, so the producer has to wait and wraps around
+		EventBuffer buffer = new EventBuffer(IteratorEventSource.of(events), 4, 64, 4);
+		buffer.start();
+
+		for (int i = 0; i < 1000; i++) {
+			JsonEvent event = buffer.take();
+			assertEquals(Instant.ofEpochSecond(i), event.timestamp);
+			assertEquals(Instant.ofEpochSecond(i, 123456789), event.ingestionTime);
+			assertEquals("{\"id\":" + i + "}\n", event.toString());
+		}
+
+		assertNull(buffer.take());
+		assertFalse(buffer.hasNext());
+	}
+
+	@Test
+	public void testLateEvent() throws Exception {
+		List<JsonEvent> events = new ArrayList<>();
+		for (int i = 1; i <= 10; i++) {
+			events.add(event(i));
+		}
+		events.add(event(0));
+
+		EventBuffer buffer = new EventBuffer(IteratorEventSource.of(events), 100, 1024, 2);
+		buffer.start();
+		buffer.fill();
+
+		// the late event is passed on instead of being dropped
+		long count = 0;
+		while (buffer.take() != null) {
+			count++;
+		}
+		assertEquals(11, count);
+	}
+
+	@Test(timeout = 10_000)
+	public void testFailingSource() throws Exception {
+		Iterator<JsonEvent> failing = new Iterator<JsonEvent>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public JsonEvent next() {
+				if (next == 5) {
+					throw new UncheckedIOException(new IOException("connection reset"));
+				}
+				return event(next++);
+			}
+		};
+
+		EventBuffer buffer = new EventBuffer(new IteratorEventSource(failing), 100, 1024, 2);
+		buffer.start();
+
+		// the events read before the failure are passed on, then the failure instead of the end of the events
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Instant.ofEpochSecond(i), buffer.take().timestamp);
+		}
+		try {
+			buffer.take();
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof UncheckedIOException);
+		}
+		assertFalse(buffer.hasNext());
+	}
+}
@@ -0,0 +1,55 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class EventRingTest {
+
+	private static JsonEvent event(int size, long timestamp) {
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < size - 1; i++) {
+			payload.append((char)('a' + i % 26));
+		}
+		return new JsonEvent(payload.toString(), Instant.ofEpochMilli(timestamp), Instant.ofEpochMilli(timestamp));
+	}
+
+	@Test
+	public void testWrapAround() throws Exception {
+		EventRing ring = new EventRing(1000, 4);
+
+		// payloads that don't fit at the end of the arena start over at its beginning
+		for (int i = 0; i < 20; i++) {
+			JsonEvent event = event(300 + i * 10, i);
+			ring.put(event);
+
+			JsonEvent taken = ring.take();
+			assertEquals(event.toString(), taken.toString());
+			assertEquals(event.timestamp, taken.timestamp);
+		}
+		assertNull(ring.poll());
+	}
+
+	@Test(timeout = 10_000)
+	public void testLargePayloadAtOffset() throws Exception {
+		EventRing ring = new EventRing(1000, 4);
+
+		// move the ring to the middle of the arena, a payload of 60% of the arena fits neither before nor after it
+		ring.put(event(500, 1));
+		ring.take();
+
+		JsonEvent large = event(600, 2);
+		ring.put(large);
+		assertEquals(large.toString(), ring.take().toString());
+
+		// the ring keeps working after the skip
+		JsonEvent small = event(100, 3);
+		ring.put(small);
+		assertEquals(small.toString(), ring.take().toString());
+	}
+}
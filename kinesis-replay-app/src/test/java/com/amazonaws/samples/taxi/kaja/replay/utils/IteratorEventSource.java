@@ -0,0 +1,49 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+/**
+ * An event source of given events for tests, seeking and time bases are ignored.
+ */
+class IteratorEventSource implements EventSource {
+	private final Iterator<JsonEvent> events;
+
+	IteratorEventSource(Iterator<JsonEvent> events) {
+		this.events = events;
+	}
+
+	static EventSource of(List<JsonEvent> events) {
+		return new IteratorEventSource(events.iterator());
+	}
+
+	@Override
+	public boolean hasNext() {
+		return events.hasNext();
+	}
+
+	@Override
+	public JsonEvent next() {
+		return events.next();
+	}
+
+	@Override
+	public void seek(Instant timestamp) {
+	}
+
+	@Override
+	public Instant peekTimestamp() {
+		return null;
+	}
+
+	@Override
+	public void setTimeBase(Instant ingestionStartTime, Instant origin) {
+	}
+
+	@Override
+	public void close() {
+	}
+}
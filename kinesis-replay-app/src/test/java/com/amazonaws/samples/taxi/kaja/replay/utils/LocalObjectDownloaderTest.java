@@ -0,0 +1,89 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class LocalObjectDownloaderTest {
+
+	@Test
+	public void testMappedSegments() throws Exception {
+		Path file = Files.createTempFile("mapped", ".bin");
+		try {
+			byte[] data = new byte[1000];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte)i;
+			}
+			Files.write(file, data);
+
+			// reads cross the boundaries of the segments
+			MappedFile mapped = MappedFile.map(file, 64);
+			assertEquals(1000, mapped.size());
+			try (InputStream in = mapped.open(0)) {
+				assertArrayEquals(data, in.readAllBytes());
+			}
+			try (InputStream in = mapped.open(100)) {
+				assertEquals(28, in.skip(28));
+				assertEquals(128, in.read());
+				assertArrayEquals(Arrays.copyOfRange(data, 129, 1000), in.readAllBytes());
+				assertEquals(-1, in.read());
+			}
+			assertArrayEquals(Arrays.copyOfRange(data, 60, 200), mapped.source().read(60, 140));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testReadDirectory() throws Exception {
+		Path directory = Files.createTempDirectory("trips");
+		try {
+			Files.createDirectories(directory.resolve("trip data"));
+			Files.write(directory.resolve("trip data/yellow_tripdata_2019-01.csv"),
+				("VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,trip_distance\n"
+					+ "1,2019-01-01 00:46:40,2019-01-01 00:53:20,1.5\n"
+					+ "2,2019-01-01 00:59:47,2019-01-01 01:18:59,2.6\n").getBytes(StandardCharsets.UTF_8));
+			Files.write(directory.resolve("trip data/readme.txt"), "not a trip".getBytes(StandardCharsets.UTF_8));
+			Files.write(directory.resolve("other.csv"), "x\n".getBytes(StandardCharsets.UTF_8));
+
+			String url = LocalObjectDownloader.SCHEME + directory;
+			LocalObjectDownloader downloader = new LocalObjectDownloader(LocalObjectDownloader.directoryOf(url), new Decompressor());
+
+			List<String> keys = new ArrayList<>();
+			for (S3Object o : downloader.list(url, "trip data/")) {
+				keys.add(o.key());
+			}
+			assertEquals(Arrays.asList("trip data/readme.txt", "trip data/yellow_tripdata_2019-01.csv"), keys);
+
+			EventReader reader = new EventReader(downloader, url, "trip data/", 1, "pickup_datetime", 1, 0);
+			List<String> ids = new ArrayList<>();
+			while (reader.hasNext()) {
+				JsonEvent event = reader.next();
+				ids.add(Partitioners.field(event.toByteBuffer(), "vendor_id") + " " + Partitioners.field(event.toByteBuffer(), "type"));
+			}
+			reader.close();
+			assertEquals(Arrays.asList("1 yellow", "2 yellow"), ids);
+			assertFalse(LocalObjectDownloader.isLocal("nyc-tlc"));
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+			}
+		}
+	}
+}
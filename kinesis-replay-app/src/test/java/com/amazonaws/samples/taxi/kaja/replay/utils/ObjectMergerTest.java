@@ -0,0 +1,105 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class ObjectMergerTest {
+	private static final String HEADER = "VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,passenger_count\n";
+
+	private static ObjectReader open(String key) {
+		StringBuilder csv = new StringBuilder(HEADER);
+		int offset = key.startsWith("green") ? 1 : 0;
+		for (int i = 0; i < 5; i++) {
+			csv.append("1,2019-01-01 00:0").append(2 * i + offset).append(":00,2019-01-01 00:30:00,1\n");
+		}
+
+		try {
+			return new ObjectReader(key, EventReader.objectType(key), new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)),
+				new JsonEvent.Parser(3600, "pickup_datetime"));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Test
+	public void testPeriodOrder() {
+		List<String> keys = Arrays.asList("yellow_tripdata_2019-02.csv", "green_tripdata_2019-01.csv", "yellow_tripdata_2019-01.csv", "green_tripdata_2019-02.csv");
+		keys.sort(ObjectMerger.PERIOD_ORDER);
+
+		assertEquals(Arrays.asList("green_tripdata_2019-01.csv", "yellow_tripdata_2019-01.csv", "green_tripdata_2019-02.csv", "yellow_tripdata_2019-02.csv"), keys);
+	}
+
+	@Test
+	public void testMergeByTimestamp() {
+		List<String> keys = Arrays.asList("green_tripdata_2019-01.csv", "yellow_tripdata_2019-01.csv");
+
+		ObjectMerger<String> merger = new ObjectMerger<>(keys.iterator(), ObjectMergerTest::open, 2, 2);
+
+		Instant last = Instant.EPOCH;
+		int count = 0;
+		while (merger.hasNext()) {
+			JsonEvent event = merger.next();
+			assertTrue(!event.timestamp.isBefore(last));
+			last = event.timestamp;
+			count++;
+		}
+		merger.close();
+
+		assertEquals(10, count);
+		assertFalse(merger.hasNext());
+	}
+
+	@Test
+	public void testOpenAllObjectsOfPeriod() throws Exception {
+		Path directory = Files.createTempDirectory("trips");
+		try {
+			Files.createDirectories(directory.resolve("trip data"));
+			List<String> types = Arrays.asList("fhv", "green", "yellow");
+			for (int t = 0; t < types.size(); t++) {
+				StringBuilder csv = new StringBuilder(HEADER);
+				for (int i = 0; i < 5; i++) {
+					csv.append("1,2019-01-01 00:").append(10 + 3 * i + t).append(":00,2019-01-01 00:30:00,1\n");
+				}
+				Files.write(directory.resolve("trip data/" + types.get(t) + "_tripdata_2019-01.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+			}
+
+			// fewer reader threads than objects of the month, the reader still opens all of them to merge their events
+			String url = LocalObjectDownloader.SCHEME + directory;
+			EventReader reader = new EventReader(new LocalObjectDownloader(LocalObjectDownloader.directoryOf(url), new Decompressor()), url,
+				"trip data/", 1, "pickup_datetime", 2, 1);
+
+			Instant last = Instant.EPOCH;
+			int count = 0;
+			while (reader.hasNext()) {
+				JsonEvent event = reader.next();
+				assertTrue(!event.timestamp.isBefore(last));
+				last = event.timestamp;
+				count++;
+			}
+			reader.close();
+
+			assertEquals(15, count);
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+			}
+		}
+	}
+}
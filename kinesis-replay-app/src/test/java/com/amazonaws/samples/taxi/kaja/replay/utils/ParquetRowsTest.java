@@ -0,0 +1,556 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.snappy.SnappyCompressorOutputStream;
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class ParquetRowsTest {
+	private static final int ROWS = 8000;
+	private static final int[] ROW_GROUPS = { 5000, 3000 };
+	private static final int PAGE_ROWS = 1500;
+
+	private static final int OPTIONAL = 1;
+	private static final int REQUIRED = 0;
+	private static final int UNCOMPRESSED = 0;
+	private static final int SNAPPY = 1;
+	private static final int GZIP = 2;
+
+	private static final LocalDateTime START = LocalDateTime.of(2022, 1, 1, 0, 0);
+	private static final DateTimeFormatter DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	private static final long[] LOCATIONS = { 4, 13, 48, 68, 79, 90, 100, 107, 114, 132, 138, 140, 142, 161, 162, 163, 170, 186, 230, 236 };
+
+	private static LocalDateTime pickup(int i) {
+		return START.plusSeconds(i * 37L);
+	}
+
+	/** Null for some rows, which are discarded as the dropoff datetime is required. */
+	private static LocalDateTime dropoff(int i) {
+		return i % 997 == 5 ? null : pickup(i).plusMinutes(i % 50);
+	}
+
+	private static Double passengers(int i) {
+		return i % 10 == 3 ? null : (double)(i % 5);
+	}
+
+	private static double distance(int i) {
+		return (i % 100) / 10.0 + 0.05;
+	}
+
+	private static Long pickupLocation(int i) {
+		return i % 13 == 0 ? null : LOCATIONS[(i * 7) % LOCATIONS.length];
+	}
+
+	private static long dropoffLocation(int i) {
+		return i % 263 + 1;
+	}
+
+	private static String csv() {
+		StringBuilder csv = new StringBuilder("tpep_pickup_datetime,tpep_dropoff_datetime,passenger_count,trip_distance,PULocationID,DOLocationID\n");
+		for (int i = 0; i < ROWS; i++) {
+			csv.append(pickup(i).format(DATETIME)).append(',')
+				.append(dropoff(i) == null ? "" : dropoff(i).format(DATETIME)).append(',')
+				.append(passengers(i) == null ? "" : Long.toString(passengers(i).longValue())).append(',')
+				.append(distance(i)).append(',')
+				.append(pickupLocation(i) == null ? "" : pickupLocation(i).toString()).append(',')
+				.append(dropoffLocation(i)).append('\n');
+		}
+		return csv.toString();
+	}
+
+	private static long micros(LocalDateTime datetime) {
+		return datetime.toEpochSecond(ZoneOffset.UTC) * 1_000_000;
+	}
+
+	@Test
+	public void testSameEventsAsCsv() throws Exception {
+		ParquetBuilder parquet = new ParquetBuilder();
+		byte[] file = parquet.build();
+
+		List<String> expected = new ArrayList<>();
+		try (ObjectReader reader = new ObjectReader("csv", "yellow", new ByteArrayInputStream(csv().getBytes(StandardCharsets.UTF_8)),
+			new JsonEvent.Parser(3600, "pickup_datetime"))) {
+			while (reader.hasNext()) {
+				JsonEvent event = reader.next();
+				expected.add(event.timestamp + " " + event);
+			}
+		}
+		assertEquals(ROWS - ROWS / 997 - 1, expected.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (int threads : new int[] { 0, 3 }) {
+				AtomicLong bytesRead = new AtomicLong();
+				ParquetFile.Source source = new ParquetFile.Source() {
+					@Override
+					public long size() {
+						return file.length;
+					}
+
+					@Override
+					public byte[] read(long offset, int length) {
+						bytesRead.addAndGet(length);
+						return Arrays.copyOfRange(file, (int)offset, (int)offset + length);
+					}
+				};
+
+				ParquetRows rows = new ParquetRows(ParquetFile.open(source), threads == 0 ? Runnable::run : executor, 2 * threads);
+				assertEquals(Arrays.asList("tpep_pickup_datetime", "tpep_dropoff_datetime", "passenger_count", "trip_distance", "PULocationID",
+					"DOLocationID"), rows.getHeader());
+
+				List<String> actual = new ArrayList<>();
+				try (ObjectReader reader = new ObjectReader("parquet", "yellow", rows, new JsonEvent.Parser(3600, "pickup_datetime"), rows.getHeader())) {
+					while (reader.hasNext()) {
+						JsonEvent event = reader.next();
+						actual.add(event.timestamp + " " + event);
+					}
+				}
+				assertEquals(expected, actual);
+
+				// the chunks of the columns that are not projected are never read
+				assertTrue(bytesRead.get() < file.length - parquet.skippedBytes);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRleDecoder() throws Exception {
+		// a run of 3 fives followed by a bit packed group of 8 values with 3 bits
+		byte[] b = { 6, 5, 3, (byte)0b10001000, (byte)0b11000110, (byte)0b11111010 };
+		ParquetColumnReader.RleDecoder decoder = new ParquetColumnReader.RleDecoder(b, 0, b.length, 3);
+
+		int[] values = new int[11];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = decoder.next();
+		}
+		assertEquals("[5, 5, 5, 0, 1, 2, 3, 4, 5, 6, 7]", Arrays.toString(values));
+	}
+
+	/**
+	 * Writes the trip columns with a mix of page versions, encodings and codecs, plus columns that are not projected.
+	 */
+	private static class ParquetBuilder {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private long skippedBytes;
+
+		byte[] build() throws IOException {
+			out.writeBytes("PAR1".getBytes(StandardCharsets.US_ASCII));
+
+			List<byte[]> rowGroups = new ArrayList<>();
+			int first = 0;
+			for (int rows : ROW_GROUPS) {
+				rowGroups.add(writeRowGroup(first, rows));
+				first += rows;
+			}
+
+			Thrift footer = new Thrift();
+			footer.i32(1, 1);
+			footer.list(2, Thrift.STRUCT, 9);
+			footer.begin();
+			footer.string(4, "schema");
+			footer.i32(5, 8);
+			footer.end();
+			schema(footer, ParquetFile.INT64, OPTIONAL, "VendorID", false);
+			schema(footer, ParquetFile.INT64, OPTIONAL, "tpep_pickup_datetime", true);
+			schema(footer, ParquetFile.INT64, OPTIONAL, "tpep_dropoff_datetime", true);
+			schema(footer, ParquetFile.DOUBLE, OPTIONAL, "passenger_count", false);
+			schema(footer, ParquetFile.DOUBLE, REQUIRED, "trip_distance", false);
+			schema(footer, ParquetFile.BYTE_ARRAY, OPTIONAL, "store_and_fwd_flag", false);
+			schema(footer, ParquetFile.INT64, OPTIONAL, "PULocationID", false);
+			schema(footer, ParquetFile.INT32, REQUIRED, "DOLocationID", false);
+			footer.i64(3, ROWS);
+			footer.list(4, Thrift.STRUCT, rowGroups.size());
+			for (byte[] rowGroup : rowGroups) {
+				footer.raw(rowGroup);
+			}
+			footer.end();
+
+			byte[] metadata = footer.toByteArray();
+			out.writeBytes(metadata);
+			out.write(metadata.length);
+			out.write(metadata.length >>> 8);
+			out.write(metadata.length >>> 16);
+			out.write(metadata.length >>> 24);
+			out.writeBytes("PAR1".getBytes(StandardCharsets.US_ASCII));
+			return out.toByteArray();
+		}
+
+		private static void schema(Thrift footer, int type, int repetition, String name, boolean timestamp) {
+			footer.begin();
+			footer.i32(1, type);
+			footer.i32(3, repetition);
+			footer.string(4, name);
+			if (timestamp) {
+				// a local datetime in micros
+				footer.begin(10);
+				footer.begin(8);
+				footer.bool(1, false);
+				footer.begin(2);
+				footer.begin(2);
+				footer.end();
+				footer.end();
+				footer.end();
+				footer.end();
+			}
+			footer.end();
+		}
+
+		/**
+		 * @return the row group struct
+		 */
+		private byte[] writeRowGroup(int first, int rows) throws IOException {
+			Thrift rowGroup = new Thrift();
+			rowGroup.list(1, Thrift.STRUCT, 8);
+
+			Long[] vendors = new Long[rows];
+			Long[] pickups = new Long[rows];
+			Long[] dropoffs = new Long[rows];
+			Double[] passengers = new Double[rows];
+			Double[] distances = new Double[rows];
+			Long[] pickupLocations = new Long[rows];
+			Long[] dropoffLocations = new Long[rows];
+			for (int r = 0; r < rows; r++) {
+				int i = first + r;
+				vendors[r] = (long)(i % 2 + 1);
+				pickups[r] = micros(pickup(i));
+				dropoffs[r] = dropoff(i) == null ? null : micros(dropoff(i));
+				passengers[r] = passengers(i);
+				distances[r] = distance(i);
+				pickupLocations[r] = pickupLocation(i);
+				dropoffLocations[r] = dropoffLocation(i);
+			}
+
+			long start = out.size();
+			writePlainChunk(rowGroup, ParquetFile.INT64, "VendorID", vendors, true, false, UNCOMPRESSED);
+			skippedBytes += out.size() - start;
+
+			writePlainChunk(rowGroup, ParquetFile.INT64, "tpep_pickup_datetime", pickups, true, false, SNAPPY);
+			writePlainChunk(rowGroup, ParquetFile.INT64, "tpep_dropoff_datetime", dropoffs, true, true, GZIP);
+			writePlainChunk(rowGroup, ParquetFile.DOUBLE, "passenger_count", passengers, true, false, SNAPPY);
+			writePlainChunk(rowGroup, ParquetFile.DOUBLE, "trip_distance", distances, false, true, UNCOMPRESSED);
+
+			// garbage that fails to decode if it was read
+			start = out.size();
+			byte[] garbage = new byte[100_000];
+			Arrays.fill(garbage, (byte)0xff);
+			columnChunk(rowGroup, ParquetFile.BYTE_ARRAY, "store_and_fwd_flag", UNCOMPRESSED, rows, out.size(), -1, garbage.length);
+			out.writeBytes(garbage);
+			skippedBytes += out.size() - start;
+
+			writeDictionaryChunk(rowGroup, "PULocationID", pickupLocations);
+
+			long offset = out.size();
+			for (int p = 0; p < rows; p += PAGE_ROWS) {
+				int n = Math.min(PAGE_ROWS, rows - p);
+				ByteArrayOutputStream values = new ByteArrayOutputStream();
+				for (int r = p; r < p + n; r++) {
+					writeLong(values, dropoffLocations[r], 4);
+				}
+				writeDataPage(values.toByteArray(), n, 0, null, false, UNCOMPRESSED);
+			}
+			columnChunk(rowGroup, ParquetFile.INT32, "DOLocationID", UNCOMPRESSED, rows, offset, -1, out.size() - offset);
+
+			rowGroup.i64(2, out.size());
+			rowGroup.i64(3, rows);
+			rowGroup.end();
+			return rowGroup.toByteArray();
+		}
+
+		private void writePlainChunk(Thrift rowGroup, int type, String name, Object[] column, boolean optional, boolean v2, int codec) throws IOException {
+			long offset = out.size();
+			for (int p = 0; p < column.length; p += PAGE_ROWS) {
+				int n = Math.min(PAGE_ROWS, column.length - p);
+				ByteArrayOutputStream values = new ByteArrayOutputStream();
+				boolean[] defined = new boolean[n];
+				for (int r = 0; r < n; r++) {
+					Object v = column[p + r];
+					defined[r] = v != null;
+					if (v instanceof Double) {
+						writeLong(values, Double.doubleToLongBits((Double)v), 8);
+					} else if (v != null) {
+						writeLong(values, (Long)v, 8);
+					}
+				}
+				writeDataPage(values.toByteArray(), n, 0, optional ? defined : null, v2, codec);
+			}
+			columnChunk(rowGroup, type, name, codec, column.length, offset, -1, out.size() - offset);
+		}
+
+		private void writeDictionaryChunk(Thrift rowGroup, String name, Long[] column) throws IOException {
+			long dictionaryOffset = out.size();
+			ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+			for (long location : LOCATIONS) {
+				writeLong(dictionary, location, 8);
+			}
+			writePage(2, dictionary.toByteArray(), LOCATIONS.length, 0, SNAPPY, false);
+
+			long dataOffset = out.size();
+			for (int p = 0, page = 0; p < column.length; p += PAGE_ROWS, page++) {
+				int n = Math.min(PAGE_ROWS, column.length - p);
+				boolean[] defined = new boolean[n];
+				List<Integer> ids = new ArrayList<>();
+				for (int r = 0; r < n; r++) {
+					Long v = column[p + r];
+					defined[r] = v != null;
+					if (v != null) {
+						ids.add(Arrays.binarySearch(LOCATIONS, v));
+					}
+				}
+
+				// 5 bits per id, alternately bit packed and run length encoded
+				ByteArrayOutputStream values = new ByteArrayOutputStream();
+				values.write(5);
+				if (page % 2 == 0) {
+					bitPacked(values, ids, 5);
+				} else {
+					for (int id : ids) {
+						writeVarint(values, 1 << 1);
+						values.write(id);
+					}
+				}
+				writeDataPage(values.toByteArray(), n, 8, defined, false, SNAPPY);
+			}
+			columnChunk(rowGroup, ParquetFile.INT64, name, SNAPPY, column.length, dataOffset, dictionaryOffset, out.size() - dictionaryOffset);
+		}
+
+		private void writeDataPage(byte[] values, int n, int encoding, boolean[] defined, boolean v2, int codec) throws IOException {
+			ByteArrayOutputStream levels = new ByteArrayOutputStream();
+			if (defined != null) {
+				List<Integer> bits = new ArrayList<>();
+				for (boolean d : defined) {
+					bits.add(d ? 1 : 0);
+				}
+				bitPacked(levels, bits, 1);
+			}
+
+			if (v2) {
+				byte[] compressed = compress(values, codec);
+				Thrift header = new Thrift();
+				header.i32(1, 3);
+				header.i32(2, levels.size() + values.length);
+				header.i32(3, levels.size() + compressed.length);
+				header.begin(8);
+				header.i32(1, n);
+				header.i32(2, 0);
+				header.i32(3, n);
+				header.i32(4, encoding);
+				header.i32(5, levels.size());
+				header.i32(6, 0);
+				header.end();
+				header.end();
+				out.writeBytes(header.toByteArray());
+				out.writeBytes(levels.toByteArray());
+				out.writeBytes(compressed);
+				return;
+			}
+
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			if (defined != null) {
+				writeLong(data, levels.size(), 4);
+				data.writeBytes(levels.toByteArray());
+			}
+			data.writeBytes(values);
+			writePage(0, data.toByteArray(), n, encoding, codec, true);
+		}
+
+		private void writePage(int type, byte[] data, int n, int encoding, int codec, boolean dataPage) throws IOException {
+			byte[] compressed = compress(data, codec);
+			Thrift header = new Thrift();
+			header.i32(1, type);
+			header.i32(2, data.length);
+			header.i32(3, compressed.length);
+			header.begin(dataPage ? 5 : 7);
+			header.i32(1, n);
+			header.i32(2, encoding);
+			if (dataPage) {
+				header.i32(3, 3);
+				header.i32(4, 3);
+			}
+			header.end();
+			header.end();
+			out.writeBytes(header.toByteArray());
+			out.writeBytes(compressed);
+		}
+
+		private static void columnChunk(Thrift rowGroup, int type, String name, int codec, long values, long dataOffset, long dictionaryOffset,
+			long size) {
+			rowGroup.begin();
+			rowGroup.i64(2, dataOffset);
+			rowGroup.begin(3);
+			rowGroup.i32(1, type);
+			rowGroup.list(2, Thrift.I32, 1);
+			rowGroup.varint(0);
+			rowGroup.list(3, Thrift.BINARY, 1);
+			rowGroup.bytes(name.getBytes(StandardCharsets.UTF_8));
+			rowGroup.i32(4, codec);
+			rowGroup.i64(5, values);
+			rowGroup.i64(6, size);
+			rowGroup.i64(7, size);
+			rowGroup.i64(9, dataOffset);
+			if (dictionaryOffset >= 0) {
+				rowGroup.i64(11, dictionaryOffset);
+			}
+			rowGroup.end();
+			rowGroup.end();
+		}
+
+		private static byte[] compress(byte[] data, int codec) throws IOException {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			OutputStream s;
+			switch (codec) {
+			case SNAPPY:
+				s = new SnappyCompressorOutputStream(compressed, data.length);
+				break;
+			case GZIP:
+				s = new GZIPOutputStream(compressed);
+				break;
+			default:
+				return data;
+			}
+			try (OutputStream c = s) {
+				c.write(data);
+			}
+			return compressed.toByteArray();
+		}
+
+		private static void bitPacked(ByteArrayOutputStream out, List<Integer> values, int bitWidth) {
+			int groups = (values.size() + 7) / 8;
+			writeVarint(out, groups << 1 | 1);
+
+			long bits = 0;
+			int count = 0;
+			for (int i = 0; i < groups * 8; i++) {
+				long v = i < values.size() ? values.get(i) : 0;
+				bits |= v << count;
+				count += bitWidth;
+				while (count >= 8) {
+					out.write((int)bits);
+					bits >>>= 8;
+					count -= 8;
+				}
+			}
+		}
+	}
+
+	private static void writeLong(ByteArrayOutputStream out, long v, int bytes) {
+		for (int i = 0; i < bytes; i++) {
+			out.write((int)(v >>> (8 * i)));
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7fL) != 0) {
+			out.write((int)(v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write((int)v);
+	}
+
+	/**
+	 * Writes structs in the thrift compact protocol.
+	 */
+	private static class Thrift {
+		static final int I32 = 5;
+		static final int BINARY = 8;
+		static final int STRUCT = 12;
+
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final int[] lastIds = new int[16];
+		private int depth;
+
+		private void field(int id, int type) {
+			int delta = id - lastIds[depth];
+			if (delta > 0 && delta <= 15) {
+				out.write(delta << 4 | type);
+			} else {
+				out.write(type);
+				writeVarint(out, (id << 1) ^ (id >> 31));
+			}
+			lastIds[depth] = id;
+		}
+
+		void i32(int id, int v) {
+			field(id, I32);
+			varint((v << 1) ^ (v >> 31));
+		}
+
+		void i64(int id, long v) {
+			field(id, 6);
+			varint((v << 1) ^ (v >> 63));
+		}
+
+		void bool(int id, boolean v) {
+			field(id, v ? 1 : 2);
+		}
+
+		void string(int id, String s) {
+			field(id, BINARY);
+			bytes(s.getBytes(StandardCharsets.UTF_8));
+		}
+
+		void bytes(byte[] b) {
+			varint(b.length);
+			out.writeBytes(b);
+		}
+
+		void varint(long v) {
+			writeVarint(out, v);
+		}
+
+		void list(int id, int type, int size) {
+			field(id, 9);
+			if (size < 15) {
+				out.write(size << 4 | type);
+			} else {
+				out.write(0xf0 | type);
+				varint(size);
+			}
+		}
+
+		/** Begin a struct that is an element of a list. */
+		void begin() {
+			lastIds[++depth] = 0;
+		}
+
+		void begin(int id) {
+			field(id, STRUCT);
+			begin();
+		}
+
+		void end() {
+			out.write(0);
+			if (depth > 0) {
+				depth--;
+			}
+		}
+
+		void raw(byte[] b) {
+			out.writeBytes(b);
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class PartitionersTest {
+
+	private static JsonEvent trip(String location, double latitude, double longitude, String type) {
+		return new JsonEvent("{\"pickup_datetime\":\"2019-01-01 00:00:00\",\"pickup_latitude\":" + latitude + ",\"pickup_location_id\":\"" + location
+			+ "\",\"pickup_longitude\":" + longitude + ",\"type\":\"" + type + "\"}", Instant.EPOCH, Instant.EPOCH);
+	}
+
+	@Test
+	public void testFields() {
+		ByteBuffer payload = trip("132", 40.75, -73.99, "green").toByteBuffer();
+
+		assertEquals("132", Partitioners.field(payload, "pickup_location_id"));
+		assertEquals("40.75", Partitioners.field(payload, "pickup_latitude"));
+		assertEquals("green", Partitioners.field(payload, "type"));
+		assertNull(Partitioners.field(payload, "dropoff_location_id"));
+	}
+
+	@Test
+	public void testTypedFields() {
+		ByteBuffer payload = trip("132", 40.75, -73.99, "green").toByteBuffer();
+
+		assertEquals(DataNormalizer.parseMillis("2019-01-01 00:00:00"), Partitioners.datetimeField(payload, Partitioners.pattern("pickup_datetime")));
+		assertEquals(132, Partitioners.intField(payload, Partitioners.pattern("pickup_location_id")));
+		assertEquals(40.75, Partitioners.doubleField(payload, Partitioners.pattern("pickup_latitude")), 0);
+
+		// missing and invalid fields
+		assertEquals(DateTimeCodec.INVALID, Partitioners.datetimeField(payload, Partitioners.pattern("dropoff_datetime")));
+		assertEquals(DateTimeCodec.INVALID, Partitioners.datetimeField(payload, Partitioners.pattern("type")));
+		assertEquals(0, Partitioners.intField(payload, Partitioners.pattern("type")));
+		assertEquals(0, Partitioners.doubleField(payload, Partitioners.pattern("dropoff_latitude")), 0);
+	}
+
+	@Test
+	public void testGeohash() {
+		assertEquals("u4pruydqqvj", Partitioners.geohash(57.64911, 10.40744, 11));
+		assertEquals("dr5ru", Partitioners.geohashKey(trip("132", 40.7484, -73.9857, "yellow").toByteBuffer(), 5));
+
+		// no coordinates
+		assertEquals("132", Partitioners.geohashKey(trip("132", 0, 0, "yellow").toByteBuffer(), 5));
+	}
+
+	@Test
+	public void testKeyPartitioner() throws Exception {
+		Partitioner partitioner = Partitioners.create(Partitioners.LOCATION, 0, 0);
+
+		PartitionKey key = partitioner.partition(trip("132", 0, 0, "yellow"));
+		assertEquals("132", key.partitionKey);
+		assertEquals(new BigInteger(1, MessageDigest.getInstance("MD5").digest("132".getBytes(StandardCharsets.UTF_8))).toString(),
+			key.explicitHashKey);
+		assertSame(key, partitioner.partition(trip("132", 1, 1, "green")));
+		assertNotEquals(key.explicitHashKey, partitioner.partition(trip("138", 0, 0, "yellow")).explicitHashKey);
+
+		assertEquals("green", Partitioners.create(Partitioners.TYPE, 0, 0).partition(trip("132", 0, 0, "green")).partitionKey);
+	}
+
+	@Test
+	public void testHash() {
+		JsonEvent event = trip("132", 0, 0, "yellow");
+		PartitionKey key = Partitioners.create(Partitioners.HASH, 0, 0).partition(event);
+
+		// the hash of the payload spans the hash key space, so the shaper knows the shard of the record without hashing the key
+		BigInteger hashKey = new BigInteger(key.explicitHashKey);
+		assertEquals(Integer.toString(event.hashCode()), key.partitionKey);
+		assertEquals(event.hashCode(), key.routingKey);
+		assertEquals(BigInteger.valueOf(event.hashCode() & 0xffffffffL), hashKey.shiftRight(96));
+		assertTrue(hashKey.bitLength() <= 128);
+	}
+
+	@Test
+	public void testRoundRobin() {
+		Partitioner partitioner = Partitioners.create(Partitioners.ROUND_ROBIN, 4, 0);
+		JsonEvent event = trip("132", 0, 0, "yellow");
+
+		BigInteger quarter = BigInteger.ONE.shiftLeft(126);
+		for (int i = 0; i < 8; i++) {
+			PartitionKey key = partitioner.partition(event);
+			BigInteger hashKey = new BigInteger(key.explicitHashKey);
+
+			// buckets of equal size in turn, each bucket maps to its own range of send threads
+			assertEquals(i % 4, hashKey.divide(quarter).intValue());
+			assertEquals(i % 4, SendStage.worker(key.routingKey, 4));
+		}
+	}
+}
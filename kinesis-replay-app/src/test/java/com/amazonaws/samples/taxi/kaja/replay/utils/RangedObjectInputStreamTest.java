@@ -0,0 +1,58 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+public class RangedObjectInputStreamTest {
+
+	private static S3Client rangedClient(byte[] data) {
+		return new S3Client() {
+			@Override
+			public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+				String[] range = request.range().substring("bytes=".length()).split("-");
+				int start = Integer.parseInt(range[0]);
+				int end = Integer.parseInt(range[1]);
+
+				byte[] part = Arrays.copyOfRange(data, start, end + 1);
+				return new ResponseInputStream<>(GetObjectResponse.builder().build(), AbortableInputStream.create(new ByteArrayInputStream(part)));
+			}
+
+			@Override
+			public String serviceName() {
+				return "s3";
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Test
+	public void testReadInOrder() throws Exception {
+		byte[] data = new byte[100_003];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i * 31);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (InputStream in = new RangedObjectInputStream(rangedClient(data), "bucket", "key", data.length, 4096, 3, executor)) {
+			assertArrayEquals(data, in.readAllBytes());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
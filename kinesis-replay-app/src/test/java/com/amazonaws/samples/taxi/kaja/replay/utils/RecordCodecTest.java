@@ -0,0 +1,81 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.util.json.Jackson;
+
+public class RecordCodecTest {
+	private static final List<String> HEADER = DataNormalizer.normalizeHeader(new ArrayList<>(Arrays.asList(
+		"VendorID", "tpep_pickup_datetime", "tpep_dropoff_datetime", "passenger_count", "trip_distance",
+		"pickup_longitude", "pickup_latitude", "store_and_fwd_flag", "total_amount")));
+
+	private static String legacy(List<String> record) {
+		Map<String, Object> data = DataNormalizer.list2map(HEADER, record);
+		data.put("type", "yellow");
+		data = DataNormalizer.normalizeRecord(data);
+		return data == null ? null : Jackson.toJsonString(data) + "\n";
+	}
+
+	private static String encode(RecordCodec codec, List<String> record) {
+		return codec.encode(record) ? StandardCharsets.UTF_8.decode(codec.payload()).toString() : null;
+	}
+
+	@Test
+	public void testSameAsLegacy() {
+		RecordCodec codec = new RecordCodec(HEADER, "yellow", "pickup_datetime");
+
+		List<List<String>> records = Arrays.asList(
+			Arrays.asList("1", "2015-01-15 19:05:39", "2015-01-15 19:23:42", "1", "1.59", "-73.993896484375", "40.7501106262207", "N", "17.05"),
+			Arrays.asList("2", "2015-01-10 20:33:38", "2015-01-10 20:53:28", "", "", "", "", "", "\"quoted\" é"),
+			Arrays.asList("2", "2015-01-10 20:33:38", "2015-01-10 20:53:28", "3", "0.5"),
+			Arrays.asList("2", "2015-01-10 20:33:38", "", "3", "0.5"),
+			Arrays.asList("2", "2015-01-10 20:33:38", "2015-01-10 20:53:28", "x", "0.5"),
+			Arrays.asList("2", "2015-01-10 20:33:38", "2015-01-10", "1", "0.5"));
+
+		for (List<String> record : records) {
+			assertEquals(record.toString(), legacy(record), encode(codec, record));
+		}
+
+		assertTrue(codec.encode(records.get(0)));
+		assertEquals(DataNormalizer.parseMillis("2015-01-15 19:05:39"), codec.timestamp());
+	}
+
+	@Test
+	public void testDoublePassThrough() {
+		RecordCodec codec = new RecordCodec(HEADER, "yellow", "pickup_datetime");
+
+		// valid json numbers keep their source text, which only differs from the legacy output in formatting
+		List<String> record = Arrays.asList("1", "2015-01-15 19:05:39", "2015-01-15 19:23:42", "1", "1.59", "-73.9800", "40.750110626220703");
+		Map<?, ?> expected = Jackson.fromJsonString(legacy(record), Map.class);
+		Map<?, ?> actual = Jackson.fromJsonString(encode(codec, record), Map.class);
+		assertEquals(expected, actual);
+		assertTrue(encode(codec, record).contains("\"pickup_longitude\":-73.9800,"));
+	}
+
+	@Test
+	public void testNumbers() {
+		for (String s : Arrays.asList("0", "1.59", "-73.993896484375", "40.750110626220703", "+1.5", "1e3", ".5", "1.", "123456789012345678")) {
+			assertEquals(s, Double.parseDouble(s), RecordCodec.parseDouble(s), 0);
+		}
+		for (String s : Arrays.asList("0", "-1", "+7", "1234567890123456789")) {
+			assertEquals(s, Long.parseLong(s), RecordCodec.parseLong(s));
+		}
+
+		assertTrue(RecordCodec.isJsonNumber("-73.9800"));
+		assertTrue(RecordCodec.isJsonNumber("1e-3"));
+		assertFalse(RecordCodec.isJsonNumber("01"));
+		assertFalse(RecordCodec.isJsonNumber("1."));
+		assertFalse(RecordCodec.isJsonNumber(" 1"));
+		assertFalse(RecordCodec.isJsonNumber("NaN"));
+	}
+}
@@ -0,0 +1,82 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ReplayCoordinatorTest {
+
+	@Test
+	public void testSharedTimeBaseAndGlobalWatermark() throws Exception {
+		ReplayCoordinator coordinator = new ReplayCoordinator(0, 3, 60, 1000);
+		coordinator.start();
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			String address = "localhost:" + coordinator.getPort();
+
+			// the workers are ready at different times, the one without events doesn't determine the origin
+			List<Future<ReplayWorker>> futures = new ArrayList<>();
+			for (Instant first : new Instant[] { Instant.ofEpochSecond(30), Instant.ofEpochSecond(10), null }) {
+				futures.add(executor.submit(() -> {
+					ReplayWorker worker = ReplayWorker.join(address);
+					worker.ready(first);
+					return worker;
+				}));
+			}
+
+			List<ReplayWorker> workers = new ArrayList<>();
+			Set<Integer> indexes = new HashSet<>();
+			for (Future<ReplayWorker> f : futures) {
+				ReplayWorker worker = f.get();
+				workers.add(worker);
+				indexes.add(worker.getIndex());
+
+				assertEquals(3, worker.getWorkers());
+				assertEquals(60, worker.getSpeedupFactor(), 0);
+				assertEquals(Instant.ofEpochSecond(10), worker.getOrigin());
+				assertEquals(workers.get(0).getStartTime(), worker.getStartTime());
+			}
+			assertEquals(3, indexes.size());
+
+			// the global watermark is the minimum of the workers that have not finished
+			AtomicLong[] completed = new AtomicLong[3];
+			for (int i = 0; i < 3; i++) {
+				completed[i] = new AtomicLong(Long.MIN_VALUE);
+				workers.get(i).startReporting(completed[i]::get);
+			}
+			assertEquals(Instant.EPOCH, coordinator.getGlobalWatermark());
+
+			completed[0].set(40_000);
+			completed[1].set(20_000);
+			completed[2].set(50_000);
+			workers.get(2).finish();
+			workers.get(1).finish();
+
+			// worker 0 reports its progress periodically
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (coordinator.getGlobalWatermark().equals(Instant.EPOCH) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(Instant.ofEpochSecond(40), coordinator.getGlobalWatermark());
+
+			completed[0].set(45_000);
+			workers.get(0).finish();
+			coordinator.awaitCompletion();
+			assertEquals(Instant.ofEpochSecond(50), coordinator.getGlobalWatermark());
+		} finally {
+			executor.shutdownNow();
+			coordinator.stop();
+		}
+	}
+}
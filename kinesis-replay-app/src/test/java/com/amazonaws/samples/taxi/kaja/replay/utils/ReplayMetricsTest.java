@@ -0,0 +1,71 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class ReplayMetricsTest {
+
+	private static ReplayMetrics metrics(AtomicLong counter) {
+		ReplayMetrics metrics = new ReplayMetrics();
+		metrics.counter("test_events_total", "Events.", counter::get);
+		metrics.gauge("test_lag_seconds", "Lag per shard.", "shard", () -> Collections.singletonMap("shardId-0", 1.5));
+
+		LatencyHistogram histogram = metrics.histogram("test_latency_seconds", "Latency.");
+		for (int i = 1; i <= 1000; i++) {
+			histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		return metrics;
+	}
+
+	@Test
+	public void testPrometheus() throws Exception {
+		StringBuilder text = new StringBuilder();
+		metrics(new AtomicLong(42)).writePrometheus(text);
+		String out = text.toString();
+
+		assertTrue(out, out.contains("# TYPE test_events_total counter\ntest_events_total 42\n"));
+		assertTrue(out, out.contains("test_lag_seconds{shard=\"shardId-0\"} 1.5\n"));
+		assertTrue(out, out.contains("# TYPE test_latency_seconds summary\n"));
+		assertTrue(out, out.contains("test_latency_seconds_count 1000\n"));
+		assertTrue(out, out.contains("test_latency_seconds{quantile=\"0.5\"} 0.5"));
+		assertTrue(out, out.contains("test_latency_seconds{quantile=\"1.0\"} 1.0"));
+	}
+
+	@Test
+	public void testJmxAndHttp() throws Exception {
+		AtomicLong counter = new AtomicLong(7);
+		ReplayMetrics metrics = metrics(counter);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.amazonaws.samples.taxi.kaja.replay:type=ReplayMetricsTest");
+		server.registerMBean(metrics, name);
+		try {
+			assertEquals(7.0, (Double)server.getAttribute(name, "test_events_total"), 0);
+			assertEquals(1.5, (Double)server.getAttribute(name, "test_lag_seconds.shardId-0"), 0);
+		} finally {
+			server.unregisterMBean(name);
+		}
+
+		MetricsServer http = new MetricsServer(metrics, 0);
+		http.start();
+		try (InputStream in = new URL("http://localhost:" + http.getPort() + "/metrics").openStream()) {
+			String out = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			assertTrue(out, out.contains("test_events_total "));
+		} finally {
+			http.stop();
+		}
+	}
+}
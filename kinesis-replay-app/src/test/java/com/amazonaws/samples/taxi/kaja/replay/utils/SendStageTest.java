@@ -0,0 +1,92 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.google.common.util.concurrent.Futures;
+
+public class SendStageTest {
+	private static final int KEYS = 7;
+
+	private static int key(JsonEvent je) {
+		return (int)(je.timestamp.getEpochSecond() % KEYS);
+	}
+
+	@Test
+	public void testOrderPerPartition() throws Exception {
+		Map<Integer, List<Long>> sent = new ConcurrentHashMap<>();
+		Map<Integer, Set<String>> threads = new ConcurrentHashMap<>();
+
+		// spread the routing keys over the ranges of the workers
+		Partitioner partitioner = je -> new PartitionKey(Integer.toString(key(je)), null, key(je) << 29);
+
+		AtomicLong sequence = new AtomicLong();
+		SendStage stage = new SendStage(3, 2, partitioner, sequence::getAndIncrement, (je, key, seq) -> {
+			// sequence numbers follow the dispatch order
+			assertEquals(je.timestamp.getEpochSecond(), seq);
+			assertEquals(Integer.toString(key(je)), key.partitionKey);
+
+			sent.computeIfAbsent(key(je), k -> new ArrayList<>()).add(je.timestamp.getEpochSecond());
+			threads.computeIfAbsent(key(je), k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+		});
+
+		List<JsonEvent> batch = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			batch.add(new JsonEvent("{}", Instant.ofEpochSecond(i), Instant.EPOCH));
+			if (batch.size() == 100) {
+				stage.dispatch(batch);
+				batch.clear();
+			}
+		}
+		stage.close();
+
+		int count = 0;
+		assertEquals(3, threads.values().stream().flatMap(Set::stream).distinct().count());
+		for (Map.Entry<Integer, List<Long>> en : sent.entrySet()) {
+			// every partition is sent by a single thread in dispatch order
+			assertEquals(1, threads.get(en.getKey()).size());
+
+			List<Long> timestamps = en.getValue();
+			for (int i = 1; i < timestamps.size(); i++) {
+				assertTrue(timestamps.get(i - 1) < timestamps.get(i));
+			}
+			count += timestamps.size();
+		}
+		assertEquals(10_000, count);
+	}
+
+	@Test
+	public void testFailedSendsComplete() throws Exception {
+		TimestampTracker tracker = new TimestampTracker(16);
+		Partitioner partitioner = je -> new PartitionKey(Integer.toString(key(je)), null, key(je) << 29);
+
+		// the sender fails on every event, far more events than the tracker has room for in flight
+		SendStage stage = new SendStage(3, 2, partitioner, tracker::nextSequence, (je, key, seq) -> {
+			throw new IllegalStateException("sink is closed");
+		}, (je, seq, e) -> tracker.trackTimestamp(Futures.immediateFailedFuture(e), je, seq));
+
+		List<JsonEvent> batch = new ArrayList<>();
+		for (int i = 0; i < 1_000; i++) {
+			batch.add(new JsonEvent("{}", Instant.ofEpochSecond(i), Instant.EPOCH));
+			if (batch.size() == 10) {
+				stage.dispatch(batch);
+				batch.clear();
+			}
+		}
+		stage.close();
+
+		assertEquals(1_000, tracker.getLowWaterMark());
+		assertEquals(999_000, tracker.getCompletedTimestamp());
+	}
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+public class ShardShaperTest {
+
+	private static Shard shard(String shardId, BigInteger startingHashKey) {
+		return Shard.builder().shardId(shardId).hashKeyRange(HashKeyRange.builder().startingHashKey(startingHashKey.toString()).build()).build();
+	}
+
+	@Test
+	public void testDelaySaturatedShardOnly() throws Exception {
+		ShardShaper shaper = new ShardShaper(1000, 0, 10_000);
+		try {
+			// records pass until the shards are known
+			PartitionKey hot = PartitionKey.ofBucket(0, 2);
+			PartitionKey cold = PartitionKey.ofBucket(1, 2);
+			assertEquals(0, shaper.reserve(hot, 100));
+
+			shaper.setShards(Arrays.asList(shard("shard-1", BigInteger.ONE.shiftLeft(127)), shard("shard-0", BigInteger.ZERO)));
+
+			// a burst of 100 ms of records is sent right away, later records are spaced by 1 ms
+			long delayed = 0;
+			long last = 0;
+			for (int i = 0; i < 300; i++) {
+				long delay = shaper.reserve(hot, 100);
+				if (delay > 0) {
+					delayed++;
+					assertTrue(delay >= last - TimeUnit.MILLISECONDS.toNanos(10));
+					last = delay;
+				}
+			}
+			assertTrue(delayed >= 190);
+			assertTrue(last > TimeUnit.MILLISECONDS.toNanos(150));
+			assertEquals(delayed, shaper.getDelayedRecords());
+
+			assertEquals(0, shaper.reserve(cold, 100));
+
+			// the saturated shard keeps its budget if the shards are refreshed
+			shaper.setShards(Arrays.asList(shard("shard-0", BigInteger.ZERO), shard("shard-1", BigInteger.ONE.shiftLeft(127))));
+			assertTrue(shaper.reserve(hot, 100) > 0);
+		} finally {
+			shaper.close();
+		}
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		ShardShaper shaper = new ShardShaper(0, 1024 * 1024, 10_000);
+		try {
+			shaper.setShards(Arrays.asList(shard("shard-0", BigInteger.ZERO)));
+
+			// a record of 200 KB takes about 200 ms of the budget, of which 100 ms are a burst
+			assertEquals(0, shaper.reserve(PartitionKey.of("a"), 200 * 1024));
+			long delay = shaper.reserve(PartitionKey.of("b"), 200 * 1024);
+			assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(50));
+			assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(100));
+		} finally {
+			shaper.close();
+		}
+	}
+
+	@Test
+	public void testDelayedSendsComplete() throws Exception {
+		ShardShaper shaper = new ShardShaper(1000, 0, 10_000);
+
+		ListenableFuture<Object> failing = shaper.schedule(() -> {
+			throw new IllegalStateException("sink is closed");
+		}, 0);
+		ListenableFuture<Object> pending = shaper.schedule(() -> {
+			throw new AssertionError("sent after close");
+		}, TimeUnit.HOURS.toNanos(1));
+		shaper.close(100, TimeUnit.MILLISECONDS);
+
+		assertFailed(failing);
+		assertFailed(pending);
+		assertFailed(shaper.schedule(() -> null, 0));
+	}
+
+	private static void assertFailed(ListenableFuture<?> f) throws InterruptedException {
+		assertTrue(f.isDone());
+		try {
+			f.get();
+			fail();
+		} catch (ExecutionException | CancellationException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class SnapshotTest {
+
+	@Test
+	public void testWriteAndReplay() throws Exception {
+		Path file = Files.createTempFile("snapshot", ".bin");
+		try {
+			// events arrive out of order and are sorted across several runs
+			try (SnapshotWriter writer = new SnapshotWriter(file, 3)) {
+				for (int i = 0; i < 10; i++) {
+					long t = (i * 7) % 10;
+					writer.write(new JsonEvent("{\"id\":" + t + "}", Instant.ofEpochSecond(t), Instant.EPOCH));
+				}
+			}
+
+			SnapshotReader reader = new SnapshotReader(file, 1);
+			assertEquals(10, reader.size());
+			for (int i = 0; i < 10; i++) {
+				JsonEvent event = reader.next();
+				assertEquals(Instant.ofEpochSecond(i), event.timestamp);
+				assertEquals("{\"id\":" + i + "}\n", event.toString());
+			}
+			assertFalse(reader.hasNext());
+
+			reader = new SnapshotReader(file, 1);
+			reader.seek(Instant.ofEpochSecond(7));
+			assertEquals("{\"id\":7}\n", reader.next().toString());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
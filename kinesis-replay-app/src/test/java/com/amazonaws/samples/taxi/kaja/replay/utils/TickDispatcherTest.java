@@ -0,0 +1,84 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+public class TickDispatcherTest {
+
+	@Test
+	public void testBatchesByTick() throws Exception {
+		long tickMillis = 50;
+		long start = (System.currentTimeMillis() / tickMillis + 2) * tickMillis;
+
+		// 5 ticks with 10 events each
+		List<JsonEvent> events = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Instant ingestionTime = Instant.ofEpochMilli(start + (i / 10) * tickMillis + i % 10);
+			events.add(new JsonEvent("{\"id\":" + i + "}", ingestionTime, ingestionTime));
+		}
+
+		EventBuffer buffer = new EventBuffer(IteratorEventSource.of(events), 100, 4096, 1);
+		buffer.start();
+		buffer.fill();
+
+		TickDispatcher dispatcher = new TickDispatcher(buffer, tickMillis, 100);
+		for (int tick = 0; tick < 5; tick++) {
+			List<JsonEvent> batch = dispatcher.nextBatch();
+			long released = System.currentTimeMillis();
+
+			assertEquals(10, batch.size());
+			assertTrue(released >= start + tick * tickMillis);
+			for (int i = 0; i < 10; i++) {
+				assertEquals("{\"id\":" + (tick * 10 + i) + "}\n", batch.get(i).toString());
+			}
+		}
+		assertNull(dispatcher.nextBatch());
+	}
+
+	@Test
+	public void testMaxBatchSize() throws Exception {
+		List<JsonEvent> events = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			events.add(new JsonEvent("{}", Instant.EPOCH, Instant.EPOCH));
+		}
+
+		EventBuffer buffer = new EventBuffer(IteratorEventSource.of(events), 100, 4096, 1);
+		buffer.start();
+		buffer.fill();
+
+		TickDispatcher dispatcher = new TickDispatcher(buffer, 1000, 10);
+		assertEquals(10, dispatcher.nextBatch().size());
+		assertEquals(10, dispatcher.nextBatch().size());
+		assertEquals(5, dispatcher.nextBatch().size());
+		assertNull(dispatcher.nextBatch());
+	}
+
+	@Test
+	public void testUnthrottled() throws Exception {
+		// ingestion times far in the future don't hold back an unthrottled dispatcher
+		Instant future = Instant.now().plusSeconds(3600);
+		List<JsonEvent> events = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			events.add(new JsonEvent("{}", future.plusSeconds(i), future.plusSeconds(i)));
+		}
+
+		EventBuffer buffer = new EventBuffer(IteratorEventSource.of(events), 100, 4096, 1);
+		buffer.start();
+		buffer.fill();
+
+		TickDispatcher dispatcher = new TickDispatcher(buffer, 1, 20, true);
+		assertEquals(20, dispatcher.nextBatch().size());
+		assertEquals(5, dispatcher.nextBatch().size());
+		assertNull(dispatcher.nextBatch());
+		assertEquals(0, dispatcher.getLag().toMillis());
+	}
+}
@@ -0,0 +1,148 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+
+public class TimeIndexTest {
+	private static final String KEY = "trip data/yellow_tripdata_2019-01.csv";
+
+	/** 1000 rows, a minute apart but shuffled within blocks of 7 rows. */
+	private static byte[] csv() {
+		StringBuilder csv = new StringBuilder("VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,passenger_count\r\n");
+		for (int i = 0; i < 1000; i++) {
+			int minute = (i / 7) * 7 + (6 - i % 7);
+			csv.append("1,").append(datetime(minute)).append(',').append(datetime(minute + 10)).append(",1\r\n");
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String datetime(int minute) {
+		return String.format("2019-01-%02d %02d:%02d:00", 1 + minute / 1440, minute / 60 % 24, minute % 60);
+	}
+
+	private static long millis(int minute) {
+		return DateTimeCodec.DATETIME.parse(datetime(minute));
+	}
+
+	private static S3Client s3(byte[] data) {
+		return new S3Client() {
+			@Override
+			public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+				return ListObjectsV2Response.builder().contents(S3Object.builder().key(KEY).size((long)data.length).build()).build();
+			}
+
+			@Override
+			public ListObjectsV2Iterable listObjectsV2Paginator(ListObjectsV2Request request) {
+				return new ListObjectsV2Iterable(this, request);
+			}
+
+			@Override
+			public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+				int start = request.range() == null ? 0 : Integer.parseInt(request.range().substring("bytes=".length(), request.range().length() - 1));
+				return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+					AbortableInputStream.create(new ByteArrayInputStream(data, start, data.length - start)));
+			}
+
+			@Override
+			public String serviceName() {
+				return "s3";
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Test
+	public void testOffsets() throws Exception {
+		byte[] data = csv();
+		ObjectIndex index = ObjectIndex.build(KEY, new ByteArrayInputStream(data), "pickup_datetime", 10);
+
+		assertEquals(data.length, index.getSize());
+		assertEquals(100, index.getOffsets().length);
+		assertEquals(millis(0), index.getMinTimestamp());
+		assertEquals(millis(1000 / 7 * 7 + 6), index.getMaxTimestamp());
+		assertEquals("VendorID,tpep_pickup_datetime,tpep_dropoff_datetime,passenger_count", index.getHeader());
+
+		for (int minute = 0; minute < 1010; minute += 3) {
+			long offset = index.offsetOf(millis(minute));
+			assertTrue(offset == data.length || offset == 0 || data[(int)offset - 1] == '\n');
+
+			// no row before the offset is at or after the timestamp
+			String skipped = new String(data, 0, (int)offset, StandardCharsets.UTF_8);
+			for (int later = minute; later < minute + 20; later++) {
+				assertTrue(!skipped.contains("1," + datetime(later) + ","));
+			}
+			// at most a sample and a block of rows are read in vain
+			assertTrue(minute > 994 || offset >= data.length * (minute - 17) / 1000 - 100);
+		}
+	}
+
+	@Test
+	public void testSeekAndPersist() throws Exception {
+		byte[] data = csv();
+		S3Client s3 = s3(data);
+
+		Path file = Files.createTempFile("index", ".tsv");
+		try {
+			TimeIndex.build(new ObjectDownloader(s3), "bucket", "trip data/", "pickup_datetime", 50).write(file);
+			TimeIndex timeIndex = TimeIndex.read(file);
+
+			ObjectIndex index = timeIndex.get(S3Object.builder().key(KEY).size((long)data.length).build());
+			assertNotNull(index);
+			assertEquals(20, index.getOffsets().length);
+			assertNull(timeIndex.get(S3Object.builder().key(KEY).size(1L).build()));
+
+			Instant seek = Instant.ofEpochMilli(millis(500));
+			List<Instant> expected = read(new EventReader(s3, "bucket", "trip data/", 3600, "pickup_datetime"), seek);
+
+			EventReader indexed = new EventReader(s3, "bucket", "trip data/", 3600, "pickup_datetime");
+			indexed.setTimeIndex(timeIndex);
+			assertEquals(expected, read(indexed, seek));
+			assertTrue(expected.size() < 510);
+
+			// resuming at a checkpoint seeks with the index as well
+			new ReplayCheckpoint(seek).write(file);
+			assertEquals(seek, ReplayCheckpoint.read(file).timestamp);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static List<Instant> read(EventReader reader, Instant seek) {
+		reader.seek(seek);
+
+		List<Instant> timestamps = new ArrayList<>();
+		while (reader.hasNext()) {
+			JsonEvent event = reader.next();
+			timestamps.add(event.timestamp);
+		}
+		reader.close();
+		return timestamps;
+	}
+}
@@ -0,0 +1,89 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+import com.amazonaws.samples.taxi.kaja.replay.events.JsonEvent;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class TimestampTrackerTest {
+
+	private static JsonEvent event(long t) {
+		return new JsonEvent("{}", Instant.ofEpochSecond(t), Instant.EPOCH);
+	}
+
+	private static UserRecordResult sent(String shardId) {
+		return new UserRecordResult(Collections.emptyList(), "0", shardId, true);
+	}
+
+	@Test
+	public void testOutOfOrderCompletion() {
+		TimestampTracker tracker = new TimestampTracker(4);
+
+		SettableFuture<UserRecordResult> f0 = SettableFuture.create();
+		SettableFuture<UserRecordResult> f1 = SettableFuture.create();
+		SettableFuture<UserRecordResult> f2 = SettableFuture.create();
+		tracker.trackTimestamp(f0, event(10), tracker.nextSequence());
+		tracker.trackTimestamp(f1, event(11), tracker.nextSequence());
+		tracker.trackTimestamp(f2, event(12), tracker.nextSequence());
+
+		// later events don't advance the watermark while an earlier one is in flight
+		f2.set(sent("shard-b"));
+		f1.set(sent("shard-a"));
+		assertEquals(Instant.EPOCH, tracker.getWatermark("shard-a"));
+		assertEquals(0, tracker.getLowWaterMark());
+		assertEquals(Long.MIN_VALUE, tracker.getCompletedTimestamp());
+
+		f0.setException(new RuntimeException("dropped"));
+		assertEquals(3, tracker.getLowWaterMark());
+		assertEquals(Instant.ofEpochSecond(11), tracker.getWatermark("shard-a"));
+		assertEquals(Instant.ofEpochSecond(12), tracker.getWatermark("shard-b"));
+		assertEquals(Instant.ofEpochSecond(11), tracker.getMinWatermark(Arrays.asList("shard-a", "shard-b", "shard-c")));
+		assertEquals(12_000, tracker.getCompletedTimestamp());
+	}
+
+	@Test
+	public void testConcurrentCompletion() throws Exception {
+		TimestampTracker tracker = new TimestampTracker(1024);
+
+		int events = 100_000;
+		int threads = 4;
+		AtomicReferenceArray<SettableFuture<UserRecordResult>> futures = new AtomicReferenceArray<>(events);
+
+		Thread[] completers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int offset = t;
+			completers[t] = new Thread(() -> {
+				for (int i = offset; i < events; i += threads) {
+					while (futures.get(i) == null) {
+						Thread.onSpinWait();
+					}
+					futures.get(i).set(sent("shard-" + offset));
+				}
+			});
+			completers[t].start();
+		}
+
+		// the ring is much smaller than the number of events, so the dispatcher has to wait for completions
+		for (int i = 0; i < events; i++) {
+			SettableFuture<UserRecordResult> f = SettableFuture.create();
+			tracker.trackTimestamp(f, event(i), tracker.nextSequence());
+			futures.set(i, f);
+		}
+		for (Thread t : completers) {
+			t.join();
+		}
+
+		assertEquals(events, tracker.getLowWaterMark());
+		for (int t = 0; t < threads; t++) {
+			assertEquals(Instant.ofEpochSecond(events - threads + t), tracker.getWatermark("shard-" + t));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.amazonaws.samples.taxi.kaja.replay.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+public class WatermarkEmitterTest {
+
+	/**
+	 * Throttles every record on its first attempt if the hash key is odd, counts the attempts per hash key.
+	 */
+	private static class ThrottlingClient implements KinesisAsyncClient {
+		final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+		final List<Integer> requestSizes = new ArrayList<>();
+
+		@Override
+		public synchronized CompletableFuture<PutRecordsResponse> putRecords(PutRecordsRequest request) {
+			requestSizes.add(request.records().size());
+
+			List<PutRecordsResultEntry> results = new ArrayList<>();
+			int failed = 0;
+			for (PutRecordsRequestEntry entry : request.records()) {
+				int n = attempts.computeIfAbsent(entry.explicitHashKey(), k -> new AtomicInteger()).incrementAndGet();
+				if (n == 1 && Integer.parseInt(entry.explicitHashKey()) % 2 == 1) {
+					results.add(PutRecordsResultEntry.builder().errorCode("ProvisionedThroughputExceededException").build());
+					failed++;
+				} else {
+					results.add(PutRecordsResultEntry.builder().shardId("shard").sequenceNumber("1").build());
+				}
+			}
+			return CompletableFuture.completedFuture(PutRecordsResponse.builder().records(results).failedRecordCount(failed).build());
+		}
+
+		@Override
+		public String serviceName() {
+			return "kinesis";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Test
+	public void testRetryFailedShardsOnly() throws Exception {
+		List<Shard> shards = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			shards.add(Shard.builder().shardId("shard-" + i).hashKeyRange(HashKeyRange.builder().startingHashKey(Integer.toString(i)).build()).build());
+		}
+
+		ThrottlingClient client = new ThrottlingClient();
+		WatermarkEmitter emitter = new WatermarkEmitter(client, "stream", 3, 1);
+		try {
+			int sent = emitter.emit(shards, shard -> SdkBytes.fromUtf8String(shard.shardId())).get(10, TimeUnit.SECONDS);
+			assertEquals(1200, sent);
+		} finally {
+			emitter.shutdown();
+		}
+
+		// 3 batches of at most 500 records, then one retry of the odd shards of every batch
+		assertEquals(6, client.requestSizes.size());
+		assertEquals(1200 + 600, client.requestSizes.stream().mapToInt(Integer::intValue).sum());
+		assertTrue(client.requestSizes.stream().allMatch(n -> n <= WatermarkEmitter.MAX_RECORDS_PER_REQUEST));
+		for (Map.Entry<String, AtomicInteger> en : client.attempts.entrySet()) {
+			assertEquals(Integer.parseInt(en.getKey()) % 2 == 1 ? 2 : 1, en.getValue().get());
+		}
+	}
+}
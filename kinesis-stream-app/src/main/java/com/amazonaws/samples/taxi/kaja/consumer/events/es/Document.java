@@ -18,8 +18,7 @@ package com.amazonaws.samples.taxi.kaja.consumer.events.es;
 import java.lang.reflect.Type;
 import java.time.Instant;
 
-import org.apache.commons.lang3.time.FastDateFormat;
-
+import com.amazonaws.samples.taxi.kaja.consumer.utils.DateTimeCodec;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -29,14 +28,12 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
 public abstract class Document {
-	public final static FastDateFormat TIMESTAMP_FMT = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss");
-	
 	private static final Gson gson = new GsonBuilder()
 		.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
 		.registerTypeAdapter(Instant.class, new JsonSerializer<Instant>() {
 			@Override
 			public JsonElement serialize(Instant src, Type typeOfSrc, JsonSerializationContext context) {
-				return new JsonPrimitive(TIMESTAMP_FMT.format(src.toEpochMilli()));
+				return new JsonPrimitive(DateTimeCodec.ISO_DATETIME.format(src.toEpochMilli()));
 			}
 		})
 		.create();
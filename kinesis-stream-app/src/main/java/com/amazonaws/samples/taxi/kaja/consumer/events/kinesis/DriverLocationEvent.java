@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"). You may
+ * not use this file except in compliance with the License. A copy of the
+ * License is located at
+ *
+ *    http://aws.amazon.com/apache2.0/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.samples.taxi.kaja.consumer.events.kinesis;
+
+import java.util.Date;
+
+/**
+ * A position report of a simulated driver, sent by the replay every few seconds while the driver is on shift.
+ */
+public class DriverLocationEvent extends Event {
+	public long driverId;
+	public double latitude;
+	public double longitude;
+	public int locationId;
+	public String status;
+	public Date timestamp;
+
+	public DriverLocationEvent() {
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp == null ? 0 : timestamp.getTime();
+	}
+
+	@Override
+	public String toString() {
+		return "DriverLocationEvent{" +
+				"driverId=" + driverId +
+				", timestamp=" + timestamp +
+				", latitude=" + latitude +
+				", longitude=" + longitude +
+				", locationId=" + locationId +
+				", status=" + status +
+				'}';
+	}
+}
@@ -20,8 +20,7 @@ import java.io.InputStreamReader;
 import java.time.Instant;
 import java.util.Date;
 
-import org.apache.commons.lang3.time.FastDateFormat;
-
+import com.amazonaws.samples.taxi.kaja.consumer.utils.DateTimeCodec;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -31,8 +30,6 @@ import com.google.gson.internal.Streams;
 import com.google.gson.stream.JsonReader;
 
 public abstract class Event {
-	public final static FastDateFormat FMT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss");
-
 	private static final String TYPE_FIELD = "type";
 
 	private static final Gson gson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
@@ -41,11 +38,8 @@ public abstract class Event {
 		.create();
 
 	public static Date parseDate(String s) {
-		try {
-			return FMT.parse(s);
-		} catch (Exception e) {
-			return null;
-		}
+		long millis = DateTimeCodec.DATETIME.parse(s);
+		return millis == DateTimeCodec.INVALID ? null : new Date(millis);
 	}
 
 	public static Event parseEvent(byte[] event) {
@@ -71,6 +65,8 @@ public abstract class Event {
 			TripEvent te = gson.fromJson(jsonElement, TripEvent.class);
 			te.normalize();
 			return te;
+		case "driver_location":
+			return gson.fromJson(jsonElement, DriverLocationEvent.class);
 		default:
 			throw new IllegalArgumentException("Found unsupported event type: " + dataType.getAsString());
 		}
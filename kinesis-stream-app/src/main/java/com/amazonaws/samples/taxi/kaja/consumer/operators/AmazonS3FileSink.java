@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.flink.api.common.serialization.Encoder;
 import org.apache.flink.core.fs.Path;
 import org.apache.flink.streaming.api.functions.sink.filesystem.OutputFileConfig;
@@ -28,10 +27,9 @@ import org.apache.flink.streaming.api.functions.sink.filesystem.bucketassigners.
 import org.apache.flink.streaming.api.functions.sink.filesystem.rollingpolicies.DefaultRollingPolicy;
 
 import com.amazonaws.samples.taxi.kaja.consumer.events.es.TripDocument;
+import com.amazonaws.samples.taxi.kaja.consumer.utils.DateTimeCodec;
 
 public class AmazonS3FileSink {
-	public final static FastDateFormat TIMESTAMP_FMT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss");
-
 	public static StreamingFileSink<TripDocument> buildS3FileSink(String s3SinkPath) {
 		final StreamingFileSink<TripDocument> sink = StreamingFileSink
 			.forRowFormat(new Path(s3SinkPath), new TripDocumentToCsvEncoder())
@@ -47,9 +45,14 @@ public class AmazonS3FileSink {
 	public static class TripDocumentToCsvEncoder implements Encoder<TripDocument> {
 		private static final long serialVersionUID = 1L;
 
+		private transient byte[] timestamp;
+
 		@Override
 		public void encode(TripDocument td, OutputStream stream) throws IOException {
-			stream.write(TIMESTAMP_FMT.format(td.timestamp.toEpochMilli()).getBytes());
+			if (timestamp == null) {
+				timestamp = new byte[DateTimeCodec.LENGTH];
+			}
+			stream.write(timestamp, 0, DateTimeCodec.DATETIME.format(td.timestamp.toEpochMilli(), timestamp, 0));
 			stream.write(',');
 			stream.write(td.geohash.getBytes());
 			stream.write(',');